@@ -0,0 +1,77 @@
+package net.unit8.spring.idempotency.benchmark;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A broker stand-in with at-least-once delivery.
+ *
+ * <p>Some messages are delivered twice, and the second delivery is delayed by a few batches,
+ * as a broker redelivers a message whose acknowledgement has been lost.</p>
+ */
+public class InMemoryBroker {
+    private final BlockingQueue<Message<?>> queue;
+
+    public InMemoryBroker(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Publish the messages with unique keys, and redeliver some of them.
+     *
+     * @return the number of deliveries
+     */
+    public int publish(String headerName, int messages, double redeliveryRate, int redeliveryDelay, long seed)
+            throws InterruptedException {
+        Random random = new Random(seed);
+        List<Message<?>> redeliveries = new ArrayList<>();
+        List<Integer> dueAt = new ArrayList<>();
+        int deliveries = 0;
+        for (int i = 0; i < messages; i++) {
+            Message<?> message = new GenericMessage<>(i, Map.of(headerName, "msg-" + seed + "-" + i));
+            queue.put(message);
+            deliveries++;
+            if (random.nextDouble() < redeliveryRate) {
+                redeliveries.add(message);
+                dueAt.add(i + 1 + random.nextInt(redeliveryDelay));
+            }
+            for (int j = redeliveries.size() - 1; j >= 0; j--) {
+                if (dueAt.get(j) <= i) {
+                    queue.put(redeliveries.remove(j));
+                    dueAt.remove(j);
+                    deliveries++;
+                }
+            }
+        }
+        for (Message<?> message : redeliveries) {
+            queue.put(message);
+            deliveries++;
+        }
+        return deliveries;
+    }
+
+    /**
+     * Wait for a message and take up to {@code maxMessages} messages.
+     *
+     * @return the batch, or an empty list if no message has arrived within the timeout
+     */
+    public List<Message<?>> poll(int maxMessages, Duration timeout) throws InterruptedException {
+        Message<?> first = queue.poll(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return List.of();
+        }
+        List<Message<?>> batch = new ArrayList<>(maxMessages);
+        batch.add(first);
+        queue.drainTo(batch, maxMessages - 1);
+        return batch;
+    }
+}
@@ -0,0 +1,170 @@
+package net.unit8.spring.idempotency.benchmark;
+
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import net.unit8.spring.idempotency.messaging.IdempotentBatchListener;
+import net.unit8.spring.idempotency.messaging.IdempotentMessageHandler;
+import net.unit8.spring.idempotency.messaging.MessageHeaderKeyExtractor;
+import net.unit8.spring.idempotency.storage.inmemory.InMemoryIdempotencyStore;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.messaging.Message;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Consumes messages from an in-memory broker through the idempotent consumers, once per store and mode,
+ * and reports the throughput and the number of store round trips.
+ *
+ * <p>The {@code handler} mode claims each message with {@link IdempotentMessageHandler}, and
+ * the {@code batch} mode claims each poll batch with {@link IdempotentBatchListener}.
+ * Every store call is delayed by the round trip time, so that the stores stand in for remote ones.</p>
+ *
+ * <p>Options (all optional):</p>
+ * <pre>
+ * --stores=inmemory,cache
+ * --modes=handler,batch
+ * --messages=100000
+ * --consumers=4
+ * --batch-size=100
+ * --redelivery-rate=0.05
+ * --round-trip=PT0.0002S
+ * </pre>
+ */
+public class MessagingBenchmarkMain {
+    private static final String HEADER_NAME = MessageHeaderKeyExtractor.DEFAULT_HEADER_NAME;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        List<String> stores = Arrays.asList(options.getOrDefault("stores", "inmemory,cache").split(","));
+        List<String> modes = Arrays.asList(options.getOrDefault("modes", "handler,batch").split(","));
+        int messages = Integer.parseInt(options.getOrDefault("messages", "100000"));
+        int consumers = Integer.parseInt(options.getOrDefault("consumers", "4"));
+        int batchSize = Integer.parseInt(options.getOrDefault("batch-size", "100"));
+        double redeliveryRate = Double.parseDouble(options.getOrDefault("redelivery-rate", "0.05"));
+        Duration roundTrip = Duration.parse(options.getOrDefault("round-trip", "PT0.0002S"));
+
+        List<Result> results = new ArrayList<>();
+        long seed = 0;
+        for (String store : stores) {
+            for (String mode : modes) {
+                RemoteStore remoteStore = new RemoteStore(createStore(store), roundTrip);
+                System.err.printf("[%s/%s] consuming %d messages with %d consumers%n", store, mode, messages, consumers);
+                results.add(run(store, mode, remoteStore, messages, consumers, batchSize, redeliveryRate, seed++));
+            }
+        }
+        report(System.out, results);
+    }
+
+    static IdempotencyKeyStore createStore(String name) throws Exception {
+        switch (name) {
+            case "inmemory" -> {
+                InMemoryIdempotencyStore store = new InMemoryIdempotencyStore();
+                store.afterPropertiesSet();
+                return store;
+            }
+            case "cache" -> {
+                return new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager());
+            }
+            default -> throw new IllegalArgumentException("Unknown store: " + name);
+        }
+    }
+
+    static Result run(String store, String mode, RemoteStore remoteStore, int messages, int consumers,
+                      int batchSize, double redeliveryRate, long seed) throws Exception {
+        InMemoryBroker broker = new InMemoryBroker(batchSize * consumers * 4);
+        Set<Object> processedKeys = ConcurrentHashMap.newKeySet();
+        LongAdder processed = new LongAdder();
+        LongAdder reprocessed = new LongAdder();
+        LongAdder skipped = new LongAdder();
+        Consumer<Message<?>> process = message -> {
+            processed.increment();
+            if (!processedKeys.add(message.getHeaders().get(HEADER_NAME))) {
+                reprocessed.increment();
+            }
+        };
+        Consumer<List<Message<?>>> consumer = consumer(mode, remoteStore, process, skipped);
+
+        AtomicLong deliveries = new AtomicLong(-1);
+        CountDownLatch done = new CountDownLatch(consumers);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < consumers; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (deliveries.get() < 0 || processed.sum() + skipped.sum() < deliveries.get()) {
+                        List<Message<?>> batch = broker.poll(batchSize, Duration.ofMillis(10));
+                        if (!batch.isEmpty()) {
+                            consumer.accept(batch);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "consumer-" + i);
+            threads.add(thread);
+        }
+
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        deliveries.set(broker.publish(HEADER_NAME, messages, redeliveryRate, batchSize * consumers * 2, seed));
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        return new Result(store, mode, deliveries.get(), processed.sum(), skipped.sum(), reprocessed.sum(),
+                remoteStore.calls(), elapsed);
+    }
+
+    private static Consumer<List<Message<?>>> consumer(String mode, IdempotencyKeyStore store,
+                                                       Consumer<Message<?>> process, LongAdder skipped) {
+        switch (mode) {
+            case "handler" -> {
+                IdempotentMessageHandler handler = new IdempotentMessageHandler(store, process::accept);
+                handler.setDuplicateHandler((message, entry) -> skipped.increment());
+                return batch -> batch.forEach(handler::handleMessage);
+            }
+            case "batch" -> {
+                IdempotentBatchListener<Message<?>> listener = new IdempotentBatchListener<>(store,
+                        new MessageHeaderKeyExtractor(), batch -> batch.forEach(process));
+                listener.setDuplicateHandler((message, entry) -> skipped.increment());
+                return listener;
+            }
+            default -> throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+    }
+
+    static void report(PrintStream out, List<Result> results) {
+        out.printf("%-10s %-8s %10s %10s %10s %12s %12s %12s%n",
+                "store", "mode", "delivered", "processed", "skipped", "reprocessed", "store calls", "msg/s");
+        for (Result result : results) {
+            out.printf("%-10s %-8s %10d %10d %10d %12d %12d %12.0f%n",
+                    result.store(), result.mode(), result.deliveries(), result.processed(), result.skipped(),
+                    result.reprocessed(), result.storeCalls(), result.throughput());
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Illegal option: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    record Result(String store, String mode, long deliveries, long processed, long skipped, long reprocessed,
+                  long storeCalls, long elapsedNanos) {
+        double throughput() {
+            return deliveries * 1e9 / elapsedNanos;
+        }
+    }
+}
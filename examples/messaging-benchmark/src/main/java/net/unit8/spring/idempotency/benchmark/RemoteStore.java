@@ -0,0 +1,87 @@
+package net.unit8.spring.idempotency.benchmark;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Adds a round trip time to every call of the delegate, as a store on the network would.
+ * A batch call costs one round trip.
+ */
+public class RemoteStore implements IdempotencyKeyStore {
+    private final IdempotencyKeyStore delegate;
+    private final long roundTripNanos;
+    private final LongAdder calls = new LongAdder();
+
+    public RemoteStore(IdempotencyKeyStore delegate, Duration roundTrip) {
+        this.delegate = delegate;
+        this.roundTripNanos = roundTrip.toNanos();
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    private void roundTrip() {
+        calls.increment();
+        if (roundTripNanos > 0) {
+            LockSupport.parkNanos(roundTripNanos);
+        }
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey) {
+        return getAndSet(idempotencyKey, null);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        roundTrip();
+        return delegate.getAndSet(idempotencyKey, expiry);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry) {
+        save(entry, null);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry, Duration expiry) {
+        roundTrip();
+        delegate.save(entry, expiry);
+    }
+
+    @Override
+    public boolean supportsEntryExpiry() {
+        return delegate.supportsEntryExpiry();
+    }
+
+    @Override
+    public void delete(String idempotencyKey) {
+        roundTrip();
+        delegate.delete(idempotencyKey);
+    }
+
+    @Override
+    public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        roundTrip();
+        return delegate.getAndSetAll(idempotencyKeys, expiry);
+    }
+
+    @Override
+    public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        roundTrip();
+        delegate.saveAll(entries, expiry);
+    }
+
+    @Override
+    public void deleteAll(Collection<String> idempotencyKeys) {
+        roundTrip();
+        delegate.deleteAll(idempotencyKeys);
+    }
+}
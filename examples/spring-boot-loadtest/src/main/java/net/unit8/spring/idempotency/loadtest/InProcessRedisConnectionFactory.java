@@ -0,0 +1,129 @@
+package net.unit8.spring.idempotency.loadtest;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.connection.*;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process stand-in for a Redis server.
+ *
+ * <p>It implements the string and key commands used by
+ * {@link net.unit8.spring.idempotency.storage.redis.RedisInboundIdempotency}
+ * on a {@link ConcurrentHashMap}, so that the Redis store can be measured without a network hop.
+ * Other commands throw {@link InvalidDataAccessApiUsageException}.</p>
+ */
+public class InProcessRedisConnectionFactory implements RedisConnectionFactory {
+    private final ConcurrentHashMap<ByteBuffer, Value> data = new ConcurrentHashMap<>();
+
+    @Override
+    public RedisConnection getConnection() {
+        return (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RedisConnection.class},
+                (proxy, method, args) -> invoke(proxy, method, args));
+    }
+
+    private Object invoke(Object proxy, Method method, Object[] args) {
+        long now = System.currentTimeMillis();
+        switch (method.getName()) {
+            case "get":
+                return getValue((byte[]) args[0], now);
+            case "setNX":
+                return setIfAbsent((byte[]) args[0], (byte[]) args[1], -1L, now);
+            case "set":
+                if (args.length == 2) {
+                    data.put(ByteBuffer.wrap((byte[]) args[0]), new Value((byte[]) args[1], -1L));
+                    return true;
+                }
+                Expiration expiration = (Expiration) args[2];
+                long expiresAt = expiration.isPersistent() ? -1L
+                        : now + expiration.getConverted(TimeUnit.MILLISECONDS);
+                if (args[3] == RedisStringCommands.SetOption.SET_IF_ABSENT) {
+                    return setIfAbsent((byte[]) args[0], (byte[]) args[1], expiresAt, now);
+                }
+                data.put(ByteBuffer.wrap((byte[]) args[0]), new Value((byte[]) args[1], expiresAt));
+                return true;
+            case "setEx":
+                data.put(ByteBuffer.wrap((byte[]) args[0]),
+                        new Value((byte[]) args[2], now + TimeUnit.SECONDS.toMillis((long) args[1])));
+                return true;
+            case "pSetEx":
+                data.put(ByteBuffer.wrap((byte[]) args[0]), new Value((byte[]) args[2], now + (long) args[1]));
+                return true;
+            case "del":
+                long deleted = 0;
+                for (byte[] key : (byte[][]) args[0]) {
+                    if (data.remove(ByteBuffer.wrap(key)) != null) {
+                        deleted++;
+                    }
+                }
+                return deleted;
+            case "stringCommands":
+            case "keyCommands":
+                return proxy;
+            case "isPipelined":
+            case "isQueueing":
+            case "isClosed":
+                return false;
+            case "close":
+            case "getNativeConnection":
+                return null;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "InProcessRedisConnection";
+            default:
+                throw new InvalidDataAccessApiUsageException("Unsupported command: " + method.getName());
+        }
+    }
+
+    private byte[] getValue(byte[] key, long now) {
+        ByteBuffer k = ByteBuffer.wrap(key);
+        Value value = data.get(k);
+        if (value != null && value.isExpired(now)) {
+            data.remove(k, value);
+            return null;
+        }
+        return value != null ? value.bytes() : null;
+    }
+
+    private boolean setIfAbsent(byte[] key, byte[] bytes, long expiresAt, long now) {
+        Value newValue = new Value(bytes, expiresAt);
+        return data.compute(ByteBuffer.wrap(key),
+                (k, current) -> current == null || current.isExpired(now) ? newValue : current) == newValue;
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        throw new InvalidDataAccessApiUsageException("Cluster is not supported");
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return true;
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        throw new InvalidDataAccessApiUsageException("Sentinel is not supported");
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return null;
+    }
+
+    private record Value(byte[] bytes, long expiresAt) {
+        boolean isExpired(long now) {
+            return expiresAt >= 0 && now >= expiresAt;
+        }
+    }
+}
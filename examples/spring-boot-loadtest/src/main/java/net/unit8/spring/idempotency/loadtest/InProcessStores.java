@@ -0,0 +1,84 @@
+package net.unit8.spring.idempotency.loadtest;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import net.unit8.spring.idempotency.storage.infinispan.InfinispanIdempotencyStore;
+import net.unit8.spring.idempotency.storage.inmemory.InMemoryIdempotencyStore;
+import net.unit8.spring.idempotency.storage.jdbc.JdbcIdempotencyStore;
+import net.unit8.spring.idempotency.storage.redis.RedisInboundIdempotency;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates every {@link IdempotencyKeyStore} implementation backed by an in-process stand-in
+ * of its external system, and releases the stand-ins on shutdown.
+ *
+ * <p>The stores are returned uninitialized, because they are exposed as beans and the container
+ * calls their {@code afterPropertiesSet} and {@code destroy}.</p>
+ */
+public class InProcessStores implements DisposableBean {
+    public static final List<String> NAMES = List.of("inmemory", "cache", "jdbc", "infinispan", "redis");
+    private static final Duration EXPIRY = Duration.ofHours(1);
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    public IdempotencyKeyStore create(String name) throws Exception {
+        switch (name) {
+            case "inmemory": {
+                InMemoryIdempotencyStore store = new InMemoryIdempotencyStore();
+                store.setExpiry(EXPIRY);
+                return store;
+            }
+            case "cache":
+                return new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager());
+            case "jdbc": {
+                EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                        .generateUniqueName(true)
+                        .setType(EmbeddedDatabaseType.H2)
+                        .addScript("classpath:net/unit8/spring/idempotency/storage/jdbc/schema-h2.sql")
+                        .build();
+                resources.add(database::shutdown);
+                JdbcIdempotencyStore store = new JdbcIdempotencyStore(database);
+                store.setExpiry(EXPIRY);
+                return store;
+            }
+            case "infinispan": {
+                DefaultCacheManager cacheManager = new DefaultCacheManager();
+                resources.add(cacheManager);
+                cacheManager.defineConfiguration("idempotency", new ConfigurationBuilder().build());
+                Cache<String, IdempotencyEntry> cache = cacheManager.getCache("idempotency");
+                InfinispanIdempotencyStore store = new InfinispanIdempotencyStore(cache);
+                store.setExpiry(EXPIRY);
+                return store;
+            }
+            case "redis": {
+                StringRedisTemplate redisTemplate = new StringRedisTemplate(new InProcessRedisConnectionFactory());
+                RedisInboundIdempotency store = new RedisInboundIdempotency(redisTemplate);
+                store.setExpiry(EXPIRY);
+                return store;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown store: " + name + ", available stores are " + NAMES);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+        resources.clear();
+    }
+}
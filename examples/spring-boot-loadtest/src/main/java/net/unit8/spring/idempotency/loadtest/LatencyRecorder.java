@@ -0,0 +1,64 @@
+package net.unit8.spring.idempotency.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Records latencies of a single worker thread. Recorders are merged after the run.
+ */
+public class LatencyRecorder {
+    private long[] latencies = new long[1024];
+    private int size;
+
+    public void record(long latencyNanos) {
+        if (size == latencies.length) {
+            latencies = Arrays.copyOf(latencies, size * 2);
+        }
+        latencies[size++] = latencyNanos;
+    }
+
+    public int count() {
+        return size;
+    }
+
+    public static Percentiles merge(Iterable<LatencyRecorder> recorders) {
+        int total = 0;
+        for (LatencyRecorder recorder : recorders) {
+            total += recorder.size;
+        }
+        long[] merged = new long[total];
+        int offset = 0;
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.latencies, 0, merged, offset, recorder.size);
+            offset += recorder.size;
+        }
+        Arrays.sort(merged);
+        return new Percentiles(merged);
+    }
+
+    public static class Percentiles {
+        private final long[] sorted;
+
+        Percentiles(long[] sorted) {
+            this.sorted = sorted;
+        }
+
+        public int count() {
+            return sorted.length;
+        }
+
+        /**
+         * The latency at the given quantile in microseconds.
+         */
+        public long valueAt(double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000;
+        }
+
+        public long max() {
+            return sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1_000;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package net.unit8.spring.idempotency.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Drives a mix of idempotent requests against a running application from multiple threads.
+ */
+public class LoadGenerator implements AutoCloseable {
+    public enum Operation {
+        /** A request with a fresh key. */
+        FIRST,
+        /** A retry of a completed request with the same body. */
+        RETRY,
+        /** Concurrent requests with the same fresh key. */
+        DUPLICATE,
+        /** A retry of a completed request with a different body. */
+        MISMATCH
+    }
+
+    private static final int COMPLETED_POOL_SIZE = 4096;
+
+    private final ExecutorService httpExecutor;
+    private final HttpClient httpClient;
+    private final URI uri;
+    private final Map<Operation, Integer> mix;
+    private final int totalWeight;
+    private final int duplicates;
+    private final String padding;
+
+    private final AtomicReferenceArray<String[]> completed = new AtomicReferenceArray<>(COMPLETED_POOL_SIZE);
+    private final AtomicLong completedIndex = new AtomicLong();
+
+    public LoadGenerator(URI uri, Map<Operation, Integer> mix, int duplicates, int bodySize, int threads) {
+        this.httpExecutor = Executors.newFixedThreadPool(threads * Math.max(1, duplicates));
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(httpExecutor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.uri = uri;
+        this.mix = new EnumMap<>(mix);
+        this.totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        this.duplicates = duplicates;
+        this.padding = "x".repeat(Math.max(0, bodySize - 64));
+    }
+
+    /**
+     * Run the workload.
+     *
+     * @param threads the number of worker threads
+     * @param duration the duration of the run
+     * @return the result, or null if {@code record} is false
+     */
+    public Result run(int threads, Duration duration, boolean record) throws InterruptedException {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Worker> workers = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long started = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(deadline);
+            workers.add(worker);
+            executor.submit(worker);
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(duration.toMillis() + 60_000, TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - started;
+        return record ? new Result(workers, elapsed) : null;
+    }
+
+    @Override
+    public void close() {
+        httpExecutor.shutdownNow();
+    }
+
+    private Operation nextOperation(ThreadLocalRandom random) {
+        int n = random.nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> e : mix.entrySet()) {
+            n -= e.getValue();
+            if (n < 0) {
+                // Retries need a completed request
+                if ((e.getKey() == Operation.RETRY || e.getKey() == Operation.MISMATCH)
+                        && completedIndex.get() == 0) {
+                    return Operation.FIRST;
+                }
+                return e.getKey();
+            }
+        }
+        return Operation.FIRST;
+    }
+
+    private String body(ThreadLocalRandom random) {
+        return "{\"customerId\":\"C" + padding + "\",\"productId\":\"P" + random.nextInt(1000)
+                + "\",\"amount\":" + random.nextInt(1, 100) + "}";
+    }
+
+    private HttpRequest request(String key, String body) {
+        return HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", key)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private class Worker implements Runnable {
+        private final long deadline;
+        private final Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+        private final Map<Operation, Long> unexpected = new EnumMap<>(Operation.class);
+        private long errors;
+
+        Worker(long deadline) {
+            this.deadline = deadline;
+            for (Operation operation : Operation.values()) {
+                recorders.put(operation, new LatencyRecorder());
+                unexpected.put(operation, 0L);
+            }
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                Operation operation = nextOperation(random);
+                try {
+                    switch (operation) {
+                        case FIRST -> first(random);
+                        case RETRY -> retry(random, false);
+                        case MISMATCH -> retry(random, true);
+                        case DUPLICATE -> duplicate(random);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    errors++;
+                }
+            }
+        }
+
+        private void first(ThreadLocalRandom random) throws Exception {
+            String key = UUID.randomUUID().toString();
+            String body = body(random);
+            int status = send(Operation.FIRST, key, body);
+            if (status == 200) {
+                completed.set((int) (completedIndex.getAndIncrement() % COMPLETED_POOL_SIZE), new String[]{key, body});
+            } else {
+                unexpected.merge(Operation.FIRST, 1L, Long::sum);
+            }
+        }
+
+        private void retry(ThreadLocalRandom random, boolean mismatch) throws Exception {
+            long bound = Math.min(completedIndex.get(), COMPLETED_POOL_SIZE);
+            String[] request = bound > 0 ? completed.get((int) random.nextLong(bound)) : null;
+            if (request == null) {
+                return;
+            }
+            Operation operation = mismatch ? Operation.MISMATCH : Operation.RETRY;
+            int status = send(operation, request[0], mismatch ? body(random) + " " : request[1]);
+            if (status != (mismatch ? 422 : 200)) {
+                unexpected.merge(operation, 1L, Long::sum);
+            }
+        }
+
+        private void duplicate(ThreadLocalRandom random) throws Exception {
+            String key = UUID.randomUUID().toString();
+            String body = body(random);
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < duplicates; i++) {
+                long started = System.nanoTime();
+                futures.add(httpClient.sendAsync(request(key, body), HttpResponse.BodyHandlers.discarding())
+                        .thenApply(response -> {
+                            synchronized (recorders) {
+                                recorders.get(Operation.DUPLICATE).record(System.nanoTime() - started);
+                            }
+                            return response.statusCode();
+                        }));
+            }
+            int succeeded = 0;
+            boolean unexpectedStatus = false;
+            for (CompletableFuture<Integer> future : futures) {
+                int status = future.get();
+                if (status == 200) {
+                    succeeded++;
+                } else if (status != 409) {
+                    unexpectedStatus = true;
+                }
+            }
+            if (succeeded == 0 || unexpectedStatus) {
+                unexpected.merge(Operation.DUPLICATE, 1L, Long::sum);
+            }
+        }
+
+        private int send(Operation operation, String key, String body) throws Exception {
+            long started = System.nanoTime();
+            HttpResponse<Void> response = httpClient.send(request(key, body), HttpResponse.BodyHandlers.discarding());
+            recorders.get(operation).record(System.nanoTime() - started);
+            return response.statusCode();
+        }
+    }
+
+    public static class Result {
+        private final List<Worker> workers;
+        private final long elapsedNanos;
+
+        Result(List<Worker> workers, long elapsedNanos) {
+            this.workers = workers;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public LatencyRecorder.Percentiles percentiles(Operation operation) {
+            return LatencyRecorder.merge(workers.stream().map(w -> w.recorders.get(operation)).toList());
+        }
+
+        public LatencyRecorder.Percentiles overall() {
+            return LatencyRecorder.merge(workers.stream().flatMap(w -> w.recorders.values().stream()).toList());
+        }
+
+        public long unexpected(Operation operation) {
+            return workers.stream().mapToLong(w -> w.unexpected.get(operation)).sum();
+        }
+
+        public long errors() {
+            return workers.stream().mapToLong(w -> w.errors).sum();
+        }
+
+        public double throughput() {
+            long requests = workers.stream()
+                    .flatMap(w -> w.recorders.values().stream())
+                    .mapToLong(LatencyRecorder::count)
+                    .sum();
+            return requests * 1_000_000_000.0 / elapsedNanos;
+        }
+    }
+}
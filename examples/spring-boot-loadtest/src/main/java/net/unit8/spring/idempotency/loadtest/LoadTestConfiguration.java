@@ -0,0 +1,22 @@
+package net.unit8.spring.idempotency.loadtest;
+
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Replaces the example application's store by the one selected with {@code loadtest.store}.
+ */
+@Configuration
+public class LoadTestConfiguration {
+    @Bean
+    public InProcessStores inProcessStores() {
+        return new InProcessStores();
+    }
+
+    @Bean
+    public IdempotencyKeyStore idempotencyKeyStore(InProcessStores inProcessStores, Environment environment) throws Exception {
+        return inProcessStores.create(environment.getRequiredProperty("loadtest.store"));
+    }
+}
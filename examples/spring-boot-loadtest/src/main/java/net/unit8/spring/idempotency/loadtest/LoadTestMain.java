@@ -0,0 +1,110 @@
+package net.unit8.spring.idempotency.loadtest;
+
+import net.unit8.spring.idempotency.example.Main;
+import net.unit8.spring.idempotency.loadtest.LoadGenerator.Operation;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Runs the example application on embedded Tomcat once per {@link net.unit8.spring.idempotency.IdempotencyKeyStore}
+ * and reports the throughput and the latency percentiles of each operation.
+ *
+ * <p>Options (all optional):</p>
+ * <pre>
+ * --stores=inmemory,cache,jdbc,infinispan,redis
+ * --threads=16
+ * --duration=PT20S
+ * --warmup=PT5S
+ * --mix=first:70,retry:20,duplicate:5,mismatch:5
+ * --duplicates=3
+ * --body-size=256
+ * </pre>
+ */
+public class LoadTestMain {
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        List<String> stores = Arrays.asList(options.getOrDefault("stores", String.join(",", InProcessStores.NAMES)).split(","));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        Duration duration = Duration.parse(options.getOrDefault("duration", "PT20S"));
+        Duration warmup = Duration.parse(options.getOrDefault("warmup", "PT5S"));
+        Map<Operation, Integer> mix = parseMix(options.getOrDefault("mix", "first:70,retry:20,duplicate:5,mismatch:5"));
+        int duplicates = Integer.parseInt(options.getOrDefault("duplicates", "3"));
+        int bodySize = Integer.parseInt(options.getOrDefault("body-size", "256"));
+
+        Map<String, LoadGenerator.Result> results = new LinkedHashMap<>();
+        for (String store : stores) {
+            try (ConfigurableApplicationContext context = start(store);
+                 LoadGenerator generator = new LoadGenerator(
+                         URI.create("http://localhost:" + port(context) + "/orders"),
+                         mix, duplicates, bodySize, threads)) {
+                System.err.printf("[%s] warming up for %s%n", store, warmup);
+                generator.run(threads, warmup, false);
+                System.err.printf("[%s] measuring for %s with %d threads%n", store, duration, threads);
+                results.put(store, generator.run(threads, duration, true));
+            }
+        }
+        report(System.out, results);
+        System.exit(0);
+    }
+
+    static ConfigurableApplicationContext start(String store) {
+        return new SpringApplicationBuilder(Main.class, LoadTestConfiguration.class)
+                .properties(
+                        "server.port=0",
+                        "loadtest.store=" + store,
+                        "spring.main.allow-bean-definition-overriding=true",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN")
+                .run();
+    }
+
+    private static int port(ConfigurableApplicationContext context) {
+        return ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    static void report(PrintStream out, Map<String, LoadGenerator.Result> results) {
+        out.printf("%-12s %-10s %10s %10s %10s %10s %10s %10s%n",
+                "store", "operation", "count", "p50(us)", "p99(us)", "p999(us)", "max(us)", "unexpected");
+        results.forEach((store, result) -> {
+            for (Operation operation : Operation.values()) {
+                LatencyRecorder.Percentiles p = result.percentiles(operation);
+                out.printf("%-12s %-10s %10d %10d %10d %10d %10d %10d%n",
+                        store, operation.name().toLowerCase(Locale.ROOT), p.count(),
+                        p.valueAt(0.5), p.valueAt(0.99), p.valueAt(0.999), p.max(),
+                        result.unexpected(operation));
+            }
+            LatencyRecorder.Percentiles overall = result.overall();
+            out.printf("%-12s %-10s %10d %10d %10d %10d %10d %10s%n",
+                    store, "all", overall.count(),
+                    overall.valueAt(0.5), overall.valueAt(0.99), overall.valueAt(0.999), overall.max(), "-");
+            out.printf("%-12s throughput %.1f req/s, client errors %d%n%n", store, result.throughput(), result.errors());
+        });
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Illegal option: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String token : mix.split(",")) {
+            String[] kv = token.split(":", 2);
+            weights.put(Operation.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(kv[1].trim()));
+        }
+        return weights;
+    }
+}
@@ -2,6 +2,7 @@ package net.unit8.spring.idempotency.example.config;
 
 import net.unit8.spring.idempotency.IdempotencyKeyStore;
 import net.unit8.spring.idempotency.filter.IdempotencyFilter;
+import net.unit8.spring.idempotency.filter.policy.IdempotencyPolicyRegistry;
 import net.unit8.spring.idempotency.storage.inmemory.InMemoryIdempotencyStore;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
@@ -19,9 +20,16 @@ public class IdempotencyConfig {
     }
 
     @Bean
-    public IdempotencyFilter idempotencyFilter(IdempotencyKeyStore idempotencyKeyStore) {
+    public IdempotencyPolicyRegistry idempotencyPolicyRegistry() {
+        return new IdempotencyPolicyRegistry();
+    }
+
+    @Bean
+    public IdempotencyFilter idempotencyFilter(IdempotencyKeyStore idempotencyKeyStore,
+                                               IdempotencyPolicyRegistry idempotencyPolicyRegistry) {
         IdempotencyFilter filter = new IdempotencyFilter();
         filter.setIdempotencyKeyStore(idempotencyKeyStore);
+        filter.setIdempotencyPolicyRegistry(idempotencyPolicyRegistry);
         return filter;
     }
     @Bean
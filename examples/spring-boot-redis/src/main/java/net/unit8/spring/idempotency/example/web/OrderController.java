@@ -1,5 +1,6 @@
 package net.unit8.spring.idempotency.example.web;
 
+import net.unit8.spring.idempotency.filter.Idempotent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -12,6 +13,7 @@ import org.springframework.web.bind.annotation.RestController;
 public class OrderController {
     private static final Logger LOG = LoggerFactory.getLogger(OrderController.class);
     @PostMapping
+    @Idempotent(ttl = "PT1H")
     public void create(@RequestBody OrderForm form) {
         LOG.info("Create order: {}", form);
     }
@@ -0,0 +1,42 @@
+package net.unit8.spring.idempotency.example;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs on the JVM with {@code mvn test}, and as a native image with {@code mvn -PnativeTest test}.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class MainTests {
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Test
+    void replayAndMismatch() {
+        String key = UUID.randomUUID().toString();
+        ResponseEntity<String> first = post(key, "{\"customerId\":\"c1\",\"productId\":\"p1\",\"amount\":1}");
+        ResponseEntity<String> retry = post(key, "{\"customerId\":\"c1\",\"productId\":\"p1\",\"amount\":1}");
+        ResponseEntity<String> mismatch = post(key, "{\"customerId\":\"c1\",\"productId\":\"p1\",\"amount\":2}");
+
+        assertThat(first.getStatusCode().value()).isEqualTo(200);
+        assertThat(retry.getStatusCode().value()).isEqualTo(200);
+        assertThat(mismatch.getStatusCode().value()).isEqualTo(422);
+    }
+
+    private ResponseEntity<String> post(String key, String body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Idempotency-Key", key);
+        return restTemplate.postForEntity("/orders", new HttpEntity<>(body, headers), String.class);
+    }
+}
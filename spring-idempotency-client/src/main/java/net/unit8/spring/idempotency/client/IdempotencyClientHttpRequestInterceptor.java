@@ -0,0 +1,172 @@
+package net.unit8.spring.idempotency.client;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An interceptor of {@code RestTemplate} and {@code RestClient} that sends requests with an idempotency key,
+ * retries transient failures and hedges slow requests.
+ *
+ * <p>Retries and hedges call the execution again, so the interceptor must be the last one registered.
+ * Hedges run on a daemon thread pool unless an executor is given.</p>
+ *
+ * @author kawasima
+ * @see IdempotencyClientSupport
+ */
+public class IdempotencyClientHttpRequestInterceptor extends IdempotencyClientSupport
+        implements ClientHttpRequestInterceptor, DisposableBean {
+    private ExecutorService hedgeExecutor;
+    private boolean ownsHedgeExecutor;
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        if (!appliesTo(request.getMethod())) {
+            return execution.execute(request, body);
+        }
+        HttpHeaders headers = request.getHeaders();
+        if (!headers.containsKey(getIdempotencyKeyHeaderName())) {
+            headers.set(getIdempotencyKeyHeaderName(), generateIdempotencyKey());
+        }
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            Duration retryAfter = null;
+            try {
+                ClientHttpResponse response = execute(request, body, execution);
+                int status = response.getStatusCode().value();
+                retryAfter = parseRetryAfter(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+                if (!isRetryable(status, retryAfter) || !canRetry(attempt)) {
+                    recordLatency(start);
+                    return response;
+                }
+                response.close();
+            } catch (IOException e) {
+                if (!canRetry(attempt)) {
+                    throw e;
+                }
+            }
+            sleep(backoff(attempt, retryAfter));
+        }
+    }
+
+    private ClientHttpResponse execute(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        Duration hedgeDelay = hedgeDelay();
+        if (hedgeDelay == null) {
+            return execution.execute(request, body);
+        }
+        CompletionService<ClientHttpResponse> attempts = new ExecutorCompletionService<>(hedgeExecutor);
+        Callable<ClientHttpResponse> call = () -> execution.execute(request, body);
+        try {
+            Future<ClientHttpResponse> primary = attempts.submit(call);
+            Future<ClientHttpResponse> done = attempts.poll(hedgeDelay.toNanos(), TimeUnit.NANOSECONDS);
+            if (done != null) {
+                return get(done);
+            }
+            Future<ClientHttpResponse> hedge = attempts.submit(call);
+            IOException failure = null;
+            for (int pending = 2; pending > 0; pending--) {
+                done = attempts.take();
+                Future<ClientHttpResponse> other = done == primary ? hedge : primary;
+                try {
+                    ClientHttpResponse response = get(done);
+                    if (pending > 1 && done == hedge && isInProgress(response.getStatusCode().value())) {
+                        // The first attempt holds the key, so its answer is awaited.
+                        response.close();
+                        continue;
+                    }
+                    if (pending > 1) {
+                        closeWhenDone(other);
+                    }
+                    return response;
+                } catch (IOException e) {
+                    if (failure != null) {
+                        e.addSuppressed(failure);
+                    }
+                    failure = e;
+                }
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        }
+    }
+
+    private ClientHttpResponse get(Future<ClientHttpResponse> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            } else if (cause instanceof UncheckedIOException uioe) {
+                throw uioe.getCause();
+            } else if (cause instanceof RuntimeException re) {
+                throw re;
+            } else if (cause instanceof Error err) {
+                throw err;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void closeWhenDone(Future<ClientHttpResponse> loser) {
+        // A running exchange cannot be cancelled without leaking its response, so it is closed when it arrives.
+        hedgeExecutor.execute(() -> {
+            try {
+                loser.get().close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ignore) {
+                // The loser has failed and there is nothing to close.
+            }
+        });
+    }
+
+    private static void sleep(Duration delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    /**
+     * @param hedgeExecutor The executor that runs the attempts while hedging. It is not shut down by this interceptor.
+     */
+    public void setHedgeExecutor(ExecutorService hedgeExecutor) {
+        this.hedgeExecutor = hedgeExecutor;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        if (hedgeExecutor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            hedgeExecutor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "idempotency-hedge-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ownsHedgeExecutor = true;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (ownsHedgeExecutor) {
+            hedgeExecutor.shutdown();
+        }
+    }
+}
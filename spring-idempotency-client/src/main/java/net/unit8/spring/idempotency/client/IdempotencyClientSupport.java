@@ -0,0 +1,241 @@
+package net.unit8.spring.idempotency.client;
+
+import net.unit8.spring.idempotency.latency.DecayingHistogram;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.http.HttpMethod;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * The common configuration of the outbound idempotency interceptors.
+ *
+ * <p>A request with a non-idempotent method is given an idempotency key unless it already has one,
+ * and the same key is sent on every retry and hedge, so that the server executes the request at most once.
+ * Transient failures are retried with exponential backoff and full jitter, and a {@code Retry-After}
+ * of the server is respected. A {@code 409 Conflict} is retried only when it has a {@code Retry-After},
+ * as the idempotency filter answers for a key still in progress.</p>
+ *
+ * <p>Hedging is disabled by default. When a hedge quantile is set, a second attempt is sent if the first
+ * one has not answered within that quantile of the recent latencies. An in-progress answer to the hedge
+ * is discarded and the first attempt is awaited, so the hedge only wins when the first attempt has been
+ * lost or the server parks duplicates until the original completes.</p>
+ *
+ * @author kawasima
+ */
+public abstract class IdempotencyClientSupport implements InitializingBean {
+    private static final int IN_PROGRESS = 409;
+
+    private String idempotencyKeyHeaderName;
+    private Supplier<String> idempotencyKeyGenerator;
+    private Set<HttpMethod> methods = Set.of(HttpMethod.POST, HttpMethod.PATCH);
+    private int maxAttempts = 3;
+    private Duration initialBackoff = Duration.ofMillis(100);
+    private Duration maxBackoff = Duration.ofSeconds(5);
+    private Duration maxRetryAfter = Duration.ofSeconds(30);
+    private Set<Integer> retryableStatuses = Set.of(408, 409, 425, 429, 502, 503, 504);
+
+    private double hedgeQuantile;
+    private Duration minHedgeDelay = Duration.ofMillis(50);
+    private Duration latencyHalfLife = Duration.ofMinutes(1);
+    private double minSamples = 20;
+    private DecayingHistogram latencies;
+
+    protected boolean appliesTo(HttpMethod method) {
+        return methods.contains(method);
+    }
+
+    protected String getIdempotencyKeyHeaderName() {
+        return idempotencyKeyHeaderName;
+    }
+
+    protected String generateIdempotencyKey() {
+        return idempotencyKeyGenerator.get();
+    }
+
+    /**
+     * @param attempt the number of the attempt that has just failed, starting from 1
+     * @return true if another attempt is allowed
+     */
+    protected boolean canRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * @param status the status code of the response
+     * @param retryAfter the {@code Retry-After} of the response, or null
+     * @return true if the request can be sent again
+     */
+    protected boolean isRetryable(int status, Duration retryAfter) {
+        return retryableStatuses.contains(status) && (status != IN_PROGRESS || retryAfter != null);
+    }
+
+    /**
+     * @param status the status code of the response
+     * @return true if the server is still processing the same key
+     */
+    protected boolean isInProgress(int status) {
+        return status == IN_PROGRESS;
+    }
+
+    /**
+     * The delay before the next attempt.
+     *
+     * <p>The delay is drawn uniformly from zero to the exponential backoff capped by the max backoff.
+     * It is extended to the {@code Retry-After} of the server, capped by the max retry-after.</p>
+     *
+     * @param attempt the number of the attempt that has just failed, starting from 1
+     * @param retryAfter the {@code Retry-After} of the response, or null
+     * @return the delay
+     */
+    protected Duration backoff(int attempt, Duration retryAfter) {
+        long capMillis = maxBackoff.toMillis();
+        long exponential = initialBackoff.toMillis() << Math.min(attempt - 1, 30);
+        long ceiling = exponential > 0 ? Math.min(capMillis, exponential) : capMillis;
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (retryAfter != null) {
+            delay = Math.max(delay, Math.min(retryAfter.toMillis(), maxRetryAfter.toMillis()));
+        }
+        return Duration.ofMillis(delay);
+    }
+
+    /**
+     * Parse a {@code Retry-After} in either delta-seconds or HTTP-date.
+     *
+     * @param value the header value, or null
+     * @return the duration, or null if the value is absent or malformed
+     */
+    protected Duration parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String trimmed = value.trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(trimmed)));
+        } catch (NumberFormatException ignore) {
+            // An HTTP-date
+        }
+        try {
+            Duration duration = Duration.between(ZonedDateTime.now(),
+                    ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME));
+            return duration.isNegative() ? Duration.ZERO : duration;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The time to wait for the first attempt before sending a hedge.
+     *
+     * @return the delay, or null if hedging is disabled or the latencies are not known well enough
+     */
+    protected Duration hedgeDelay() {
+        if (hedgeQuantile <= 0) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (latencies.totalWeight(now) < minSamples) {
+            return null;
+        }
+        double millis = latencies.quantileAbove(hedgeQuantile, 0, now);
+        if (millis < 0) {
+            return null;
+        }
+        return Duration.ofMillis(Math.max(minHedgeDelay.toMillis(), (long) Math.ceil(millis)));
+    }
+
+    /**
+     * Record the latency of an exchange that has been answered.
+     *
+     * @param startNanos the value of {@link System#nanoTime()} when the exchange started
+     */
+    protected void recordLatency(long startNanos) {
+        long now = System.nanoTime();
+        latencies.record((now - startNanos) / 1_000_000.0, now);
+    }
+
+    public void setIdempotencyKeyHeaderName(String idempotencyKeyHeaderName) {
+        this.idempotencyKeyHeaderName = idempotencyKeyHeaderName;
+    }
+
+    public void setIdempotencyKeyGenerator(Supplier<String> idempotencyKeyGenerator) {
+        this.idempotencyKeyGenerator = idempotencyKeyGenerator;
+    }
+
+    /**
+     * @param methods The methods that are given an idempotency key and retried. POST and PATCH by default.
+     */
+    public void setMethods(Set<HttpMethod> methods) {
+        this.methods = Set.copyOf(methods);
+    }
+
+    /**
+     * @param maxAttempts The number of attempts including the first one.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setInitialBackoff(Duration initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public void setMaxBackoff(Duration maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public void setMaxRetryAfter(Duration maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    public void setRetryableStatuses(Set<Integer> retryableStatuses) {
+        this.retryableStatuses = Set.copyOf(retryableStatuses);
+    }
+
+    /**
+     * @param hedgeQuantile The quantile of the recent latencies after which a hedge is sent, e.g. 0.95.
+     *                      Zero disables hedging.
+     */
+    public void setHedgeQuantile(double hedgeQuantile) {
+        this.hedgeQuantile = hedgeQuantile;
+    }
+
+    public void setMinHedgeDelay(Duration minHedgeDelay) {
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    public void setLatencyHalfLife(Duration latencyHalfLife) {
+        this.latencyHalfLife = latencyHalfLife;
+    }
+
+    /**
+     * @param minSamples The decayed number of latencies needed before hedging.
+     */
+    public void setMinSamples(double minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (idempotencyKeyHeaderName == null) {
+            idempotencyKeyHeaderName = "Idempotency-Key";
+        }
+        if (idempotencyKeyGenerator == null) {
+            // The canonical UUID form is indexed by primitives in the stores.
+            idempotencyKeyGenerator = () -> UUID.randomUUID().toString();
+        }
+        if (hedgeQuantile < 0 || hedgeQuantile >= 1) {
+            throw new IllegalArgumentException("hedgeQuantile must be in [0, 1): " + hedgeQuantile);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        latencies = new DecayingHistogram(latencyHalfLife.toNanos(), System.nanoTime());
+    }
+}
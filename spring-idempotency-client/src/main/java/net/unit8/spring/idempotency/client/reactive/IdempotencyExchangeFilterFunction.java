@@ -0,0 +1,93 @@
+package net.unit8.spring.idempotency.client.reactive;
+
+import net.unit8.spring.idempotency.client.IdempotencyClientSupport;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * A filter of {@code WebClient} that sends requests with an idempotency key,
+ * retries transient failures and hedges slow requests.
+ *
+ * <p>The attempt that answers first wins and the other one is cancelled.</p>
+ *
+ * @author kawasima
+ * @see IdempotencyClientSupport
+ */
+public class IdempotencyExchangeFilterFunction extends IdempotencyClientSupport implements ExchangeFilterFunction {
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        if (!appliesTo(request.method())) {
+            return next.exchange(request);
+        }
+        ClientRequest keyed = request.headers().containsKey(getIdempotencyKeyHeaderName())
+                ? request
+                : ClientRequest.from(request)
+                        .header(getIdempotencyKeyHeaderName(), generateIdempotencyKey())
+                        .build();
+        return exchange(keyed, next, 1);
+    }
+
+    private Mono<ClientResponse> exchange(ClientRequest request, ExchangeFunction next, int attempt) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return hedged(request, next)
+                    .map(response -> new Outcome(response, null))
+                    .onErrorResume(e -> Mono.just(new Outcome(null, e)))
+                    .flatMap(outcome -> {
+                        if (outcome.error() != null) {
+                            if (isRetryable(outcome.error()) && canRetry(attempt)) {
+                                return Mono.delay(backoff(attempt, null))
+                                        .then(exchange(request, next, attempt + 1));
+                            }
+                            return Mono.error(outcome.error());
+                        }
+                        ClientResponse response = outcome.response();
+                        Duration retryAfter = parseRetryAfter(
+                                response.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+                        if (isRetryable(response.statusCode().value(), retryAfter) && canRetry(attempt)) {
+                            return response.releaseBody()
+                                    .then(Mono.delay(backoff(attempt, retryAfter)))
+                                    .then(exchange(request, next, attempt + 1));
+                        }
+                        recordLatency(start);
+                        return Mono.just(response);
+                    });
+        });
+    }
+
+    private Mono<ClientResponse> hedged(ClientRequest request, ExchangeFunction next) {
+        Mono<ClientResponse> primary = Mono.defer(() -> next.exchange(request));
+        Duration hedgeDelay = hedgeDelay();
+        if (hedgeDelay == null) {
+            return primary;
+        }
+        // The hedge only signals a real answer. Its failures and in-progress answers leave the field to the primary.
+        Mono<ClientResponse> hedge = Mono.delay(hedgeDelay)
+                .then(Mono.defer(() -> next.exchange(request)))
+                .flatMap(response -> isInProgress(response.statusCode().value())
+                        ? response.releaseBody().then(Mono.<ClientResponse>never())
+                        : Mono.just(response))
+                .onErrorResume(e -> Mono.never());
+        return Mono.firstWithSignal(primary, hedge);
+    }
+
+    private boolean isRetryable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof WebClientRequestException || t instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record Outcome(ClientResponse response, Throwable error) {
+    }
+}
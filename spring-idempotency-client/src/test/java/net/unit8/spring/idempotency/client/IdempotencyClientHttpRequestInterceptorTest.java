@@ -0,0 +1,247 @@
+package net.unit8.spring.idempotency.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyClientHttpRequestInterceptorTest {
+    private final IdempotencyClientHttpRequestInterceptor sut = new IdempotencyClientHttpRequestInterceptor();
+    private final List<String> sentKeys = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        sut.setInitialBackoff(Duration.ofMillis(1));
+        sut.setMaxBackoff(Duration.ofMillis(5));
+        sut.setMaxAttempts(3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sut.destroy();
+    }
+
+    private static HttpRequest request(HttpMethod method) {
+        HttpHeaders headers = new HttpHeaders();
+        return new HttpRequest() {
+            @Override
+            public HttpMethod getMethod() {
+                return method;
+            }
+
+            @Override
+            public URI getURI() {
+                return URI.create("http://localhost/orders");
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return headers;
+            }
+        };
+    }
+
+    /**
+     * Answers the attempts in turn, and records the key of each attempt.
+     */
+    private ClientHttpRequestExecution answering(Object... answers) {
+        AtomicInteger attempts = new AtomicInteger();
+        return (request, body) -> {
+            sentKeys.add(request.getHeaders().getFirst("Idempotency-Key"));
+            Object answer = answers[Math.min(attempts.getAndIncrement(), answers.length - 1)];
+            if (answer instanceof IOException e) {
+                throw e;
+            }
+            return (Response) answer;
+        };
+    }
+
+    @Test
+    void retriesWithTheSameKey() throws IOException {
+        sut.afterPropertiesSet();
+        Response unavailable = new Response(503);
+        ClientHttpResponse response = sut.intercept(request(HttpMethod.POST), new byte[0],
+                answering(unavailable, new SocketTimeoutException(), new Response(201)));
+
+        assertThat(response.getStatusCode().value()).isEqualTo(201);
+        assertThat(sentKeys).hasSize(3).doesNotContainNull();
+        assertThat(sentKeys).containsOnly(sentKeys.get(0));
+        assertThat(unavailable.closed).isTrue();
+    }
+
+    @Test
+    void keepsTheKeyOfTheCaller() throws IOException {
+        sut.afterPropertiesSet();
+        HttpRequest request = request(HttpMethod.POST);
+        request.getHeaders().set("Idempotency-Key", "order-1");
+        sut.intercept(request, new byte[0], answering(new Response(503), new Response(201)));
+        assertThat(sentKeys).containsExactly("order-1", "order-1");
+    }
+
+    @Test
+    void passesThroughOtherMethods() throws IOException {
+        sut.afterPropertiesSet();
+        ClientHttpResponse response = sut.intercept(request(HttpMethod.GET), new byte[0],
+                answering(new Response(503), new Response(200)));
+        assertThat(response.getStatusCode().value()).isEqualTo(503);
+        assertThat(sentKeys).containsExactly((String) null);
+    }
+
+    @Test
+    void retriesConflictsOnlyWithRetryAfter() throws IOException {
+        sut.afterPropertiesSet();
+        assertThat(sut.intercept(request(HttpMethod.POST), new byte[0],
+                answering(new Response(409), new Response(201))).getStatusCode().value()).isEqualTo(409);
+        assertThat(sentKeys).hasSize(1);
+
+        sentKeys.clear();
+        assertThat(sut.intercept(request(HttpMethod.POST), new byte[0],
+                answering(new Response(409).retryAfter("0"), new Response(201))).getStatusCode().value()).isEqualTo(201);
+        assertThat(sentKeys).hasSize(2);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() throws IOException {
+        sut.afterPropertiesSet();
+        assertThat(sut.intercept(request(HttpMethod.POST), new byte[0],
+                answering(new Response(503))).getStatusCode().value()).isEqualTo(503);
+        assertThat(sentKeys).hasSize(3);
+
+        sentKeys.clear();
+        assertThatThrownBy(() -> sut.intercept(request(HttpMethod.POST), new byte[0],
+                answering(new SocketTimeoutException())))
+                .isInstanceOf(SocketTimeoutException.class);
+        assertThat(sentKeys).hasSize(3);
+    }
+
+    /**
+     * One fast exchange is enough latency history to hedge after the min hedge delay.
+     */
+    private void enableHedging() throws IOException {
+        sut.setHedgeQuantile(0.5);
+        sut.setMinSamples(1);
+        sut.setMinHedgeDelay(Duration.ofMillis(20));
+        sut.afterPropertiesSet();
+        sut.intercept(request(HttpMethod.POST), new byte[0], answering(new Response(200)));
+        sentKeys.clear();
+    }
+
+    @Test
+    void discardsTheInProgressAnswerOfTheHedge() throws Exception {
+        enableHedging();
+        CountDownLatch hedgeAnswered = new CountDownLatch(1);
+        Response inProgress = new Response(409).retryAfter("1");
+        AtomicInteger attempts = new AtomicInteger();
+        ClientHttpResponse response = sut.intercept(request(HttpMethod.POST), new byte[0], (request, body) -> {
+            sentKeys.add(request.getHeaders().getFirst("Idempotency-Key"));
+            if (attempts.getAndIncrement() == 0) {
+                try {
+                    hedgeAnswered.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new Response(201);
+            }
+            hedgeAnswered.countDown();
+            return inProgress;
+        });
+
+        assertThat(response.getStatusCode().value()).isEqualTo(201);
+        assertThat(inProgress.closed).isTrue();
+        assertThat(sentKeys).hasSize(2).containsOnly(sentKeys.get(0));
+    }
+
+    @Test
+    void closesTheLosingAttempt() throws Exception {
+        enableHedging();
+        CountDownLatch released = new CountDownLatch(1);
+        Response loser = new Response(201);
+        AtomicInteger attempts = new AtomicInteger();
+        ClientHttpResponse response = sut.intercept(request(HttpMethod.POST), new byte[0], (request, body) -> {
+            sentKeys.add(request.getHeaders().getFirst("Idempotency-Key"));
+            if (attempts.getAndIncrement() == 0) {
+                try {
+                    released.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return loser;
+            }
+            return new Response(200);
+        });
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(loser.closed).isFalse();
+        released.countDown();
+        assertThat(loser.closedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(sentKeys).hasSize(2).containsOnly(sentKeys.get(0));
+    }
+
+    static class Response implements ClientHttpResponse {
+        private final int status;
+        private final HttpHeaders headers = new HttpHeaders();
+        private final CountDownLatch closedLatch = new CountDownLatch(1);
+        private volatile boolean closed;
+
+        Response(int status) {
+            this.status = status;
+        }
+
+        Response retryAfter(String value) {
+            headers.set(HttpHeaders.RETRY_AFTER, value);
+            return this;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatusCode.valueOf(status);
+        }
+
+        @Override
+        @Deprecated
+        public int getRawStatusCode() {
+            return status;
+        }
+
+        @Override
+        public String getStatusText() {
+            return "";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            closedLatch.countDown();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.unit8.spring.idempotency.client;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdempotencyClientSupportTest {
+    private final IdempotencyClientSupport sut = new IdempotencyClientSupport() {
+    };
+
+    @BeforeEach
+    void setUp() {
+        sut.setInitialBackoff(Duration.ofMillis(100));
+        sut.setMaxBackoff(Duration.ofSeconds(1));
+        sut.setMaxRetryAfter(Duration.ofSeconds(30));
+        sut.afterPropertiesSet();
+    }
+
+    @Test
+    void backoffIsAFullJitterOfTheCappedExponential() {
+        long[] ceilings = {100, 200, 400, 800, 1000, 1000};
+        for (int attempt = 1; attempt <= ceilings.length; attempt++) {
+            long max = 0;
+            for (int i = 0; i < 2000; i++) {
+                Duration delay = sut.backoff(attempt, null);
+                assertThat(delay).isBetween(Duration.ZERO, Duration.ofMillis(ceilings[attempt - 1]));
+                max = Math.max(max, delay.toMillis());
+            }
+            // The whole range is used, not only its upper half.
+            assertThat(max).isGreaterThan(ceilings[attempt - 1] / 2);
+        }
+        assertThat(sut.backoff(64, null)).isBetween(Duration.ZERO, Duration.ofSeconds(1));
+    }
+
+    @Test
+    void backoffRespectsRetryAfterUpToTheCap() {
+        assertThat(sut.backoff(1, Duration.ofSeconds(2))).isEqualTo(Duration.ofSeconds(2));
+        assertThat(sut.backoff(1, Duration.ofMinutes(5))).isEqualTo(Duration.ofSeconds(30));
+        assertThat(sut.backoff(1, Duration.ZERO)).isBetween(Duration.ZERO, Duration.ofMillis(100));
+    }
+
+    @Test
+    void parsesDeltaSeconds() {
+        assertThat(sut.parseRetryAfter("3")).isEqualTo(Duration.ofSeconds(3));
+        assertThat(sut.parseRetryAfter(" 0 ")).isEqualTo(Duration.ZERO);
+        assertThat(sut.parseRetryAfter("-5")).isEqualTo(Duration.ZERO);
+        assertThat(sut.parseRetryAfter(null)).isNull();
+        assertThat(sut.parseRetryAfter("")).isNull();
+        assertThat(sut.parseRetryAfter("soon")).isNull();
+    }
+
+    @Test
+    void parsesHttpDates() {
+        String inTwoMinutes = DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(120));
+        assertThat(sut.parseRetryAfter(inTwoMinutes)).isBetween(Duration.ofSeconds(110), Duration.ofSeconds(120));
+        assertThat(sut.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT")).isEqualTo(Duration.ZERO);
+        assertThat(sut.parseRetryAfter("Wed, 21 Oct 2015")).isNull();
+    }
+
+    @Test
+    void retriesConflictsOnlyWithRetryAfter() {
+        assertThat(sut.isRetryable(409, null)).isFalse();
+        assertThat(sut.isRetryable(409, Duration.ofSeconds(1))).isTrue();
+        assertThat(sut.isRetryable(503, null)).isTrue();
+        assertThat(sut.isRetryable(500, Duration.ofSeconds(1))).isFalse();
+        assertThat(sut.isRetryable(422, null)).isFalse();
+    }
+}
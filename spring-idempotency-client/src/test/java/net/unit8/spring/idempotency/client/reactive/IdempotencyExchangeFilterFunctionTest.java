@@ -0,0 +1,123 @@
+package net.unit8.spring.idempotency.client.reactive;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdempotencyExchangeFilterFunctionTest {
+    private final IdempotencyExchangeFilterFunction sut = new IdempotencyExchangeFilterFunction();
+    private final List<String> sentKeys = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        sut.setInitialBackoff(Duration.ofMillis(1));
+        sut.setMaxBackoff(Duration.ofMillis(5));
+    }
+
+    private static ClientRequest post() {
+        return ClientRequest.create(HttpMethod.POST, URI.create("http://localhost/orders")).build();
+    }
+
+    private static ClientResponse response(HttpStatus status) {
+        return ClientResponse.create(status).build();
+    }
+
+    /**
+     * Answers the attempts in turn, and records the key of each attempt.
+     */
+    private ExchangeFunction answering(Object... answers) {
+        AtomicInteger attempts = new AtomicInteger();
+        return request -> {
+            sentKeys.add(request.headers().getFirst("Idempotency-Key"));
+            Object answer = answers[Math.min(attempts.getAndIncrement(), answers.length - 1)];
+            return answer instanceof Throwable e ? Mono.error(e) : Mono.just((ClientResponse) answer);
+        };
+    }
+
+    @Test
+    void retriesWithTheSameKey() {
+        sut.afterPropertiesSet();
+        ClientResponse response = sut.filter(post(), answering(response(HttpStatus.SERVICE_UNAVAILABLE),
+                new IOException("reset"), response(HttpStatus.CREATED))).block();
+
+        assertThat(response.statusCode().value()).isEqualTo(201);
+        assertThat(sentKeys).hasSize(3).doesNotContainNull();
+        assertThat(sentKeys).containsOnly(sentKeys.get(0));
+    }
+
+    @Test
+    void retriesConflictsOnlyWithRetryAfter() {
+        sut.afterPropertiesSet();
+        assertThat(sut.filter(post(), answering(response(HttpStatus.CONFLICT), response(HttpStatus.CREATED)))
+                .block().statusCode().value()).isEqualTo(409);
+        assertThat(sentKeys).hasSize(1);
+
+        sentKeys.clear();
+        ClientResponse inProgress = ClientResponse.create(HttpStatus.CONFLICT)
+                .header(HttpHeaders.RETRY_AFTER, "0")
+                .build();
+        assertThat(sut.filter(post(), answering(inProgress, response(HttpStatus.CREATED)))
+                .block().statusCode().value()).isEqualTo(201);
+        assertThat(sentKeys).hasSize(2);
+    }
+
+    /**
+     * One fast exchange is enough latency history to hedge after the min hedge delay.
+     */
+    private void enableHedging() {
+        sut.setHedgeQuantile(0.5);
+        sut.setMinSamples(1);
+        sut.setMinHedgeDelay(Duration.ofMillis(20));
+        sut.afterPropertiesSet();
+        sut.filter(post(), answering(response(HttpStatus.OK))).block();
+        sentKeys.clear();
+    }
+
+    @Test
+    void discardsTheInProgressAnswerOfTheHedge() {
+        enableHedging();
+        AtomicInteger attempts = new AtomicInteger();
+        ClientResponse response = sut.filter(post(), request -> {
+            sentKeys.add(request.headers().getFirst("Idempotency-Key"));
+            return attempts.getAndIncrement() == 0
+                    ? Mono.delay(Duration.ofMillis(200)).map(tick -> response(HttpStatus.CREATED))
+                    : Mono.just(response(HttpStatus.CONFLICT));
+        }).block(Duration.ofSeconds(5));
+
+        assertThat(response.statusCode().value()).isEqualTo(201);
+        assertThat(sentKeys).hasSize(2).containsOnly(sentKeys.get(0));
+    }
+
+    @Test
+    void cancelsTheLosingAttempt() {
+        enableHedging();
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ClientResponse response = sut.filter(post(), request -> {
+            sentKeys.add(request.headers().getFirst("Idempotency-Key"));
+            return attempts.getAndIncrement() == 0
+                    ? Mono.<ClientResponse>never().doOnCancel(() -> cancelled.set(true))
+                    : Mono.just(response(HttpStatus.OK));
+        }).block(Duration.ofSeconds(5));
+
+        assertThat(response.statusCode().value()).isEqualTo(200);
+        assertThat(cancelled).isTrue();
+        assertThat(sentKeys).hasSize(2).containsOnly(sentKeys.get(0));
+    }
+}
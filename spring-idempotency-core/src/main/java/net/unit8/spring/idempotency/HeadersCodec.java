@@ -0,0 +1,128 @@
+package net.unit8.spring.idempotency;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the headers of a stored response without Java serialization.
+ *
+ * <p>The format is a version byte followed by length-prefixed UTF-8 strings:</p>
+ * <pre>
+ * 0x01 count (name valueCount (length bytes | -1)*)*
+ * </pre>
+ *
+ * <p>It needs neither reflection nor serialization configuration in a native image.
+ * Headers written by {@link ObjectOutputStream} by earlier versions start with the stream magic
+ * {@code 0xACED}, and are still decoded by {@link ObjectInputStream}.</p>
+ *
+ * @author kawasima
+ */
+public final class HeadersCodec {
+    private static final byte VERSION = 0x01;
+    private static final byte LEGACY_MAGIC = (byte) 0xAC;
+
+    private HeadersCodec() {
+    }
+
+    public static byte[] encode(Map<String, ? extends Collection<String>> headers) {
+        if (headers == null) {
+            return null;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            out.writeByte(VERSION);
+            out.writeInt(headers.size());
+            for (Map.Entry<String, ? extends Collection<String>> header : headers.entrySet()) {
+                writeString(out, header.getKey());
+                Collection<String> values = header.getValue();
+                out.writeInt(values != null ? values.size() : -1);
+                if (values != null) {
+                    for (String value : values) {
+                        writeString(out, value);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public static Map<String, Collection<String>> decode(byte[] encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        if (encoded.length > 0 && encoded[0] == LEGACY_MAGIC) {
+            return decodeLegacy(encoded);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unknown headers format: " + version);
+            }
+            int count = checkedLength(in, in.readInt());
+            Map<String, Collection<String>> headers = new LinkedHashMap<>(Math.max(4, count * 2));
+            for (int i = 0; i < count; i++) {
+                String name = readString(in);
+                int valueCount = checkedLength(in, in.readInt());
+                List<String> values = null;
+                if (valueCount >= 0) {
+                    values = new ArrayList<>(valueCount);
+                    for (int j = 0; j < valueCount; j++) {
+                        values.add(readString(in));
+                    }
+                }
+                headers.put(name, values);
+            }
+            return headers;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = checkedLength(in, in.readInt());
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reject a length that the remaining bytes cannot hold, before anything is allocated for it.
+     */
+    private static int checkedLength(DataInputStream in, int length) throws IOException {
+        if (length > in.available()) {
+            throw new EOFException("Truncated headers");
+        }
+        return length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Collection<String>> decodeLegacy(byte[] encoded) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(encoded))) {
+            return (Map<String, Collection<String>>) ois.readObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
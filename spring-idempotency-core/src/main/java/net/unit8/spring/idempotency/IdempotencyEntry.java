@@ -1,8 +1,34 @@
 package net.unit8.spring.idempotency;
 
+import java.time.Instant;
+
+/**
+ * An idempotency entry.
+ *
+ * @param idempotencyKey the idempotency key
+ * @param fingerprint the fingerprint of the request, or null
+ * @param response the response, or null while the request is in progress
+ * @param startedAt the time the request has been claimed, or null if it is unknown
+ */
 public record IdempotencyEntry(
         String idempotencyKey,
         IdempotencyFingerprint fingerprint,
-        IdempotencyResponse response
+        IdempotencyResponse response,
+        Instant startedAt
 ) {
+    public IdempotencyEntry(String idempotencyKey,
+                            IdempotencyFingerprint fingerprint,
+                            IdempotencyResponse response) {
+        this(idempotencyKey, fingerprint, response, null);
+    }
+
+    /**
+     * Create an entry of the request that starts now.
+     *
+     * @param idempotencyKey the idempotency key
+     * @return the in-progress entry
+     */
+    public static IdempotencyEntry inProgress(String idempotencyKey) {
+        return new IdempotencyEntry(idempotencyKey, null, null, Instant.now());
+    }
 }
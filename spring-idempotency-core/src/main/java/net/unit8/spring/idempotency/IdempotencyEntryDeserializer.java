@@ -1,46 +1,121 @@
 package net.unit8.spring.idempotency;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.UncheckedIOException;
+import net.unit8.spring.idempotency.jfr.IdempotencySerializationEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Objects;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 public interface IdempotencyEntryDeserializer extends BiFunction<String, String, IdempotencyEntry> {
     default IdempotencyEntry apply(String idempotencyKey, String encoded) {
-        Base64.Decoder decoder = Base64.getDecoder();
-        String[] tokens = encoded.split("\\.", 4);
-        Optional<Integer> status = Optional.of(tokens[0])
-                .filter(s -> !s.isEmpty())
-                .map(Integer::parseInt);
-        final Map<String, Collection<String>> headers;
-        if (!tokens[1].isEmpty()) {
-            try (ByteArrayInputStream bais = new ByteArrayInputStream(decoder.decode(tokens[1]));
-                 ObjectInputStream ois = new ObjectInputStream(bais)) {
-                //noinspection unchecked
-                headers = (Map<String, Collection<String>>) ois.readObject();
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
+        IdempotencySerializationEvent event = new IdempotencySerializationEvent();
+        event.begin();
+        IdempotencyEntry entry = null;
+        try {
+            entry = decode(idempotencyKey, encoded);
+            return entry;
+        } finally {
+            if (event.shouldCommit()) {
+                event.operation = "DESERIALIZE";
+                event.keyHash = Objects.hashCode(idempotencyKey);
+                event.payloadSize = encoded != null ? encoded.length() : 0;
+                event.outcome = entry != null ? "SUCCESS" : "ERROR";
+                event.commit();
             }
-        } else {
-            headers = null;
-        }
-        Optional<byte[]> body = Optional.of(tokens[2])
-                .filter(s -> !s.isEmpty())
-                .map(decoder::decode);
-        return new IdempotencyEntry(
-                idempotencyKey,
-                Optional.of(tokens[3]).filter(s -> !s.isEmpty())
-                        .map(IdempotencyFingerprint::new).orElse(null),
-                status.map(st -> new IdempotencyResponse(st, headers, body.orElse(null)))
-                        .orElse(null));
+        }
+    }
 
+    /**
+     * Decode the status, the fingerprint and the start time, and leave the headers and the body encoded
+     * until the response is replayed.
+     */
+    private IdempotencyEntry decode(String idempotencyKey, String encoded) {
+        int headersStart = encoded.indexOf('.') + 1;
+        int bodyStart = encoded.indexOf('.', headersStart) + 1;
+        int fingerprintStart = encoded.indexOf('.', bodyStart) + 1;
+        if (headersStart == 0 || bodyStart == 0 || fingerprintStart == 0) {
+            throw new IllegalArgumentException("Illegal idempotency entry: " + idempotencyKey);
+        }
+        // The start time and the entity tag follow the fingerprint.
+        // Entries written before they were added end with the fingerprint.
+        int fingerprintEnd = encoded.length();
+        String etag = null;
+        int lastDot = encoded.lastIndexOf('.', fingerprintEnd - 1);
+        if (lastDot >= fingerprintStart && isEtag(encoded, lastDot + 1)) {
+            if (lastDot + 1 < fingerprintEnd) {
+                etag = decodeEtag(encoded, lastDot + 1);
+            }
+            fingerprintEnd = lastDot;
+        }
+        Instant startedAt = null;
+        lastDot = encoded.lastIndexOf('.', fingerprintEnd - 1);
+        if (lastDot >= fingerprintStart && isDigits(encoded, lastDot + 1, fingerprintEnd)) {
+            if (lastDot + 1 < fingerprintEnd) {
+                startedAt = Instant.ofEpochMilli(Long.parseLong(encoded, lastDot + 1, fingerprintEnd, 10));
+            }
+            fingerprintEnd = lastDot;
+        }
+        IdempotencyFingerprint fingerprint = fingerprintStart < fingerprintEnd
+                ? new IdempotencyFingerprint(encoded.substring(fingerprintStart, fingerprintEnd))
+                : null;
+
+        IdempotencyResponse response = null;
+        if (headersStart > 1) {
+            int status = Integer.parseInt(encoded, 0, headersStart - 1, 10);
+            Supplier<Map<String, Collection<String>>> headers = bodyStart - 1 > headersStart
+                    ? () -> HeadersCodec.decode(decodeBase64(encoded, headersStart, bodyStart - 1))
+                    : null;
+            Supplier<byte[]> body = fingerprintStart - 1 > bodyStart
+                    ? () -> decodeBase64(encoded, bodyStart, fingerprintStart - 1)
+                    : null;
+            response = IdempotencyResponse.lazy(status, headers, body, etag);
+        }
+        return new IdempotencyEntry(idempotencyKey, fingerprint, response, startedAt);
+    }
+
+    private static byte[] decodeBase64(String encoded, int from, int to) {
+        return Base64.getDecoder().decode(encoded.substring(from, to));
     }
-}
 
+    /**
+     * The entity tag is Base64-encoded after an {@code '='}, because it may contain dots.
+     * Entries written before that have the quoted entity tag as it is.
+     */
+    private static boolean isEtag(String s, int from) {
+        if (from == s.length()) {
+            return true;
+        }
+        if (s.charAt(from) == IdempotencyEntrySerializer.ETAG_PREFIX) {
+            for (int i = from + 1; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                        || c == '+' || c == '/' || c == '=')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return s.charAt(from) == '"' && s.endsWith("\"") && s.length() - from >= 2;
+    }
+
+    private static String decodeEtag(String s, int from) {
+        if (s.charAt(from) == IdempotencyEntrySerializer.ETAG_PREFIX) {
+            return new String(Base64.getDecoder().decode(s.substring(from + 1)), StandardCharsets.UTF_8);
+        }
+        return s.substring(from);
+    }
+
+    private static boolean isDigits(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
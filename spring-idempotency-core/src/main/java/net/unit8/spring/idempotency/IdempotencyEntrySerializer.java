@@ -1,36 +1,61 @@
 package net.unit8.spring.idempotency;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.UncheckedIOException;
+import net.unit8.spring.idempotency.jfr.IdempotencySerializationEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.Base64;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
 
 public interface IdempotencyEntrySerializer extends Function<IdempotencyEntry, String> {
+    /**
+     * The prefix of the Base64-encoded entity tag.
+     */
+    char ETAG_PREFIX = '=';
+
     default String apply(IdempotencyEntry entry) {
+        IdempotencySerializationEvent event = new IdempotencySerializationEvent();
+        event.begin();
+        String encoded = null;
+        try {
+            encoded = encode(entry);
+            return encoded;
+        } finally {
+            if (event.shouldCommit()) {
+                event.operation = "SERIALIZE";
+                event.keyHash = Objects.hashCode(entry.idempotencyKey());
+                event.payloadSize = encoded != null ? encoded.length() : 0;
+                event.outcome = encoded != null ? "SUCCESS" : "ERROR";
+                event.commit();
+            }
+        }
+    }
+
+    private String encode(IdempotencyEntry entry) {
         Optional<String> status = Optional.ofNullable(entry.response())
                 .map(IdempotencyResponse::status)
                 .map(String::valueOf);
         Optional<String> headers = Optional.ofNullable(entry.response())
                 .map(IdempotencyResponse::headers)
-                .map(hs -> {
-                    try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                         ObjectOutputStream oos = new ObjectOutputStream(baos)) {
-                        oos.writeObject(hs);
-                        return Base64.getEncoder().encodeToString(baos.toByteArray());
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
-                });
+                .map(hs -> Base64.getEncoder().encodeToString(HeadersCodec.encode(hs)));
         Optional<String> body = Optional.ofNullable(entry.response())
                 .map(IdempotencyResponse::body)
                 .map(b -> Base64.getEncoder().encodeToString(b));
         return  status.orElse("")
                 + "." + headers.orElse("")
                 + "." + body.orElse("")
-                + "." + Objects.toString(entry.fingerprint(), "");
+                + "." + Objects.toString(entry.fingerprint(), "")
+                + "." + Optional.ofNullable(entry.startedAt())
+                        .map(Instant::toEpochMilli)
+                        .map(String::valueOf)
+                        .orElse("")
+                + "." + Optional.ofNullable(entry.response())
+                        .map(IdempotencyResponse::etag)
+                        // An entity tag may contain dots, which separate the fields.
+                        .map(etag -> ETAG_PREFIX + Base64.getEncoder()
+                                .encodeToString(etag.getBytes(StandardCharsets.UTF_8)))
+                        .orElse("");
     }
 }
@@ -1,7 +1,94 @@
 package net.unit8.spring.idempotency;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
 public interface IdempotencyKeyStore {
     IdempotencyEntry getAndSet(String idempotencyKey);
     void save(IdempotencyEntry entry);
     void delete(String idempotencyKey);
+
+    /**
+     * Get the entry or set an in-progress entry that expires after the given duration.
+     * Stores that cannot expire entries individually ignore the expiry.
+     *
+     * @param idempotencyKey the idempotency key
+     * @param expiry the expiry of the entry, or null for the store's default
+     * @return the existing entry, or null if the key has been claimed
+     */
+    default IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        return getAndSet(idempotencyKey);
+    }
+
+    /**
+     * Save the entry that expires after the given duration.
+     * Stores that cannot expire entries individually ignore the expiry.
+     *
+     * @param entry the entry
+     * @param expiry the expiry of the entry, or null for the store's default
+     */
+    default void save(IdempotencyEntry entry, Duration expiry) {
+        save(entry);
+    }
+
+    /**
+     * Whether the store expires each entry after the expiry given to {@link #save(IdempotencyEntry, Duration)}.
+     * Entries that must not outlive a short expiry, such as cached failures, are not saved to other stores.
+     *
+     * @return true if the store honors the expiry of each entry
+     */
+    default boolean supportsEntryExpiry() {
+        return false;
+    }
+
+    /**
+     * Get the entries or set in-progress entries for the keys.
+     *
+     * <p>Each key is claimed atomically, but the batch is not atomic as a whole.
+     * Keys repeated in the collection are claimed once. The default implementation calls
+     * {@link #getAndSet(String, Duration)} for each key, and stores override it to save round trips.</p>
+     *
+     * @param idempotencyKeys the idempotency keys
+     * @param expiry the expiry of the entries, or null for the store's default
+     * @return the existing entries by key in the order of the keys. The keys that are absent have been claimed.
+     */
+    default Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        Map<String, IdempotencyEntry> existing = new LinkedHashMap<>();
+        for (String idempotencyKey : new LinkedHashSet<>(idempotencyKeys)) {
+            IdempotencyEntry entry = getAndSet(idempotencyKey, expiry);
+            if (entry != null) {
+                existing.put(idempotencyKey, entry);
+            }
+        }
+        return existing;
+    }
+
+    default Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys) {
+        return getAndSetAll(idempotencyKeys, null);
+    }
+
+    /**
+     * Save the entries that expire after the given duration.
+     *
+     * @param entries the entries
+     * @param expiry the expiry of the entries, or null for the store's default
+     */
+    default void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        for (IdempotencyEntry entry : entries) {
+            save(entry, expiry);
+        }
+    }
+
+    default void saveAll(Collection<IdempotencyEntry> entries) {
+        saveAll(entries, null);
+    }
+
+    default void deleteAll(Collection<String> idempotencyKeys) {
+        for (String idempotencyKey : idempotencyKeys) {
+            delete(idempotencyKey);
+        }
+    }
 }
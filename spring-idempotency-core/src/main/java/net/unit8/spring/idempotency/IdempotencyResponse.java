@@ -1,11 +1,142 @@
 package net.unit8.spring.idempotency;
 
+import org.springframework.util.DigestUtils;
+
 import java.util.Collection;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A stored response.
+ *
+ * <p>A response read from a store may decode its headers and body on first access,
+ * so that a retry that is rejected or answered with 304 never decodes them.</p>
+ */
+public final class IdempotencyResponse {
+    private final int status;
+    private final String etag;
+    // Cleared after the decoded value is set, so that a reader that sees null also sees the value.
+    private volatile Supplier<Map<String, Collection<String>>> headersDecoder;
+    private volatile Supplier<byte[]> bodyDecoder;
+    private Map<String, Collection<String>> headers;
+    private byte[] body;
+
+    /**
+     * @param status the status code
+     * @param headers the headers to replay, or null
+     * @param body the body, or null
+     * @param etag the strong entity tag of the response including the quotes, or null
+     */
+    public IdempotencyResponse(int status,
+                               Map<String, Collection<String>> headers,
+                               byte[] body,
+                               String etag) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.etag = etag;
+    }
+
+    public IdempotencyResponse(int status,
+                               Map<String, Collection<String>> headers,
+                               byte[] body) {
+        this(status, headers, body, null);
+    }
+
+    /**
+     * Create a response that decodes its headers and body when they are first read.
+     * The decoders may run more than once if the response is read from several threads at a time.
+     *
+     * @param status the status code
+     * @param headersDecoder decodes the headers to replay, or null
+     * @param bodyDecoder decodes the body, or null
+     * @param etag the strong entity tag of the response including the quotes, or null
+     * @return the response
+     */
+    public static IdempotencyResponse lazy(int status,
+                                           Supplier<Map<String, Collection<String>>> headersDecoder,
+                                           Supplier<byte[]> bodyDecoder,
+                                           String etag) {
+        IdempotencyResponse response = new IdempotencyResponse(status, null, null, etag);
+        response.headersDecoder = headersDecoder;
+        response.bodyDecoder = bodyDecoder;
+        return response;
+    }
+
+    /**
+     * @return the status code
+     */
+    public int status() {
+        return status;
+    }
+
+    /**
+     * @return the headers to replay, or null
+     */
+    public Map<String, Collection<String>> headers() {
+        Supplier<Map<String, Collection<String>>> decoder = headersDecoder;
+        if (decoder != null) {
+            headers = decoder.get();
+            headersDecoder = null;
+        }
+        return headers;
+    }
+
+    /**
+     * @return the body, or null
+     */
+    public byte[] body() {
+        Supplier<byte[]> decoder = bodyDecoder;
+        if (decoder != null) {
+            body = decoder.get();
+            bodyDecoder = null;
+        }
+        return body;
+    }
+
+    /**
+     * @return the strong entity tag of the response including the quotes, or null
+     */
+    public String etag() {
+        return etag;
+    }
+
+    /**
+     * Compute a strong entity tag from the status and the body.
+     *
+     * @param status the status code
+     * @param body the body, or null
+     * @return the quoted entity tag
+     */
+    public static String strongEtag(int status, byte[] body) {
+        return "\"" + status + "-" + DigestUtils.md5DigestAsHex(body != null ? body : new byte[0]) + "\"";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IdempotencyResponse other)) {
+            return false;
+        }
+        return status == other.status
+                && Objects.equals(headers(), other.headers())
+                && Objects.equals(body(), other.body())
+                && Objects.equals(etag, other.etag);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(status, headers(), body(), etag);
+    }
 
-public record IdempotencyResponse(
-        int status,
-        Map<String, Collection<String>> headers,
-        byte[] body
-) {
+    @Override
+    public String toString() {
+        return "IdempotencyResponse[status=" + status
+                + ", headers=" + (headersDecoder != null ? "(not decoded)" : headers)
+                + ", body=" + (bodyDecoder != null ? "(not decoded)" : body)
+                + ", etag=" + etag + "]";
+    }
 }
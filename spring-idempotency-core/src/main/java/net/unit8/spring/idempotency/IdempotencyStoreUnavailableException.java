@@ -0,0 +1,24 @@
+package net.unit8.spring.idempotency;
+
+import java.time.Duration;
+
+/**
+ * Thrown when the idempotency key store cannot be used and requests must not be processed without it.
+ *
+ * @author kawasima
+ */
+public class IdempotencyStoreUnavailableException extends RuntimeException {
+    private final Duration retryAfter;
+
+    public IdempotencyStoreUnavailableException(String message, Duration retryAfter, Throwable cause) {
+        super(message, cause);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * The time after which the store may be available again, or null if it is unknown.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
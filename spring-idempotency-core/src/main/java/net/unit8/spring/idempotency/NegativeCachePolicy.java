@@ -0,0 +1,74 @@
+package net.unit8.spring.idempotency;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which failed responses are stored for a short time, so that retries of a request
+ * that always fails are answered without running the handler again.
+ *
+ * <p>A response that the {@link ResponseValidator} rejects is cached if the cacheable validator accepts it
+ * and a TTL is mapped to its status. TTLs are mapped to a status such as {@code "404"}
+ * or to a status class such as {@code "4xx"}, and the status takes precedence over its class.
+ * By default, 4xx responses are cached for 10 seconds except the transient
+ * 408, 409, 425 and 429, and 5xx responses are released so that they can be retried.</p>
+ *
+ * <p>Failures are cached only in stores that {@linkplain IdempotencyKeyStore#supportsEntryExpiry() expire
+ * entries individually}. Other stores would keep a cached failure for their default expiry,
+ * so the failure is released there as if it were not cacheable.</p>
+ *
+ * @author kawasima
+ */
+public class NegativeCachePolicy {
+    private static final Set<Integer> TRANSIENT_CLIENT_ERRORS = Set.of(408, 409, 425, 429);
+
+    private Map<Integer, Duration> statusTtls = Map.of();
+    private Map<Integer, Duration> classTtls = Map.of(4, Duration.ofSeconds(10));
+    private ResponseValidator cacheableValidator = response ->
+            response.status() >= 400 && response.status() < 500 && !TRANSIENT_CLIENT_ERRORS.contains(response.status());
+
+    /**
+     * @param response the response that has failed validation
+     * @return the time to keep the response, or null if it is not to be cached
+     */
+    public Duration ttlOf(IdempotencyResponse response) {
+        if (!cacheableValidator.validate(response)) {
+            return null;
+        }
+        Duration ttl = statusTtls.get(response.status());
+        if (ttl == null) {
+            ttl = classTtls.get(response.status() / 100);
+        }
+        return ttl != null && !ttl.isZero() && !ttl.isNegative() ? ttl : null;
+    }
+
+    /**
+     * @param ttls The TTLs by status ({@code "404"}) or status class ({@code "4xx"}).
+     */
+    public void setTtls(Map<String, Duration> ttls) {
+        Map<Integer, Duration> statusTtls = new HashMap<>();
+        Map<Integer, Duration> classTtls = new HashMap<>();
+        ttls.forEach((pattern, ttl) -> {
+            String normalized = pattern.trim().toLowerCase(Locale.ROOT);
+            if (normalized.matches("[1-5]xx")) {
+                classTtls.put(normalized.charAt(0) - '0', ttl);
+            } else if (normalized.matches("[1-5][0-9][0-9]")) {
+                statusTtls.put(Integer.parseInt(normalized), ttl);
+            } else {
+                throw new IllegalArgumentException("Illegal status pattern: " + pattern);
+            }
+        });
+        this.statusTtls = Map.copyOf(statusTtls);
+        this.classTtls = Map.copyOf(classTtls);
+    }
+
+    /**
+     * @param cacheableValidator Accepts the failed responses that are deterministic and can be cached.
+     */
+    public void setCacheableValidator(ResponseValidator cacheableValidator) {
+        this.cacheableValidator = cacheableValidator;
+    }
+}
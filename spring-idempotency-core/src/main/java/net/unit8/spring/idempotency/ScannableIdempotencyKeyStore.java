@@ -0,0 +1,23 @@
+package net.unit8.spring.idempotency;
+
+import java.util.stream.Stream;
+
+/**
+ * An idempotency key store that can enumerate its entries, e.g. to migrate them to another store.
+ *
+ * @author kawasima
+ */
+public interface ScannableIdempotencyKeyStore extends IdempotencyKeyStore {
+    /**
+     * Scan the live entries of the store.
+     *
+     * <p>The entries are fetched lazily in batches with a cursor of the store, so the whole store is
+     * never held in memory. The scan is not a snapshot: entries written during the scan may or may not be
+     * returned, and an entry may be returned twice if the store is rehashed. The stream must be closed
+     * to release the cursor.</p>
+     *
+     * @param batchSize the number of entries fetched at a time, as a hint to the store
+     * @return the entries
+     */
+    Stream<ScannedEntry> scan(int batchSize);
+}
@@ -0,0 +1,13 @@
+package net.unit8.spring.idempotency;
+
+import java.time.Duration;
+
+/**
+ * An entry read by a scan of the store.
+ *
+ * @param entry the entry
+ * @param timeToLive the time until the entry expires, or null if it never expires or the store does not know
+ * @author kawasima
+ */
+public record ScannedEntry(IdempotencyEntry entry, Duration timeToLive) {
+}
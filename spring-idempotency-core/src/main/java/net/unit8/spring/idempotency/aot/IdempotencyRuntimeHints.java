@@ -0,0 +1,49 @@
+package net.unit8.spring.idempotency.aot;
+
+import net.unit8.spring.idempotency.jfr.IdempotencyFingerprintEvent;
+import net.unit8.spring.idempotency.jfr.IdempotencyHotKeyEvent;
+import net.unit8.spring.idempotency.jfr.IdempotencyReplayEvent;
+import net.unit8.spring.idempotency.jfr.IdempotencySerializationEvent;
+import net.unit8.spring.idempotency.jfr.IdempotencyStoreEvent;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The runtime hints of the core module for native images.
+ *
+ * <p>The Flight Recorder events are read reflectively by the recorder. The serialization hints
+ * only cover the headers written by {@link java.io.ObjectOutputStream} before
+ * {@link net.unit8.spring.idempotency.HeadersCodec}, so that those entries can still be replayed.</p>
+ *
+ * @author kawasima
+ */
+public class IdempotencyRuntimeHints implements RuntimeHintsRegistrar {
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        for (Class<?> event : List.of(
+                IdempotencyStoreEvent.class,
+                IdempotencySerializationEvent.class,
+                IdempotencyFingerprintEvent.class,
+                IdempotencyReplayEvent.class,
+                IdempotencyHotKeyEvent.class)) {
+            hints.reflection().registerType(event,
+                    MemberCategory.DECLARED_FIELDS,
+                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+        }
+        for (Class<? extends Serializable> type : List.<Class<? extends Serializable>>of(
+                String.class,
+                HashMap.class,
+                LinkedHashMap.class,
+                TreeMap.class,
+                ArrayList.class,
+                LinkedList.class,
+                HashSet.class,
+                LinkedHashSet.class)) {
+            hints.serialization().registerType(type);
+        }
+    }
+}
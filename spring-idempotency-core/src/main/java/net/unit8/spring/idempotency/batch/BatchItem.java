@@ -0,0 +1,20 @@
+package net.unit8.spring.idempotency.batch;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+
+/**
+ * An item of a batch and its state against the store.
+ *
+ * @param item the item
+ * @param idempotencyKey the idempotency key of the item
+ * @param status the state of the key
+ * @param entry the existing entry if the status is {@code IN_PROGRESS} or {@code COMPLETED}, otherwise null
+ * @param <T> the type of the items
+ */
+public record BatchItem<T>(
+        T item,
+        String idempotencyKey,
+        BatchItemStatus status,
+        IdempotencyEntry entry
+) {
+}
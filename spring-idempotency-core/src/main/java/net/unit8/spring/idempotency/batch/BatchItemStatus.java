@@ -0,0 +1,17 @@
+package net.unit8.spring.idempotency.batch;
+
+/**
+ * The state of an item of a batch against the store.
+ *
+ * @author kawasima
+ */
+public enum BatchItemStatus {
+    /** The key has been claimed by this batch, and the item should be processed. */
+    CLAIMED,
+    /** Another request holds the key and has not completed. */
+    IN_PROGRESS,
+    /** The key has a stored response that can be replayed. */
+    COMPLETED,
+    /** An earlier item of the same batch has the same key. */
+    REPEATED
+}
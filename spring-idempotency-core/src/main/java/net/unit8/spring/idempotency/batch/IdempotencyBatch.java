@@ -0,0 +1,149 @@
+package net.unit8.spring.idempotency.batch;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyFingerprint;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Dedupes the items of a batch request against the store with one {@code getAndSetAll}.
+ *
+ * <pre>{@code
+ * IdempotencyBatch<Order> batch = IdempotencyBatch.claim(store, orders, Order::idempotencyKey);
+ * for (Order order : batch.claimed()) {
+ *     batch.complete(order.idempotencyKey(), null, process(order));
+ * }
+ * batch.flush();
+ * }</pre>
+ *
+ * <p>{@link #flush()} saves the completed items with one {@code saveAll}, and releases the claimed items
+ * that have not been completed with one {@code deleteAll}, so that they can be retried.
+ * This class is not thread-safe.</p>
+ *
+ * @param <T> the type of the items
+ * @author kawasima
+ */
+public class IdempotencyBatch<T> {
+    private final IdempotencyKeyStore store;
+    private final Duration expiry;
+    private final List<BatchItem<T>> items;
+    private final Set<String> pending = new LinkedHashSet<>();
+    private final Map<String, IdempotencyEntry> completed = new LinkedHashMap<>();
+
+    private IdempotencyBatch(IdempotencyKeyStore store, Duration expiry, List<BatchItem<T>> items) {
+        this.store = store;
+        this.expiry = expiry;
+        this.items = items;
+        for (BatchItem<T> item : items) {
+            if (item.status() == BatchItemStatus.CLAIMED) {
+                pending.add(item.idempotencyKey());
+            }
+        }
+    }
+
+    public static <T> IdempotencyBatch<T> claim(IdempotencyKeyStore store, List<T> items,
+                                                Function<? super T, String> keyExtractor) {
+        return claim(store, items, keyExtractor, null);
+    }
+
+    /**
+     * Claim the keys of the items.
+     *
+     * @param store the store
+     * @param items the items of the batch
+     * @param keyExtractor the function that gives the idempotency key of an item
+     * @param expiry the expiry of the entries, or null for the store's default
+     * @return the batch
+     */
+    public static <T> IdempotencyBatch<T> claim(IdempotencyKeyStore store, List<T> items,
+                                                Function<? super T, String> keyExtractor, Duration expiry) {
+        return claim(store, items, keyExtractor, expiry, expiry);
+    }
+
+    /**
+     * Claim the keys of the items with an expiry that is shorter than that of the completed entries,
+     * so that the keys held by a crashed process are released soon.
+     *
+     * @param store the store
+     * @param items the items of the batch
+     * @param keyExtractor the function that gives the idempotency key of an item
+     * @param claimExpiry the expiry of the claims, or null for the store's default
+     * @param expiry the expiry of the completed entries, or null for the store's default
+     * @return the batch
+     */
+    public static <T> IdempotencyBatch<T> claim(IdempotencyKeyStore store, List<T> items,
+                                                Function<? super T, String> keyExtractor,
+                                                Duration claimExpiry, Duration expiry) {
+        List<String> keys = new ArrayList<>(items.size());
+        for (T item : items) {
+            keys.add(Objects.requireNonNull(keyExtractor.apply(item), "idempotency key"));
+        }
+        Map<String, IdempotencyEntry> existing = store.getAndSetAll(keys, claimExpiry);
+        Set<String> seen = new HashSet<>();
+        List<BatchItem<T>> batchItems = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            String key = keys.get(i);
+            IdempotencyEntry entry = existing.get(key);
+            BatchItemStatus status;
+            if (!seen.add(key)) {
+                status = BatchItemStatus.REPEATED;
+                entry = null;
+            } else if (entry == null) {
+                status = BatchItemStatus.CLAIMED;
+            } else {
+                status = entry.response() == null ? BatchItemStatus.IN_PROGRESS : BatchItemStatus.COMPLETED;
+            }
+            batchItems.add(new BatchItem<>(items.get(i), key, status, entry));
+        }
+        return new IdempotencyBatch<>(store, expiry, List.copyOf(batchItems));
+    }
+
+    /**
+     * @return all the items in the order of the batch
+     */
+    public List<BatchItem<T>> items() {
+        return items;
+    }
+
+    /**
+     * @return the items whose keys have been claimed by this batch and should be processed
+     */
+    public List<T> claimed() {
+        return items.stream()
+                .filter(item -> item.status() == BatchItemStatus.CLAIMED)
+                .map(BatchItem::item)
+                .toList();
+    }
+
+    /**
+     * Record the response of a claimed item. It is saved by {@link #flush()}.
+     *
+     * @param idempotencyKey the key of a claimed item
+     * @param fingerprint the fingerprint of the item, or null
+     * @param response the response to replay
+     */
+    public void complete(String idempotencyKey, IdempotencyFingerprint fingerprint, IdempotencyResponse response) {
+        if (!pending.remove(idempotencyKey)) {
+            throw new IllegalStateException("The key is not claimed by this batch: " + idempotencyKey);
+        }
+        completed.put(idempotencyKey, new IdempotencyEntry(idempotencyKey, fingerprint, response));
+    }
+
+    /**
+     * Save the completed items and release the claimed items that have not been completed.
+     */
+    public void flush() {
+        if (!completed.isEmpty()) {
+            store.saveAll(List.copyOf(completed.values()), expiry);
+            completed.clear();
+        }
+        if (!pending.isEmpty()) {
+            store.deleteAll(List.copyOf(pending));
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package net.unit8.spring.idempotency.blob;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import net.unit8.spring.idempotency.IdempotencyStoreUnavailableException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * The idempotency key store decorator that moves large response bodies to a {@link BlobStore}.
+ *
+ * <p>A body longer than the threshold is written to the blob store before the entry is saved,
+ * and the entry keeps only a {@link BlobPointer} with the size and the checksum of the body in a reserved header.
+ * The body of a returned entry is read back and verified when it is first accessed, so the filter and
+ * the other decorators see the whole response, and a retry that is rejected or answered with 304 reads no blob.</p>
+ *
+ * <p>The blob id is derived from the idempotency key, so that saving the key again replaces its blob.
+ * A blob expires a little after its entry. Deleted entries leave their blobs to expire,
+ * because a delete usually releases a claim that has no blob.</p>
+ *
+ * <p>A broken entry is deleted rather than replaying a wrong body. An entry with a malformed pointer is
+ * deleted when it is read, and the key is claimed again. If the blob is missing or does not match its checksum,
+ * the entry is deleted when the body is accessed, which throws {@link IdempotencyStoreUnavailableException}.
+ * The next retry processes the request again.</p>
+ *
+ * @author kawasima
+ */
+public class BlobOffloadingIdempotencyKeyStore implements IdempotencyKeyStore {
+    private final IdempotencyKeyStore delegate;
+    private final BlobStore blobStore;
+
+    private int threshold = 64 * 1024;
+    private Duration defaultExpiry = Duration.ofDays(1);
+    private Duration expiryGrace = Duration.ofMinutes(1);
+
+    public BlobOffloadingIdempotencyKeyStore(IdempotencyKeyStore delegate, BlobStore blobStore) {
+        this.delegate = delegate;
+        this.blobStore = blobStore;
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey) {
+        return getAndSet(idempotencyKey, null);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        IdempotencyEntry entry = delegate.getAndSet(idempotencyKey, expiry);
+        if (isBroken(entry)) {
+            delegate.delete(idempotencyKey);
+            entry = delegate.getAndSet(idempotencyKey, expiry);
+        }
+        return restore(entry);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry) {
+        save(entry, null);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry, Duration expiry) {
+        delegate.save(offload(entry, expiry), expiry);
+    }
+
+    @Override
+    public boolean supportsEntryExpiry() {
+        return delegate.supportsEntryExpiry();
+    }
+
+    @Override
+    public void delete(String idempotencyKey) {
+        delegate.delete(idempotencyKey);
+    }
+
+    @Override
+    public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        Map<String, IdempotencyEntry> existing = new LinkedHashMap<>(delegate.getAndSetAll(idempotencyKeys, expiry));
+        List<String> broken = existing.entrySet().stream()
+                .filter(e -> isBroken(e.getValue()))
+                .map(Map.Entry::getKey)
+                .toList();
+        if (!broken.isEmpty()) {
+            delegate.deleteAll(broken);
+            existing.keySet().removeAll(broken);
+            Map<String, IdempotencyEntry> reclaimed = delegate.getAndSetAll(broken, expiry);
+            // Keep the order of the keys.
+            Map<String, IdempotencyEntry> merged = new LinkedHashMap<>();
+            for (String idempotencyKey : new LinkedHashSet<>(idempotencyKeys)) {
+                IdempotencyEntry entry = existing.containsKey(idempotencyKey)
+                        ? existing.get(idempotencyKey) : reclaimed.get(idempotencyKey);
+                if (entry != null) {
+                    merged.put(idempotencyKey, entry);
+                }
+            }
+            existing = merged;
+        }
+        existing.replaceAll((idempotencyKey, entry) -> restore(entry));
+        return existing;
+    }
+
+    @Override
+    public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        List<IdempotencyEntry> offloaded = new ArrayList<>(entries.size());
+        for (IdempotencyEntry entry : entries) {
+            offloaded.add(offload(entry, expiry));
+        }
+        delegate.saveAll(offloaded, expiry);
+    }
+
+    @Override
+    public void deleteAll(Collection<String> idempotencyKeys) {
+        delegate.deleteAll(idempotencyKeys);
+    }
+
+    private IdempotencyEntry offload(IdempotencyEntry entry, Duration expiry) {
+        IdempotencyResponse response = entry.response();
+        if (response == null || response.body() == null || response.body().length <= threshold) {
+            return entry;
+        }
+        byte[] body = response.body();
+        BlobPointer pointer = new BlobPointer(blobIdOf(entry.idempotencyKey()), body.length, hex(sha256(body)));
+        Instant expiresAt = Instant.now().plus(expiry != null ? expiry : defaultExpiry).plus(expiryGrace);
+        blobStore.put(pointer.blobId(), body, expiresAt);
+
+        Map<String, Collection<String>> headers = new LinkedHashMap<>();
+        if (response.headers() != null) {
+            headers.putAll(response.headers());
+        }
+        headers.put(BlobPointer.HEADER_NAME, List.of(pointer.encode()));
+        return new IdempotencyEntry(entry.idempotencyKey(), entry.fingerprint(),
+                new IdempotencyResponse(response.status(), headers, null, response.etag()),
+                entry.startedAt());
+    }
+
+    /**
+     * Replace the pointer by the body that is read from the blob store on first access.
+     */
+    private IdempotencyEntry restore(IdempotencyEntry entry) {
+        Collection<String> values = pointerOf(entry);
+        if (values == null) {
+            return entry;
+        }
+        IdempotencyResponse response = entry.response();
+        Map<String, Collection<String>> headers = new LinkedHashMap<>(response.headers());
+        headers.remove(BlobPointer.HEADER_NAME);
+        BlobPointer pointer = BlobPointer.decode(values.iterator().next());
+        return new IdempotencyEntry(entry.idempotencyKey(), entry.fingerprint(),
+                IdempotencyResponse.lazy(response.status(), () -> headers,
+                        () -> readBody(entry.idempotencyKey(), pointer), response.etag()),
+                entry.startedAt());
+    }
+
+    private byte[] readBody(String idempotencyKey, BlobPointer pointer) {
+        byte[] body = blobStore.get(pointer.blobId());
+        if (body == null || body.length != pointer.size() || !hex(sha256(body)).equals(pointer.checksum())) {
+            // The entry can never be replayed, so the key is released for the next retry.
+            delegate.delete(idempotencyKey);
+            throw new IdempotencyStoreUnavailableException(
+                    "The body of the stored response is unavailable: " + idempotencyKey, null, null);
+        }
+        return body;
+    }
+
+    /**
+     * @return the values of the pointer header, or null if the entry has no pointer
+     */
+    private static Collection<String> pointerOf(IdempotencyEntry entry) {
+        if (entry == null || entry.response() == null || entry.response().headers() == null) {
+            return null;
+        }
+        return entry.response().headers().get(BlobPointer.HEADER_NAME);
+    }
+
+    /**
+     * Whether the entry has a pointer that cannot be decoded, which is found without reading the blob.
+     */
+    private static boolean isBroken(IdempotencyEntry entry) {
+        Collection<String> values = pointerOf(entry);
+        return values != null && (values.isEmpty() || BlobPointer.decode(values.iterator().next()) == null);
+    }
+
+    static String blobIdOf(String idempotencyKey) {
+        return hex(sha256(idempotencyKey.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    /**
+     * @param threshold The length of a body above which it is moved to the blob store. 64 KiB by default.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param defaultExpiry The expiry of a blob saved with the store's default expiry.
+     *                      Set it to the default expiry of the delegate. 1 day by default.
+     */
+    public void setDefaultExpiry(Duration defaultExpiry) {
+        this.defaultExpiry = defaultExpiry;
+    }
+
+    /**
+     * @param expiryGrace The time a blob outlives its entry, so that an entry read just before it expires
+     *                    still finds its blob. 1 minute by default.
+     */
+    public void setExpiryGrace(Duration expiryGrace) {
+        this.expiryGrace = expiryGrace;
+    }
+}
@@ -0,0 +1,39 @@
+package net.unit8.spring.idempotency.blob;
+
+/**
+ * The reference to a body in a {@link BlobStore}, kept in the entry in place of the body.
+ *
+ * @param blobId the id of the blob
+ * @param size the length of the body
+ * @param checksum the SHA-256 of the body in hex
+ * @author kawasima
+ */
+public record BlobPointer(String blobId, int size, String checksum) {
+    /**
+     * The header of the stored response that holds the pointer. It is removed before the response is replayed.
+     */
+    public static final String HEADER_NAME = "X-Idempotency-Blob";
+
+    public String encode() {
+        return blobId + ";" + size + ";" + checksum;
+    }
+
+    /**
+     * @param value the encoded pointer
+     * @return the pointer, or null if the value is malformed
+     */
+    public static BlobPointer decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(";", -1);
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new BlobPointer(parts[0], Integer.parseInt(parts[1]), parts[2]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
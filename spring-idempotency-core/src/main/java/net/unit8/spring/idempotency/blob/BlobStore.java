@@ -0,0 +1,35 @@
+package net.unit8.spring.idempotency.blob;
+
+import java.time.Instant;
+
+/**
+ * A store of response bodies that are too large to be kept in the idempotency key store.
+ *
+ * <p>A blob is written once and read as a whole, so that an object storage can implement it
+ * by put, get and delete of an object. The expiry can be mapped to a lifecycle rule of the bucket.</p>
+ *
+ * @author kawasima
+ */
+public interface BlobStore {
+    /**
+     * Write the blob, replacing the one of the same id.
+     *
+     * @param blobId the id of the blob, consisting of lowercase hex digits
+     * @param content the content
+     * @param expiresAt the time after which the blob is no longer read and may be removed
+     */
+    void put(String blobId, byte[] content, Instant expiresAt);
+
+    /**
+     * @param blobId the id of the blob
+     * @return the content, or null if the blob is absent or has expired
+     */
+    byte[] get(String blobId);
+
+    /**
+     * Remove the blob if it exists.
+     *
+     * @param blobId the id of the blob
+     */
+    void delete(String blobId);
+}
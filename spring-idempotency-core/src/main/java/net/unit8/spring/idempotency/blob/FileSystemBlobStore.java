@@ -0,0 +1,174 @@
+package net.unit8.spring.idempotency.blob;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A blob store on the local file system.
+ *
+ * <p>A blob is a file in a subdirectory named by the first two characters of its id.
+ * The file starts with the expiry in epoch milliseconds, and is written to a temporary file
+ * and moved into place, so that a reader never sees a partial blob.
+ * Expired blobs are not read, and are removed by a sweep on a daemon thread.</p>
+ *
+ * <p>Only nodes that share the directory can replay each other's bodies, so a cluster needs
+ * a shared volume or an object storage.</p>
+ *
+ * @author kawasima
+ */
+public class FileSystemBlobStore implements BlobStore, InitializingBean, DisposableBean {
+    private static final Log LOG = LogFactory.getLog(FileSystemBlobStore.class);
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long TEMP_FILE_TTL_MILLIS = Duration.ofHours(1).toMillis();
+
+    private final Path directory;
+    private Duration sweepInterval = Duration.ofMinutes(10);
+    private ScheduledExecutorService sweeper;
+
+    public FileSystemBlobStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void put(String blobId, byte[] content, Instant expiresAt) {
+        Path path = pathOf(blobId);
+        Path temp = path.resolveSibling(blobId + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        try {
+            Files.createDirectories(path.getParent());
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeLong(expiresAt.toEpochMilli());
+                out.write(content);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public byte[] get(String blobId) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(pathOf(blobId));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (bytes.length < Long.BYTES || isExpired(ByteBuffer.wrap(bytes).getLong(), System.currentTimeMillis())) {
+            return null;
+        }
+        byte[] content = new byte[bytes.length - Long.BYTES];
+        System.arraycopy(bytes, Long.BYTES, content, 0, content.length);
+        return content;
+    }
+
+    @Override
+    public void delete(String blobId) {
+        try {
+            Files.deleteIfExists(pathOf(blobId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Remove the expired blobs, and the temporary files left by interrupted writes.
+     *
+     * @return the number of files removed
+     */
+    public int sweep() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                if (isSweepable(file, now) && Files.deleteIfExists(file)) {
+                    removed++;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return removed;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return removed;
+    }
+
+    private boolean isSweepable(Path file, long now) throws IOException {
+        if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+            return Files.getLastModifiedTime(file).toMillis() < now - TEMP_FILE_TTL_MILLIS;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] header = in.readNBytes(Long.BYTES);
+            return header.length == Long.BYTES && isExpired(ByteBuffer.wrap(header).getLong(), now);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static boolean isExpired(long expiresAt, long now) {
+        return expiresAt <= now;
+    }
+
+    private Path pathOf(String blobId) {
+        if (blobId.length() < 2 || !blobId.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+            throw new IllegalArgumentException("Illegal blob id: " + blobId);
+        }
+        return directory.resolve(blobId.substring(0, 2)).resolve(blobId);
+    }
+
+    /**
+     * @param sweepInterval The interval of the sweep of expired blobs. Zero disables the sweep.
+     */
+    public void setSweepInterval(Duration sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        Files.createDirectories(directory);
+        if (!sweepInterval.isZero()) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "idempotency-blob-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = sweepInterval.toMillis();
+            sweeper.scheduleWithFixedDelay(() -> {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to sweep the expired blobs in " + directory, e);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+}
@@ -1,4 +1,105 @@
 package net.unit8.spring.idempotency.defaults;
 
+/**
+ * The constraint of idempotency keys.
+ *
+ * <p>A valid key is a non-empty string of printable ASCII characters up to {@code maxLength}.
+ * Keys in the canonical UUID form (lowercase {@code 8-4-4-4-12} hex digits, as produced by
+ * {@link java.util.UUID#toString()}) can be parsed into two {@code long}s without allocation,
+ * so that stores can index them by primitives instead of strings.
+ * Other spellings of a UUID (uppercase, quoted) are different keys and are not treated as UUIDs.</p>
+ *
+ * @author kawasima
+ */
 public class DefaultIdempotencyKeyConstraint {
+    private static final int DEFAULT_MAX_LENGTH = 255;
+    private static final int UUID_LENGTH = 36;
+
+    private int maxLength = DEFAULT_MAX_LENGTH;
+
+    /**
+     * Check that the key is a non-empty string of printable ASCII characters up to the max length.
+     *
+     * @param idempotencyKey the idempotency key
+     * @return true if the key is valid
+     */
+    public boolean isValid(String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.isEmpty() || idempotencyKey.length() > maxLength) {
+            return false;
+        }
+        for (int i = 0; i < idempotencyKey.length(); i++) {
+            char c = idempotencyKey.charAt(i);
+            if (c < 0x20 || c > 0x7e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check that the key is a UUID in the canonical form.
+     *
+     * @param idempotencyKey the idempotency key
+     * @return true if the key is a canonical UUID
+     */
+    public boolean isUuid(String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.length() != UUID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = idempotencyKey.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (hexValue(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The most significant 64 bits of the canonical UUID key.
+     *
+     * @param uuidKey the key that satisfies {@link #isUuid(String)}
+     * @return the most significant bits
+     */
+    public long mostSignificantBits(String uuidKey) {
+        return parseHex(uuidKey, 0, 8) << 32
+                | parseHex(uuidKey, 9, 13) << 16
+                | parseHex(uuidKey, 14, 18);
+    }
+
+    /**
+     * The least significant 64 bits of the canonical UUID key.
+     *
+     * @param uuidKey the key that satisfies {@link #isUuid(String)}
+     * @return the least significant bits
+     */
+    public long leastSignificantBits(String uuidKey) {
+        return parseHex(uuidKey, 19, 23) << 48
+                | parseHex(uuidKey, 24, 36);
+    }
+
+    private static long parseHex(String s, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = (value << 4) | hexValue(s.charAt(i));
+        }
+        return value;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
 }
@@ -16,10 +16,10 @@ public class DefaultIdempotencyKeyStore implements IdempotencyKeyStore {
 
     @Override
     public IdempotencyEntry getAndSet(String idempotencyKey) {
-        IdempotencyEntry entry = new IdempotencyEntry(idempotencyKey, null, null);
+        IdempotencyEntry entry = IdempotencyEntry.inProgress(idempotencyKey);
         Cache.ValueWrapper existingEntry = cacheManager.getCache(cacheName)
                 .putIfAbsent(idempotencyKey, entry);
-        return existingEntry != null ? (IdempotencyEntry) existingEntry.get() : entry;
+        return existingEntry != null ? (IdempotencyEntry) existingEntry.get() : null;
     }
 
     @Override
@@ -0,0 +1,102 @@
+package net.unit8.spring.idempotency.hotkey;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A count-min sketch that estimates the frequencies of strings in fixed memory.
+ *
+ * <p>An estimate is never below the true count, and exceeds it by at most {@code e * N / width}
+ * with probability {@code 1 - e^-depth}, where N is the total count. The hash is seeded per sketch,
+ * so that clients cannot choose keys that collide with another key in every row.</p>
+ *
+ * <p>This class is thread-safe without locks. The counters are atomic and incremented in every row,
+ * so that concurrent occurrences are never lost. A concurrent {@link #halve()} may miss
+ * the occurrences counted while it runs, which only delays their decay.</p>
+ *
+ * @author kawasima
+ */
+public class CountMinSketch {
+    private final int depth;
+    private final int mask;
+    private final AtomicIntegerArray counters;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    /**
+     * @param width the number of counters in a row, rounded up to a power of two
+     * @param depth the number of rows
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException("The width and the depth must be positive");
+        }
+        int roundedWidth = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+        this.depth = depth;
+        this.mask = roundedWidth - 1;
+        this.counters = new AtomicIntegerArray(Math.multiplyExact(roundedWidth, depth));
+    }
+
+    /**
+     * Count an occurrence of the item.
+     *
+     * @param item the item
+     * @return the estimated count of the item including this occurrence
+     */
+    public int add(String item) {
+        long hash = hash(item);
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters.updateAndGet(indexOf(hash, row),
+                    count -> count == Integer.MAX_VALUE ? count : count + 1));
+        }
+        return min;
+    }
+
+    /**
+     * @param item the item
+     * @return the estimated count of the item
+     */
+    public int estimate(String item) {
+        return estimate(hash(item));
+    }
+
+    /**
+     * Halve all counters, so that the estimates follow the recent occurrences.
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.updateAndGet(i, count -> count >>> 1);
+        }
+    }
+
+    private int estimate(long hash) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters.get(indexOf(hash, row)));
+        }
+        return min;
+    }
+
+    /**
+     * The index in a row by double hashing.
+     */
+    private int indexOf(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+
+    private long hash(String item) {
+        // FNV-1a from a random offset, finished by the mixer of MurmurHash3.
+        long h = seed;
+        for (int i = 0; i < item.length(); i++) {
+            h = (h ^ item.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,17 @@
+package net.unit8.spring.idempotency.hotkey;
+
+import java.util.List;
+
+/**
+ * A key that is used much more often than the others.
+ *
+ * @param idempotencyKey the idempotency key
+ * @param clients the identifiers of the clients that have used the key recently, the latest last
+ * @param estimatedCount the estimated number of uses of the key, which decays over time
+ */
+public record HotKey(
+        String idempotencyKey,
+        List<String> clients,
+        long estimatedCount
+) {
+}
@@ -0,0 +1,275 @@
+package net.unit8.spring.idempotency.hotkey;
+
+import jdk.jfr.FlightRecorder;
+import net.unit8.spring.idempotency.jfr.IdempotencyHotKeyEvent;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the idempotency keys that are used much more often than the others, such as a key that a broken client
+ * retries in a loop, before they overload a shard of the store.
+ *
+ * <p>The uses of all keys are counted in a {@link CountMinSketch} of fixed size, and the keys with the highest
+ * estimates are kept as candidates with the clients that have used them. All counts are halved every decay interval,
+ * so a key that is no longer used cools down. A key whose count exceeds the throttle threshold can be rejected
+ * by the caller until it cools down.</p>
+ *
+ * <p>The sketch is counted without locks. A key that is not a candidate and is not hotter than the coldest
+ * candidate returns without locking, so only the admission to the small candidate set is serialized,
+ * and each candidate is locked on its own update.</p>
+ *
+ * <p>The hot keys are recorded as {@link IdempotencyHotKeyEvent}s every minute while the detector is initialized.
+ * The numbers of recorded and throttled uses are available as metrics.</p>
+ *
+ * @author kawasima
+ */
+public class HotKeyDetector implements InitializingBean, DisposableBean {
+    private final CountMinSketch sketch;
+    private final Map<String, Candidate> candidates = new ConcurrentHashMap<>();
+    /**
+     * Serializes the admission and the eviction of candidates, and the decay.
+     */
+    private final Object candidatesLock = new Object();
+    private final Runnable periodicEventHook = this::recordEvents;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    private int capacity = 10;
+    private int maxClientsPerKey = 4;
+    private long reportThreshold = 100;
+    private long throttleThreshold;
+    private Duration decayInterval = Duration.ofMinutes(1);
+
+    /**
+     * A lower bound of the smallest count of the candidates when there is no room for another.
+     */
+    private volatile long floor;
+    private volatile long lastDecayNanos = System.nanoTime();
+
+    public HotKeyDetector() {
+        this(2048, 4);
+    }
+
+    /**
+     * @param width the number of counters in a row of the sketch
+     * @param depth the number of rows of the sketch
+     */
+    public HotKeyDetector(int width, int depth) {
+        this.sketch = new CountMinSketch(width, depth);
+    }
+
+    /**
+     * Count a use of the key.
+     *
+     * @param idempotencyKey the idempotency key
+     * @param client the identifier of the client, or null
+     * @return the estimated number of uses of the key including this one
+     */
+    public long record(String idempotencyKey, String client) {
+        return record(idempotencyKey, client, System.nanoTime());
+    }
+
+    long record(String idempotencyKey, String client, long nowNanos) {
+        decay(nowNanos);
+        recorded.increment();
+        long count = sketch.add(idempotencyKey);
+        Candidate candidate = candidates.get(idempotencyKey);
+        if (candidate == null) {
+            if (count <= floor && candidates.size() >= capacity) {
+                return count;
+            }
+            synchronized (candidatesLock) {
+                candidate = candidates.get(idempotencyKey);
+                if (candidate == null) {
+                    if (candidates.size() >= capacity && !evictSmallerThan(count)) {
+                        return count;
+                    }
+                    candidate = new Candidate();
+                    candidates.put(idempotencyKey, candidate);
+                }
+            }
+        }
+        candidate.update(count, client);
+        return count;
+    }
+
+    /**
+     * Decide whether a use of the key is rejected, and count it as throttled if so.
+     *
+     * @param estimatedCount the count returned by {@link #record(String, String)}
+     * @return true if the key is to be rejected until it cools down
+     */
+    public boolean isThrottled(long estimatedCount) {
+        if (throttleThreshold > 0 && estimatedCount > throttleThreshold) {
+            throttled.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the keys whose counts have reached the report threshold, the hottest first
+     */
+    public List<HotKey> hotKeys() {
+        return hotKeys(System.nanoTime());
+    }
+
+    List<HotKey> hotKeys(long nowNanos) {
+        decay(nowNanos);
+        List<HotKey> hotKeys = new ArrayList<>();
+        candidates.forEach((idempotencyKey, candidate) -> {
+            HotKey hotKey = candidate.toHotKey(idempotencyKey);
+            if (hotKey.estimatedCount() >= reportThreshold) {
+                hotKeys.add(hotKey);
+            }
+        });
+        hotKeys.sort(Comparator.comparingLong(HotKey::estimatedCount).reversed());
+        return hotKeys;
+    }
+
+    /**
+     * @return the number of uses recorded since the detector was created
+     */
+    public long getRecordedCount() {
+        return recorded.sum();
+    }
+
+    /**
+     * @return the number of uses throttled since the detector was created
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    /**
+     * Evict the coldest candidate if it is colder than the given count, and raise the floor.
+     * Called with the lock of the candidates.
+     */
+    private boolean evictSmallerThan(long count) {
+        String coldest = null;
+        long min = Long.MAX_VALUE;
+        for (Map.Entry<String, Candidate> entry : candidates.entrySet()) {
+            long candidateCount = entry.getValue().count;
+            if (candidateCount < min) {
+                min = candidateCount;
+                coldest = entry.getKey();
+            }
+        }
+        floor = min;
+        if (coldest == null || min >= count) {
+            return false;
+        }
+        candidates.remove(coldest);
+        return true;
+    }
+
+    private void decay(long nowNanos) {
+        long interval = decayInterval.toNanos();
+        if (interval <= 0 || nowNanos - lastDecayNanos < interval) {
+            return;
+        }
+        synchronized (candidatesLock) {
+            long elapsed = nowNanos - lastDecayNanos;
+            if (elapsed < interval) {
+                return;
+            }
+            // A long idle time halves the counts once per interval, up to the point where they are all zero.
+            int halvings = (int) Math.min(elapsed / interval, Integer.SIZE);
+            for (int i = 0; i < halvings; i++) {
+                sketch.halve();
+            }
+            candidates.values().removeIf(candidate -> candidate.halve(halvings) == 0);
+            floor = 0;
+            lastDecayNanos += halvings == Integer.SIZE ? elapsed : halvings * interval;
+        }
+    }
+
+    private void recordEvents() {
+        for (HotKey hotKey : hotKeys()) {
+            IdempotencyHotKeyEvent event = new IdempotencyHotKeyEvent();
+            event.keyHash = Objects.hashCode(hotKey.idempotencyKey());
+            event.clients = String.join(",", hotKey.clients());
+            event.estimatedCount = hotKey.estimatedCount();
+            event.commit();
+        }
+    }
+
+    /**
+     * @param capacity The number of keys tracked as candidates. 10 by default.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param maxClientsPerKey The number of the latest clients remembered for a key. 4 by default.
+     */
+    public void setMaxClientsPerKey(int maxClientsPerKey) {
+        this.maxClientsPerKey = maxClientsPerKey;
+    }
+
+    /**
+     * @param reportThreshold The count from which a candidate is reported as a hot key. 100 by default.
+     */
+    public void setReportThreshold(long reportThreshold) {
+        this.reportThreshold = reportThreshold;
+    }
+
+    /**
+     * @param throttleThreshold The count above which a key is throttled. Zero, the default, disables throttling.
+     */
+    public void setThrottleThreshold(long throttleThreshold) {
+        this.throttleThreshold = throttleThreshold;
+    }
+
+    /**
+     * @param decayInterval The interval at which all counts are halved. 1 minute by default.
+     */
+    public void setDecayInterval(Duration decayInterval) {
+        this.decayInterval = decayInterval;
+    }
+
+    public Duration getDecayInterval() {
+        return decayInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        FlightRecorder.addPeriodicEvent(IdempotencyHotKeyEvent.class, periodicEventHook);
+    }
+
+    @Override
+    public void destroy() {
+        FlightRecorder.removePeriodicEvent(periodicEventHook);
+    }
+
+    private class Candidate {
+        private final Deque<String> clients = new ArrayDeque<>();
+        private volatile long count;
+
+        synchronized void update(long count, String client) {
+            this.count = count;
+            if (client == null || client.equals(clients.peekLast())) {
+                return;
+            }
+            clients.remove(client);
+            clients.addLast(client);
+            while (clients.size() > maxClientsPerKey) {
+                clients.removeFirst();
+            }
+        }
+
+        synchronized long halve(int halvings) {
+            return count >>>= halvings;
+        }
+
+        synchronized HotKey toHotKey(String idempotencyKey) {
+            return new HotKey(idempotencyKey, List.copyOf(clients), count);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package net.unit8.spring.idempotency.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event of the creation of a request fingerprint.
+ *
+ * @author kawasima
+ */
+@Name("net.unit8.spring.idempotency.Fingerprint")
+@Label("Idempotency Fingerprint")
+@Category("Idempotency")
+@StackTrace(false)
+public class IdempotencyFingerprintEvent extends Event {
+    @Label("Strategy")
+    public String strategy;
+
+    @Label("Key Hash")
+    public int keyHash;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long payloadSize;
+
+    @Label("Outcome")
+    public String outcome;
+}
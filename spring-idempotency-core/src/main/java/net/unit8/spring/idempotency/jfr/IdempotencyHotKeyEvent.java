@@ -0,0 +1,24 @@
+package net.unit8.spring.idempotency.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A periodic JDK Flight Recorder event of a hot key reported by a {@link net.unit8.spring.idempotency.hotkey.HotKeyDetector}.
+ *
+ * @author kawasima
+ */
+@Name("net.unit8.spring.idempotency.HotKey")
+@Label("Idempotency Hot Key")
+@Category("Idempotency")
+@Period("60 s")
+@StackTrace(false)
+public class IdempotencyHotKeyEvent extends Event {
+    @Label("Key Hash")
+    public int keyHash;
+
+    @Label("Clients")
+    public String clients;
+
+    @Label("Estimated Count")
+    public long estimatedCount;
+}
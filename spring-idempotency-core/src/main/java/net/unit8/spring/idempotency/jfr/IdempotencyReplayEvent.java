@@ -0,0 +1,32 @@
+package net.unit8.spring.idempotency.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event of the handling of a retried request.
+ *
+ * <p>The outcome is {@code REPLAYED} if the stored response has been sent,
+ * {@code NOT_MODIFIED} if the client has it already, {@code CONFLICT} if the original
+ * request is in progress, {@code MISMATCH} if the fingerprint differs and {@code UNAVAILABLE}
+ * if the stored body cannot be read.</p>
+ *
+ * @author kawasima
+ */
+@Name("net.unit8.spring.idempotency.Replay")
+@Label("Idempotency Replay")
+@Category("Idempotency")
+@StackTrace(false)
+public class IdempotencyReplayEvent extends Event {
+    @Label("Key Hash")
+    public int keyHash;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long payloadSize;
+
+    @Label("Outcome")
+    public String outcome;
+}
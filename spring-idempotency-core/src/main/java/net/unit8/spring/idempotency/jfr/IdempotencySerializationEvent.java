@@ -0,0 +1,27 @@
+package net.unit8.spring.idempotency.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event of the serialization or the deserialization of an idempotency entry.
+ *
+ * @author kawasima
+ */
+@Name("net.unit8.spring.idempotency.Serialization")
+@Label("Idempotency Entry Serialization")
+@Category("Idempotency")
+@StackTrace(false)
+public class IdempotencySerializationEvent extends Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Key Hash")
+    public int keyHash;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long payloadSize;
+
+    @Label("Outcome")
+    public String outcome;
+}
@@ -0,0 +1,30 @@
+package net.unit8.spring.idempotency.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event of an operation of an {@link net.unit8.spring.idempotency.IdempotencyKeyStore}.
+ *
+ * @author kawasima
+ */
+@Name("net.unit8.spring.idempotency.Store")
+@Label("Idempotency Store Operation")
+@Category("Idempotency")
+@StackTrace(false)
+public class IdempotencyStoreEvent extends Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Store Type")
+    public String storeType;
+
+    @Label("Key Hash")
+    public int keyHash;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long payloadSize;
+
+    @Label("Outcome")
+    public String outcome;
+}
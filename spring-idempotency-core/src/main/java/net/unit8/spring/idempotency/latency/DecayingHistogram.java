@@ -0,0 +1,126 @@
+package net.unit8.spring.idempotency.latency;
+
+/**
+ * A histogram of latencies whose samples lose half of their weight every half-life.
+ *
+ * <p>The buckets are logarithmic, four per doubling from 1 millisecond, so the relative error
+ * of a quantile is less than 19%. The decay is applied lazily to all buckets at once,
+ * at most once per {@code halfLife / 16}.</p>
+ *
+ * @author kawasima
+ */
+public class DecayingHistogram {
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKETS = 96;
+    private static final int DECAY_STEPS_PER_HALF_LIFE = 16;
+
+    private final double[] weights = new double[BUCKETS];
+    private final long halfLifeNanos;
+    private final long decayIntervalNanos;
+    private double totalWeight;
+    private long lastDecayNanos;
+
+    /**
+     * @param halfLifeNanos the half-life of the weight of a sample in nanoseconds
+     * @param nowNanos the current value of {@link System#nanoTime()}
+     */
+    public DecayingHistogram(long halfLifeNanos, long nowNanos) {
+        this.halfLifeNanos = halfLifeNanos;
+        this.decayIntervalNanos = Math.max(1, halfLifeNanos / DECAY_STEPS_PER_HALF_LIFE);
+        this.lastDecayNanos = nowNanos;
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param latencyMillis the latency in milliseconds
+     * @param nowNanos the current value of {@link System#nanoTime()}
+     */
+    public synchronized void record(double latencyMillis, long nowNanos) {
+        decay(nowNanos);
+        weights[bucketOf(latencyMillis)] += 1.0;
+        totalWeight += 1.0;
+    }
+
+    /**
+     * The sum of the decayed weights of the samples.
+     */
+    public synchronized double totalWeight(long nowNanos) {
+        decay(nowNanos);
+        return totalWeight;
+    }
+
+    /**
+     * Estimate the latency at the quantile of the samples that took longer than the given latency.
+     *
+     * @param quantile the quantile between 0 and 1
+     * @param aboveMillis the lower limit of the latency in milliseconds
+     * @param nowNanos the current value of {@link System#nanoTime()}
+     * @return the latency in milliseconds, or a negative value if no sample took longer than the limit
+     */
+    public synchronized double quantileAbove(double quantile, double aboveMillis, long nowNanos) {
+        decay(nowNanos);
+        int from = aboveMillis > 0 ? bucketOf(aboveMillis) : 0;
+        double lower = aboveMillis > 0 ? aboveMillis : 0;
+        // The bucket containing the limit only counts for its part above the limit.
+        double firstFraction = fractionAbove(from, lower);
+        double total = weights[from] * firstFraction;
+        for (int i = from + 1; i < BUCKETS; i++) {
+            total += weights[i];
+        }
+        if (total <= 0) {
+            return -1;
+        }
+        double target = total * quantile;
+        double cumulative = 0;
+        for (int i = from; i < BUCKETS; i++) {
+            double weight = i == from ? weights[i] * firstFraction : weights[i];
+            if (weight > 0 && cumulative + weight >= target) {
+                double start = i == from ? Math.max(lower, lowerBound(i)) : lowerBound(i);
+                double end = upperBound(i);
+                return start + (end - start) * ((target - cumulative) / weight);
+            }
+            cumulative += weight;
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    private void decay(long nowNanos) {
+        long elapsed = nowNanos - lastDecayNanos;
+        if (elapsed < decayIntervalNanos) {
+            return;
+        }
+        double factor = Math.pow(0.5, (double) elapsed / halfLifeNanos);
+        totalWeight = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            weights[i] *= factor;
+            totalWeight += weights[i];
+        }
+        lastDecayNanos = nowNanos;
+    }
+
+    private static double fractionAbove(int bucket, double millis) {
+        double lower = lowerBound(bucket);
+        double upper = upperBound(bucket);
+        if (millis <= lower) {
+            return 1.0;
+        }
+        return Math.max(0, (upper - millis) / (upper - lower));
+    }
+
+    static int bucketOf(double millis) {
+        if (millis < 1.0) {
+            return 0;
+        }
+        int bucket = 1 + (int) (Math.log(millis) / Math.log(2) * BUCKETS_PER_DOUBLING);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    static double lowerBound(int bucket) {
+        return bucket == 0 ? 0 : Math.pow(2, (double) (bucket - 1) / BUCKETS_PER_DOUBLING);
+    }
+
+    static double upperBound(int bucket) {
+        return Math.pow(2, (double) bucket / BUCKETS_PER_DOUBLING);
+    }
+}
@@ -0,0 +1,143 @@
+package net.unit8.spring.idempotency.migration;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The idempotency key store decorator that writes to two stores and reads from the primary one,
+ * for a cutover from one store to another without downtime.
+ *
+ * <ol>
+ *     <li>Write to the old store as the primary and the new one as the secondary,
+ *     and copy the existing entries with {@link IdempotencyStoreMigrator}.</li>
+ *     <li>Swap the stores, so that the new store answers while the old one still receives the writes
+ *     of the nodes that have not switched yet.</li>
+ *     <li>Use the new store alone.</li>
+ * </ol>
+ *
+ * <p>A key claimed in the primary is claimed in the secondary as well, and the saves and deletes are applied
+ * to both. If the key already exists in the secondary, e.g. claimed by a node that still uses it as the primary,
+ * the claim of the primary is released and the entry of the secondary is returned.
+ * Failures of the secondary are logged and swallowed, so that they never fail a request.</p>
+ *
+ * @author kawasima
+ */
+public class DualWriteIdempotencyKeyStore implements IdempotencyKeyStore {
+    private static final Log LOG = LogFactory.getLog(DualWriteIdempotencyKeyStore.class);
+
+    private final IdempotencyKeyStore primary;
+    private final IdempotencyKeyStore secondary;
+
+    public DualWriteIdempotencyKeyStore(IdempotencyKeyStore primary, IdempotencyKeyStore secondary) {
+        this.primary = primary;
+        this.secondary = secondary;
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey) {
+        return getAndSet(idempotencyKey, null);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        IdempotencyEntry entry = primary.getAndSet(idempotencyKey, expiry);
+        if (entry == null) {
+            entry = mirrorClaim("getAndSet", store -> store.getAndSet(idempotencyKey, expiry));
+            if (entry != null) {
+                primary.delete(idempotencyKey);
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry) {
+        save(entry, null);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry, Duration expiry) {
+        primary.save(entry, expiry);
+        mirror("save", store -> store.save(entry, expiry));
+    }
+
+    @Override
+    public boolean supportsEntryExpiry() {
+        return primary.supportsEntryExpiry() && secondary.supportsEntryExpiry();
+    }
+
+    @Override
+    public void delete(String idempotencyKey) {
+        primary.delete(idempotencyKey);
+        mirror("delete", store -> store.delete(idempotencyKey));
+    }
+
+    @Override
+    public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        Map<String, IdempotencyEntry> existing = primary.getAndSetAll(idempotencyKeys, expiry);
+        List<String> claimed = new ArrayList<>();
+        for (String idempotencyKey : new LinkedHashSet<>(idempotencyKeys)) {
+            if (!existing.containsKey(idempotencyKey)) {
+                claimed.add(idempotencyKey);
+            }
+        }
+        if (claimed.isEmpty()) {
+            return existing;
+        }
+        Map<String, IdempotencyEntry> existingInSecondary = mirrorClaim("getAndSetAll",
+                store -> store.getAndSetAll(claimed, expiry));
+        if (existingInSecondary == null || existingInSecondary.isEmpty()) {
+            return existing;
+        }
+        primary.deleteAll(existingInSecondary.keySet());
+        Map<String, IdempotencyEntry> merged = new LinkedHashMap<>(existing);
+        merged.putAll(existingInSecondary);
+        return merged;
+    }
+
+    @Override
+    public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        primary.saveAll(entries, expiry);
+        mirror("saveAll", store -> store.saveAll(entries, expiry));
+    }
+
+    @Override
+    public void deleteAll(Collection<String> idempotencyKeys) {
+        primary.deleteAll(idempotencyKeys);
+        mirror("deleteAll", store -> store.deleteAll(idempotencyKeys));
+    }
+
+    /**
+     * Claim in the secondary store.
+     *
+     * @return the result of the secondary, or null if it has failed
+     */
+    private <T> T mirrorClaim(String operation, Function<IdempotencyKeyStore, T> claim) {
+        try {
+            return claim.apply(secondary);
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to " + operation + " in the secondary idempotency key store", e);
+            return null;
+        }
+    }
+
+    private void mirror(String operation, Consumer<IdempotencyKeyStore> write) {
+        try {
+            write.accept(secondary);
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to " + operation + " in the secondary idempotency key store", e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package net.unit8.spring.idempotency.migration;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.ScannableIdempotencyKeyStore;
+import net.unit8.spring.idempotency.ScannedEntry;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Copies the live entries of a store to another store with their remaining time to live.
+ *
+ * <p>The source is scanned in batches, and the batches are written to the target in parallel
+ * at a limited rate. A batch first claims its keys in the target, so that an entry the target already has,
+ * e.g. by a {@link DualWriteIdempotencyKeyStore}, is never overwritten. Completed entries are then saved
+ * with their remaining time to live truncated to the granularity, and an in-progress entry is copied as
+ * the claim itself, which expires after the default expiry of the target.</p>
+ *
+ * <p>Run it while the application writes to both stores, so that the entries written during the scan
+ * are not lost.</p>
+ *
+ * @author kawasima
+ */
+public class IdempotencyStoreMigrator {
+    private final ScannableIdempotencyKeyStore source;
+    private final IdempotencyKeyStore target;
+
+    private int batchSize = 100;
+    private int parallelism = 4;
+    private double maxEntriesPerSecond;
+    private Duration minTimeToLive = Duration.ofSeconds(1);
+    private Duration ttlGranularity = Duration.ofSeconds(1);
+
+    public IdempotencyStoreMigrator(ScannableIdempotencyKeyStore source, IdempotencyKeyStore target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * Copy the entries and wait for the copies to finish.
+     *
+     * @return the counts of the migration
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws RuntimeException the first failure of the target, after the running batches have finished
+     */
+    public MigrationResult migrate() throws InterruptedException {
+        Counts counts = new Counts();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Semaphore pending = new Semaphore(parallelism * 2);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "idempotency-migrator-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (Stream<ScannedEntry> entries = source.scan(batchSize)) {
+            Iterator<ScannedEntry> iterator = entries.iterator();
+            List<ScannedEntry> batch = new ArrayList<>(batchSize);
+            long nextNanos = System.nanoTime();
+            while (failure.get() == null && (iterator.hasNext() || !batch.isEmpty())) {
+                if (iterator.hasNext()) {
+                    ScannedEntry entry = iterator.next();
+                    counts.scanned.increment();
+                    if (entry.timeToLive() != null && entry.timeToLive().compareTo(minTimeToLive) < 0) {
+                        counts.expired.increment();
+                    } else {
+                        batch.add(entry);
+                    }
+                    if (batch.size() < batchSize) {
+                        continue;
+                    }
+                }
+                nextNanos = throttle(nextNanos, batch.size());
+                pending.acquire();
+                List<ScannedEntry> submitted = batch;
+                executor.execute(() -> {
+                    try {
+                        if (failure.get() == null) {
+                            copy(submitted, counts);
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        pending.release();
+                    }
+                });
+                batch = new ArrayList<>(batchSize);
+            }
+        } finally {
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Wait for the running batches, so that the counts are complete.
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return new MigrationResult(counts.scanned.sum(), counts.copied.sum(), counts.skipped.sum(), counts.expired.sum());
+    }
+
+    private void copy(List<ScannedEntry> batch, Counts counts) {
+        Map<String, ScannedEntry> byKey = new LinkedHashMap<>();
+        for (ScannedEntry entry : batch) {
+            byKey.put(entry.entry().idempotencyKey(), entry);
+        }
+        Map<String, IdempotencyEntry> existing = target.getAndSetAll(byKey.keySet());
+        Map<Duration, List<IdempotencyEntry>> completed = new LinkedHashMap<>();
+        byKey.forEach((idempotencyKey, entry) -> {
+            if (existing.containsKey(idempotencyKey)) {
+                counts.skipped.increment();
+            } else if (entry.entry().response() == null) {
+                counts.copied.increment();
+            } else {
+                completed.computeIfAbsent(truncate(entry.timeToLive()), ttl -> new ArrayList<>()).add(entry.entry());
+            }
+        });
+        completed.forEach((ttl, entries) -> {
+            target.saveAll(entries, ttl);
+            counts.copied.add(entries.size());
+        });
+    }
+
+    /**
+     * Truncate the time to live, so that the entries of a batch are saved in a few calls.
+     */
+    private Duration truncate(Duration timeToLive) {
+        if (timeToLive == null || ttlGranularity.isZero()) {
+            return timeToLive;
+        }
+        long granularity = ttlGranularity.toMillis();
+        long truncated = timeToLive.toMillis() / granularity * granularity;
+        return truncated > 0 ? Duration.ofMillis(truncated) : timeToLive;
+    }
+
+    private long throttle(long nextNanos, int entries) throws InterruptedException {
+        if (maxEntriesPerSecond <= 0) {
+            return nextNanos;
+        }
+        long now = System.nanoTime();
+        if (nextNanos > now) {
+            TimeUnit.NANOSECONDS.sleep(nextNanos - now);
+        }
+        return Math.max(now, nextNanos) + (long) (entries * 1_000_000_000L / maxEntriesPerSecond);
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param parallelism The number of batches written to the target at a time.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param maxEntriesPerSecond The rate limit of the copies. Zero means no limit.
+     */
+    public void setMaxEntriesPerSecond(double maxEntriesPerSecond) {
+        this.maxEntriesPerSecond = maxEntriesPerSecond;
+    }
+
+    /**
+     * @param minTimeToLive The entries that expire sooner are not copied. 1 second by default.
+     */
+    public void setMinTimeToLive(Duration minTimeToLive) {
+        this.minTimeToLive = minTimeToLive;
+    }
+
+    /**
+     * @param ttlGranularity The unit to which the remaining time to live is truncated,
+     *                       so that entries expiring at close times are saved together. 1 second by default.
+     */
+    public void setTtlGranularity(Duration ttlGranularity) {
+        this.ttlGranularity = ttlGranularity;
+    }
+
+    private static class Counts {
+        final LongAdder scanned = new LongAdder();
+        final LongAdder copied = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder expired = new LongAdder();
+    }
+}
@@ -0,0 +1,13 @@
+package net.unit8.spring.idempotency.migration;
+
+/**
+ * The counts of a migration.
+ *
+ * @param scanned the number of entries read from the source
+ * @param copied the number of entries written to the target
+ * @param skipped the number of entries that the target already had
+ * @param expired the number of entries that were about to expire and have not been copied
+ * @author kawasima
+ */
+public record MigrationResult(long scanned, long copied, long skipped, long expired) {
+}
@@ -0,0 +1,134 @@
+package net.unit8.spring.idempotency.resilience;
+
+import java.time.Duration;
+import java.util.function.BiConsumer;
+
+/**
+ * A circuit breaker that opens after consecutive failures and probes the store after the open duration.
+ *
+ * @author kawasima
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final int halfOpenProbes;
+    private final BiConsumer<CircuitState, CircuitState> onTransition;
+
+    private CircuitState state = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    /**
+     * @param failureThreshold the consecutive failures to open the circuit
+     * @param openDuration the time to reject calls before probing
+     * @param halfOpenProbes the successful probes to close the circuit
+     * @param onTransition called with the old and the new state on each transition
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration, int halfOpenProbes,
+                          BiConsumer<CircuitState, CircuitState> onTransition) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+        this.halfOpenProbes = halfOpenProbes;
+        this.onTransition = onTransition;
+    }
+
+    /**
+     * Ask for a permission to call the store.
+     * A permitted caller must report {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @return true if the call is permitted
+     */
+    public boolean tryAcquirePermission() {
+        CircuitState from;
+        synchronized (this) {
+            if (state == CircuitState.CLOSED) {
+                return true;
+            }
+            if (state == CircuitState.OPEN) {
+                if (System.nanoTime() - openedAt < openDurationNanos) {
+                    return false;
+                }
+                from = transition(CircuitState.HALF_OPEN);
+            } else {
+                from = null;
+            }
+            if (probesInFlight >= halfOpenProbes) {
+                return false;
+            }
+            probesInFlight++;
+        }
+        notifyTransition(from, CircuitState.HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * Give back a permission without a call to the store.
+     */
+    public synchronized void releasePermission() {
+        if (state == CircuitState.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+        }
+    }
+
+    public void onSuccess() {
+        CircuitState from = null;
+        synchronized (this) {
+            if (state == CircuitState.HALF_OPEN) {
+                // A call permitted before the circuit has opened may report late.
+                probesInFlight = Math.max(0, probesInFlight - 1);
+                if (++probeSuccesses >= halfOpenProbes) {
+                    from = transition(CircuitState.CLOSED);
+                }
+            } else {
+                consecutiveFailures = 0;
+            }
+        }
+        notifyTransition(from, CircuitState.CLOSED);
+    }
+
+    public void onFailure() {
+        CircuitState from = null;
+        synchronized (this) {
+            if (state == CircuitState.HALF_OPEN
+                    || (state == CircuitState.CLOSED && ++consecutiveFailures >= failureThreshold)) {
+                from = transition(CircuitState.OPEN);
+            }
+        }
+        notifyTransition(from, CircuitState.OPEN);
+    }
+
+    public synchronized CircuitState getState() {
+        return state;
+    }
+
+    /**
+     * The time until the open circuit starts probing, or zero if it is not open.
+     */
+    public synchronized Duration getRemainingOpenDuration() {
+        if (state != CircuitState.OPEN) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(Math.max(0, openDurationNanos - (System.nanoTime() - openedAt)));
+    }
+
+    private CircuitState transition(CircuitState to) {
+        CircuitState from = state;
+        state = to;
+        consecutiveFailures = 0;
+        probesInFlight = 0;
+        probeSuccesses = 0;
+        if (to == CircuitState.OPEN) {
+            openedAt = System.nanoTime();
+        }
+        return from;
+    }
+
+    private void notifyTransition(CircuitState from, CircuitState to) {
+        // Notified outside the lock, so that a listener cannot block the store calls.
+        if (from != null && from != to) {
+            onTransition.accept(from, to);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package net.unit8.spring.idempotency.resilience;
+
+/**
+ * The state of {@link CircuitBreaker}.
+ *
+ * @author kawasima
+ */
+public enum CircuitState {
+    /**
+     * Calls are permitted, and failures are counted.
+     */
+    CLOSED,
+    /**
+     * Calls are rejected until the open duration has elapsed.
+     */
+    OPEN,
+    /**
+     * A limited number of probe calls are permitted to decide whether to close the circuit.
+     */
+    HALF_OPEN
+}
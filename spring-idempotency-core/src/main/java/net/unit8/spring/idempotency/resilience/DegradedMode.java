@@ -0,0 +1,17 @@
+package net.unit8.spring.idempotency.resilience;
+
+/**
+ * What to do with a request when the idempotency key store cannot be used.
+ *
+ * @author kawasima
+ */
+public enum DegradedMode {
+    /**
+     * Process the request without idempotency.
+     */
+    FAIL_OPEN,
+    /**
+     * Reject the request by {@link net.unit8.spring.idempotency.IdempotencyStoreUnavailableException}.
+     */
+    FAIL_CLOSED
+}
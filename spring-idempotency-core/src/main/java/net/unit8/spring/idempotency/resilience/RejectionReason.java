@@ -0,0 +1,17 @@
+package net.unit8.spring.idempotency.resilience;
+
+/**
+ * The reason a store call has not been made.
+ *
+ * @author kawasima
+ */
+public enum RejectionReason {
+    /**
+     * The circuit is open, or the half-open probes are in use.
+     */
+    CIRCUIT_OPEN,
+    /**
+     * The concurrent store calls have reached the limit of the bulkhead.
+     */
+    BULKHEAD_FULL
+}
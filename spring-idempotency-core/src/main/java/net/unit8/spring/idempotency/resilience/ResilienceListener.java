@@ -0,0 +1,42 @@
+package net.unit8.spring.idempotency.resilience;
+
+import java.time.Duration;
+
+/**
+ * Receives the events of {@link ResilientIdempotencyKeyStore}.
+ *
+ * <p>The methods are called on the thread of the store call, so they must return quickly.</p>
+ *
+ * @author kawasima
+ */
+public interface ResilienceListener {
+    /**
+     * The circuit breaker has changed its state.
+     */
+    default void onStateTransition(CircuitState from, CircuitState to) {
+    }
+
+    /**
+     * A store call has not been made.
+     */
+    default void onRejected(String operation, RejectionReason reason) {
+    }
+
+    /**
+     * A store call has exceeded its latency budget.
+     */
+    default void onTimeout(String operation, Duration budget) {
+    }
+
+    /**
+     * A store call has failed.
+     */
+    default void onFailure(String operation, Throwable cause) {
+    }
+
+    /**
+     * A store call has been answered by the degraded mode.
+     */
+    default void onDegraded(String operation, DegradedMode mode) {
+    }
+}
@@ -0,0 +1,369 @@
+package net.unit8.spring.idempotency.resilience;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyStoreUnavailableException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The idempotency key store decorator that keeps a slow or failing store from blocking requests.
+ *
+ * <ul>
+ *     <li>Each operation has a latency budget. A call that exceeds it is abandoned and counted as a failure.
+ *     The keys that an abandoned {@code getAndSet} claims after all are deleted, so that a retry is not
+ *     answered as in progress until the claim expires.</li>
+ *     <li>A bulkhead limits the concurrent calls to the store. An abandoned call holds its permit until it returns.</li>
+ *     <li>A circuit breaker stops calling the store after consecutive failures, and probes it after a while.</li>
+ * </ul>
+ *
+ * <p>When {@code getAndSet} cannot be answered by the store, the {@link DegradedMode} decides the request:
+ * {@code FAIL_OPEN} returns null so that the request is processed without idempotency, and
+ * {@code FAIL_CLOSED} throws {@link IdempotencyStoreUnavailableException}.
+ * Failures of {@code save} and {@code delete} are reported to the listeners and swallowed in both modes,
+ * because the response has already been sent. The claimed key remains until it expires.</p>
+ *
+ * @author kawasima
+ */
+public class ResilientIdempotencyKeyStore implements IdempotencyKeyStore, InitializingBean, DisposableBean {
+    private static final Log LOG = LogFactory.getLog(ResilientIdempotencyKeyStore.class);
+
+    private final IdempotencyKeyStore delegate;
+
+    private Duration getAndSetTimeout = Duration.ofMillis(200);
+    private Duration saveTimeout = Duration.ofMillis(500);
+    private Duration deleteTimeout = Duration.ofMillis(500);
+    private int maxConcurrentCalls = 64;
+    private int failureThreshold = 5;
+    private Duration openDuration = Duration.ofSeconds(10);
+    private int halfOpenProbes = 1;
+    private DegradedMode degradedMode = DegradedMode.FAIL_OPEN;
+    private List<ResilienceListener> listeners = List.of();
+
+    private Semaphore bulkhead;
+    private CircuitBreaker circuitBreaker;
+    private ExecutorService executor;
+
+    public ResilientIdempotencyKeyStore(IdempotencyKeyStore delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey) {
+        return getAndSet(idempotencyKey, null);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        try {
+            return call("getAndSet", getAndSetTimeout, () -> delegate.getAndSet(idempotencyKey, expiry),
+                    entry -> {
+                        if (entry == null) {
+                            delegate.delete(idempotencyKey);
+                        }
+                    });
+        } catch (StoreCallException e) {
+            listeners.forEach(l -> l.onDegraded("getAndSet", degradedMode));
+            if (degradedMode == DegradedMode.FAIL_CLOSED) {
+                throw new IdempotencyStoreUnavailableException("The idempotency key store is unavailable",
+                        retryAfter(), e.getCause());
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry) {
+        save(entry, null);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry, Duration expiry) {
+        try {
+            call("save", saveTimeout, () -> {
+                delegate.save(entry, expiry);
+                return null;
+            });
+        } catch (StoreCallException e) {
+            listeners.forEach(l -> l.onDegraded("save", degradedMode));
+        }
+    }
+
+    @Override
+    public boolean supportsEntryExpiry() {
+        return delegate.supportsEntryExpiry();
+    }
+
+    @Override
+    public void delete(String idempotencyKey) {
+        try {
+            call("delete", deleteTimeout, () -> {
+                delegate.delete(idempotencyKey);
+                return null;
+            });
+        } catch (StoreCallException e) {
+            listeners.forEach(l -> l.onDegraded("delete", degradedMode));
+        }
+    }
+
+    /**
+     * The batch is one call with the budget of {@code getAndSet}. In {@code FAIL_OPEN} mode,
+     * an unavailable store answers as if all the keys have been claimed.
+     */
+    @Override
+    public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        try {
+            return call("getAndSetAll", getAndSetTimeout, () -> delegate.getAndSetAll(idempotencyKeys, expiry),
+                    existing -> {
+                        List<String> claimed = idempotencyKeys.stream()
+                                .distinct()
+                                .filter(idempotencyKey -> !existing.containsKey(idempotencyKey))
+                                .toList();
+                        if (!claimed.isEmpty()) {
+                            delegate.deleteAll(claimed);
+                        }
+                    });
+        } catch (StoreCallException e) {
+            listeners.forEach(l -> l.onDegraded("getAndSetAll", degradedMode));
+            if (degradedMode == DegradedMode.FAIL_CLOSED) {
+                throw new IdempotencyStoreUnavailableException("The idempotency key store is unavailable",
+                        retryAfter(), e.getCause());
+            }
+            return new LinkedHashMap<>();
+        }
+    }
+
+    @Override
+    public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        try {
+            call("saveAll", saveTimeout, () -> {
+                delegate.saveAll(entries, expiry);
+                return null;
+            });
+        } catch (StoreCallException e) {
+            listeners.forEach(l -> l.onDegraded("saveAll", degradedMode));
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> idempotencyKeys) {
+        try {
+            call("deleteAll", deleteTimeout, () -> {
+                delegate.deleteAll(idempotencyKeys);
+                return null;
+            });
+        } catch (StoreCallException e) {
+            listeners.forEach(l -> l.onDegraded("deleteAll", degradedMode));
+        }
+    }
+
+    public CircuitState getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    private <T> T call(String operation, Duration timeout, Callable<T> call) throws StoreCallException {
+        return call(operation, timeout, call, null);
+    }
+
+    /**
+     * @param onAbandoned undoes the result of a call that returns after its timeout, or null
+     */
+    private <T> T call(String operation, Duration timeout, Callable<T> call, Consumer<T> onAbandoned)
+            throws StoreCallException {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            listeners.forEach(l -> l.onRejected(operation, RejectionReason.CIRCUIT_OPEN));
+            throw new StoreCallException(null);
+        }
+        if (!bulkhead.tryAcquire()) {
+            circuitBreaker.releasePermission();
+            listeners.forEach(l -> l.onRejected(operation, RejectionReason.BULKHEAD_FULL));
+            throw new StoreCallException(null);
+        }
+        try {
+            T result = timeout != null ? callWithin(operation, timeout, call, onAbandoned) : callAndRelease(call);
+            circuitBreaker.onSuccess();
+            return result;
+        } catch (Exception e) {
+            circuitBreaker.onFailure();
+            if (!(e instanceof TimeoutException)) {
+                listeners.forEach(l -> l.onFailure(operation, e));
+            }
+            LOG.debug("The idempotency key store call " + operation + " has failed", e);
+            throw new StoreCallException(e);
+        }
+    }
+
+    private <T> T callAndRelease(Callable<T> call) throws Exception {
+        try {
+            return call.call();
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Make the call on the executor. The permit of the bulkhead is released when the call returns,
+     * not when the caller stops waiting, so that abandoned calls still count against the bulkhead.
+     */
+    private <T> T callWithin(String operation, Duration timeout, Callable<T> call, Consumer<T> onAbandoned)
+            throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                T result;
+                try {
+                    result = call.call();
+                } catch (Throwable e) {
+                    bulkhead.release();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                // The permit is released before the caller is woken up, so that it can call the store again.
+                bulkhead.release();
+                future.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            bulkhead.release();
+            throw e;
+        }
+        try {
+            return future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            abandon(operation, future, onAbandoned);
+            listeners.forEach(l -> l.onTimeout(operation, timeout));
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            abandon(operation, future, onAbandoned);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    /**
+     * The call is not interrupted, since the client of the store may not survive it.
+     * Its result is undone when it returns.
+     */
+    private <T> void abandon(String operation, CompletableFuture<T> future, Consumer<T> onAbandoned) {
+        if (onAbandoned == null) {
+            return;
+        }
+        future.thenAccept(result -> {
+            try {
+                onAbandoned.accept(result);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to undo the abandoned idempotency key store call " + operation, e);
+            }
+        });
+    }
+
+    private Duration retryAfter() {
+        Duration remaining = circuitBreaker.getRemainingOpenDuration();
+        return remaining.isZero() ? null : remaining;
+    }
+
+    private void onStateTransition(CircuitState from, CircuitState to) {
+        LOG.info("The circuit of the idempotency key store has changed from " + from + " to " + to);
+        listeners.forEach(l -> l.onStateTransition(from, to));
+    }
+
+    /**
+     * Set the latency budget of {@code getAndSet}. The call is made on the caller thread if it is null.
+     * @param getAndSetTimeout The latency budget of {@code getAndSet}.
+     */
+    public void setGetAndSetTimeout(Duration getAndSetTimeout) {
+        this.getAndSetTimeout = getAndSetTimeout;
+    }
+
+    public void setSaveTimeout(Duration saveTimeout) {
+        this.saveTimeout = saveTimeout;
+    }
+
+    public void setDeleteTimeout(Duration deleteTimeout) {
+        this.deleteTimeout = deleteTimeout;
+    }
+
+    /**
+     * Set the max number of concurrent store calls.
+     * @param maxConcurrentCalls The max number of concurrent store calls.
+     */
+    public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    /**
+     * Set the number of consecutive failures to open the circuit.
+     * @param failureThreshold The number of consecutive failures to open the circuit.
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Set the time to reject calls before probing the store.
+     * @param openDuration The time to reject calls before probing the store.
+     */
+    public void setOpenDuration(Duration openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Set the number of successful probes to close the circuit.
+     * @param halfOpenProbes The number of successful probes to close the circuit.
+     */
+    public void setHalfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    public void setDegradedMode(DegradedMode degradedMode) {
+        this.degradedMode = degradedMode;
+    }
+
+    public void setListeners(List<ResilienceListener> listeners) {
+        this.listeners = List.copyOf(listeners);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        bulkhead = new Semaphore(maxConcurrentCalls);
+        circuitBreaker = new CircuitBreaker(failureThreshold, openDuration, halfOpenProbes, this::onStateTransition);
+        AtomicInteger threadNumber = new AtomicInteger();
+        // Abandoned calls hold their permits until they return, so the bulkhead bounds the busy threads.
+        // The pool itself is not bounded, since a thread may still be returning to the pool after its release.
+        executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "idempotency-store-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The store call has not returned a result.
+     */
+    private static class StoreCallException extends Exception {
+        StoreCallException(Throwable cause) {
+            super(null, cause, false, false);
+        }
+    }
+}
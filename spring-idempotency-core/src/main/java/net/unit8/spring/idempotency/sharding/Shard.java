@@ -0,0 +1,20 @@
+package net.unit8.spring.idempotency.sharding;
+
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+
+/**
+ * A delegate store of {@link ShardedIdempotencyKeyStore}.
+ *
+ * @param name the name of the shard, which decides the positions of its virtual nodes
+ * @param idempotencyKeyStore the store
+ * @param weight the relative share of keys, must be positive
+ */
+public record Shard(
+        String name,
+        IdempotencyKeyStore idempotencyKeyStore,
+        int weight
+) {
+    public Shard(String name, IdempotencyKeyStore idempotencyKeyStore) {
+        this(name, idempotencyKeyStore, 1);
+    }
+}
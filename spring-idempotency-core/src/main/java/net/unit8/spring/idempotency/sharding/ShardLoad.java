@@ -0,0 +1,17 @@
+package net.unit8.spring.idempotency.sharding;
+
+/**
+ * The load of a shard.
+ *
+ * @param name the name of the shard
+ * @param weight the weight of the shard
+ * @param ownership the fraction of the hash ring owned by the shard
+ * @param operations the number of operations routed to the shard
+ */
+public record ShardLoad(
+        String name,
+        int weight,
+        double ownership,
+        long operations
+) {
+}
@@ -0,0 +1,253 @@
+package net.unit8.spring.idempotency.sharding;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Function;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The idempotency key store that spreads keys across delegate stores by consistent hashing.
+ *
+ * <p>Each shard is placed on a 64-bit hash ring as {@code virtualNodes * weight} virtual nodes,
+ * and a key belongs to the first virtual node at or after its hash. Adding or removing a shard
+ * moves only the keys of the neighbouring virtual nodes. The ring is a pair of sorted primitive
+ * arrays, so a lookup is a binary search without allocation.</p>
+ *
+ * @author kawasima
+ */
+public class ShardedIdempotencyKeyStore implements IdempotencyKeyStore, InitializingBean {
+    private static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private List<Shard> shards = new ArrayList<>();
+    private int virtualNodes = DEFAULT_VIRTUAL_NODES;
+
+    private long[] ring;
+    private int[] ringShards;
+    private LongAdder[] operations;
+
+    public ShardedIdempotencyKeyStore() {
+    }
+
+    public ShardedIdempotencyKeyStore(List<Shard> shards) {
+        this.shards = new ArrayList<>(shards);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey) {
+        return shardOf(idempotencyKey).getAndSet(idempotencyKey);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        return shardOf(idempotencyKey).getAndSet(idempotencyKey, expiry);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry) {
+        shardOf(entry.idempotencyKey()).save(entry);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry, Duration expiry) {
+        shardOf(entry.idempotencyKey()).save(entry, expiry);
+    }
+
+    @Override
+    public boolean supportsEntryExpiry() {
+        return shards.stream().allMatch(shard -> shard.idempotencyKeyStore().supportsEntryExpiry());
+    }
+
+    @Override
+    public void delete(String idempotencyKey) {
+        shardOf(idempotencyKey).delete(idempotencyKey);
+    }
+
+    /**
+     * Split the batch by shard, so that each shard is called once with its own keys.
+     */
+    @Override
+    public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        Map<String, IdempotencyEntry> found = new HashMap<>();
+        groupByShard(idempotencyKeys, key -> key).forEach((index, keys) ->
+                found.putAll(shards.get(index).idempotencyKeyStore().getAndSetAll(keys, expiry)));
+        Map<String, IdempotencyEntry> existing = new LinkedHashMap<>();
+        for (String idempotencyKey : idempotencyKeys) {
+            IdempotencyEntry entry = found.get(idempotencyKey);
+            if (entry != null) {
+                existing.put(idempotencyKey, entry);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        groupByShard(entries, IdempotencyEntry::idempotencyKey).forEach((index, group) ->
+                shards.get(index).idempotencyKeyStore().saveAll(group, expiry));
+    }
+
+    @Override
+    public void deleteAll(Collection<String> idempotencyKeys) {
+        groupByShard(idempotencyKeys, key -> key).forEach((index, keys) ->
+                shards.get(index).idempotencyKeyStore().deleteAll(keys));
+    }
+
+    private <T> Map<Integer, List<T>> groupByShard(Collection<T> items, Function<T, String> keyOf) {
+        Map<Integer, List<T>> groups = new TreeMap<>();
+        for (T item : items) {
+            int index = shardIndexOf(hash(keyOf.apply(item)));
+            operations[index].increment();
+            groups.computeIfAbsent(index, i -> new ArrayList<>()).add(item);
+        }
+        return groups;
+    }
+
+    /**
+     * Find the store that owns the key.
+     *
+     * @param idempotencyKey the idempotency key
+     * @return the store of the shard
+     */
+    public IdempotencyKeyStore storeFor(String idempotencyKey) {
+        return shards.get(shardIndexOf(hash(idempotencyKey))).idempotencyKeyStore();
+    }
+
+    /**
+     * Report the share of the ring and the number of operations of each shard.
+     *
+     * @return the loads in the order of the shards
+     */
+    public List<ShardLoad> getLoadDistribution() {
+        double[] ownership = new double[shards.size()];
+        for (int i = 0; i < ring.length; i++) {
+            // A virtual node owns the arc from its predecessor, and the first one wraps around.
+            // The difference is taken modulo 2^64 and read as unsigned.
+            long arc = i == 0 ? ring[0] - ring[ring.length - 1] : ring[i] - ring[i - 1];
+            ownership[ringShards[i]] += unsignedToDouble(arc) / 0x1p64;
+        }
+        if (ring.length == 1) {
+            ownership[ringShards[0]] = 1.0;
+        }
+        List<ShardLoad> loads = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            loads.add(new ShardLoad(shard.name(), shard.weight(), ownership[i], operations[i].sum()));
+        }
+        return loads;
+    }
+
+    private IdempotencyKeyStore shardOf(String idempotencyKey) {
+        int index = shardIndexOf(hash(idempotencyKey));
+        operations[index].increment();
+        return shards.get(index).idempotencyKeyStore();
+    }
+
+    private int shardIndexOf(long hash) {
+        int low = 0;
+        int high = ring.length - 1;
+        if (hash > ring[high]) {
+            return ringShards[0];
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ring[mid] < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return ringShards[low];
+    }
+
+    private static double unsignedToDouble(long value) {
+        double d = (double) (value >>> 1) * 2.0;
+        return d + (value & 1);
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, followed by the finalizer of MurmurHash3.
+     * It must not change, otherwise keys move to other shards.
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Set the shards. The order of the shards is the order of {@link #getLoadDistribution()}.
+     * @param shards The shards.
+     */
+    public void setShards(List<Shard> shards) {
+        this.shards = new ArrayList<>(shards);
+    }
+
+    /**
+     * Set the number of virtual nodes of a shard per weight.
+     * @param virtualNodes The number of virtual nodes of a shard per weight.
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        Set<String> names = new HashSet<>();
+        int nodes = 0;
+        for (Shard shard : shards) {
+            if (shard.weight() <= 0) {
+                throw new IllegalArgumentException("The weight of shard " + shard.name() + " must be positive");
+            }
+            if (!names.add(shard.name())) {
+                throw new IllegalArgumentException("Duplicate shard name: " + shard.name());
+            }
+            nodes += virtualNodes * shard.weight();
+        }
+
+        long[] hashes = new long[nodes];
+        int[] owners = new int[nodes];
+        int n = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            for (int v = 0; v < virtualNodes * shard.weight(); v++) {
+                hashes[n] = hash(shard.name() + "#" + v);
+                owners[n] = i;
+                n++;
+            }
+        }
+        Integer[] order = new Integer[nodes];
+        for (int i = 0; i < nodes; i++) {
+            order[i] = i;
+        }
+        // Ties are broken by the shard name, so that the ring does not depend on the order of the shards.
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> hashes[i])
+                .thenComparing(i -> shards.get(owners[i]).name()));
+        ring = new long[nodes];
+        ringShards = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            ring[i] = hashes[order[i]];
+            ringShards[i] = owners[order[i]];
+        }
+
+        operations = new LongAdder[shards.size()];
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new LongAdder();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package net.unit8.spring.idempotency;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HeadersCodecTest {
+    @Test
+    void roundTrip() {
+        Map<String, Collection<String>> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", List.of("application/json; charset=utf-8"));
+        headers.put("X-Multi", List.of("a", "b", "\u65e5\u672c\u8a9e"));
+        headers.put("X-Empty", List.of());
+
+        Map<String, Collection<String>> decoded = HeadersCodec.decode(HeadersCodec.encode(headers));
+        assertThat(decoded).containsExactlyEntriesOf(headers);
+        assertThat(HeadersCodec.decode(HeadersCodec.encode(Map.of()))).isEmpty();
+        assertThat(HeadersCodec.decode(null)).isNull();
+    }
+
+    @Test
+    void legacySerializedHeaders() throws Exception {
+        Map<String, Collection<String>> headers = new HashMap<>(Map.of("Location", new ArrayList<>(List.of("/orders/1"))));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(headers);
+        }
+        assertThat(HeadersCodec.decode(baos.toByteArray())).isEqualTo(headers);
+    }
+
+    @Test
+    void truncated() {
+        byte[] encoded = HeadersCodec.encode(Map.of("Location", List.of("/orders/1")));
+        assertThatThrownBy(() -> HeadersCodec.decode(Arrays.copyOf(encoded, encoded.length - 3)))
+                .isInstanceOf(UncheckedIOException.class);
+    }
+}
@@ -0,0 +1,89 @@
+package net.unit8.spring.idempotency;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyEntryDeserializerTest {
+    private final IdempotencyEntrySerializer serializer = new IdempotencyEntrySerializer() {};
+    private final IdempotencyEntryDeserializer deserializer = new IdempotencyEntryDeserializer() {};
+
+    @Test
+    void roundTrip() {
+        Map<String, Collection<String>> headers = Map.of("Location", List.of("/orders/1"));
+        byte[] body = "{\"id\":1}".getBytes(StandardCharsets.UTF_8);
+        Instant startedAt = Instant.ofEpochMilli(1700000000000L);
+        IdempotencyEntry entry = new IdempotencyEntry("key", new IdempotencyFingerprint("a.b:c"),
+                new IdempotencyResponse(201, headers, body, "\"201-abc\""), startedAt);
+
+        IdempotencyEntry decoded = deserializer.apply("key", serializer.apply(entry));
+        assertThat(decoded.fingerprint()).isEqualTo(entry.fingerprint());
+        assertThat(decoded.startedAt()).isEqualTo(startedAt);
+        assertThat(decoded.response().status()).isEqualTo(201);
+        assertThat(decoded.response().etag()).isEqualTo("\"201-abc\"");
+        assertThat(decoded.response().headers()).isEqualTo(headers);
+        assertThat(decoded.response().body()).isEqualTo(body);
+    }
+
+    @Test
+    void etagWithDots() {
+        Instant startedAt = Instant.ofEpochMilli(1792388774789L);
+        IdempotencyEntry entry = new IdempotencyEntry("key", new IdempotencyFingerprint("abc"),
+                new IdempotencyResponse(200, null, null, "\"v1.2\""), startedAt);
+
+        IdempotencyEntry decoded = deserializer.apply("key", serializer.apply(entry));
+        assertThat(decoded.fingerprint()).isEqualTo(new IdempotencyFingerprint("abc"));
+        assertThat(decoded.startedAt()).isEqualTo(startedAt);
+        assertThat(decoded.response().etag()).isEqualTo("\"v1.2\"");
+    }
+
+    @Test
+    void legacyQuotedEtag() {
+        IdempotencyEntry decoded = deserializer.apply("key", "200...abc.1792388774789.\"200-abc\"");
+        assertThat(decoded.fingerprint()).isEqualTo(new IdempotencyFingerprint("abc"));
+        assertThat(decoded.startedAt()).isEqualTo(Instant.ofEpochMilli(1792388774789L));
+        assertThat(decoded.response().etag()).isEqualTo("\"200-abc\"");
+    }
+
+    @Test
+    void inProgress() {
+        IdempotencyEntry decoded = deserializer.apply("key", serializer.apply(IdempotencyEntry.inProgress("key")));
+        assertThat(decoded.response()).isNull();
+        assertThat(decoded.fingerprint()).isNull();
+        assertThat(decoded.startedAt()).isNotNull();
+    }
+
+    @Test
+    void headersAndBodyAreDecodedOnReplay() {
+        // The body is not Base64, so it fails only when it is read.
+        IdempotencyEntry decoded = deserializer.apply("key", "422..%%%.fp.1700000000000.");
+        assertThat(decoded.response().status()).isEqualTo(422);
+        assertThat(decoded.fingerprint()).isEqualTo(new IdempotencyFingerprint("fp"));
+        assertThat(decoded.response().headers()).isNull();
+        assertThatThrownBy(() -> decoded.response().body()).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void legacyLayouts() {
+        String body = Base64.getEncoder().encodeToString("ok".getBytes(StandardCharsets.UTF_8));
+
+        IdempotencyEntry withoutStartedAt = deserializer.apply("key", "200.." + body + ".fp");
+        assertThat(withoutStartedAt.fingerprint()).isEqualTo(new IdempotencyFingerprint("fp"));
+        assertThat(withoutStartedAt.startedAt()).isNull();
+        assertThat(withoutStartedAt.response().body()).isEqualTo("ok".getBytes(StandardCharsets.UTF_8));
+
+        IdempotencyEntry withoutEtag = deserializer.apply("key", "200..." + ".1700000000000");
+        assertThat(withoutEtag.fingerprint()).isNull();
+        assertThat(withoutEtag.startedAt()).isEqualTo(Instant.ofEpochMilli(1700000000000L));
+        assertThat(withoutEtag.response().etag()).isNull();
+        assertThat(withoutEtag.response().body()).isNull();
+    }
+}
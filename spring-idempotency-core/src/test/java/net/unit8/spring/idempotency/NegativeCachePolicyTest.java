@@ -0,0 +1,55 @@
+package net.unit8.spring.idempotency;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NegativeCachePolicyTest {
+    private static IdempotencyResponse response(int status) {
+        return new IdempotencyResponse(status, null, null);
+    }
+
+    @Test
+    void cachesDeterministicClientErrorsByDefault() {
+        NegativeCachePolicy sut = new NegativeCachePolicy();
+
+        assertThat(sut.ttlOf(response(400))).isEqualTo(Duration.ofSeconds(10));
+        assertThat(sut.ttlOf(response(422))).isEqualTo(Duration.ofSeconds(10));
+        assertThat(sut.ttlOf(response(429))).isNull();
+        assertThat(sut.ttlOf(response(409))).isNull();
+        assertThat(sut.ttlOf(response(500))).isNull();
+        assertThat(sut.ttlOf(response(503))).isNull();
+    }
+
+    @Test
+    void statusTakesPrecedenceOverClass() {
+        NegativeCachePolicy sut = new NegativeCachePolicy();
+        sut.setTtls(Map.of("4xx", Duration.ofSeconds(5), "404", Duration.ofMinutes(1), "410", Duration.ZERO));
+
+        assertThat(sut.ttlOf(response(400))).isEqualTo(Duration.ofSeconds(5));
+        assertThat(sut.ttlOf(response(404))).isEqualTo(Duration.ofMinutes(1));
+        assertThat(sut.ttlOf(response(410))).isNull();
+    }
+
+    @Test
+    void cacheableValidatorSelectsFailures() {
+        NegativeCachePolicy sut = new NegativeCachePolicy();
+        sut.setTtls(Map.of("4xx", Duration.ofSeconds(5), "5xx", Duration.ofSeconds(5)));
+        sut.setCacheableValidator(response -> response.status() == 501);
+
+        assertThat(sut.ttlOf(response(400))).isNull();
+        assertThat(sut.ttlOf(response(501))).isEqualTo(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void rejectsIllegalPatterns() {
+        NegativeCachePolicy sut = new NegativeCachePolicy();
+
+        assertThatThrownBy(() -> sut.setTtls(Map.of("4x", Duration.ofSeconds(5))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
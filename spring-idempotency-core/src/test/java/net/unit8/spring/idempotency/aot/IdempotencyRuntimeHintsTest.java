@@ -0,0 +1,58 @@
+package net.unit8.spring.idempotency.aot;
+
+import jdk.jfr.Event;
+import net.unit8.spring.idempotency.jfr.IdempotencyStoreEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.SpringFactoriesLoader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.classreading.SimpleMetadataReaderFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdempotencyRuntimeHintsTest {
+    @Test
+    void registeredInAotFactories() {
+        assertThat(SpringFactoriesLoader.forResourceLocation("META-INF/spring/aot.factories")
+                .load(RuntimeHintsRegistrar.class))
+                .anyMatch(IdempotencyRuntimeHints.class::isInstance);
+    }
+
+    @Test
+    void hints() {
+        RuntimeHints hints = new RuntimeHints();
+        new IdempotencyRuntimeHints().registerHints(hints, getClass().getClassLoader());
+        assertThat(RuntimeHintsPredicates.reflection().onType(IdempotencyStoreEvent.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.serialization().onType(HashMap.class)).accepts(hints);
+    }
+
+    @Test
+    void everyFlightRecorderEventIsRegistered() throws Exception {
+        RuntimeHints hints = new RuntimeHints();
+        new IdempotencyRuntimeHints().registerHints(hints, getClass().getClassLoader());
+        MetadataReaderFactory readerFactory = new SimpleMetadataReaderFactory();
+        List<Class<?>> events = new ArrayList<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver()
+                .getResources("classpath*:net/unit8/spring/idempotency/jfr/*.class")) {
+            Class<?> type = Class.forName(readerFactory.getMetadataReader(resource).getClassMetadata().getClassName());
+            if (Event.class.isAssignableFrom(type)) {
+                events.add(type);
+            }
+        }
+
+        assertThat(events).isNotEmpty();
+        for (Class<?> event : events) {
+            assertThat(RuntimeHintsPredicates.reflection().onType(event))
+                    .as(event.getName())
+                    .accepts(hints);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package net.unit8.spring.idempotency.batch;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyBatchTest {
+    @Test
+    void dedupeItems() {
+        IdempotencyKeyStore store = new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager());
+        store.getAndSet("running");
+        store.save(new IdempotencyEntry("done", null, new IdempotencyResponse(201, null, null)));
+
+        IdempotencyBatch<String> sut = IdempotencyBatch.claim(store,
+                List.of("a", "running", "done", "b", "a"), item -> item);
+        assertThat(sut.items()).extracting(BatchItem::status).containsExactly(
+                BatchItemStatus.CLAIMED,
+                BatchItemStatus.IN_PROGRESS,
+                BatchItemStatus.COMPLETED,
+                BatchItemStatus.CLAIMED,
+                BatchItemStatus.REPEATED);
+        assertThat(sut.claimed()).containsExactly("a", "b");
+        assertThat(sut.items().get(2).entry().response().status()).isEqualTo(201);
+
+        sut.complete("a", null, new IdempotencyResponse(200, null, null));
+        assertThatThrownBy(() -> sut.complete("done", null, new IdempotencyResponse(200, null, null)))
+                .isInstanceOf(IllegalStateException.class);
+        sut.flush();
+
+        // The completed item is saved and the unfinished one is released.
+        assertThat(store.getAndSet("a").response().status()).isEqualTo(200);
+        assertThat(store.getAndSet("b")).isNull();
+    }
+}
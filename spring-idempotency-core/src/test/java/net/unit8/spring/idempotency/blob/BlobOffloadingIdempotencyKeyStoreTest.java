@@ -0,0 +1,153 @@
+package net.unit8.spring.idempotency.blob;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyFingerprint;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import net.unit8.spring.idempotency.IdempotencyStoreUnavailableException;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BlobOffloadingIdempotencyKeyStoreTest {
+    @TempDir
+    Path directory;
+
+    private IdempotencyKeyStore delegate;
+    private FileSystemBlobStore blobStore;
+    private BlobOffloadingIdempotencyKeyStore sut;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        delegate = new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager());
+        blobStore = new FileSystemBlobStore(directory);
+        blobStore.setSweepInterval(Duration.ZERO);
+        blobStore.afterPropertiesSet();
+        sut = new BlobOffloadingIdempotencyKeyStore(delegate, blobStore);
+        sut.setThreshold(16);
+    }
+
+    private static IdempotencyEntry completed(String key, byte[] body) {
+        return new IdempotencyEntry(key, new IdempotencyFingerprint("fp"),
+                new IdempotencyResponse(201, Map.of("Content-Type", List.of("application/json")), body, "\"etag\""),
+                Instant.now());
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        Arrays.fill(body, (byte) 'x');
+        return body;
+    }
+
+    @Test
+    void smallBodyStaysInEntry() {
+        sut.getAndSet("small");
+        sut.save(completed("small", body(16)));
+
+        IdempotencyEntry stored = delegate.getAndSet("small");
+        assertThat(stored.response().body()).hasSize(16);
+        assertThat(stored.response().headers()).doesNotContainKey(BlobPointer.HEADER_NAME);
+    }
+
+    @Test
+    void largeBodyIsOffloadedAndRestored() {
+        sut.getAndSet("large");
+        sut.save(completed("large", body(100)));
+
+        IdempotencyEntry stored = delegate.getAndSet("large");
+        assertThat(stored.response().body()).isNull();
+        assertThat(stored.response().headers()).containsKey(BlobPointer.HEADER_NAME);
+
+        IdempotencyEntry restored = sut.getAndSet("large");
+        assertThat(restored.response().body()).isEqualTo(body(100));
+        assertThat(restored.response().headers()).containsOnlyKeys("Content-Type");
+        assertThat(restored.response().etag()).isEqualTo("\"etag\"");
+        assertThat(restored.fingerprint()).isEqualTo(new IdempotencyFingerprint("fp"));
+    }
+
+    @Test
+    void batchIsOffloadedAndRestored() {
+        sut.getAndSetAll(List.of("a", "b"));
+        sut.saveAll(List.of(completed("a", body(100)), completed("b", body(1))));
+
+        Map<String, IdempotencyEntry> existing = sut.getAndSetAll(List.of("a", "b", "c"));
+        assertThat(existing).containsOnlyKeys("a", "b");
+        assertThat(existing.get("a").response().body()).isEqualTo(body(100));
+        assertThat(existing.get("b").response().body()).isEqualTo(body(1));
+    }
+
+    @Test
+    void blobIsReadOnlyWhenTheBodyIsAccessed() {
+        sut.getAndSet("lazy");
+        sut.save(completed("lazy", body(100)));
+        blobStore.delete(BlobOffloadingIdempotencyKeyStore.blobIdOf("lazy"));
+
+        IdempotencyEntry restored = sut.getAndSet("lazy");
+        assertThat(restored.response().status()).isEqualTo(201);
+        assertThat(restored.response().etag()).isEqualTo("\"etag\"");
+        assertThat(restored.response().headers()).containsOnlyKeys("Content-Type");
+    }
+
+    @Test
+    void corruptBlobIsNotReplayedAndReleasesTheKey() {
+        sut.getAndSet("corrupt");
+        sut.save(completed("corrupt", body(100)));
+        blobStore.put(BlobOffloadingIdempotencyKeyStore.blobIdOf("corrupt"), body(99),
+                Instant.now().plusSeconds(60));
+
+        IdempotencyEntry restored = sut.getAndSet("corrupt");
+        assertThatThrownBy(() -> restored.response().body())
+                .isInstanceOf(IdempotencyStoreUnavailableException.class);
+        assertThat(sut.getAndSet("corrupt")).isNull();
+    }
+
+    @Test
+    void missingBlobIsNotReplayedAndReleasesTheKey() {
+        sut.getAndSet("missing");
+        sut.save(completed("missing", body(100)));
+        blobStore.delete(BlobOffloadingIdempotencyKeyStore.blobIdOf("missing"));
+
+        assertThatThrownBy(() -> sut.getAndSet("missing").response().body())
+                .isInstanceOf(IdempotencyStoreUnavailableException.class);
+        assertThat(sut.getAndSet("missing")).isNull();
+    }
+
+    @Test
+    void malformedPointerIsDeletedAndClaimedAgain() {
+        delegate.save(new IdempotencyEntry("malformed", null,
+                new IdempotencyResponse(200, Map.of(BlobPointer.HEADER_NAME, List.of("broken")), null)));
+        delegate.save(new IdempotencyEntry("done", null, new IdempotencyResponse(200, Map.of(), body(1))));
+
+        assertThat(sut.getAndSet("malformed")).isNull();
+        assertThat(sut.getAndSet("malformed").response()).isNull();
+
+        delegate.save(new IdempotencyEntry("malformed", null,
+                new IdempotencyResponse(200, Map.of(BlobPointer.HEADER_NAME, List.of("broken")), null)));
+        Map<String, IdempotencyEntry> existing = sut.getAndSetAll(List.of("malformed", "done", "new"));
+        assertThat(existing).containsOnlyKeys("done");
+        assertThat(sut.getAndSet("malformed").response()).isNull();
+    }
+
+    @Test
+    void expiredBlobIsSwept() {
+        String blobId = BlobOffloadingIdempotencyKeyStore.blobIdOf("expired");
+        blobStore.put(blobId, body(10), Instant.now().minusSeconds(1));
+        blobStore.put(BlobOffloadingIdempotencyKeyStore.blobIdOf("alive"), body(10), Instant.now().plusSeconds(60));
+
+        assertThat(blobStore.get(blobId)).isNull();
+        assertThat(blobStore.sweep()).isEqualTo(1);
+        assertThat(blobStore.get(BlobOffloadingIdempotencyKeyStore.blobIdOf("alive"))).hasSize(10);
+    }
+}
@@ -0,0 +1,118 @@
+package net.unit8.spring.idempotency.hotkey;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotKeyDetectorTest {
+    @Test
+    void sketchNeverUnderestimates() {
+        CountMinSketch sketch = new CountMinSketch(64, 4);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("key-" + (i % 200));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertThat(sketch.estimate("key-" + i)).isGreaterThanOrEqualTo(5);
+        }
+        int estimate = sketch.estimate("key-0");
+        sketch.halve();
+        assertThat(sketch.estimate("key-0")).isEqualTo(estimate / 2);
+    }
+
+    @Test
+    void findsTheHotKeysAmongManyColdOnes() {
+        HotKeyDetector sut = new HotKeyDetector();
+        sut.setCapacity(3);
+        sut.setReportThreshold(50);
+        long now = System.nanoTime();
+        for (int i = 0; i < 10000; i++) {
+            sut.record("cold-" + i, "10.0.0.1", now);
+            if (i % 10 == 0) {
+                sut.record("hot", i % 20 == 0 ? "10.0.0.2" : "10.0.0.3", now);
+            }
+            if (i % 50 == 0) {
+                sut.record("warm", "10.0.0.4", now);
+            }
+        }
+
+        List<HotKey> hotKeys = sut.hotKeys(now);
+        assertThat(hotKeys).extracting(HotKey::idempotencyKey).containsExactly("hot", "warm");
+        assertThat(hotKeys.get(0).estimatedCount()).isGreaterThanOrEqualTo(1000);
+        assertThat(hotKeys.get(0).clients()).containsExactly("10.0.0.2", "10.0.0.3");
+    }
+
+    @Test
+    void countsDecayAndThrottlingIsLifted() {
+        HotKeyDetector sut = new HotKeyDetector();
+        sut.setReportThreshold(1);
+        sut.setThrottleThreshold(100);
+        sut.setDecayInterval(Duration.ofSeconds(10));
+        long now = System.nanoTime();
+        long count = 0;
+        for (int i = 0; i < 101; i++) {
+            count = sut.record("looping", "client", now);
+        }
+        assertThat(sut.isThrottled(count)).isTrue();
+
+        long later = now + Duration.ofSeconds(20).toNanos();
+        assertThat(sut.hotKeys(later)).singleElement()
+                .satisfies(hotKey -> assertThat(hotKey.estimatedCount()).isEqualTo(25));
+        assertThat(sut.isThrottled(sut.record("looping", "client", later))).isFalse();
+        assertThat(sut.hotKeys(now + Duration.ofHours(1).toNanos())).isEmpty();
+    }
+
+    @Test
+    void concurrentUsesAreNotLost() throws Exception {
+        HotKeyDetector sut = new HotKeyDetector();
+        sut.setCapacity(2);
+        sut.setReportThreshold(1);
+        int threads = 8;
+        int uses = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String client = "client-" + t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < uses; i++) {
+                        sut.record("hot", client);
+                        sut.record(client + "-cold-" + i, client);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(sut.hotKeys().get(0).idempotencyKey()).isEqualTo("hot");
+        assertThat(sut.hotKeys().get(0).estimatedCount()).isGreaterThanOrEqualTo((long) threads * uses);
+        assertThat(sut.getRecordedCount()).isEqualTo(2L * threads * uses);
+    }
+
+    @Test
+    void countsTheThrottledUses() {
+        HotKeyDetector sut = new HotKeyDetector();
+        sut.setThrottleThreshold(2);
+        for (int i = 0; i < 5; i++) {
+            sut.isThrottled(sut.record("looping", "client"));
+        }
+        assertThat(sut.getRecordedCount()).isEqualTo(5);
+        assertThat(sut.getThrottledCount()).isEqualTo(3);
+    }
+}
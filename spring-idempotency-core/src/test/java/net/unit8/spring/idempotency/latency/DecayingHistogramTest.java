@@ -0,0 +1,71 @@
+package net.unit8.spring.idempotency.latency;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class DecayingHistogramTest {
+    private static final long HALF_LIFE = Duration.ofMinutes(1).toNanos();
+    private static final long T0 = 1_000_000_000L;
+
+    @Test
+    void weightsHalveEveryHalfLife() {
+        DecayingHistogram sut = new DecayingHistogram(HALF_LIFE, T0);
+        for (int i = 0; i < 8; i++) {
+            sut.record(10, T0);
+        }
+        assertThat(sut.totalWeight(T0)).isEqualTo(8.0);
+        // The decay is applied at most once per 1/16 of the half-life.
+        assertThat(sut.totalWeight(T0 + HALF_LIFE / 32)).isEqualTo(8.0);
+        assertThat(sut.totalWeight(T0 + HALF_LIFE)).isCloseTo(4.0, within(1e-9));
+        assertThat(sut.totalWeight(T0 + 3 * HALF_LIFE)).isCloseTo(1.0, within(1e-9));
+
+        sut.record(10, T0 + 3 * HALF_LIFE);
+        assertThat(sut.totalWeight(T0 + 3 * HALF_LIFE)).isCloseTo(2.0, within(1e-9));
+    }
+
+    @Test
+    void quantilesAreWithinTheBucketError() {
+        DecayingHistogram sut = new DecayingHistogram(HALF_LIFE, T0);
+        for (int i = 0; i < 50; i++) {
+            sut.record(10, T0);
+            sut.record(100, T0);
+        }
+        assertThat(sut.quantileAbove(0.25, 0, T0)).isBetween(10 / 1.19, 10 * 1.19);
+        assertThat(sut.quantileAbove(0.75, 0, T0)).isBetween(100 / 1.19, 100 * 1.19);
+        assertThat(sut.quantileAbove(0.5, 20, T0)).isBetween(100 / 1.19, 100 * 1.19);
+    }
+
+    @Test
+    void onlyThePartOfABucketAboveTheLimitCounts() {
+        DecayingHistogram sut = new DecayingHistogram(HALF_LIFE, T0);
+        for (int i = 0; i < 10; i++) {
+            sut.record(10, T0);
+        }
+        int bucket = DecayingHistogram.bucketOf(10);
+        double lower = DecayingHistogram.lowerBound(bucket);
+        double upper = DecayingHistogram.upperBound(bucket);
+        double limit = (lower + upper) / 2;
+
+        assertThat(sut.quantileAbove(0.5, limit, T0)).isCloseTo((limit + upper) / 2, within(1e-9));
+        assertThat(sut.quantileAbove(0.5, upper, T0)).isNegative();
+    }
+
+    @Test
+    void oldSamplesLoseAgainstRecentOnes() {
+        DecayingHistogram sut = new DecayingHistogram(HALF_LIFE, T0);
+        for (int i = 0; i < 10; i++) {
+            sut.record(1000, T0);
+        }
+        long later = T0 + 4 * HALF_LIFE;
+        for (int i = 0; i < 10; i++) {
+            sut.record(10, later);
+        }
+        // The old samples weigh 10 / 16 against 10 recent ones.
+        assertThat(sut.quantileAbove(0.5, 0, later)).isBetween(10 / 1.19, 10 * 1.19);
+        assertThat(sut.quantileAbove(0.99, 0, later)).isBetween(1000 / 1.19, 1000 * 1.19);
+    }
+}
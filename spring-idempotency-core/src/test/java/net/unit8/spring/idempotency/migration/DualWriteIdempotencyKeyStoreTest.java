@@ -0,0 +1,77 @@
+package net.unit8.spring.idempotency.migration;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DualWriteIdempotencyKeyStoreTest {
+    private static IdempotencyKeyStore cacheStore() {
+        return new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager());
+    }
+
+    @Test
+    void writesToBothAndReadsFromPrimary() {
+        IdempotencyKeyStore primary = cacheStore();
+        IdempotencyKeyStore secondary = cacheStore();
+        DualWriteIdempotencyKeyStore sut = new DualWriteIdempotencyKeyStore(primary, secondary);
+
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(secondary.getAndSet("key")).isNotNull();
+        sut.save(new IdempotencyEntry("key", null, new IdempotencyResponse(201, null, null)));
+        assertThat(secondary.getAndSet("key").response().status()).isEqualTo(201);
+
+        assertThat(sut.getAndSetAll(List.of("key", "batch"))).containsOnlyKeys("key");
+        assertThat(secondary.getAndSet("batch")).isNotNull();
+
+        sut.deleteAll(List.of("key", "batch"));
+        assertThat(primary.getAndSet("key")).isNull();
+        assertThat(secondary.getAndSet("batch")).isNull();
+    }
+
+    @Test
+    void entriesOfTheSecondaryWinOverNewClaims() {
+        IdempotencyKeyStore primary = cacheStore();
+        IdempotencyKeyStore secondary = cacheStore();
+        DualWriteIdempotencyKeyStore sut = new DualWriteIdempotencyKeyStore(primary, secondary);
+        // Claimed and completed by nodes that still use the secondary as their primary.
+        secondary.save(new IdempotencyEntry("done", null, new IdempotencyResponse(201, null, null)));
+        secondary.getAndSet("running");
+
+        assertThat(sut.getAndSet("done").response().status()).isEqualTo(201);
+        assertThat(primary.getAndSet("done")).isNull();
+
+        assertThat(sut.getAndSetAll(List.of("running", "new"))).containsOnlyKeys("running")
+                .hasEntrySatisfying("running", entry -> assertThat(entry.response()).isNull());
+        assertThat(primary.getAndSet("running")).isNull();
+        assertThat(primary.getAndSet("new")).isNotNull();
+    }
+
+    @Test
+    void secondaryFailuresDoNotFailRequests() {
+        IdempotencyKeyStore primary = cacheStore();
+        IdempotencyKeyStore failing = new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager()) {
+            @Override
+            public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+                throw new IllegalStateException("down");
+            }
+
+            @Override
+            public void save(IdempotencyEntry entry, Duration expiry) {
+                throw new IllegalStateException("down");
+            }
+        };
+        DualWriteIdempotencyKeyStore sut = new DualWriteIdempotencyKeyStore(primary, failing);
+
+        assertThat(sut.getAndSet("key")).isNull();
+        sut.save(new IdempotencyEntry("key", null, new IdempotencyResponse(201, null, null)));
+        assertThat(primary.getAndSet("key").response().status()).isEqualTo(201);
+    }
+}
@@ -0,0 +1,102 @@
+package net.unit8.spring.idempotency.migration;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyFingerprint;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import net.unit8.spring.idempotency.ScannableIdempotencyKeyStore;
+import net.unit8.spring.idempotency.ScannedEntry;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdempotencyStoreMigratorTest {
+    private static IdempotencyEntry completed(String key) {
+        return new IdempotencyEntry(key, new IdempotencyFingerprint("fp"),
+                new IdempotencyResponse(201, null, key.getBytes()));
+    }
+
+    private static ScannableIdempotencyKeyStore source(List<ScannedEntry> entries) {
+        return new ScannableIdempotencyKeyStore() {
+            @Override
+            public Stream<ScannedEntry> scan(int batchSize) {
+                return entries.stream();
+            }
+
+            @Override
+            public IdempotencyEntry getAndSet(String idempotencyKey) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void save(IdempotencyEntry entry) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void delete(String idempotencyKey) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    void copiesLiveEntriesWithTheirTimeToLive() throws Exception {
+        List<ScannedEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            entries.add(new ScannedEntry(completed("key-" + i), Duration.ofMillis(60_000 + i * 10)));
+        }
+        entries.add(new ScannedEntry(IdempotencyEntry.inProgress("in-progress"), Duration.ofSeconds(30)));
+        entries.add(new ScannedEntry(completed("expiring"), Duration.ofMillis(100)));
+        entries.add(new ScannedEntry(completed("existing"), Duration.ofMinutes(1)));
+
+        Map<String, Duration> expiries = new ConcurrentHashMap<>();
+        IdempotencyKeyStore target = new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager()) {
+            @Override
+            public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+                entries.forEach(entry -> expiries.put(entry.idempotencyKey(), expiry));
+                super.saveAll(entries, expiry);
+            }
+        };
+        target.save(completed("existing"));
+
+        IdempotencyStoreMigrator sut = new IdempotencyStoreMigrator(source(entries), target);
+        sut.setBatchSize(10);
+        sut.setParallelism(2);
+        MigrationResult result = sut.migrate();
+
+        assertThat(result).isEqualTo(new MigrationResult(28, 26, 1, 1));
+        assertThat(target.getAndSet("key-3").response().body()).isEqualTo("key-3".getBytes());
+        assertThat(expiries.get("key-3")).isEqualTo(Duration.ofSeconds(60));
+        assertThat(target.getAndSet("in-progress")).isNotNull()
+                .extracting(IdempotencyEntry::response).isNull();
+        assertThat(target.getAndSet("expiring")).isNull();
+        assertThat(expiries).doesNotContainKey("existing");
+    }
+
+    @Test
+    void limitsTheRate() throws Exception {
+        List<ScannedEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            entries.add(new ScannedEntry(completed("key-" + i), null));
+        }
+        IdempotencyStoreMigrator sut = new IdempotencyStoreMigrator(source(entries),
+                new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager()));
+        sut.setBatchSize(10);
+        sut.setMaxEntriesPerSecond(100);
+
+        long start = System.nanoTime();
+        assertThat(sut.migrate().copied()).isEqualTo(40);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(250));
+    }
+}
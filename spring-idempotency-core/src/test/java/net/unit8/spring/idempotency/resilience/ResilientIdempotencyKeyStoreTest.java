@@ -0,0 +1,188 @@
+package net.unit8.spring.idempotency.resilience;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyStoreUnavailableException;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResilientIdempotencyKeyStoreTest {
+    private final FlakyStore flaky = new FlakyStore();
+    private final List<String> events = new ArrayList<>();
+    private ResilientIdempotencyKeyStore sut;
+
+    private ResilientIdempotencyKeyStore create(DegradedMode mode) {
+        sut = new ResilientIdempotencyKeyStore(flaky);
+        sut.setFailureThreshold(2);
+        sut.setOpenDuration(Duration.ofMillis(100));
+        sut.setGetAndSetTimeout(Duration.ofMillis(50));
+        sut.setMaxConcurrentCalls(1);
+        sut.setDegradedMode(mode);
+        sut.setListeners(List.of(new ResilienceListener() {
+            @Override
+            public void onStateTransition(CircuitState from, CircuitState to) {
+                events.add(from + "->" + to);
+            }
+
+            @Override
+            public void onRejected(String operation, RejectionReason reason) {
+                events.add(operation + ":" + reason);
+            }
+
+            @Override
+            public void onTimeout(String operation, Duration budget) {
+                events.add(operation + ":timeout");
+            }
+        }));
+        sut.afterPropertiesSet();
+        return sut;
+    }
+
+    @AfterEach
+    void tearDown() {
+        flaky.release.countDown();
+        sut.destroy();
+    }
+
+    @Test
+    void passThrough() {
+        create(DegradedMode.FAIL_CLOSED);
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(sut.getAndSet("key")).isNotNull();
+        sut.delete("key");
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(sut.getCircuitState()).isEqualTo(CircuitState.CLOSED);
+    }
+
+    @Test
+    void failOpenAfterFailures() {
+        create(DegradedMode.FAIL_OPEN);
+        flaky.failing = true;
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(sut.getCircuitState()).isEqualTo(CircuitState.OPEN);
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(flaky.calls).isEqualTo(2);
+        assertThat(events).containsExactly("CLOSED->OPEN", "getAndSet:CIRCUIT_OPEN");
+    }
+
+    @Test
+    void failClosedWithRetryAfter() {
+        create(DegradedMode.FAIL_CLOSED);
+        flaky.failing = true;
+        assertThatThrownBy(() -> sut.getAndSet("key")).isInstanceOf(IdempotencyStoreUnavailableException.class);
+        assertThatThrownBy(() -> sut.getAndSet("key"))
+                .isInstanceOfSatisfying(IdempotencyStoreUnavailableException.class,
+                        e -> assertThat(e.getRetryAfter()).isPositive());
+    }
+
+    @Test
+    void halfOpenProbeClosesCircuit() throws InterruptedException {
+        create(DegradedMode.FAIL_OPEN);
+        flaky.failing = true;
+        sut.getAndSet("key");
+        sut.getAndSet("key");
+        flaky.failing = false;
+        Thread.sleep(150);
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(sut.getAndSet("key")).isNotNull();
+        assertThat(sut.getCircuitState()).isEqualTo(CircuitState.CLOSED);
+        assertThat(events).containsExactly("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED");
+    }
+
+    @Test
+    void timeoutAndBulkhead() throws InterruptedException {
+        create(DegradedMode.FAIL_OPEN);
+        flaky.blocking = true;
+        long start = System.nanoTime();
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+        assertThat(events).contains("getAndSet:timeout");
+
+        // The only permit of the bulkhead is held by the abandoned call until it returns.
+        assertThat(sut.getAndSet("other")).isNull();
+        assertThat(events).contains("getAndSet:BULKHEAD_FULL");
+        assertThat(flaky.calls).isEqualTo(1);
+
+        flaky.release.countDown();
+        // The permit is released before the abandoned call is undone.
+        assertThat(flaky.deleted.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(sut.getAndSet("other")).isNull();
+        assertThat(sut.getAndSet("other")).isNotNull();
+    }
+
+    @Test
+    void claimOfAbandonedCallIsDeleted() throws InterruptedException {
+        create(DegradedMode.FAIL_CLOSED);
+        flaky.blocking = true;
+        assertThatThrownBy(() -> sut.getAndSet("key")).isInstanceOf(IdempotencyStoreUnavailableException.class);
+
+        // The abandoned call claims the key after all, and the claim is deleted.
+        flaky.release.countDown();
+        assertThat(flaky.deleted.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(sut.getAndSet("key")).isNotNull();
+    }
+
+    @Test
+    void claimsOfAbandonedBatchAreDeleted() throws InterruptedException {
+        create(DegradedMode.FAIL_CLOSED);
+        flaky.getAndSet("existing");
+        flaky.blocking = true;
+        assertThatThrownBy(() -> sut.getAndSetAll(List.of("existing", "new")))
+                .isInstanceOf(IdempotencyStoreUnavailableException.class);
+
+        flaky.release.countDown();
+        assertThat(flaky.deleted.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(sut.getAndSetAll(List.of("existing", "new"))).containsOnlyKeys("existing");
+    }
+
+    private static class FlakyStore implements IdempotencyKeyStore {
+        private final IdempotencyKeyStore delegate = new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager());
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CountDownLatch deleted = new CountDownLatch(1);
+        volatile boolean failing;
+        volatile boolean blocking;
+        volatile int calls;
+        volatile int inCall;
+
+        @Override
+        public IdempotencyEntry getAndSet(String idempotencyKey) {
+            calls++;
+            if (failing) {
+                throw new IllegalStateException("down");
+            }
+            if (blocking) {
+                inCall++;
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return delegate.getAndSet(idempotencyKey);
+        }
+
+        @Override
+        public void save(IdempotencyEntry entry) {
+            delegate.save(entry);
+        }
+
+        @Override
+        public void delete(String idempotencyKey) {
+            delegate.delete(idempotencyKey);
+            deleted.countDown();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package net.unit8.spring.idempotency.sharding;
+
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class ShardedIdempotencyKeyStoreTest {
+    private static IdempotencyKeyStore cacheStore() {
+        return new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager());
+    }
+
+    private static ShardedIdempotencyKeyStore sharded(List<Shard> shards) {
+        ShardedIdempotencyKeyStore sut = new ShardedIdempotencyKeyStore(shards);
+        sut.afterPropertiesSet();
+        return sut;
+    }
+
+    @Test
+    void routesKeyToOneShard() {
+        IdempotencyKeyStore a = cacheStore();
+        IdempotencyKeyStore b = cacheStore();
+        ShardedIdempotencyKeyStore sut = sharded(List.of(new Shard("a", a), new Shard("b", b)));
+
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(sut.getAndSet("key")).isNotNull();
+        IdempotencyKeyStore owner = sut.storeFor("key");
+        IdempotencyKeyStore other = owner == a ? b : a;
+        assertThat(owner.getAndSet("key")).isNotNull();
+        assertThat(other.getAndSet("key")).isNull();
+
+        sut.delete("key");
+        assertThat(owner.getAndSet("key")).isNull();
+    }
+
+    @Test
+    void batchIsSplitByShard() {
+        IdempotencyKeyStore a = cacheStore();
+        IdempotencyKeyStore b = cacheStore();
+        ShardedIdempotencyKeyStore sut = sharded(List.of(new Shard("a", a), new Shard("b", b)));
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add("key-" + i);
+        }
+        sut.getAndSet("key-3");
+
+        assertThat(sut.getAndSetAll(keys)).containsOnlyKeys("key-3");
+        for (String key : keys) {
+            assertThat(sut.storeFor(key).getAndSet(key)).isNotNull();
+        }
+        sut.deleteAll(keys);
+        assertThat(sut.getAndSetAll(keys)).isEmpty();
+    }
+
+    @Test
+    void weightedDistribution() {
+        ShardedIdempotencyKeyStore sut = sharded(List.of(
+                new Shard("a", cacheStore(), 1),
+                new Shard("b", cacheStore(), 1),
+                new Shard("c", cacheStore(), 2)));
+        for (int i = 0; i < 40000; i++) {
+            sut.getAndSet("key-" + i);
+        }
+        List<ShardLoad> loads = sut.getLoadDistribution();
+        assertThat(loads).extracting(ShardLoad::name).containsExactly("a", "b", "c");
+        assertThat(loads.stream().mapToDouble(ShardLoad::ownership).sum()).isCloseTo(1.0, within(1e-9));
+        assertThat(loads.get(2).ownership()).isCloseTo(0.5, within(0.05));
+        assertThat(loads.get(0).operations()).isCloseTo(10000L, within(1500L));
+        assertThat(loads.get(2).operations()).isCloseTo(20000L, within(2000L));
+    }
+
+    @Test
+    void addingShardMovesOnlyItsShare() {
+        List<Shard> three = List.of(
+                new Shard("a", cacheStore()),
+                new Shard("b", cacheStore()),
+                new Shard("c", cacheStore()));
+        List<Shard> four = new ArrayList<>(three);
+        four.add(new Shard("d", cacheStore()));
+        ShardedIdempotencyKeyStore before = sharded(three);
+        ShardedIdempotencyKeyStore after = sharded(four);
+
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            IdempotencyKeyStore owner = after.storeFor("key-" + i);
+            if (owner != before.storeFor("key-" + i)) {
+                assertThat(owner).isSameAs(four.get(3).idempotencyKeyStore());
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(2000, 3000);
+    }
+
+    @Test
+    void invalidShards() {
+        assertThatThrownBy(() -> sharded(List.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> sharded(List.of(new Shard("a", cacheStore(), 0))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> sharded(List.of(new Shard("a", cacheStore()), new Shard("a", cacheStore()))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,190 @@
+package net.unit8.spring.idempotency.filter;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The response wrapper that writes the body through to the response and keeps a copy of it.
+ *
+ * <p>Unlike {@link org.springframework.web.util.ContentCachingResponseWrapper}, the body does not have to be
+ * copied to the response afterwards, so it works for async and streaming handlers that complete
+ * the response without returning to the filter.</p>
+ *
+ * @author kawasima
+ */
+class CapturingResponseWrapper extends HttpServletResponseWrapper {
+    private final Capture capture;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    CapturingResponseWrapper(HttpServletResponse response, int maxBodySize) {
+        this(response, new Capture(maxBodySize));
+    }
+
+    private CapturingResponseWrapper(HttpServletResponse response, Capture capture) {
+        super(response);
+        this.capture = capture;
+    }
+
+    /**
+     * Wrap another response into the same capture, for the response of an async dispatch.
+     */
+    CapturingResponseWrapper rewrap(HttpServletResponse response) {
+        return new CapturingResponseWrapper(response, capture);
+    }
+
+    /**
+     * The captured body.
+     */
+    byte[] getCapturedBody() {
+        synchronized (capture) {
+            return capture.buffer.toByteArray();
+        }
+    }
+
+    /**
+     * Flush the writers of the response and of the responses rewrapped into the same capture.
+     * The container does not know the writers of the wrappers, so nothing else flushes them.
+     */
+    void flushWriters() {
+        for (PrintWriter printWriter : capture.writers()) {
+            printWriter.flush();
+        }
+    }
+
+    /**
+     * Whether the body has exceeded the max size, and has not been captured entirely.
+     */
+    boolean isOverflowed() {
+        synchronized (capture) {
+            return capture.overflowed;
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            outputStream = new CapturingOutputStream(super.getOutputStream(), capture);
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            String encoding = getCharacterEncoding();
+            writer = new PrintWriter(new OutputStreamWriter(getOutputStream(),
+                    encoding != null ? Charset.forName(encoding) : Charset.defaultCharset()));
+            capture.addWriter(writer);
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        super.flushBuffer();
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        capture.reset();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        capture.reset();
+    }
+
+    private static class Capture {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final List<PrintWriter> writers = new ArrayList<>();
+        private final int maxBodySize;
+        private boolean overflowed;
+
+        Capture(int maxBodySize) {
+            this.maxBodySize = maxBodySize;
+        }
+
+        synchronized void write(byte[] b, int off, int len) {
+            if (overflowed) {
+                return;
+            }
+            if (buffer.size() + len > maxBodySize) {
+                overflowed = true;
+                buffer.reset();
+                return;
+            }
+            buffer.write(b, off, len);
+        }
+
+        synchronized void addWriter(PrintWriter writer) {
+            writers.add(writer);
+        }
+
+        synchronized List<PrintWriter> writers() {
+            return List.copyOf(writers);
+        }
+
+        synchronized void reset() {
+            buffer.reset();
+            overflowed = false;
+        }
+    }
+
+    private static class CapturingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private final Capture capture;
+
+        CapturingOutputStream(ServletOutputStream delegate, Capture capture) {
+            this.delegate = delegate;
+            this.capture = capture;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            capture.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            capture.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+}
@@ -1,28 +1,54 @@
 package net.unit8.spring.idempotency.filter;
 
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import net.unit8.spring.idempotency.*;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyConstraint;
 import net.unit8.spring.idempotency.defaults.DefaultResponseValidator;
 import net.unit8.spring.idempotency.filter.fingerprint.DigestFingerprintStrategy;
+import net.unit8.spring.idempotency.filter.inflight.InFlightRegistry;
+import net.unit8.spring.idempotency.filter.inflight.InFlightRequest;
+import net.unit8.spring.idempotency.filter.policy.IdempotencyPolicy;
+import net.unit8.spring.idempotency.filter.policy.IdempotencyPolicyRegistry;
+import net.unit8.spring.idempotency.filter.retry.RetryAfterEstimator;
+import net.unit8.spring.idempotency.hotkey.HotKeyDetector;
+import net.unit8.spring.idempotency.jfr.IdempotencyFingerprintEvent;
+import net.unit8.spring.idempotency.jfr.IdempotencyReplayEvent;
+import net.unit8.spring.idempotency.jfr.IdempotencyStoreEvent;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.util.ContentCachingRequestWrapper;
-import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.UrlPathHelper;
 import org.springframework.web.util.WebUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class IdempotencyFilter extends OncePerRequestFilter {
     private static final String DEFAULT_IDEMPOTENCY_KEY_HEADER_NAME = "Idempotency-Key";
+    private static final String EXCHANGE_ATTRIBUTE = IdempotencyFilter.class.getName() + ".EXCHANGE";
+    /**
+     * The value of {@code HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE}, without depending on Spring MVC.
+     */
+    private static final String BEST_MATCHING_PATTERN_ATTRIBUTE =
+            "org.springframework.web.servlet.HandlerMapping.bestMatchingPattern";
     private IdempotencyKeyStore idempotencyKeyStore;
     private boolean enabledResponseIdempotency;
     /**
@@ -32,68 +58,385 @@ public class IdempotencyFilter extends OncePerRequestFilter {
 
     private ResponseValidator responseValidator;
 
+    /**
+     * Decides which failed responses are stored for a short time. Failed responses are never stored if it is null.
+     */
+    private NegativeCachePolicy negativeCachePolicy;
+
     /**
      * The name of the header that contains the idempotency key.
      */
     private String idempotencyKeyHeaderName;
 
+    /**
+     * The constraint of the idempotency keys. A request with an invalid key is rejected with 400 Bad Request.
+     */
+    private DefaultIdempotencyKeyConstraint idempotencyKeyConstraint;
+
     private Set<String> headerWhitelist = Set.of("content-type");
 
+    /**
+     * The per-route policies. All requests are processed by the default policy if it is null.
+     */
+    private IdempotencyPolicyRegistry idempotencyPolicyRegistry;
+
+    private IdempotencyPolicy defaultPolicy;
+
+    /**
+     * Estimates the {@code Retry-After} of conflicts from the latencies of the routes.
+     */
+    private RetryAfterEstimator retryAfterEstimator;
+
+    /**
+     * The keys in flight on this node. Duplicates always go to the store if it is null.
+     */
+    private InFlightRegistry inFlightRegistry;
+
+    /**
+     * The max size of a response body to save. A larger response is not saved, and the key is released.
+     */
+    private int maxResponseBodySize = Integer.MAX_VALUE;
+
+    /**
+     * Counts the uses of the keys to find the hot ones. The keys are not counted if it is null.
+     */
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * Identifies the client of a request for the hot keys.
+     */
+    private Function<HttpServletRequest, String> clientIdentifier = HttpServletRequest::getRemoteAddr;
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        // The response of an async dispatch has to be captured into the exchange of the initial dispatch.
+        return false;
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if (isAsyncDispatch(request)) {
+            processAsyncDispatch(request, response, filterChain);
+            return;
+        }
+
+        IdempotencyPolicy policy = defaultPolicy;
+        if (idempotencyPolicyRegistry != null) {
+            IdempotencyPolicy routePolicy = idempotencyPolicyRegistry.lookup(request);
+            if (routePolicy == null) {
+                filterChain.doFilter(request, response);
+                return;
+            }
+            policy = routePolicy.withDefaults(defaultPolicy);
+        }
+
         String idempotencyKey = request.getHeader(idempotencyKeyHeaderName);
         if (idempotencyKey == null) {
+            if (policy.required()) {
+                response.sendError(400);
+                return;
+            }
             filterChain.doFilter(request, response);
             return;
         }
+        if (!idempotencyKeyConstraint.isValid(idempotencyKey)) {
+            response.sendError(400);
+            return;
+        }
+
+        if (hotKeyDetector != null) {
+            long count = hotKeyDetector.record(idempotencyKey, clientIdentifier.apply(request));
+            if (hotKeyDetector.isThrottled(count)) {
+                // The key is rejected before it reaches the store, until its count decays.
+                response.setHeader(HttpHeaders.RETRY_AFTER,
+                        String.valueOf(Math.max(1, (hotKeyDetector.getDecayInterval().toMillis() + 999) / 1000)));
+                response.sendError(429);
+                return;
+            }
+        }
 
         ContentCachingRequestWrapper requestWrapper = new ContentCachingRequestWrapper(request);
-        IdempotencyEntry idempotencyEntry = idempotencyKeyStore.getAndSet(idempotencyKey);
+        InFlightRequest inFlight = null;
+        if (inFlightRegistry != null) {
+            inFlight = new InFlightRequest();
+            InFlightRequest existing = inFlightRegistry.register(idempotencyKey, inFlight);
+            if (existing != null) {
+                processDuplicate(requestWrapper, response, filterChain, idempotencyKey, existing, policy);
+                return;
+            }
+        }
+        processRequest(requestWrapper, response, filterChain, idempotencyKey, policy, inFlight);
+    }
+
+    /**
+     * Claim the key, and process the request or the retry.
+     * The registration of the key in flight is released when the request has completed.
+     */
+    private void processRequest(HttpServletRequest request,
+                                HttpServletResponse response,
+                                FilterChain filterChain,
+                                String idempotencyKey,
+                                IdempotencyPolicy policy,
+                                InFlightRequest inFlight)
+            throws IOException, ServletException {
+        IdempotencyEntry idempotencyEntry;
+        try {
+            idempotencyEntry = getAndSet(policy, idempotencyKey);
+        } catch (IdempotencyStoreUnavailableException e) {
+            release(idempotencyKey, inFlight, null);
+            sendUnavailable(response, e);
+            return;
+        } catch (RuntimeException e) {
+            release(idempotencyKey, inFlight, null);
+            throw e;
+        }
         if (idempotencyEntry == null) {
-            processIdempotencyRequest(requestWrapper, response, filterChain, idempotencyKey);
-        } else {
+            processIdempotencyRequest(request, response, filterChain,
+                    new IdempotencyExchange(idempotencyKey, policy, inFlight));
+            return;
+        }
+        try {
+            processRetry(request, response, filterChain, idempotencyEntry, policy);
+        } finally {
+            release(idempotencyKey, inFlight, idempotencyEntry.response() != null ? idempotencyEntry : null);
+        }
+    }
 
-            processRetry(requestWrapper, response, filterChain, idempotencyEntry);
+    /**
+     * Answer a duplicate of the request in flight on this node without calling the store.
+     */
+    private void processDuplicate(HttpServletRequest request,
+                                  HttpServletResponse response,
+                                  FilterChain filterChain,
+                                  String idempotencyKey,
+                                  InFlightRequest inFlight,
+                                  IdempotencyPolicy policy)
+            throws IOException, ServletException {
+        if (!inFlightRegistry.tryAcquireDuplicate(inFlight)) {
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(Math.max(1, (inFlightRegistry.refillInterval().toMillis() + 999) / 1000)));
+            response.sendError(429);
+            return;
+        }
+        IdempotencyEntry completed;
+        try {
+            completed = inFlight.completion()
+                    .get(inFlightRegistry.getParkTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            sendConflict(request, response, policy, inFlight.startedAt());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendConflict(request, response, policy, inFlight.startedAt());
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
         }
+        if (completed != null) {
+            processRetry(request, response, filterChain, completed, policy);
+        } else {
+            // The request in flight has saved nothing, so ask the store.
+            processRequest(request, response, filterChain, idempotencyKey, policy, null);
+        }
+    }
 
+    private static void sendUnavailable(HttpServletResponse response, IdempotencyStoreUnavailableException e)
+            throws IOException {
+        Optional.ofNullable(e.getRetryAfter())
+                .ifPresent(retryAfter -> response.setHeader(HttpHeaders.RETRY_AFTER,
+                        String.valueOf(Math.max(1, (retryAfter.toMillis() + 999) / 1000))));
+        response.sendError(503);
     }
 
+    private void sendConflict(HttpServletRequest request, HttpServletResponse response, IdempotencyPolicy policy,
+                              Instant startedAt) throws IOException {
+        Duration elapsed = Optional.ofNullable(startedAt)
+                .map(started -> Duration.between(started, Instant.now()))
+                .orElse(null);
+        response.setHeader(HttpHeaders.RETRY_AFTER,
+                String.valueOf(retryAfterEstimator.estimateSeconds(routeOf(policy, request), elapsed)));
+        response.sendError(409);
+    }
+
+    /**
+     * Process the claimed request. The response is captured while it is written, and the entry is saved
+     * when the request completes: on return of the filter chain, or on completion of the async request.
+     */
     private void processIdempotencyRequest(HttpServletRequest request,
                                            HttpServletResponse response,
                                            FilterChain filterChain,
-                                           String idempotencyKey)
+                                           IdempotencyExchange exchange)
             throws IOException, ServletException {
-        filterChain.doFilter(request, response);
-        Optional<IdempotencyFingerprint> fingerprint = Optional.ofNullable(idempotencyFingerprintStrategy)
-                .map(strategy -> strategy.create(request));
-        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
-        IdempotencyResponse idempotencyResponse = new IdempotencyResponse(wrapper.getStatus(),
-                wrapper.getHeaderNames().stream()
-                        .filter(name -> headerWhitelist.contains(name))
-                        .collect(Collectors.toMap(
-                                Function.identity(),
-                                response::getHeaders
-                        )),
-                wrapper.getContentAsByteArray());
-        wrapper.copyBodyToResponse();
-        if (responseValidator.validate(idempotencyResponse)) {
-            idempotencyKeyStore.save(new IdempotencyEntry(
-                    idempotencyKey,
-                    fingerprint.orElse(null),
-                    idempotencyResponse
-            ));
-        } else {
-            idempotencyKeyStore.delete(idempotencyKey);
+        CapturingResponseWrapper responseWrapper = new CapturingResponseWrapper(response, maxResponseBodySize);
+        exchange.responseWrapper = responseWrapper;
+        request.setAttribute(EXCHANGE_ATTRIBUTE, exchange);
+        boolean completed = false;
+        try {
+            filterChain.doFilter(request, responseWrapper);
+            // The output written through getWriter() is buffered by the writer of the wrapper.
+            responseWrapper.flushWriters();
+            exchange.route = routeOf(exchange.policy, request);
+            exchange.fingerprint = createFingerprint(request, exchange);
+            completed = true;
+        } finally {
+            if (!completed) {
+                abort(exchange);
+            } else if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ExchangeListener(exchange));
+            } else {
+                complete(exchange);
+            }
+        }
+    }
+
+    /**
+     * Create the fingerprint of the claimed request on the initial dispatch,
+     * while the request body can still be read.
+     */
+    private IdempotencyFingerprint createFingerprint(HttpServletRequest request, IdempotencyExchange exchange) throws IOException {
+        IdempotencyFingerprintStrategy strategy = exchange.policy.fingerprintStrategy();
+        if (strategy == null) {
+            return null;
+        }
+        if (!request.isAsyncStarted()) {
+            // The fingerprint of a retry covers the whole body, even if the handler has not read it.
+            ContentCachingRequestWrapper requestWrapper = WebUtils.getNativeRequest(request, ContentCachingRequestWrapper.class);
+            if (requestWrapper != null) {
+                consumeRequestStream(requestWrapper.getInputStream());
+            }
+        }
+        return createFingerprint(strategy, request, exchange.idempotencyKey, null);
+    }
+
+    private void processAsyncDispatch(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws IOException, ServletException {
+        IdempotencyExchange exchange = (IdempotencyExchange) request.getAttribute(EXCHANGE_ATTRIBUTE);
+        if (exchange == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        try {
+            if (WebUtils.getNativeResponse(response, CapturingResponseWrapper.class) != null) {
+                filterChain.doFilter(request, response);
+            } else {
+                // The async request has been started without the wrapped response.
+                filterChain.doFilter(request, exchange.responseWrapper.rewrap(response));
+            }
+        } finally {
+            // The container completes the response after the dispatch. It is too late to flush in the listener.
+            exchange.responseWrapper.flushWriters();
+        }
+    }
+
+    /**
+     * Save the captured response, or release the key if the response is not to be saved.
+     * The writers have been flushed by the dispatches, before the container has completed the response.
+     */
+    private void complete(IdempotencyExchange exchange) {
+        if (!exchange.finish()) {
+            return;
+        }
+        retryAfterEstimator.record(exchange.route, Duration.ofNanos(System.nanoTime() - exchange.startedAt));
+        CapturingResponseWrapper responseWrapper = exchange.responseWrapper;
+        IdempotencyEntry entry = null;
+        Duration expiry = exchange.policy.expiry();
+        try {
+            if (!responseWrapper.isOverflowed()) {
+                byte[] body = responseWrapper.getCapturedBody();
+                IdempotencyResponse idempotencyResponse = new IdempotencyResponse(responseWrapper.getStatus(),
+                        responseWrapper.getHeaderNames().stream()
+                                .distinct()
+                                .filter(name -> headerWhitelist.contains(name.toLowerCase(Locale.ROOT)))
+                                .collect(Collectors.toMap(
+                                        Function.identity(),
+                                        responseWrapper::getHeaders
+                                )),
+                        body,
+                        etagOf(responseWrapper, body));
+                if (responseValidator.validate(idempotencyResponse)) {
+                    entry = new IdempotencyEntry(
+                            exchange.idempotencyKey,
+                            exchange.fingerprint,
+                            idempotencyResponse
+                    );
+                } else if (negativeCachePolicy != null && exchange.policy.idempotencyKeyStore().supportsEntryExpiry()) {
+                    // A deterministic failure is replayed for a short time instead of running the handler again.
+                    Duration ttl = negativeCachePolicy.ttlOf(idempotencyResponse);
+                    if (ttl != null) {
+                        expiry = exchange.policy.expiry() != null && exchange.policy.expiry().compareTo(ttl) < 0
+                                ? exchange.policy.expiry() : ttl;
+                        entry = new IdempotencyEntry(
+                                exchange.idempotencyKey,
+                                exchange.fingerprint,
+                                idempotencyResponse
+                        );
+                    }
+                }
+            }
+            if (entry != null) {
+                save(exchange.policy, entry, expiry);
+            } else {
+                delete(exchange.policy, exchange.idempotencyKey);
+            }
+        } finally {
+            release(exchange.idempotencyKey, exchange.inFlight, entry);
+        }
+    }
+
+    /**
+     * Release the key of the request that has failed, so that it can be retried.
+     */
+    private void abort(IdempotencyExchange exchange) {
+        if (!exchange.finish()) {
+            return;
+        }
+        try {
+            delete(exchange.policy, exchange.idempotencyKey);
+        } finally {
+            release(exchange.idempotencyKey, exchange.inFlight, null);
+        }
+    }
+
+    private void release(String idempotencyKey, InFlightRequest inFlight, IdempotencyEntry completed) {
+        if (inFlight != null) {
+            inFlightRegistry.release(idempotencyKey, inFlight, completed);
         }
     }
+
     private void processRetry(HttpServletRequest request,
                               HttpServletResponse response,
                               FilterChain filterChain,
-                              IdempotencyEntry entry) throws IOException, ServletException {
+                              IdempotencyEntry entry,
+                              IdempotencyPolicy policy) throws IOException, ServletException {
+        IdempotencyReplayEvent event = new IdempotencyReplayEvent();
+        event.begin();
+        String outcome = "ERROR";
+        try {
+            outcome = replay(request, response, entry, policy);
+        } finally {
+            if (event.shouldCommit()) {
+                event.keyHash = Objects.hashCode(entry.idempotencyKey());
+                event.status = entry.response() != null ? entry.response().status() : 0;
+                // The body of a response that has not been replayed may not have been read from the store.
+                event.payloadSize = outcome.equals("REPLAYED") ? payloadSize(entry.response()) : 0;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @return the outcome of the retry for {@link IdempotencyReplayEvent}
+     */
+    private String replay(HttpServletRequest request,
+                          HttpServletResponse response,
+                          IdempotencyEntry entry,
+                          IdempotencyPolicy policy) throws IOException {
         if (entry.response() == null) {
-            response.sendError(409);
+            sendConflict(request, response, policy, entry.startedAt());
+            return "CONFLICT";
         } else {
-            Optional<IdempotencyFingerprint> fingerprint = Optional.ofNullable(idempotencyFingerprintStrategy)
+            Optional<IdempotencyFingerprint> fingerprint = Optional.ofNullable(policy.fingerprintStrategy())
                     .map(strategy -> {
                         ContentCachingRequestWrapper requestWrapper = WebUtils.getNativeRequest(request, ContentCachingRequestWrapper.class);
                         if (requestWrapper != null) {
@@ -103,23 +446,176 @@ public class IdempotencyFilter extends OncePerRequestFilter {
                                 throw new UncheckedIOException(e);
                             }
                         }
-                        return strategy.create(request);
+                        return createFingerprint(strategy, request, entry.idempotencyKey(), entry.fingerprint());
                     });
             if (fingerprint.filter(f -> !Objects.equals(f, entry.fingerprint())).isPresent()) {
                 response.sendError(422);
-                return;
+                return "MISMATCH";
+            }
+            String etag = entry.response().etag();
+            if (etag != null && isSuccessful(entry.response().status())
+                    && etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+                // The client has the response already, so the body is neither read nor sent.
+                response.setStatus(304);
+                response.setHeader(HttpHeaders.ETAG, etag);
+                return "NOT_MODIFIED";
+            }
+            byte[] body;
+            try {
+                // A store may read the body only now, and find that it is unavailable.
+                body = entry.response().body();
+            } catch (IdempotencyStoreUnavailableException e) {
+                sendUnavailable(response, e);
+                return "UNAVAILABLE";
             }
             response.setStatus(entry.response().status());
             Optional.ofNullable(entry.response().headers())
                     .ifPresent(headers -> headers.forEach((name, values) -> {
                         values.forEach(value -> response.addHeader(name, value));
                     }));
+            if (etag != null && !response.containsHeader(HttpHeaders.ETAG)) {
+                response.setHeader(HttpHeaders.ETAG, etag);
+            }
 
-            if(entry.response().body() != null) {
-                response.getOutputStream().write(entry.response().body());
+            if (body != null) {
+                response.getOutputStream().write(body);
             }
             response.getOutputStream().close();
+            return "REPLAYED";
+        }
+    }
+
+    /**
+     * The entity tag set by the handler if it is strong, or the one computed from the response.
+     */
+    private static String etagOf(HttpServletResponse response, byte[] body) {
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        if (etag != null && etag.startsWith("\"")) {
+            return etag;
+        }
+        return IdempotencyResponse.strongEtag(response.getStatus(), body);
+    }
+
+    private static boolean isSuccessful(int status) {
+        return status >= 200 && status < 300;
+    }
+
+    /**
+     * The weak comparison of {@code If-None-Match} (RFC 9110 section 13.1.2).
+     */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private IdempotencyEntry getAndSet(IdempotencyPolicy policy, String idempotencyKey) {
+        IdempotencyStoreEvent event = new IdempotencyStoreEvent();
+        event.begin();
+        IdempotencyEntry entry = null;
+        String outcome = "ERROR";
+        try {
+            entry = policy.idempotencyKeyStore().getAndSet(idempotencyKey, policy.expiry());
+            outcome = entry == null ? "CLAIMED" : entry.response() == null ? "IN_PROGRESS" : "COMPLETED";
+            return entry;
+        } finally {
+            commit(event, "GET_AND_SET", policy, idempotencyKey,
+                    entry != null ? entry.response() : null, outcome);
+        }
+    }
+
+    private void save(IdempotencyPolicy policy, IdempotencyEntry entry, Duration expiry) {
+        IdempotencyStoreEvent event = new IdempotencyStoreEvent();
+        event.begin();
+        String outcome = "ERROR";
+        try {
+            policy.idempotencyKeyStore().save(entry, expiry);
+            outcome = "SAVED";
+        } finally {
+            commit(event, "SAVE", policy, entry.idempotencyKey(), entry.response(), outcome);
+        }
+    }
+
+    private void delete(IdempotencyPolicy policy, String idempotencyKey) {
+        IdempotencyStoreEvent event = new IdempotencyStoreEvent();
+        event.begin();
+        String outcome = "ERROR";
+        try {
+            policy.idempotencyKeyStore().delete(idempotencyKey);
+            outcome = "DELETED";
+        } finally {
+            commit(event, "DELETE", policy, idempotencyKey, null, outcome);
+        }
+    }
+
+    private static void commit(IdempotencyStoreEvent event, String operation, IdempotencyPolicy policy,
+                               String idempotencyKey, IdempotencyResponse response, String outcome) {
+        // The fields are filled only when the event is recorded, so that a disabled event costs nothing.
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.storeType = policy.idempotencyKeyStore().getClass().getName();
+            event.keyHash = Objects.hashCode(idempotencyKey);
+            event.payloadSize = payloadSize(response);
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    private static IdempotencyFingerprint createFingerprint(IdempotencyFingerprintStrategy strategy,
+                                                            HttpServletRequest request,
+                                                            String idempotencyKey,
+                                                            IdempotencyFingerprint saved) {
+        IdempotencyFingerprintEvent event = new IdempotencyFingerprintEvent();
+        event.begin();
+        IdempotencyFingerprint fingerprint = null;
+        String outcome = "ERROR";
+        try {
+            fingerprint = strategy.create(request, saved);
+            outcome = fingerprint != null ? "CREATED" : "NONE";
+            return fingerprint;
+        } finally {
+            if (event.shouldCommit()) {
+                ContentCachingRequestWrapper wrapper = WebUtils.getNativeRequest(request, ContentCachingRequestWrapper.class);
+                event.strategy = strategy.getClass().getName();
+                event.keyHash = Objects.hashCode(idempotencyKey);
+                event.payloadSize = wrapper != null ? wrapper.getContentAsByteArray().length : 0;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    private static long payloadSize(IdempotencyResponse response) {
+        return response != null && response.body() != null ? response.body().length : 0;
+    }
+
+    /**
+     * The route of the latencies: the route of the policy, or the method and the pattern that the handler mapping
+     * has matched. The pattern is not known before the handler mapping runs, so the lookup path stands in for it.
+     * A conflict on a templated route of the default policy is therefore estimated by the default.
+     */
+    private static String routeOf(IdempotencyPolicy policy, HttpServletRequest request) {
+        if (policy.route() != null) {
+            return policy.route();
         }
+        Object pattern = request.getAttribute(BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + " " + (pattern != null
+                ? pattern.toString()
+                : UrlPathHelper.defaultInstance.getLookupPathForRequest(request));
     }
 
     private void consumeRequestStream(InputStream is) throws IOException {
@@ -144,24 +640,149 @@ public class IdempotencyFilter extends OncePerRequestFilter {
         this.idempotencyKeyHeaderName = idempotencyKeyHeaderName;
     }
 
+    public void setIdempotencyKeyConstraint(DefaultIdempotencyKeyConstraint idempotencyKeyConstraint) {
+        this.idempotencyKeyConstraint = idempotencyKeyConstraint;
+    }
+
+    /**
+     * @param headerWhitelist The names of the response headers to save. They are compared case-insensitively.
+     */
     public void setHeaderWhitelist(Set<String> headerWhitelist) {
-        this.headerWhitelist = headerWhitelist;
+        this.headerWhitelist = headerWhitelist.stream()
+                .map(name -> name.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
     }
 
     public void setResponseValidator(ResponseValidator responseValidator) {
         this.responseValidator = responseValidator;
     }
 
+    /**
+     * @param negativeCachePolicy The policy of the failed responses to replay for a short time.
+     *                            It applies to the stores that support the expiry of each entry.
+     */
+    public void setNegativeCachePolicy(NegativeCachePolicy negativeCachePolicy) {
+        this.negativeCachePolicy = negativeCachePolicy;
+    }
+
+    /**
+     * Set the per-route policies. If it is set, only the routes annotated by {@link Idempotent}
+     * are processed by this filter.
+     * @param idempotencyPolicyRegistry The per-route policies.
+     */
+    public void setIdempotencyPolicyRegistry(IdempotencyPolicyRegistry idempotencyPolicyRegistry) {
+        this.idempotencyPolicyRegistry = idempotencyPolicyRegistry;
+    }
+
+    public void setRetryAfterEstimator(RetryAfterEstimator retryAfterEstimator) {
+        this.retryAfterEstimator = retryAfterEstimator;
+    }
+
+    /**
+     * Set the registry of the keys in flight on this node.
+     * @param inFlightRegistry The registry of the keys in flight on this node.
+     */
+    public void setInFlightRegistry(InFlightRegistry inFlightRegistry) {
+        this.inFlightRegistry = inFlightRegistry;
+    }
+
+    public void setMaxResponseBodySize(int maxResponseBodySize) {
+        this.maxResponseBodySize = maxResponseBodySize;
+    }
+
+    /**
+     * Set the detector of hot keys, which counts every request with an idempotency key.
+     * @param hotKeyDetector The detector of hot keys.
+     */
+    public void setHotKeyDetector(HotKeyDetector hotKeyDetector) {
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    /**
+     * @param clientIdentifier Identifies the client of a request, such as by an API key or a user.
+     *                         The remote address by default.
+     */
+    public void setClientIdentifier(Function<HttpServletRequest, String> clientIdentifier) {
+        this.clientIdentifier = clientIdentifier;
+    }
+
     @Override
     public void afterPropertiesSet() {
         if (idempotencyKeyHeaderName == null) {
             idempotencyKeyHeaderName = DEFAULT_IDEMPOTENCY_KEY_HEADER_NAME;
         }
+        if (idempotencyKeyConstraint == null) {
+            idempotencyKeyConstraint = new DefaultIdempotencyKeyConstraint();
+        }
         if (responseValidator == null) {
             responseValidator = new DefaultResponseValidator();
         }
         if (idempotencyFingerprintStrategy == null) {
             idempotencyFingerprintStrategy = new DigestFingerprintStrategy();
         }
+        if (retryAfterEstimator == null) {
+            retryAfterEstimator = new RetryAfterEstimator();
+        }
+        defaultPolicy = new IdempotencyPolicy(null, null,
+                idempotencyFingerprintStrategy, false, idempotencyKeyStore);
+    }
+
+    /**
+     * The state of a claimed request until it completes.
+     */
+    private static class IdempotencyExchange {
+        private final String idempotencyKey;
+        private final IdempotencyPolicy policy;
+        private final InFlightRequest inFlight;
+        private final long startedAt = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private CapturingResponseWrapper responseWrapper;
+        private IdempotencyFingerprint fingerprint;
+        private String route;
+
+        IdempotencyExchange(String idempotencyKey, IdempotencyPolicy policy, InFlightRequest inFlight) {
+            this.idempotencyKey = idempotencyKey;
+            this.policy = policy;
+            this.inFlight = inFlight;
+        }
+
+        /**
+         * @return true if the caller is the first to finish the exchange
+         */
+        boolean finish() {
+            return finished.compareAndSet(false, true);
+        }
+    }
+
+    /**
+     * Completes the exchange of an async request.
+     */
+    private class ExchangeListener implements AsyncListener {
+        private final IdempotencyExchange exchange;
+
+        ExchangeListener(IdempotencyExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            complete(exchange);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            abort(exchange);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            abort(exchange);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // The listeners are cleared when the request is put into async mode again.
+            event.getAsyncContext().addListener(this);
+        }
     }
 }
@@ -5,4 +5,14 @@ import net.unit8.spring.idempotency.IdempotencyFingerprint;
 
 public interface IdempotencyFingerprintStrategy {
     IdempotencyFingerprint create(HttpServletRequest request);
+
+    /**
+     * Create the fingerprint of a retry to compare with the saved one.
+     *
+     * @param request the retry
+     * @param saved   the fingerprint saved with the response, or null for a request that is not a retry
+     */
+    default IdempotencyFingerprint create(HttpServletRequest request, IdempotencyFingerprint saved) {
+        return create(request);
+    }
 }
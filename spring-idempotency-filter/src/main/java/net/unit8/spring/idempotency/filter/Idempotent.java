@@ -0,0 +1,39 @@
+package net.unit8.spring.idempotency.filter;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a handler method (or all handler methods of a controller) as idempotent.
+ *
+ * <p>When an {@link net.unit8.spring.idempotency.filter.policy.IdempotencyPolicyRegistry} is set to
+ * the {@link IdempotencyFilter}, only the annotated routes are processed by the filter.</p>
+ *
+ * @author kawasima
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Idempotent {
+    /**
+     * The expiry of the idempotency key in ISO-8601 format (e.g. {@code PT1H}).
+     * Property placeholders are resolved. Empty means the store's default expiry.
+     */
+    String ttl() default "";
+
+    /**
+     * The strategy to create idempotency fingerprint.
+     * {@link IdempotencyFingerprintStrategy} itself means the filter's default strategy.
+     */
+    Class<? extends IdempotencyFingerprintStrategy> fingerprintStrategy() default IdempotencyFingerprintStrategy.class;
+
+    /**
+     * Whether the request without an idempotency key is rejected with 400 Bad Request.
+     */
+    boolean required() default false;
+
+    /**
+     * The bean name of the {@link net.unit8.spring.idempotency.IdempotencyKeyStore}.
+     * Empty means the filter's default store.
+     */
+    String store() default "";
+}
@@ -0,0 +1,26 @@
+package net.unit8.spring.idempotency.filter.aot;
+
+import net.unit8.spring.idempotency.filter.Idempotent;
+import net.unit8.spring.idempotency.filter.fingerprint.ContentDigestFingerprintStrategy;
+import net.unit8.spring.idempotency.filter.fingerprint.DigestFingerprintStrategy;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * The runtime hints of the filter module for native images.
+ *
+ * <p>The attributes of {@link Idempotent} are read reflectively, and a fingerprint strategy named by it
+ * is instantiated by its constructor unless it is a bean. Custom strategies that are not beans need
+ * the same hint in the application.</p>
+ *
+ * @author kawasima
+ */
+public class IdempotencyFilterRuntimeHints implements RuntimeHintsRegistrar {
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        hints.reflection().registerType(Idempotent.class, MemberCategory.INVOKE_PUBLIC_METHODS);
+        hints.reflection().registerType(DigestFingerprintStrategy.class, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        hints.reflection().registerType(ContentDigestFingerprintStrategy.class, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+    }
+}
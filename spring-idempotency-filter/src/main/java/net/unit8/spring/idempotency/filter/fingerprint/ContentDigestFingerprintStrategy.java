@@ -0,0 +1,214 @@
+package net.unit8.spring.idempotency.filter.fingerprint;
+
+import jakarta.servlet.http.HttpServletRequest;
+import net.unit8.spring.idempotency.IdempotencyFingerprint;
+import net.unit8.spring.idempotency.filter.IdempotencyFingerprintStrategy;
+import org.springframework.web.util.ContentCachingRequestWrapper;
+import org.springframework.web.util.WebUtils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+import java.util.function.Predicate;
+
+/**
+ * A fingerprint strategy that uses the digest of the body sent by the client,
+ * so that a large body is not hashed on every request.
+ *
+ * <p>The digest is taken from {@code Content-Digest}, or from {@code Repr-Digest} when the body has no
+ * content coding (RFC 9530). The first supported algorithm in the order of preference is used,
+ * and the fingerprint is its dictionary member, e.g. {@code sha-256=:...:}. When the request carries
+ * no usable digest, or is not trusted, the digest is computed from the body with the most preferred
+ * algorithm.</p>
+ *
+ * <p>A retry is fingerprinted with the algorithm of the saved fingerprint, so that a retry with and
+ * without the header, or with a digest of another algorithm, gets the same fingerprint.</p>
+ *
+ * <p>A sample of the supplied digests is verified against the body. A digest that does not match is
+ * replaced with the computed one, so that the stored fingerprint is always the real one when verified.
+ * An unverified false digest only lets the client replay its own key with another body.</p>
+ *
+ * @author kawasima
+ */
+public class ContentDigestFingerprintStrategy implements IdempotencyFingerprintStrategy {
+    static final String CONTENT_DIGEST = "Content-Digest";
+    static final String REPR_DIGEST = "Repr-Digest";
+
+    private static final Map<String, String> JCA_NAMES = Map.of(
+            "sha-256", "SHA-256",
+            "sha-512", "SHA-512");
+
+    private List<String> algorithms = List.of("sha-256", "sha-512");
+    private Predicate<HttpServletRequest> trustedRequest = request -> true;
+    private double verificationRate = 0.01;
+    private DoubleSupplier random = () -> ThreadLocalRandom.current().nextDouble();
+
+    @Override
+    public IdempotencyFingerprint create(HttpServletRequest request) {
+        return fingerprint(request, algorithms);
+    }
+
+    @Override
+    public IdempotencyFingerprint create(HttpServletRequest request, IdempotencyFingerprint saved) {
+        String algorithm = saved != null ? algorithmOf(saved) : null;
+        return fingerprint(request, algorithm != null ? List.of(algorithm) : algorithms);
+    }
+
+    private IdempotencyFingerprint fingerprint(HttpServletRequest request, List<String> algorithms) {
+        ContentCachingRequestWrapper wrapper = WebUtils.getNativeRequest(request, ContentCachingRequestWrapper.class);
+        Digest supplied = trustedRequest.test(request) ? suppliedDigest(request, algorithms) : null;
+        if (supplied != null) {
+            if (wrapper == null || !sampled()) {
+                return supplied.fingerprint();
+            }
+            Digest computed = digest(supplied.algorithm(), wrapper.getContentAsByteArray());
+            return computed.fingerprint();
+        }
+        if (wrapper == null) {
+            return null;
+        }
+        return digest(algorithms.get(0), wrapper.getContentAsByteArray()).fingerprint();
+    }
+
+    /**
+     * @return the supported algorithm of the fingerprint, or null if it was not created by this strategy
+     */
+    private static String algorithmOf(IdempotencyFingerprint fingerprint) {
+        String value = fingerprint.toString();
+        int eq = value.indexOf("=:");
+        if (eq <= 0) {
+            return null;
+        }
+        String algorithm = value.substring(0, eq);
+        return JCA_NAMES.containsKey(algorithm) ? algorithm : null;
+    }
+
+    private boolean sampled() {
+        return verificationRate > 0 && random.getAsDouble() < verificationRate;
+    }
+
+    /**
+     * @return the most preferred digest of the request, or null if it has none
+     */
+    Digest suppliedDigest(HttpServletRequest request) {
+        return suppliedDigest(request, algorithms);
+    }
+
+    private static Digest suppliedDigest(HttpServletRequest request, List<String> algorithms) {
+        Map<String, byte[]> digests = new HashMap<>();
+        parse(request.getHeaders(CONTENT_DIGEST), digests);
+        String contentEncoding = request.getHeader("Content-Encoding");
+        if (contentEncoding == null || contentEncoding.isBlank() || "identity".equalsIgnoreCase(contentEncoding.trim())) {
+            // The representation is the content itself.
+            parse(request.getHeaders(REPR_DIGEST), digests);
+        }
+        for (String algorithm : algorithms) {
+            byte[] value = digests.get(algorithm);
+            if (value != null) {
+                return new Digest(algorithm, value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse the members of a digest dictionary such as {@code sha-256=:base64:, sha-512=:base64:}.
+     * The members that are malformed or of unsupported algorithms are ignored.
+     */
+    private static void parse(Enumeration<String> headers, Map<String, byte[]> digests) {
+        if (headers == null) {
+            return;
+        }
+        while (headers.hasMoreElements()) {
+            for (String member : headers.nextElement().split(",")) {
+                int eq = member.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                String algorithm = member.substring(0, eq).trim();
+                String value = member.substring(eq + 1);
+                int params = value.indexOf(';');
+                if (params >= 0) {
+                    value = value.substring(0, params);
+                }
+                value = value.trim();
+                if (!JCA_NAMES.containsKey(algorithm) || value.length() < 2
+                        || value.charAt(0) != ':' || value.charAt(value.length() - 1) != ':') {
+                    continue;
+                }
+                try {
+                    byte[] bytes = Base64.getDecoder().decode(value.substring(1, value.length() - 1));
+                    if (bytes.length == digestLength(algorithm)) {
+                        digests.putIfAbsent(algorithm, bytes);
+                    }
+                } catch (IllegalArgumentException ignore) {
+                    // Not a byte sequence
+                }
+            }
+        }
+    }
+
+    private static Digest digest(String algorithm, byte[] content) {
+        return new Digest(algorithm, messageDigest(algorithm).digest(content));
+    }
+
+    private static int digestLength(String algorithm) {
+        return messageDigest(algorithm).getDigestLength();
+    }
+
+    private static MessageDigest messageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(JCA_NAMES.get(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param algorithms The digest algorithms accepted from clients, in the order of preference.
+     *                   The first one is used to compute a digest. {@code sha-256} and {@code sha-512} are supported.
+     */
+    public void setAlgorithms(List<String> algorithms) {
+        if (algorithms.isEmpty()) {
+            throw new IllegalArgumentException("algorithms must not be empty");
+        }
+        for (String algorithm : algorithms) {
+            if (!JCA_NAMES.containsKey(algorithm)) {
+                throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+            }
+        }
+        this.algorithms = List.copyOf(algorithms);
+    }
+
+    /**
+     * @param trustedRequest The requests whose digests are used. All requests by default.
+     */
+    public void setTrustedRequest(Predicate<HttpServletRequest> trustedRequest) {
+        this.trustedRequest = trustedRequest;
+    }
+
+    /**
+     * @param verificationRate The ratio of supplied digests verified against the body, from 0 to 1. 0.01 by default.
+     */
+    public void setVerificationRate(double verificationRate) {
+        if (verificationRate < 0 || verificationRate > 1) {
+            throw new IllegalArgumentException("verificationRate must be in [0, 1]: " + verificationRate);
+        }
+        this.verificationRate = verificationRate;
+    }
+
+    /**
+     * @param random The source of the uniform random numbers in [0, 1) that decide the verification.
+     */
+    void setRandom(DoubleSupplier random) {
+        this.random = random;
+    }
+
+    record Digest(String algorithm, byte[] value) {
+        IdempotencyFingerprint fingerprint() {
+            return new IdempotencyFingerprint(algorithm + "=:" + Base64.getEncoder().encodeToString(value) + ":");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package net.unit8.spring.idempotency.filter.hotkey;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import net.unit8.spring.idempotency.hotkey.HotKey;
+import net.unit8.spring.idempotency.hotkey.HotKeyDetector;
+import org.springframework.http.MediaType;
+import org.springframework.web.HttpRequestHandler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Reports the current hot keys of a {@link HotKeyDetector} as JSON, with the numbers of recorded and throttled uses.
+ *
+ * <pre>
+ * {"recorded":56789,"throttled":12,"hotKeys":[{"idempotencyKey":"...","clients":["10.0.0.1"],"estimatedCount":1234}]}
+ * </pre>
+ *
+ * <p>The report contains idempotency keys and client identifiers, so map it to an operational path
+ * that is not exposed to the clients.</p>
+ *
+ * @author kawasima
+ */
+public class HotKeyReportHandler implements HttpRequestHandler {
+    private final HotKeyDetector hotKeyDetector;
+
+    public HotKeyReportHandler(HotKeyDetector hotKeyDetector) {
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    @Override
+    public void handleRequest(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StringBuilder json = new StringBuilder("{\"recorded\":").append(hotKeyDetector.getRecordedCount())
+                .append(",\"throttled\":").append(hotKeyDetector.getThrottledCount())
+                .append(",\"hotKeys\":[");
+        for (Iterator<HotKey> it = hotKeyDetector.hotKeys().iterator(); it.hasNext(); ) {
+            HotKey hotKey = it.next();
+            json.append("{\"idempotencyKey\":");
+            appendString(json, hotKey.idempotencyKey());
+            json.append(",\"clients\":[");
+            for (Iterator<String> clients = hotKey.clients().iterator(); clients.hasNext(); ) {
+                appendString(json, clients.next());
+                if (clients.hasNext()) {
+                    json.append(',');
+                }
+            }
+            json.append("],\"estimatedCount\":").append(hotKey.estimatedCount()).append('}');
+            if (it.hasNext()) {
+                json.append(',');
+            }
+        }
+        json.append("]}");
+
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        response.setStatus(200);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setHeader("Cache-Control", "no-store");
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+}
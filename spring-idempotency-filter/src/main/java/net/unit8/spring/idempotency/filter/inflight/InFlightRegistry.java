@@ -0,0 +1,102 @@
+package net.unit8.spring.idempotency.filter.inflight;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The idempotency keys that are being processed on this node.
+ *
+ * <p>The first request of a key registers it before calling the store. Duplicates that arrive
+ * while it is registered are answered locally: they are rejected or parked until the first
+ * request completes, so that a burst of duplicates costs one store call.
+ * The duplicates of a key can also be limited by a token bucket.</p>
+ *
+ * @author kawasima
+ */
+public class InFlightRegistry {
+    private final Map<String, InFlightRequest> requests = new ConcurrentHashMap<>();
+
+    private Duration parkTimeout = Duration.ZERO;
+    private double duplicateRate;
+    private int duplicateBurst = 1;
+
+    /**
+     * Register the key.
+     *
+     * @param idempotencyKey the idempotency key
+     * @param request the request to register
+     * @return null if the key has been registered by the caller, or the request that is in flight
+     */
+    public InFlightRequest register(String idempotencyKey, InFlightRequest request) {
+        return requests.putIfAbsent(idempotencyKey, request);
+    }
+
+    /**
+     * Release the key registered by {@link #register(String, InFlightRequest)}, and wake up the parked duplicates.
+     *
+     * @param idempotencyKey the idempotency key
+     * @param request the registered request
+     * @param entry the saved entry, or null if nothing has been saved
+     */
+    public void release(String idempotencyKey, InFlightRequest request, IdempotencyEntry entry) {
+        requests.remove(idempotencyKey, request);
+        request.complete(entry);
+    }
+
+    /**
+     * Take a token for a duplicate of the request.
+     *
+     * @param request the request in flight
+     * @return true if the duplicate may proceed
+     */
+    public boolean tryAcquireDuplicate(InFlightRequest request) {
+        return request.tryAcquire(duplicateRate, duplicateBurst);
+    }
+
+    /**
+     * The time to wait for a token after {@link #tryAcquireDuplicate(InFlightRequest)} has failed.
+     */
+    public Duration refillInterval() {
+        return duplicateRate > 0 ? Duration.ofNanos((long) (1e9 / duplicateRate)) : Duration.ZERO;
+    }
+
+    /**
+     * The number of keys in flight.
+     */
+    public int size() {
+        return requests.size();
+    }
+
+    public Duration getParkTimeout() {
+        return parkTimeout;
+    }
+
+    /**
+     * Set the time a duplicate waits for the request in flight.
+     * Duplicates are rejected immediately if it is zero.
+     * A parked duplicate occupies its thread, so keep it short.
+     * @param parkTimeout The time a duplicate waits for the request in flight.
+     */
+    public void setParkTimeout(Duration parkTimeout) {
+        this.parkTimeout = parkTimeout;
+    }
+
+    /**
+     * Set the rate of duplicates per key per second. Duplicates are not limited if it is zero.
+     * @param duplicateRate The rate of duplicates per key per second.
+     */
+    public void setDuplicateRate(double duplicateRate) {
+        this.duplicateRate = duplicateRate;
+    }
+
+    /**
+     * Set the number of duplicates per key allowed at once.
+     * @param duplicateBurst The number of duplicates per key allowed at once.
+     */
+    public void setDuplicateBurst(int duplicateBurst) {
+        this.duplicateBurst = duplicateBurst;
+    }
+}
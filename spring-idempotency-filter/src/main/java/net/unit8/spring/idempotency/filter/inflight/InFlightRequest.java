@@ -0,0 +1,62 @@
+package net.unit8.spring.idempotency.filter.inflight;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A request that is being processed on this node.
+ *
+ * @author kawasima
+ */
+public class InFlightRequest {
+    private final Instant startedAt = Instant.now();
+    private final CompletableFuture<IdempotencyEntry> completion = new CompletableFuture<>();
+    private double tokens = -1;
+    private long lastRefillNanos;
+
+    /**
+     * The time the request has been registered.
+     */
+    public Instant startedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Completes with the saved entry when the request has been processed,
+     * or with null if nothing has been saved.
+     */
+    public CompletableFuture<IdempotencyEntry> completion() {
+        return completion;
+    }
+
+    void complete(IdempotencyEntry entry) {
+        completion.complete(entry);
+    }
+
+    /**
+     * Take a token from the bucket of the duplicates of this request.
+     *
+     * @param rate the tokens added per second, or zero for unlimited
+     * @param burst the capacity of the bucket
+     * @return true if a token has been taken
+     */
+    synchronized boolean tryAcquire(double rate, int burst) {
+        if (rate <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (tokens < 0) {
+            tokens = burst;
+        } else {
+            tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1e9 * rate);
+        }
+        lastRefillNanos = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,41 @@
+package net.unit8.spring.idempotency.filter.policy;
+
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.filter.IdempotencyFingerprintStrategy;
+
+import java.time.Duration;
+
+/**
+ * The idempotency settings applied to a route.
+ *
+ * @param route the route pattern, or null for the filter's default policy
+ * @param expiry the expiry of the idempotency key, or null for the store's default
+ * @param fingerprintStrategy the strategy to create idempotency fingerprint, or null for the filter's default
+ * @param required whether the idempotency key is required
+ * @param idempotencyKeyStore the store, or null for the filter's default
+ */
+public record IdempotencyPolicy(
+        String route,
+        Duration expiry,
+        IdempotencyFingerprintStrategy fingerprintStrategy,
+        boolean required,
+        IdempotencyKeyStore idempotencyKeyStore
+) {
+    /**
+     * Fill the unspecified settings by the given defaults.
+     *
+     * @param defaults the default policy
+     * @return the policy that has no unspecified settings except the expiry
+     */
+    public IdempotencyPolicy withDefaults(IdempotencyPolicy defaults) {
+        if (fingerprintStrategy != null && idempotencyKeyStore != null
+                && (expiry != null || defaults.expiry() == null)) {
+            return this;
+        }
+        return new IdempotencyPolicy(route,
+                expiry != null ? expiry : defaults.expiry(),
+                fingerprintStrategy != null ? fingerprintStrategy : defaults.fingerprintStrategy(),
+                required,
+                idempotencyKeyStore != null ? idempotencyKeyStore : defaults.idempotencyKeyStore());
+    }
+}
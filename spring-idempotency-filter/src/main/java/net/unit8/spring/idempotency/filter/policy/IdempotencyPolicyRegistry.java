@@ -0,0 +1,175 @@
+package net.unit8.spring.idempotency.filter.policy;
+
+import jakarta.servlet.http.HttpServletRequest;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.filter.Idempotent;
+import net.unit8.spring.idempotency.filter.IdempotencyFingerprintStrategy;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.util.UrlPathHelper;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * The route-to-policy table built from the {@link Idempotent} handler methods.
+ *
+ * <p>The table is computed once after all singletons are instantiated.
+ * Routes without template variables are resolved by a single map lookup, so that
+ * the unannotated routes bypass the idempotency processing cheaply.
+ * Templated routes are matched only against the patterns registered for the request method.</p>
+ *
+ * <p>The unannotated handler methods are registered as well, so that a request is resolved to the route
+ * the handler mapping would choose. Otherwise {@code POST /orders/new} of an unannotated method would fall
+ * through to the policy of an annotated {@code POST /orders/{id}}.</p>
+ *
+ * @author kawasima
+ */
+public class IdempotencyPolicyRegistry implements ApplicationContextAware, SmartInitializingSingleton {
+    /**
+     * The marker of the routes of unannotated handler methods.
+     */
+    private static final IdempotencyPolicy NOT_IDEMPOTENT = new IdempotencyPolicy(null, null, null, false, null);
+
+    private ApplicationContext applicationContext;
+    private Map<String, IdempotencyPolicy> exactPolicies = Map.of();
+    private Map<String, List<PatternPolicy>> patternPolicies = Map.of();
+
+    /**
+     * Find the policy for the request.
+     *
+     * @param request the request
+     * @return the policy, or null if the route is not idempotent
+     */
+    public IdempotencyPolicy lookup(HttpServletRequest request) {
+        String path = UrlPathHelper.defaultInstance.getLookupPathForRequest(request);
+        IdempotencyPolicy policy = exactPolicies.get(routeKey(request.getMethod(), path));
+        if (policy != null || patternPolicies.isEmpty()) {
+            return policy != NOT_IDEMPOTENT ? policy : null;
+        }
+        List<PatternPolicy> candidates = patternPolicies.get(request.getMethod());
+        if (candidates == null) {
+            return null;
+        }
+        PathContainer pathContainer = PathContainer.parsePath(path);
+        for (PatternPolicy candidate : candidates) {
+            if (candidate.pattern().matches(pathContainer)) {
+                return candidate.policy() != NOT_IDEMPOTENT ? candidate.policy() : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The registered policies keyed by the HTTP method and the route pattern.
+     *
+     * @return the registered policies
+     */
+    public Map<String, IdempotencyPolicy> getPolicies() {
+        Map<String, IdempotencyPolicy> policies = new TreeMap<>();
+        exactPolicies.forEach((route, policy) -> {
+            if (policy != NOT_IDEMPOTENT) {
+                policies.put(route, policy);
+            }
+        });
+        patternPolicies.forEach((method, candidates) -> candidates.forEach(candidate -> {
+            if (candidate.policy() != NOT_IDEMPOTENT) {
+                policies.put(routeKey(method, candidate.pattern().getPatternString()), candidate.policy());
+            }
+        }));
+        return policies;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        Map<String, IdempotencyPolicy> exact = new HashMap<>();
+        Map<String, List<PatternPolicy>> patterns = new HashMap<>();
+        Map<Class<?>, IdempotencyFingerprintStrategy> strategies = new HashMap<>();
+
+        for (RequestMappingHandlerMapping handlerMapping : applicationContext
+                .getBeansOfType(RequestMappingHandlerMapping.class).values()) {
+            for (Map.Entry<RequestMappingInfo, HandlerMethod> mapping : handlerMapping.getHandlerMethods().entrySet()) {
+                HandlerMethod handlerMethod = mapping.getValue();
+                Idempotent idempotent = Optional.ofNullable(AnnotatedElementUtils
+                                .findMergedAnnotation(handlerMethod.getMethod(), Idempotent.class))
+                        .orElseGet(() -> AnnotatedElementUtils
+                                .findMergedAnnotation(handlerMethod.getBeanType(), Idempotent.class));
+
+                Set<RequestMethod> requestMethods = mapping.getKey().getMethodsCondition().getMethods();
+                if (requestMethods.isEmpty()) {
+                    requestMethods = EnumSet.allOf(RequestMethod.class);
+                }
+                for (String route : mapping.getKey().getPatternValues()) {
+                    IdempotencyPolicy policy = idempotent != null
+                            ? createPolicy(route, idempotent, strategies)
+                            : NOT_IDEMPOTENT;
+                    PathPattern pattern = PathPatternParser.defaultInstance.parse(route);
+                    for (RequestMethod requestMethod : requestMethods) {
+                        if (pattern.hasPatternSyntax()) {
+                            patterns.computeIfAbsent(requestMethod.name(), k -> new ArrayList<>())
+                                    .add(new PatternPolicy(pattern, policy));
+                        } else if (policy != NOT_IDEMPOTENT) {
+                            exact.put(routeKey(requestMethod.name(), route), policy);
+                        } else {
+                            exact.putIfAbsent(routeKey(requestMethod.name(), route), policy);
+                        }
+                    }
+                }
+            }
+        }
+        // The methods without annotated patterns are resolved by the exact routes alone.
+        patterns.values().removeIf(candidates -> candidates.stream()
+                .allMatch(candidate -> candidate.policy() == NOT_IDEMPOTENT));
+        // Try more specific patterns first as the handler mapping does.
+        patterns.values().forEach(candidates -> candidates.sort(
+                (a, b) -> PathPattern.SPECIFICITY_COMPARATOR.compare(a.pattern(), b.pattern())));
+        patterns.replaceAll((method, candidates) -> List.copyOf(candidates));
+        this.exactPolicies = Map.copyOf(exact);
+        this.patternPolicies = Map.copyOf(patterns);
+    }
+
+    private IdempotencyPolicy createPolicy(String route,
+                                           Idempotent idempotent,
+                                           Map<Class<?>, IdempotencyFingerprintStrategy> strategies) {
+        String ttl = applicationContext.getEnvironment().resolveRequiredPlaceholders(idempotent.ttl());
+        Duration expiry = ttl.isEmpty() ? null : Duration.parse(ttl);
+
+        Class<? extends IdempotencyFingerprintStrategy> strategyClass = idempotent.fingerprintStrategy();
+        IdempotencyFingerprintStrategy fingerprintStrategy = strategyClass == IdempotencyFingerprintStrategy.class
+                ? null
+                : strategies.computeIfAbsent(strategyClass, k -> getOrInstantiate(strategyClass));
+
+        IdempotencyKeyStore idempotencyKeyStore = idempotent.store().isEmpty()
+                ? null
+                : applicationContext.getBean(idempotent.store(), IdempotencyKeyStore.class);
+
+        return new IdempotencyPolicy(route, expiry, fingerprintStrategy, idempotent.required(), idempotencyKeyStore);
+    }
+
+    private <T> T getOrInstantiate(Class<T> type) {
+        return applicationContext.getBeanProvider(type)
+                .getIfAvailable(() -> BeanUtils.instantiateClass(type));
+    }
+
+    private static String routeKey(String method, String path) {
+        return method + " " + path;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    private record PatternPolicy(PathPattern pattern, IdempotencyPolicy policy) {
+    }
+}
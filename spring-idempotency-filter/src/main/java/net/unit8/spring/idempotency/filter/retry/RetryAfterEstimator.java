@@ -0,0 +1,126 @@
+package net.unit8.spring.idempotency.filter.retry;
+
+import net.unit8.spring.idempotency.latency.DecayingHistogram;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Estimate when an in-flight request will complete from the latencies observed on its route.
+ *
+ * <p>The remaining time of a request that has been running for {@code elapsed} is the median of
+ * the recent latencies longer than {@code elapsed}, minus {@code elapsed}. The estimate is
+ * clamped between {@code minRetryAfter} and {@code maxRetryAfter}, and {@code defaultRetryAfter}
+ * is used until the route has enough samples.</p>
+ *
+ * @author kawasima
+ */
+public class RetryAfterEstimator {
+    private static final double MEDIAN = 0.5;
+
+    private final Map<String, DecayingHistogram> histograms = new ConcurrentHashMap<>();
+
+    private Duration halfLife = Duration.ofMinutes(1);
+    private Duration defaultRetryAfter = Duration.ofSeconds(1);
+    private Duration minRetryAfter = Duration.ofSeconds(1);
+    private Duration maxRetryAfter = Duration.ofSeconds(60);
+    private double minSamples = 10;
+    private LongSupplier nanoClock = System::nanoTime;
+
+    /**
+     * Record the processing time of a request.
+     *
+     * @param route the route of the request
+     * @param latency the processing time
+     */
+    public void record(String route, Duration latency) {
+        long now = nanoClock.getAsLong();
+        histograms.computeIfAbsent(route, r -> new DecayingHistogram(halfLife.toNanos(), now))
+                .record(latency.toNanos() / 1_000_000.0, now);
+    }
+
+    /**
+     * Estimate the remaining time of an in-flight request.
+     *
+     * @param route the route of the request
+     * @param elapsed the time since the request has started, or null if it is unknown
+     * @return the remaining time
+     */
+    public Duration estimate(String route, Duration elapsed) {
+        long now = nanoClock.getAsLong();
+        DecayingHistogram histogram = histograms.get(route);
+        if (histogram == null || histogram.totalWeight(now) < minSamples) {
+            return defaultRetryAfter;
+        }
+        double elapsedMillis = elapsed != null ? Math.max(0, elapsed.toNanos() / 1_000_000.0) : 0;
+        double completesAt = histogram.quantileAbove(MEDIAN, elapsedMillis, now);
+        if (completesAt < 0) {
+            // It has been running longer than any recent request.
+            return maxRetryAfter;
+        }
+        return clamp(Duration.ofNanos((long) ((completesAt - elapsedMillis) * 1_000_000)));
+    }
+
+    /**
+     * Estimate the remaining time in seconds for the {@code Retry-After} header.
+     *
+     * @param route the route of the request
+     * @param elapsed the time since the request has started, or null if it is unknown
+     * @return the remaining time in seconds rounded up
+     */
+    public long estimateSeconds(String route, Duration elapsed) {
+        Duration estimate = estimate(route, elapsed);
+        return Math.max(1, (estimate.toMillis() + 999) / 1000);
+    }
+
+    private Duration clamp(Duration estimate) {
+        if (estimate.compareTo(minRetryAfter) < 0) {
+            return minRetryAfter;
+        }
+        if (estimate.compareTo(maxRetryAfter) > 0) {
+            return maxRetryAfter;
+        }
+        return estimate;
+    }
+
+    /**
+     * Set the half-life of the weight of a latency sample.
+     * @param halfLife The half-life of the weight of a latency sample.
+     */
+    public void setHalfLife(Duration halfLife) {
+        this.halfLife = halfLife;
+    }
+
+    /**
+     * Set the estimate used until a route has enough samples.
+     * @param defaultRetryAfter The estimate used until a route has enough samples.
+     */
+    public void setDefaultRetryAfter(Duration defaultRetryAfter) {
+        this.defaultRetryAfter = defaultRetryAfter;
+    }
+
+    public void setMinRetryAfter(Duration minRetryAfter) {
+        this.minRetryAfter = minRetryAfter;
+    }
+
+    public void setMaxRetryAfter(Duration maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    /**
+     * @param nanoClock The source of the current value of {@link System#nanoTime()}.
+     */
+    void setNanoClock(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Set the decayed number of samples needed for an estimate.
+     * @param minSamples The decayed number of samples needed for an estimate.
+     */
+    public void setMinSamples(double minSamples) {
+        this.minSamples = minSamples;
+    }
+}
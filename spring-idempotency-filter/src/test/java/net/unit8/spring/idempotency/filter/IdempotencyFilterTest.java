@@ -0,0 +1,448 @@
+package net.unit8.spring.idempotency.filter;
+
+import jakarta.servlet.http.HttpServletRequest;
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import net.unit8.spring.idempotency.IdempotencyStoreUnavailableException;
+import net.unit8.spring.idempotency.NegativeCachePolicy;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import net.unit8.spring.idempotency.hotkey.HotKeyDetector;
+import net.unit8.spring.idempotency.filter.inflight.InFlightRegistry;
+import net.unit8.spring.idempotency.filter.inflight.InFlightRequest;
+import net.unit8.spring.idempotency.filter.policy.IdempotencyPolicy;
+import net.unit8.spring.idempotency.filter.policy.IdempotencyPolicyRegistry;
+import net.unit8.spring.idempotency.filter.retry.RetryAfterEstimator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.stereotype.Controller;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class IdempotencyFilterTest {
+    DefaultIdempotencyKeyStore store;
+    IdempotencyFilter sut;
+
+    @BeforeEach
+    void setUp() {
+        store = new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager());
+        sut = new IdempotencyFilter();
+        sut.setIdempotencyKeyStore(store);
+    }
+
+    @Test
+    void deferredResult() throws Exception {
+        assertAsyncResponseIsSaved("/deferred", "deferred");
+    }
+
+    @Test
+    void callable() throws Exception {
+        assertAsyncResponseIsSaved("/callable", "callable");
+    }
+
+    @Test
+    void streamingResponseBody() throws Exception {
+        assertAsyncResponseIsSaved("/streaming", "streaming");
+    }
+
+    @Test
+    void writerOfAsyncDispatch() throws Exception {
+        assertAsyncResponseIsSaved("/view", "view");
+    }
+
+    private void assertAsyncResponseIsSaved(String path, String body) throws Exception {
+        MockMvc mockMvc = mockMvc();
+        MvcResult result = mockMvc.perform(post(path).header("Idempotency-Key", "key"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockHttpServletResponse response = mockMvc.perform(asyncDispatch(result)).andReturn().getResponse();
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo(body);
+
+        IdempotencyEntry entry = store.getAndSet("key");
+        assertThat(entry.response()).isNotNull();
+        assertThat(entry.response().status()).isEqualTo(200);
+        assertThat(new String(entry.response().body(), StandardCharsets.UTF_8)).isEqualTo(body);
+
+        MockHttpServletResponse replayed = mockMvc.perform(post(path).header("Idempotency-Key", "key"))
+                .andExpect(request().asyncNotStarted())
+                .andReturn().getResponse();
+        assertThat(replayed.getStatus()).isEqualTo(200);
+        assertThat(replayed.getContentAsString()).isEqualTo(body);
+    }
+
+    @Test
+    void parksDuplicatesUntilTheRequestInFlightCompletes() throws Exception {
+        InFlightRegistry inFlightRegistry = new InFlightRegistry();
+        inFlightRegistry.setParkTimeout(Duration.ofSeconds(5));
+        sut.setInFlightRegistry(inFlightRegistry);
+        SlowController controller = new SlowController();
+        MockMvc mockMvc = mockMvc(controller);
+
+        CompletableFuture<MockHttpServletResponse> first = sendAsync(mockMvc, "/slow", "key");
+        assertThat(controller.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<MockHttpServletResponse> duplicate = sendAsync(mockMvc, "/slow", "key");
+        awaitParked(inFlightRegistry, "key");
+        controller.proceed.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getContentAsString()).isEqualTo("slow#1");
+        MockHttpServletResponse replayed = duplicate.get(5, TimeUnit.SECONDS);
+        assertThat(replayed.getStatus()).isEqualTo(200);
+        assertThat(replayed.getContentAsString()).isEqualTo("slow#1");
+        assertThat(controller.invocations).hasValue(1);
+        assertThat(inFlightRegistry.size()).isZero();
+    }
+
+    @Test
+    void limitsDuplicatesOfTheRequestInFlight() throws Exception {
+        InFlightRegistry inFlightRegistry = new InFlightRegistry();
+        inFlightRegistry.setDuplicateRate(1);
+        inFlightRegistry.setDuplicateBurst(1);
+        sut.setInFlightRegistry(inFlightRegistry);
+        SlowController controller = new SlowController();
+        MockMvc mockMvc = mockMvc(controller);
+
+        CompletableFuture<MockHttpServletResponse> first = sendAsync(mockMvc, "/slow", "key");
+        assertThat(controller.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        // The first duplicate takes the token, and is rejected at once without parking.
+        assertThat(send(mockMvc, "/slow", "key").getStatus()).isEqualTo(409);
+        MockHttpServletResponse limited = send(mockMvc, "/slow", "key");
+        assertThat(limited.getStatus()).isEqualTo(429);
+        assertThat(limited.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+
+        controller.proceed.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS).getStatus()).isEqualTo(200);
+        assertThat(controller.invocations).hasValue(1);
+    }
+
+    @Test
+    void conflictsWhenTheParkTimesOut() throws Exception {
+        InFlightRegistry inFlightRegistry = new InFlightRegistry();
+        inFlightRegistry.setParkTimeout(Duration.ofMillis(50));
+        sut.setInFlightRegistry(inFlightRegistry);
+        SlowController controller = new SlowController();
+        MockMvc mockMvc = mockMvc(controller);
+
+        CompletableFuture<MockHttpServletResponse> first = sendAsync(mockMvc, "/slow", "key");
+        assertThat(controller.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        long start = System.nanoTime();
+        MockHttpServletResponse conflict = send(mockMvc, "/slow", "key");
+        assertThat(conflict.getStatus()).isEqualTo(409);
+        assertThat(conflict.getHeader(HttpHeaders.RETRY_AFTER)).isNotNull();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(50));
+
+        controller.proceed.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS).getStatus()).isEqualTo(200);
+        assertThat(controller.invocations).hasValue(1);
+    }
+
+    @Test
+    void parkedDuplicateAsksTheStoreWhenNothingHasBeenSaved() throws Exception {
+        InFlightRegistry inFlightRegistry = new InFlightRegistry();
+        inFlightRegistry.setParkTimeout(Duration.ofSeconds(5));
+        sut.setInFlightRegistry(inFlightRegistry);
+        SlowController controller = new SlowController();
+        controller.firstStatus = 500;
+        MockMvc mockMvc = mockMvc(controller);
+
+        CompletableFuture<MockHttpServletResponse> first = sendAsync(mockMvc, "/slow", "key");
+        assertThat(controller.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<MockHttpServletResponse> duplicate = sendAsync(mockMvc, "/slow", "key");
+        awaitParked(inFlightRegistry, "key");
+        controller.proceed.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getStatus()).isEqualTo(500);
+        // The failed response has released the key, so the duplicate claims it and runs the handler.
+        MockHttpServletResponse retried = duplicate.get(5, TimeUnit.SECONDS);
+        assertThat(retried.getStatus()).isEqualTo(200);
+        assertThat(retried.getContentAsString()).isEqualTo("slow#2");
+        assertThat(store.getAndSet("key").response().status()).isEqualTo(200);
+    }
+
+    @Test
+    void latenciesAreRecordedByTheMatchedRoute() throws Exception {
+        List<String> recorded = new CopyOnWriteArrayList<>();
+        List<String> estimated = new CopyOnWriteArrayList<>();
+        sut.setRetryAfterEstimator(new RetryAfterEstimator() {
+            @Override
+            public void record(String route, Duration latency) {
+                recorded.add(route);
+                super.record(route, latency);
+            }
+
+            @Override
+            public Duration estimate(String route, Duration elapsed) {
+                estimated.add(route);
+                return super.estimate(route, elapsed);
+            }
+        });
+        MockMvc mockMvc = mockMvc(new ItemController());
+
+        assertThat(send(mockMvc, "/items/42", "key-1").getStatus()).isEqualTo(200);
+        assertThat(send(mockMvc, "/items", "key-2").getStatus()).isEqualTo(200);
+        assertThat(recorded).containsExactly("POST /items/{id}", "POST /items");
+
+        store.getAndSet("in-progress");
+        assertThat(send(mockMvc, "/items", "in-progress").getStatus()).isEqualTo(409);
+        assertThat(estimated).containsExactly("POST /items");
+    }
+
+    @Test
+    void unavailableBodyIsNotReplayed() throws Exception {
+        store.save(new IdempotencyEntry("key", null, IdempotencyResponse.lazy(200, Map::of, () -> {
+            throw new IdempotencyStoreUnavailableException("The body is unavailable", Duration.ofSeconds(3), null);
+        }, null)));
+        sut.setIdempotencyFingerprintStrategy(request -> null);
+        MockMvc mockMvc = mockMvc(new ItemController());
+
+        MockHttpServletResponse response = send(mockMvc, "/items", "key");
+        assertThat(response.getStatus()).isEqualTo(503);
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("3");
+    }
+
+    @Test
+    void deterministicFailureIsReplayedWithinTheTtl() throws Exception {
+        ExpiringStore expiringStore = new ExpiringStore();
+        sut.setIdempotencyKeyStore(expiringStore);
+        sut.setNegativeCachePolicy(new NegativeCachePolicy());
+        FailingController controller = new FailingController();
+        MockMvc mockMvc = mockMvc(controller);
+
+        MockHttpServletResponse first = send(mockMvc, "/fail/422", "key");
+        assertThat(first.getStatus()).isEqualTo(422);
+        MockHttpServletResponse retry = send(mockMvc, "/fail/422", "key");
+        assertThat(retry.getStatus()).isEqualTo(422);
+        assertThat(retry.getContentAsString()).isEqualTo("failed#1");
+        assertThat(controller.invocations).hasValue(1);
+        assertThat(expiringStore.expiries).containsEntry("key", Duration.ofSeconds(10));
+    }
+
+    @Test
+    void transientFailureReleasesTheKey() throws Exception {
+        ExpiringStore expiringStore = new ExpiringStore();
+        sut.setIdempotencyKeyStore(expiringStore);
+        sut.setNegativeCachePolicy(new NegativeCachePolicy());
+        FailingController controller = new FailingController();
+        MockMvc mockMvc = mockMvc(controller);
+
+        assertThat(send(mockMvc, "/fail/503", "key").getStatus()).isEqualTo(503);
+        MockHttpServletResponse retry = send(mockMvc, "/fail/503", "key");
+        assertThat(retry.getContentAsString()).isEqualTo("failed#2");
+        assertThat(expiringStore.expiries).doesNotContainKey("key");
+    }
+
+    @Test
+    void failureExpiresWithTheShorterOfThePolicyExpiryAndTheTtl() throws Exception {
+        ExpiringStore expiringStore = new ExpiringStore();
+        sut.setIdempotencyKeyStore(expiringStore);
+        sut.setNegativeCachePolicy(new NegativeCachePolicy());
+        sut.setIdempotencyPolicyRegistry(new IdempotencyPolicyRegistry() {
+            @Override
+            public IdempotencyPolicy lookup(HttpServletRequest request) {
+                Duration expiry = request.getRequestURI().startsWith("/short") ? Duration.ofSeconds(5) : Duration.ofHours(1);
+                return new IdempotencyPolicy(null, expiry, null, false, null);
+            }
+        });
+        MockMvc mockMvc = mockMvc(new FailingController());
+
+        send(mockMvc, "/short/422", "short");
+        send(mockMvc, "/fail/422", "long");
+        assertThat(expiringStore.expiries)
+                .containsEntry("short", Duration.ofSeconds(5))
+                .containsEntry("long", Duration.ofSeconds(10));
+    }
+
+    @Test
+    void failureIsNotCachedInStoresWithoutEntryExpiry() throws Exception {
+        sut.setNegativeCachePolicy(new NegativeCachePolicy());
+        FailingController controller = new FailingController();
+        MockMvc mockMvc = mockMvc(controller);
+
+        assertThat(send(mockMvc, "/fail/422", "key").getStatus()).isEqualTo(422);
+        MockHttpServletResponse retry = send(mockMvc, "/fail/422", "key");
+        assertThat(retry.getContentAsString()).isEqualTo("failed#2");
+        assertThat(store.getAndSet("key")).isNull();
+    }
+
+    @Test
+    void hotKeyIsThrottledBeforeTheStore() throws Exception {
+        HotKeyDetector hotKeyDetector = new HotKeyDetector();
+        hotKeyDetector.setThrottleThreshold(2);
+        hotKeyDetector.setDecayInterval(Duration.ofSeconds(10));
+        sut.setHotKeyDetector(hotKeyDetector);
+        sut.setIdempotencyFingerprintStrategy(request -> null);
+        MockMvc mockMvc = mockMvc(new ItemController());
+
+        assertThat(send(mockMvc, "/items", "looping").getContentAsString()).isEqualTo("created");
+        assertThat(send(mockMvc, "/items", "looping").getContentAsString()).isEqualTo("created");
+        store.delete("looping");
+        MockHttpServletResponse throttled = send(mockMvc, "/items", "looping");
+        assertThat(throttled.getStatus()).isEqualTo(429);
+        assertThat(throttled.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("10");
+        assertThat(store.getAndSet("looping")).as("the store is not asked").isNull();
+        assertThat(send(mockMvc, "/items", "another").getStatus()).isEqualTo(200);
+        assertThat(hotKeyDetector.getThrottledCount()).isEqualTo(1);
+    }
+
+    /**
+     * Wait until a duplicate waits for the completion of the request in flight.
+     */
+    private static void awaitParked(InFlightRegistry inFlightRegistry, String idempotencyKey) throws InterruptedException {
+        // The key has been registered by the first request, so this returns the request in flight.
+        InFlightRequest inFlight = inFlightRegistry.register(idempotencyKey, new InFlightRequest());
+        assertThat(inFlight).isNotNull();
+        for (int i = 0; i < 500 && inFlight.completion().getNumberOfDependents() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(inFlight.completion().getNumberOfDependents()).isPositive();
+    }
+
+    private static MockHttpServletResponse send(MockMvc mockMvc, String path, String idempotencyKey) throws Exception {
+        return mockMvc.perform(post(path).header("Idempotency-Key", idempotencyKey))
+                .andReturn()
+                .getResponse();
+    }
+
+    private static CompletableFuture<MockHttpServletResponse> sendAsync(MockMvc mockMvc, String path, String idempotencyKey) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return send(mockMvc, path, idempotencyKey);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private MockMvc mockMvc() {
+        return mockMvc(new AsyncController());
+    }
+
+    private MockMvc mockMvc(Object controller) {
+        sut.afterPropertiesSet();
+        return MockMvcBuilders.standaloneSetup(controller)
+                .addFilters(sut)
+                .build();
+    }
+
+    @RestController
+    static class ItemController {
+        @PostMapping("/items")
+        String create() {
+            return "created";
+        }
+
+        @PostMapping("/items/{id}")
+        String update(@PathVariable String id) {
+            return "updated " + id;
+        }
+    }
+
+    @RestController
+    static class FailingController {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @PostMapping({"/fail/{status}", "/short/{status}"})
+        ResponseEntity<String> fail(@PathVariable int status) {
+            return ResponseEntity.status(status).body("failed#" + invocations.incrementAndGet());
+        }
+    }
+
+    @RestController
+    static class SlowController {
+        final AtomicInteger invocations = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        volatile int firstStatus = 200;
+
+        @PostMapping("/slow")
+        ResponseEntity<String> slow() throws InterruptedException {
+            int invocation = invocations.incrementAndGet();
+            if (invocation == 1) {
+                entered.countDown();
+                proceed.await(5, TimeUnit.SECONDS);
+            }
+            return ResponseEntity.status(invocation == 1 ? firstStatus : 200).body("slow#" + invocation);
+        }
+    }
+
+    @Controller
+    static class AsyncController {
+        @PostMapping("/deferred")
+        @ResponseBody
+        DeferredResult<String> deferred() {
+            DeferredResult<String> result = new DeferredResult<>();
+            CompletableFuture.runAsync(() -> result.setResult("deferred"));
+            return result;
+        }
+
+        @PostMapping("/callable")
+        @ResponseBody
+        Callable<String> callable() {
+            return () -> "callable";
+        }
+
+        @PostMapping("/streaming")
+        StreamingResponseBody streaming() {
+            return outputStream -> outputStream.write("streaming".getBytes(StandardCharsets.UTF_8));
+        }
+
+        @PostMapping("/view")
+        DeferredResult<View> view() {
+            DeferredResult<View> result = new DeferredResult<>();
+            // The view writes through getWriter() of the async dispatch.
+            CompletableFuture.runAsync(() -> result.setResult(
+                    (model, request, response) -> response.getWriter().write("view")));
+            return result;
+        }
+    }
+
+    /**
+     * A store that records the expiry of the saved entries.
+     */
+    static class ExpiringStore extends DefaultIdempotencyKeyStore {
+        final Map<String, Duration> expiries = new ConcurrentHashMap<>();
+
+        ExpiringStore() {
+            super(new ConcurrentMapCacheManager());
+        }
+
+        @Override
+        public void save(IdempotencyEntry entry, Duration expiry) {
+            expiries.put(entry.idempotencyKey(), expiry);
+            save(entry);
+        }
+
+        @Override
+        public boolean supportsEntryExpiry() {
+            return true;
+        }
+    }
+}
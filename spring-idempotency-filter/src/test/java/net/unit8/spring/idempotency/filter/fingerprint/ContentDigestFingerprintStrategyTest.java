@@ -0,0 +1,165 @@
+package net.unit8.spring.idempotency.filter.fingerprint;
+
+import jakarta.servlet.http.HttpServletRequest;
+import net.unit8.spring.idempotency.IdempotencyFingerprint;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.util.ContentCachingRequestWrapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContentDigestFingerprintStrategyTest {
+    private static final String BODY = "{\"amount\":100}";
+
+    private final ContentDigestFingerprintStrategy sut = new ContentDigestFingerprintStrategy();
+
+    private static String base64Digest(String algorithm, String content) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance(algorithm)
+                    .digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static IdempotencyFingerprint fingerprint(String member) {
+        return new IdempotencyFingerprint(member);
+    }
+
+    /**
+     * A request whose body has been read through the caching wrapper, as the filter does.
+     */
+    private static HttpServletRequest request(String... headers) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/orders");
+        request.setContent(BODY.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < headers.length; i += 2) {
+            request.addHeader(headers[i], headers[i + 1]);
+        }
+        ContentCachingRequestWrapper wrapper = new ContentCachingRequestWrapper(request);
+        wrapper.getInputStream().readAllBytes();
+        return wrapper;
+    }
+
+    @Test
+    void usesTheContentDigestWithoutHashingTheBody() throws IOException {
+        sut.setRandom(() -> 0.5);
+        String digestOfAnotherBody = base64Digest("SHA-256", "another");
+        assertThat(sut.create(request("Content-Digest", "sha-256=:" + digestOfAnotherBody + ":")))
+                .isEqualTo(fingerprint("sha-256=:" + digestOfAnotherBody + ":"));
+    }
+
+    @Test
+    void usesTheReprDigestOnlyWithoutContentCoding() throws IOException {
+        sut.setRandom(() -> 0.5);
+        String digestOfAnotherBody = base64Digest("SHA-256", "another");
+        assertThat(sut.create(request("Repr-Digest", "sha-256=:" + digestOfAnotherBody + ":")))
+                .isEqualTo(fingerprint("sha-256=:" + digestOfAnotherBody + ":"));
+        assertThat(sut.create(request("Repr-Digest", "sha-256=:" + digestOfAnotherBody + ":",
+                "Content-Encoding", "gzip")))
+                .isEqualTo(fingerprint("sha-256=:" + base64Digest("SHA-256", BODY) + ":"));
+    }
+
+    @Test
+    void choosesTheMostPreferredAlgorithm() throws IOException {
+        sut.setRandom(() -> 0.5);
+        String header = "sha-512=:" + base64Digest("SHA-512", BODY) + ":, sha-256=:" + base64Digest("SHA-256", BODY) + ":";
+        assertThat(sut.create(request("Content-Digest", header)))
+                .isEqualTo(fingerprint("sha-256=:" + base64Digest("SHA-256", BODY) + ":"));
+
+        sut.setAlgorithms(List.of("sha-512", "sha-256"));
+        assertThat(sut.create(request("Content-Digest", header)))
+                .isEqualTo(fingerprint("sha-512=:" + base64Digest("SHA-512", BODY) + ":"));
+        assertThat(sut.create(request()))
+                .isEqualTo(fingerprint("sha-512=:" + base64Digest("SHA-512", BODY) + ":"));
+    }
+
+    @Test
+    void computesTheSha256DigestWithoutHeader() throws IOException {
+        IdempotencyFingerprint computed = sut.create(request());
+        assertThat(computed).isEqualTo(fingerprint("sha-256=:" + base64Digest("SHA-256", BODY) + ":"));
+        // A retry with the header gets the same fingerprint.
+        sut.setRandom(() -> 0.5);
+        assertThat(sut.create(request("Content-Digest", "sha-256=:" + base64Digest("SHA-256", BODY) + ":")))
+                .isEqualTo(computed);
+    }
+
+    @Test
+    void retryIsFingerprintedWithTheSavedAlgorithm() throws IOException {
+        sut.setRandom(() -> 0.5);
+        IdempotencyFingerprint sha512 = fingerprint("sha-512=:" + base64Digest("SHA-512", BODY) + ":");
+        IdempotencyFingerprint saved = sut.create(request("Content-Digest", "sha-512=:" + base64Digest("SHA-512", BODY) + ":"));
+        assertThat(saved).isEqualTo(sha512);
+
+        // A retry without the header computes the digest with sha-512 instead of the preferred sha-256.
+        assertThat(sut.create(request())).isNotEqualTo(saved);
+        assertThat(sut.create(request(), saved)).isEqualTo(saved);
+        // A retry with a digest of another algorithm also gets the saved one.
+        assertThat(sut.create(request("Content-Digest", "sha-256=:" + base64Digest("SHA-256", BODY) + ":"), saved))
+                .isEqualTo(saved);
+        assertThat(sut.create(request("Content-Digest",
+                "sha-256=:" + base64Digest("SHA-256", BODY) + ":, sha-512=:" + base64Digest("SHA-512", BODY) + ":"), saved))
+                .isEqualTo(saved);
+        // A retry with another body does not match.
+        assertThat(sut.create(request("Content-Digest", "sha-512=:" + base64Digest("SHA-512", "another") + ":"), saved))
+                .isNotEqualTo(saved);
+        // A fingerprint of another strategy falls back to the preferred algorithm.
+        assertThat(sut.create(request(), fingerprint("0123abcd")))
+                .isEqualTo(fingerprint("sha-256=:" + base64Digest("SHA-256", BODY) + ":"));
+    }
+
+    @Test
+    void ignoresMalformedAndUnsupportedDigests() throws IOException {
+        sut.setRandom(() -> 0.5);
+        IdempotencyFingerprint computed = fingerprint("sha-256=:" + base64Digest("SHA-256", BODY) + ":");
+        String anotherDigest = base64Digest("SHA-256", "another");
+        assertThat(sut.create(request("Content-Digest", "sha-256=" + anotherDigest))).isEqualTo(computed);
+        assertThat(sut.create(request("Content-Digest", "sha-256=:%%%:"))).isEqualTo(computed);
+        assertThat(sut.create(request("Content-Digest", "sha-256=:" + base64Digest("SHA-512", "another") + ":")))
+                .isEqualTo(computed);
+        assertThat(sut.create(request("Content-Digest", "md5=:" + base64Digest("MD5", "another") + ":")))
+                .isEqualTo(computed);
+        assertThat(sut.create(request("Content-Digest", "garbage, sha-256=:" + anotherDigest + ":;param=1")))
+                .isEqualTo(fingerprint("sha-256=:" + anotherDigest + ":"));
+    }
+
+    @Test
+    void verifiesASampleOfTheDigests() throws IOException {
+        IdempotencyFingerprint computed = fingerprint("sha-256=:" + base64Digest("SHA-256", BODY) + ":");
+        String mismatching = "sha-256=:" + base64Digest("SHA-256", "another") + ":";
+
+        sut.setRandom(() -> 0.0099);
+        assertThat(sut.create(request("Content-Digest", mismatching))).isEqualTo(computed);
+        sut.setRandom(() -> 0.01);
+        assertThat(sut.create(request("Content-Digest", mismatching))).isEqualTo(fingerprint(mismatching));
+
+        sut.setVerificationRate(1);
+        assertThat(sut.create(request("Content-Digest", mismatching))).isEqualTo(computed);
+        sut.setVerificationRate(0);
+        sut.setRandom(() -> 0.0);
+        assertThat(sut.create(request("Content-Digest", mismatching))).isEqualTo(fingerprint(mismatching));
+
+        assertThatThrownBy(() -> sut.setVerificationRate(1.5)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void computesTheDigestOfUntrustedRequests() throws IOException {
+        sut.setRandom(() -> 0.5);
+        sut.setTrustedRequest(request -> false);
+        assertThat(sut.create(request("Content-Digest", "sha-256=:" + base64Digest("SHA-256", "another") + ":")))
+                .isEqualTo(fingerprint("sha-256=:" + base64Digest("SHA-256", BODY) + ":"));
+    }
+
+    @Test
+    void rejectsUnsupportedAlgorithms() {
+        assertThatThrownBy(() -> sut.setAlgorithms(List.of("md5"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> sut.setAlgorithms(List.of())).isInstanceOf(IllegalArgumentException.class);
+    }
+}
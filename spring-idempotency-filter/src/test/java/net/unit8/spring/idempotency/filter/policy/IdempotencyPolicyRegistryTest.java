@@ -0,0 +1,151 @@
+package net.unit8.spring.idempotency.filter.policy;
+
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import net.unit8.spring.idempotency.filter.Idempotent;
+import net.unit8.spring.idempotency.filter.IdempotencyFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+class IdempotencyPolicyRegistryTest {
+    private AnnotationConfigApplicationContext context;
+    private IdempotencyPolicyRegistry sut;
+
+    @BeforeEach
+    void setUp() {
+        context = new AnnotationConfigApplicationContext(Config.class);
+        sut = context.getBean(IdempotencyPolicyRegistry.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        context.close();
+    }
+
+    @Test
+    void annotatedRoutes() {
+        IdempotencyPolicy create = sut.lookup(new MockHttpServletRequest("POST", "/orders"));
+        assertThat(create.route()).isEqualTo("/orders");
+        assertThat(create.expiry()).isEqualTo(Duration.ofHours(1));
+        assertThat(create.required()).isFalse();
+
+        IdempotencyPolicy pay = sut.lookup(new MockHttpServletRequest("POST", "/orders/42"));
+        assertThat(pay.route()).isEqualTo("/orders/{id}");
+        assertThat(pay.required()).isTrue();
+
+        assertThat(sut.getPolicies()).containsOnlyKeys("POST /orders", "POST /orders/{id}");
+    }
+
+    @Test
+    void unannotatedRoutesAreNotIdempotent() {
+        assertThat(sut.lookup(new MockHttpServletRequest("GET", "/orders"))).isNull();
+        assertThat(sut.lookup(new MockHttpServletRequest("GET", "/orders/42"))).isNull();
+        assertThat(sut.lookup(new MockHttpServletRequest("POST", "/unknown"))).isNull();
+    }
+
+    @Test
+    void unannotatedLiteralRouteDoesNotFallThroughToAnnotatedPattern() {
+        assertThat(sut.lookup(new MockHttpServletRequest("POST", "/orders/new"))).isNull();
+        assertThat(sut.lookup(new MockHttpServletRequest("POST", "/orders/42/cancel"))).isNull();
+    }
+
+    @Test
+    void filterClaimsOnlyTheAnnotatedRoutes() throws Exception {
+        DefaultIdempotencyKeyStore store = new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager());
+        IdempotencyFilter filter = new IdempotencyFilter();
+        filter.setIdempotencyKeyStore(store);
+        filter.setIdempotencyPolicyRegistry(sut);
+        filter.afterPropertiesSet();
+        OrderController controller = context.getBean(OrderController.class);
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .addFilters(filter)
+                .build();
+
+        // The unannotated route passes through without claiming the key.
+        for (int i = 0; i < 2; i++) {
+            assertThat(mockMvc.perform(post("/orders/new").header("Idempotency-Key", "draft"))
+                    .andReturn().getResponse().getContentAsString()).isEqualTo("draft");
+        }
+        assertThat(controller.invocations).hasValue(2);
+        assertThat(store.getAndSet("draft")).isNull();
+
+        // The annotated route is claimed and replayed.
+        for (int i = 0; i < 2; i++) {
+            assertThat(mockMvc.perform(post("/orders").header("Idempotency-Key", "order"))
+                    .andReturn().getResponse().getContentAsString()).isEqualTo("created");
+        }
+        assertThat(controller.invocations).hasValue(3);
+
+        assertThat(mockMvc.perform(post("/orders/42")).andReturn().getResponse().getStatus()).isEqualTo(400);
+    }
+
+    @RestController
+    static class OrderController {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @Idempotent(ttl = "PT1H")
+        @PostMapping("/orders")
+        String create() {
+            invocations.incrementAndGet();
+            return "created";
+        }
+
+        @Idempotent(required = true)
+        @PostMapping("/orders/{id}")
+        String pay(@PathVariable String id) {
+            return "paid";
+        }
+
+        @PostMapping("/orders/new")
+        String draft() {
+            invocations.incrementAndGet();
+            return "draft";
+        }
+
+        @PostMapping("/orders/{id}/cancel")
+        String cancel(@PathVariable String id) {
+            return "cancelled";
+        }
+
+        @GetMapping({"/orders", "/orders/{id}"})
+        String show() {
+            return "show";
+        }
+    }
+
+    @Configuration
+    static class Config {
+        @Bean
+        OrderController orderController() {
+            return new OrderController();
+        }
+
+        @Bean
+        RequestMappingHandlerMapping requestMappingHandlerMapping() {
+            return new RequestMappingHandlerMapping();
+        }
+
+        @Bean
+        IdempotencyPolicyRegistry idempotencyPolicyRegistry() {
+            return new IdempotencyPolicyRegistry();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package net.unit8.spring.idempotency.filter.retry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryAfterEstimatorTest {
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    private final RetryAfterEstimator sut = new RetryAfterEstimator();
+
+    @BeforeEach
+    void setUp() {
+        sut.setNanoClock(now::get);
+        sut.setHalfLife(Duration.ofMinutes(1));
+        sut.setMinSamples(10);
+        sut.setDefaultRetryAfter(Duration.ofSeconds(2));
+        sut.setMinRetryAfter(Duration.ofSeconds(1));
+        sut.setMaxRetryAfter(Duration.ofSeconds(60));
+    }
+
+    private void record(int samples, Duration latency) {
+        for (int i = 0; i < samples; i++) {
+            sut.record("POST /orders", latency);
+        }
+    }
+
+    @Test
+    void usesTheDefaultUntilTheRouteHasEnoughSamples() {
+        assertThat(sut.estimate("POST /orders", Duration.ZERO)).isEqualTo(Duration.ofSeconds(2));
+        record(9, Duration.ofSeconds(10));
+        assertThat(sut.estimate("POST /orders", Duration.ZERO)).isEqualTo(Duration.ofSeconds(2));
+        record(1, Duration.ofSeconds(10));
+        assertThat(sut.estimate("POST /orders", Duration.ZERO)).isNotEqualTo(Duration.ofSeconds(2));
+        assertThat(sut.estimate("POST /payments", Duration.ZERO)).isEqualTo(Duration.ofSeconds(2));
+    }
+
+    @Test
+    void estimatesTheRemainingTimeOfTheMedian() {
+        record(20, Duration.ofSeconds(10));
+        // The bucket of 10 seconds spans about 9.7 to 11.6 seconds.
+        assertThat(sut.estimate("POST /orders", Duration.ofSeconds(4)))
+                .isBetween(Duration.ofMillis(5700), Duration.ofMillis(7600));
+        assertThat(sut.estimate("POST /orders", null))
+                .isBetween(Duration.ofMillis(9700), Duration.ofMillis(11600));
+        assertThat(sut.estimateSeconds("POST /orders", Duration.ofSeconds(4))).isBetween(6L, 8L);
+    }
+
+    @Test
+    void onlyTheSlowerRequestsPredictALongRunningOne() {
+        record(90, Duration.ofMillis(100));
+        record(10, Duration.ofSeconds(30));
+        assertThat(sut.estimate("POST /orders", Duration.ZERO)).isEqualTo(Duration.ofSeconds(1));
+        assertThat(sut.estimate("POST /orders", Duration.ofSeconds(5)))
+                .isBetween(Duration.ofSeconds(20), Duration.ofSeconds(30));
+    }
+
+    @Test
+    void clampsTheEstimate() {
+        record(20, Duration.ofSeconds(10));
+        assertThat(sut.estimate("POST /orders", Duration.ofMillis(11500))).isEqualTo(Duration.ofSeconds(1));
+        assertThat(sut.estimate("POST /orders", Duration.ofMinutes(5))).isEqualTo(Duration.ofSeconds(60));
+        assertThat(sut.estimateSeconds("POST /orders", Duration.ofMillis(11500))).isEqualTo(1);
+    }
+
+    @Test
+    void oldSamplesDecay() {
+        record(20, Duration.ofSeconds(10));
+        now.addAndGet(Duration.ofMinutes(1).toNanos());
+        assertThat(sut.estimate("POST /orders", Duration.ZERO)).isNotEqualTo(Duration.ofSeconds(2));
+        now.addAndGet(Duration.ofMinutes(1).toNanos());
+        // 20 samples have decayed to 5, below the minimum of 10.
+        assertThat(sut.estimate("POST /orders", Duration.ZERO)).isEqualTo(Duration.ofSeconds(2));
+    }
+}
@@ -0,0 +1,331 @@
+package net.unit8.spring.idempotency.grpc;
+
+import io.grpc.*;
+import net.unit8.spring.idempotency.*;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.DigestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A gRPC server interceptor that processes a unary call with an idempotency key at most once.
+ *
+ * <p>The key is read from the {@code idempotency-key} metadata. The first call claims the key, and its
+ * serialized response and status are saved when the call is closed with a status that the
+ * {@link ResponseValidator} accepts, which is {@code OK} by default. Otherwise the key is released.
+ * A call cancelled by the client keeps its claim while the service is still running,
+ * and the key is saved or released when the service closes the call.
+ * A retry is answered from the store without invoking the service:</p>
+ * <ul>
+ *     <li>{@code ABORTED} while the first call is in progress</li>
+ *     <li>{@code INVALID_ARGUMENT} if the request differs from the first one</li>
+ *     <li>the stored response and status otherwise</li>
+ * </ul>
+ *
+ * <p>The fingerprint is the digest of the serialized request. Wrap a service with
+ * {@link #intercept(ServerServiceDefinition)}, so that the messages reach the interceptor serialized,
+ * and neither the fingerprint nor the replay needs marshalling. Streaming calls are passed through.</p>
+ *
+ * @author kawasima
+ */
+public class IdempotencyServerInterceptor implements ServerInterceptor, InitializingBean {
+    private static final Log LOG = LogFactory.getLog(IdempotencyServerInterceptor.class);
+    private static final String DEFAULT_IDEMPOTENCY_KEY_NAME = "idempotency-key";
+    /**
+     * The header of the stored response that holds the status description.
+     */
+    private static final String STATUS_DESCRIPTION = "grpc-message";
+
+    private final IdempotencyKeyStore idempotencyKeyStore;
+    private String idempotencyKeyName;
+    private ResponseValidator responseValidator;
+    private Duration expiry;
+
+    private Metadata.Key<String> idempotencyKeyHeader;
+
+    public IdempotencyServerInterceptor(IdempotencyKeyStore idempotencyKeyStore) {
+        this.idempotencyKeyStore = idempotencyKeyStore;
+    }
+
+    /**
+     * Intercept the service with the messages in the serialized form.
+     *
+     * @param service the service definition
+     * @return the intercepted service definition
+     */
+    public ServerServiceDefinition intercept(ServerServiceDefinition service) {
+        return ServerInterceptors.intercept(
+                ServerInterceptors.useMarshalledMessages(service, ByteArrayMarshaller.INSTANCE), this);
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        String idempotencyKey = headers.get(idempotencyKeyHeader);
+        if (idempotencyKey == null || call.getMethodDescriptor().getType() != MethodDescriptor.MethodType.UNARY) {
+            return next.startCall(call, headers);
+        }
+        return new IdempotentCallListener<>(call, headers, next, idempotencyKey);
+    }
+
+    private IdempotencyFingerprint fingerprintOf(MethodDescriptor<?, ?> method, byte[] request) {
+        return new IdempotencyFingerprint(method.getFullMethodName() + ":" + DigestUtils.md5DigestAsHex(request));
+    }
+
+    private static byte[] toBytes(InputStream in) {
+        try (in) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Claims the key when the request arrives, and starts the service only if the key has been claimed.
+     */
+    private class IdempotentCallListener<ReqT, RespT> extends ServerCall.Listener<ReqT> {
+        private final ServerCall<ReqT, RespT> call;
+        private final Metadata headers;
+        private final ServerCallHandler<ReqT, RespT> next;
+        private final String idempotencyKey;
+        private CapturingServerCall<ReqT, RespT> capturingCall;
+        private ServerCall.Listener<ReqT> delegate;
+        private boolean answered;
+
+        IdempotentCallListener(ServerCall<ReqT, RespT> call, Metadata headers,
+                               ServerCallHandler<ReqT, RespT> next, String idempotencyKey) {
+            this.call = call;
+            this.headers = headers;
+            this.next = next;
+            this.idempotencyKey = idempotencyKey;
+            // The service has not been started yet, so the request is pulled here.
+            call.request(1);
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            if (delegate != null) {
+                guardedRun(() -> delegate.onMessage(message));
+                return;
+            }
+            if (answered) {
+                return;
+            }
+            MethodDescriptor<ReqT, RespT> method = call.getMethodDescriptor();
+            IdempotencyFingerprint fingerprint = fingerprintOf(method, toBytes(method.streamRequest(message)));
+            IdempotencyEntry entry;
+            try {
+                entry = idempotencyKeyStore.getAndSet(idempotencyKey, expiry);
+            } catch (IdempotencyStoreUnavailableException e) {
+                answer(Status.UNAVAILABLE.withDescription("The idempotency key store is unavailable"));
+                return;
+            }
+            if (entry != null) {
+                replay(entry, fingerprint);
+                return;
+            }
+            capturingCall = new CapturingServerCall<>(call, idempotencyKey, fingerprint);
+            delegate = guarded(() -> next.startCall(capturingCall, headers));
+            guardedRun(() -> delegate.onMessage(message));
+        }
+
+        @Override
+        public void onHalfClose() {
+            if (delegate != null) {
+                guardedRun(delegate::onHalfClose);
+            } else if (!answered) {
+                answer(Status.INTERNAL.withDescription("Half-closed without a request"));
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            if (delegate != null) {
+                // A retry must not run the service again while this one is still running.
+                delegate.onCancel();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (delegate != null) {
+                delegate.onComplete();
+            }
+        }
+
+        @Override
+        public void onReady() {
+            if (delegate != null) {
+                delegate.onReady();
+            }
+        }
+
+        private void replay(IdempotencyEntry entry, IdempotencyFingerprint fingerprint) {
+            IdempotencyResponse response = entry.response();
+            if (response == null) {
+                answer(Status.ABORTED.withDescription("A request with the same idempotency key is in progress"));
+            } else if (entry.fingerprint() != null && !Objects.equals(entry.fingerprint(), fingerprint)) {
+                answer(Status.INVALID_ARGUMENT.withDescription("The idempotency key has been used for another request"));
+            } else {
+                if (response.body() != null) {
+                    call.sendHeaders(new Metadata());
+                    call.sendMessage(call.getMethodDescriptor().parseResponse(new ByteArrayInputStream(response.body())));
+                }
+                answer(Status.fromCodeValue(response.status()).withDescription(descriptionOf(response)));
+            }
+        }
+
+        private void answer(Status status) {
+            answered = true;
+            call.close(status, new Metadata());
+        }
+
+        private void guardedRun(Runnable runnable) {
+            guarded(() -> {
+                runnable.run();
+                return null;
+            });
+        }
+
+        /**
+         * Release the key if the service throws, because the transport closes the call without this interceptor.
+         */
+        private <T> T guarded(Supplier<T> supplier) {
+            try {
+                return supplier.get();
+            } catch (RuntimeException | Error e) {
+                capturingCall.abort();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Captures the response of the service, and saves it when the call is closed.
+     */
+    private class CapturingServerCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private final String idempotencyKey;
+        private final IdempotencyFingerprint fingerprint;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private byte[] body;
+
+        CapturingServerCall(ServerCall<ReqT, RespT> delegate, String idempotencyKey, IdempotencyFingerprint fingerprint) {
+            super(delegate);
+            this.idempotencyKey = idempotencyKey;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            body = toBytes(getMethodDescriptor().streamResponse(message));
+            super.sendMessage(message);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            try {
+                complete(status);
+            } finally {
+                super.close(status, trailers);
+            }
+        }
+
+        private void complete(Status status) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            Map<String, Collection<String>> responseHeaders = status.getDescription() != null
+                    ? Map.of(STATUS_DESCRIPTION, List.of(status.getDescription()))
+                    : null;
+            IdempotencyResponse response = new IdempotencyResponse(status.getCode().value(), responseHeaders, body);
+            try {
+                if (responseValidator.validate(response)) {
+                    idempotencyKeyStore.save(new IdempotencyEntry(idempotencyKey, fingerprint, response), expiry);
+                } else {
+                    idempotencyKeyStore.delete(idempotencyKey);
+                }
+            } catch (RuntimeException e) {
+                // The response is sent anyway, and the claimed key remains until it expires.
+                LOG.warn("Failed to complete the idempotency key " + idempotencyKey, e);
+            }
+        }
+
+        void abort() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                idempotencyKeyStore.delete(idempotencyKey);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to release the idempotency key " + idempotencyKey, e);
+            }
+        }
+    }
+
+    private static String descriptionOf(IdempotencyResponse response) {
+        if (response.headers() == null) {
+            return null;
+        }
+        Collection<String> values = response.headers().get(STATUS_DESCRIPTION);
+        return values == null || values.isEmpty() ? null : values.iterator().next();
+    }
+
+    /**
+     * @param idempotencyKeyName The name of the metadata that contains the idempotency key.
+     */
+    public void setIdempotencyKeyName(String idempotencyKeyName) {
+        this.idempotencyKeyName = idempotencyKeyName;
+    }
+
+    /**
+     * @param responseValidator Accepts the responses to be saved. The status of a response is the gRPC status code.
+     */
+    public void setResponseValidator(ResponseValidator responseValidator) {
+        this.responseValidator = responseValidator;
+    }
+
+    /**
+     * @param expiry The expiry of the keys, or null for the store's default.
+     */
+    public void setExpiry(Duration expiry) {
+        this.expiry = expiry;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (idempotencyKeyName == null) {
+            idempotencyKeyName = DEFAULT_IDEMPOTENCY_KEY_NAME;
+        }
+        if (responseValidator == null) {
+            responseValidator = response -> response.status() == Status.Code.OK.value();
+        }
+        idempotencyKeyHeader = Metadata.Key.of(idempotencyKeyName, Metadata.ASCII_STRING_MARSHALLER);
+    }
+
+    private enum ByteArrayMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+        INSTANCE;
+
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            return toBytes(stream);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package net.unit8.spring.idempotency.grpc;
+
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyServerInterceptorTest {
+    private static final MethodDescriptor.Marshaller<String> STRING_MARSHALLER = new MethodDescriptor.Marshaller<>() {
+        @Override
+        public InputStream stream(String value) {
+            return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String parse(InputStream stream) {
+            try (stream) {
+                return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+    private static final MethodDescriptor<String, String> ECHO = MethodDescriptor.<String, String>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName("test.Echo", "Echo"))
+            .setRequestMarshaller(STRING_MARSHALLER)
+            .setResponseMarshaller(STRING_MARSHALLER)
+            .build();
+
+    private final AtomicInteger invocations = new AtomicInteger();
+    private final AtomicReference<StreamObserver<String>> held = new AtomicReference<>();
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        IdempotencyServerInterceptor interceptor = new IdempotencyServerInterceptor(
+                new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager()));
+        interceptor.afterPropertiesSet();
+        ServerServiceDefinition service = ServerServiceDefinition.builder("test.Echo")
+                .addMethod(ECHO, ServerCalls.asyncUnaryCall((request, observer) -> {
+                    invocations.incrementAndGet();
+                    if (request.startsWith("hold")) {
+                        // Completed later by the test
+                        held.set(observer);
+                        return;
+                    }
+                    if (request.startsWith("fail")) {
+                        observer.onError(Status.INTERNAL.withDescription("failed").asRuntimeException());
+                        return;
+                    }
+                    observer.onNext(request + "#" + invocations.get());
+                    observer.onCompleted();
+                }))
+                .build();
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(interceptor.intercept(service))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    private Channel withKey(String idempotencyKey) {
+        Metadata headers = new Metadata();
+        if (idempotencyKey != null) {
+            headers.put(Metadata.Key.of("idempotency-key", Metadata.ASCII_STRING_MARSHALLER), idempotencyKey);
+        }
+        return ClientInterceptors.intercept(channel, MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    private String call(String idempotencyKey, String request) {
+        return ClientCalls.blockingUnaryCall(withKey(idempotencyKey), ECHO, CallOptions.DEFAULT, request);
+    }
+
+    @Test
+    void replaysTheStoredResponse() {
+        assertThat(call("key", "hello")).isEqualTo("hello#1");
+        assertThat(call("key", "hello")).isEqualTo("hello#1");
+        assertThat(invocations).hasValue(1);
+    }
+
+    @Test
+    void rejectsAnotherRequestWithTheSameKey() {
+        call("key", "hello");
+        assertThatThrownBy(() -> call("key", "goodbye"))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.INVALID_ARGUMENT));
+        assertThat(invocations).hasValue(1);
+    }
+
+    @Test
+    void abortsARetryWhileTheFirstCallIsInProgress() throws Exception {
+        Future<String> first = ClientCalls.futureUnaryCall(
+                withKey("key").newCall(ECHO, CallOptions.DEFAULT), "hold");
+        assertThat(held.get()).isNotNull();
+
+        assertThatThrownBy(() -> call("key", "hold"))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.ABORTED));
+        assertThat(invocations).hasValue(1);
+
+        held.get().onNext("held");
+        held.get().onCompleted();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("held");
+        assertThat(call("key", "hold")).isEqualTo("held");
+        assertThat(invocations).hasValue(1);
+    }
+
+    @Test
+    void keepsTheClaimOfACancelledCallUntilTheServiceCloses() throws Exception {
+        Future<String> first = ClientCalls.futureUnaryCall(
+                withKey("key").newCall(ECHO, CallOptions.DEFAULT), "hold");
+        assertThat(held.get()).isNotNull();
+        first.cancel(true);
+
+        // A retry that ran the service again would be held until the deadline.
+        assertThatThrownBy(() -> ClientCalls.blockingUnaryCall(withKey("key"), ECHO,
+                CallOptions.DEFAULT.withDeadlineAfter(5, TimeUnit.SECONDS), "hold"))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.ABORTED));
+
+        // The service completes the cancelled call after all.
+        held.get().onNext("held");
+        held.get().onCompleted();
+        assertThat(call("key", "hold")).isEqualTo("held");
+        assertThat(invocations).hasValue(1);
+    }
+
+    @Test
+    void releasesTheKeyOfAFailedCall() {
+        assertThatThrownBy(() -> call("key", "fail"))
+                .isInstanceOfSatisfying(StatusRuntimeException.class,
+                        e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.INTERNAL));
+        assertThatThrownBy(() -> call("key", "fail"))
+                .isInstanceOf(StatusRuntimeException.class);
+        assertThat(invocations).hasValue(2);
+    }
+
+    @Test
+    void passesThroughCallsWithoutKey() {
+        assertThat(call(null, "hello")).isEqualTo("hello#1");
+        assertThat(call(null, "hello")).isEqualTo("hello#2");
+    }
+}
@@ -0,0 +1,186 @@
+package net.unit8.spring.idempotency.jcstress;
+
+import org.openjdk.jcstress.annotations.*;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * A release of a key by {@code delete} never removes a claim made after it.
+ *
+ * <p>The key is claimed before the actors run. Either the concurrent {@code getAndSet} sees
+ * the existing claim and the key is released afterwards, or it claims the released key
+ * and the key remains in progress.</p>
+ */
+public class DeleteVersusGetAndSetTest {
+    /**
+     * InMemoryIdempotencyStore.
+     */
+    @JCStressTest
+    @Outcome(id = "1, 1", expect = ACCEPTABLE, desc = "Claimed after the release")
+    @Outcome(id = "0, 0", expect = ACCEPTABLE, desc = "Saw the claim before the release")
+    @Outcome(id = "1, 0", expect = FORBIDDEN, desc = "The new claim is removed")
+    @Outcome(id = "0, 1", expect = FORBIDDEN, desc = "The release is lost")
+    @Outcome(id = "0, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @Outcome(id = "1, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @State
+    public static class InMemory {
+        final StoreFixture fixture = StoreFixture.inMemory();
+
+        {
+            fixture.claim();
+        }
+
+        @Actor
+        public void delete() {
+            fixture.delete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * DefaultIdempotencyKeyStore with ConcurrentMapCacheManager.
+     */
+    @JCStressTest
+    @Outcome(id = "1, 1", expect = ACCEPTABLE, desc = "Claimed after the release")
+    @Outcome(id = "0, 0", expect = ACCEPTABLE, desc = "Saw the claim before the release")
+    @Outcome(id = "1, 0", expect = FORBIDDEN, desc = "The new claim is removed")
+    @Outcome(id = "0, 1", expect = FORBIDDEN, desc = "The release is lost")
+    @Outcome(id = "0, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @Outcome(id = "1, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @State
+    public static class Cache {
+        final StoreFixture fixture = StoreFixture.cache();
+
+        {
+            fixture.claim();
+        }
+
+        @Actor
+        public void delete() {
+            fixture.delete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * ShardedIdempotencyKeyStore over two caches.
+     */
+    @JCStressTest
+    @Outcome(id = "1, 1", expect = ACCEPTABLE, desc = "Claimed after the release")
+    @Outcome(id = "0, 0", expect = ACCEPTABLE, desc = "Saw the claim before the release")
+    @Outcome(id = "1, 0", expect = FORBIDDEN, desc = "The new claim is removed")
+    @Outcome(id = "0, 1", expect = FORBIDDEN, desc = "The release is lost")
+    @Outcome(id = "0, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @Outcome(id = "1, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @State
+    public static class Sharded {
+        final StoreFixture fixture = StoreFixture.sharded();
+
+        {
+            fixture.claim();
+        }
+
+        @Actor
+        public void delete() {
+            fixture.delete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * ResilientIdempotencyKeyStore over a cache, with calls on the executor threads.
+     */
+    @JCStressTest
+    @Outcome(id = "1, 1", expect = ACCEPTABLE, desc = "Claimed after the release")
+    @Outcome(id = "0, 0", expect = ACCEPTABLE, desc = "Saw the claim before the release")
+    @Outcome(id = "1, 0", expect = FORBIDDEN, desc = "The new claim is removed")
+    @Outcome(id = "0, 1", expect = FORBIDDEN, desc = "The release is lost")
+    @Outcome(id = "0, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @Outcome(id = "1, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @State
+    public static class Resilient {
+        final StoreFixture fixture = StoreFixture.resilient();
+
+        {
+            fixture.claim();
+        }
+
+        @Actor
+        public void delete() {
+            fixture.delete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * InfinispanIdempotencyStore on a local cache.
+     */
+    @JCStressTest
+    @Outcome(id = "1, 1", expect = ACCEPTABLE, desc = "Claimed after the release")
+    @Outcome(id = "0, 0", expect = ACCEPTABLE, desc = "Saw the claim before the release")
+    @Outcome(id = "1, 0", expect = FORBIDDEN, desc = "The new claim is removed")
+    @Outcome(id = "0, 1", expect = FORBIDDEN, desc = "The release is lost")
+    @Outcome(id = "0, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @Outcome(id = "1, 2", expect = FORBIDDEN, desc = "Unexpected completed entry")
+    @State
+    public static class Infinispan {
+        final StoreFixture fixture = StoreFixture.infinispan();
+
+        {
+            fixture.claim();
+        }
+
+        @Actor
+        public void delete() {
+            fixture.delete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+}
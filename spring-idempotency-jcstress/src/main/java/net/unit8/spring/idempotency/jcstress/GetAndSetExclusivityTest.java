@@ -0,0 +1,147 @@
+package net.unit8.spring.idempotency.jcstress;
+
+import org.openjdk.jcstress.annotations.*;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * Only one of concurrent callers of {@code getAndSet} wins the same key.
+ */
+public class GetAndSetExclusivityTest {
+    /**
+     * InMemoryIdempotencyStore.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 0", "0, 1"}, expect = ACCEPTABLE, desc = "Exactly one caller wins")
+    @Outcome(id = "1, 1", expect = FORBIDDEN, desc = "Both callers win")
+    @Outcome(id = "0, 0", expect = FORBIDDEN, desc = "No caller wins")
+    @State
+    public static class InMemory {
+        final StoreFixture fixture = StoreFixture.inMemory();
+
+        @Actor
+        public void actor1(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Actor
+        public void actor2(II_Result r) {
+            r.r2 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * DefaultIdempotencyKeyStore with ConcurrentMapCacheManager.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 0", "0, 1"}, expect = ACCEPTABLE, desc = "Exactly one caller wins")
+    @Outcome(id = "1, 1", expect = FORBIDDEN, desc = "Both callers win")
+    @Outcome(id = "0, 0", expect = FORBIDDEN, desc = "No caller wins")
+    @State
+    public static class Cache {
+        final StoreFixture fixture = StoreFixture.cache();
+
+        @Actor
+        public void actor1(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Actor
+        public void actor2(II_Result r) {
+            r.r2 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * ShardedIdempotencyKeyStore over two caches.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 0", "0, 1"}, expect = ACCEPTABLE, desc = "Exactly one caller wins")
+    @Outcome(id = "1, 1", expect = FORBIDDEN, desc = "Both callers win")
+    @Outcome(id = "0, 0", expect = FORBIDDEN, desc = "No caller wins")
+    @State
+    public static class Sharded {
+        final StoreFixture fixture = StoreFixture.sharded();
+
+        @Actor
+        public void actor1(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Actor
+        public void actor2(II_Result r) {
+            r.r2 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * ResilientIdempotencyKeyStore over a cache, with calls on the executor threads.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 0", "0, 1"}, expect = ACCEPTABLE, desc = "Exactly one caller wins")
+    @Outcome(id = "1, 1", expect = FORBIDDEN, desc = "Both callers win")
+    @Outcome(id = "0, 0", expect = FORBIDDEN, desc = "No caller wins")
+    @State
+    public static class Resilient {
+        final StoreFixture fixture = StoreFixture.resilient();
+
+        @Actor
+        public void actor1(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Actor
+        public void actor2(II_Result r) {
+            r.r2 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * InfinispanIdempotencyStore on a local cache.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 0", "0, 1"}, expect = ACCEPTABLE, desc = "Exactly one caller wins")
+    @Outcome(id = "1, 1", expect = FORBIDDEN, desc = "Both callers win")
+    @Outcome(id = "0, 0", expect = FORBIDDEN, desc = "No caller wins")
+    @State
+    public static class Infinispan {
+        final StoreFixture fixture = StoreFixture.infinispan();
+
+        @Actor
+        public void actor1(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Actor
+        public void actor2(II_Result r) {
+            r.r2 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            fixture.stateAndRelease();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package net.unit8.spring.idempotency.jcstress;
+
+import org.openjdk.jcstress.annotations.*;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * A completed entry is never overwritten by a concurrent {@code getAndSet}.
+ *
+ * <p>If the claim comes first, the save replaces it. If the save comes first, the claim sees the
+ * completed entry. Either way the completed entry must remain.</p>
+ */
+public class SaveNotLostTest {
+    /**
+     * InMemoryIdempotencyStore.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 2", "0, 2"}, expect = ACCEPTABLE, desc = "The completed entry remains")
+    @Outcome(id = {"1, 1", "0, 1"}, expect = FORBIDDEN, desc = "The save is lost by the claim")
+    @Outcome(id = {"1, 0", "0, 0"}, expect = FORBIDDEN, desc = "The entry is lost")
+    @State
+    public static class InMemory {
+        final StoreFixture fixture = StoreFixture.inMemory();
+
+        @Actor
+        public void save() {
+            fixture.complete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * DefaultIdempotencyKeyStore with ConcurrentMapCacheManager.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 2", "0, 2"}, expect = ACCEPTABLE, desc = "The completed entry remains")
+    @Outcome(id = {"1, 1", "0, 1"}, expect = FORBIDDEN, desc = "The save is lost by the claim")
+    @Outcome(id = {"1, 0", "0, 0"}, expect = FORBIDDEN, desc = "The entry is lost")
+    @State
+    public static class Cache {
+        final StoreFixture fixture = StoreFixture.cache();
+
+        @Actor
+        public void save() {
+            fixture.complete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * ShardedIdempotencyKeyStore over two caches.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 2", "0, 2"}, expect = ACCEPTABLE, desc = "The completed entry remains")
+    @Outcome(id = {"1, 1", "0, 1"}, expect = FORBIDDEN, desc = "The save is lost by the claim")
+    @Outcome(id = {"1, 0", "0, 0"}, expect = FORBIDDEN, desc = "The entry is lost")
+    @State
+    public static class Sharded {
+        final StoreFixture fixture = StoreFixture.sharded();
+
+        @Actor
+        public void save() {
+            fixture.complete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * ResilientIdempotencyKeyStore over a cache, with calls on the executor threads.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 2", "0, 2"}, expect = ACCEPTABLE, desc = "The completed entry remains")
+    @Outcome(id = {"1, 1", "0, 1"}, expect = FORBIDDEN, desc = "The save is lost by the claim")
+    @Outcome(id = {"1, 0", "0, 0"}, expect = FORBIDDEN, desc = "The entry is lost")
+    @State
+    public static class Resilient {
+        final StoreFixture fixture = StoreFixture.resilient();
+
+        @Actor
+        public void save() {
+            fixture.complete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+
+    /**
+     * InfinispanIdempotencyStore on a local cache.
+     */
+    @JCStressTest
+    @Outcome(id = {"1, 2", "0, 2"}, expect = ACCEPTABLE, desc = "The completed entry remains")
+    @Outcome(id = {"1, 1", "0, 1"}, expect = FORBIDDEN, desc = "The save is lost by the claim")
+    @Outcome(id = {"1, 0", "0, 0"}, expect = FORBIDDEN, desc = "The entry is lost")
+    @State
+    public static class Infinispan {
+        final StoreFixture fixture = StoreFixture.infinispan();
+
+        @Actor
+        public void save() {
+            fixture.complete();
+        }
+
+        @Actor
+        public void claim(II_Result r) {
+            r.r1 = fixture.claim() ? 1 : 0;
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r2 = fixture.stateAndRelease();
+        }
+    }
+}
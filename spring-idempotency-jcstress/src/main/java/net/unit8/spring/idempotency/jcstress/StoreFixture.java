@@ -0,0 +1,137 @@
+package net.unit8.spring.idempotency.jcstress;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyFingerprint;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import net.unit8.spring.idempotency.resilience.ResilientIdempotencyKeyStore;
+import net.unit8.spring.idempotency.sharding.Shard;
+import net.unit8.spring.idempotency.sharding.ShardedIdempotencyKeyStore;
+import net.unit8.spring.idempotency.storage.infinispan.InfinispanIdempotencyStore;
+import net.unit8.spring.idempotency.storage.inmemory.InMemoryIdempotencyStore;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A store and a key under test.
+ *
+ * <p>Cheap stores are created per test state. Stores that are expensive to create are shared,
+ * and each state uses its own key instead.</p>
+ */
+public class StoreFixture {
+    private static final AtomicLong KEY_SEQUENCE = new AtomicLong();
+    private static volatile InfinispanIdempotencyStore infinispanStore;
+    private static volatile ResilientIdempotencyKeyStore resilientStore;
+
+    private final IdempotencyKeyStore store;
+    private final String key;
+
+    StoreFixture(IdempotencyKeyStore store) {
+        this.store = store;
+        this.key = "key-" + KEY_SEQUENCE.incrementAndGet();
+    }
+
+    public static StoreFixture inMemory() {
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore();
+        try {
+            store.afterPropertiesSet();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return new StoreFixture(store);
+    }
+
+    public static StoreFixture sharded() {
+        ShardedIdempotencyKeyStore store = new ShardedIdempotencyKeyStore(List.of(
+                new Shard("a", new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager())),
+                new Shard("b", new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager()))));
+        store.afterPropertiesSet();
+        return new StoreFixture(store);
+    }
+
+    public static StoreFixture resilient() {
+        ResilientIdempotencyKeyStore store = resilientStore;
+        if (store == null) {
+            synchronized (StoreFixture.class) {
+                store = resilientStore;
+                if (store == null) {
+                    store = new ResilientIdempotencyKeyStore(
+                            new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager()));
+                    // A generous budget, so that only the hand-off to the executor thread is under test.
+                    store.setGetAndSetTimeout(Duration.ofSeconds(10));
+                    store.setSaveTimeout(Duration.ofSeconds(10));
+                    store.setDeleteTimeout(Duration.ofSeconds(10));
+                    store.afterPropertiesSet();
+                    resilientStore = store;
+                }
+            }
+        }
+        return new StoreFixture(store);
+    }
+
+    public static StoreFixture cache() {
+        return new StoreFixture(new DefaultIdempotencyKeyStore(new ConcurrentMapCacheManager()));
+    }
+
+    public static StoreFixture infinispan() {
+        InfinispanIdempotencyStore store = infinispanStore;
+        if (store == null) {
+            synchronized (StoreFixture.class) {
+                store = infinispanStore;
+                if (store == null) {
+                    DefaultCacheManager cacheManager = new DefaultCacheManager();
+                    cacheManager.defineConfiguration("idempotency", new ConfigurationBuilder().build());
+                    Cache<String, IdempotencyEntry> cache = cacheManager.getCache("idempotency");
+                    infinispanStore = store = new InfinispanIdempotencyStore(cache);
+                }
+            }
+        }
+        return new StoreFixture(store);
+    }
+
+    public IdempotencyKeyStore store() {
+        return store;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    /**
+     * @return true if the caller has claimed the key
+     */
+    public boolean claim() {
+        return store.getAndSet(key) == null;
+    }
+
+    public void complete() {
+        store.save(new IdempotencyEntry(key,
+                new IdempotencyFingerprint("fingerprint"),
+                new IdempotencyResponse(200, null, null)));
+    }
+
+    public void delete() {
+        store.delete(key);
+    }
+
+    /**
+     * Read the current state of the key and release it.
+     *
+     * @return 0 if the key is absent, 1 if it is in progress and 2 if it is completed
+     */
+    public int stateAndRelease() {
+        IdempotencyEntry entry = store.getAndSet(key);
+        store.delete(key);
+        if (entry == null) {
+            return 0;
+        }
+        return entry.response() == null ? 1 : 2;
+    }
+}
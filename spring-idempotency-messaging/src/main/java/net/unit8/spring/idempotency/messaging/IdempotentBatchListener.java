@@ -0,0 +1,137 @@
+package net.unit8.spring.idempotency.messaging;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import net.unit8.spring.idempotency.batch.BatchItem;
+import net.unit8.spring.idempotency.batch.BatchItemStatus;
+import net.unit8.spring.idempotency.batch.IdempotencyBatch;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A batch listener that skips the messages that have already been processed.
+ *
+ * <p>The keys of a poll batch are claimed with one {@link IdempotencyKeyStore#getAndSetAll}, and
+ * the delegate receives the messages whose keys have been claimed, in the order of the batch.
+ * Messages without a key are passed through. A message is skipped if its key has been processed,
+ * or appears earlier in the same batch.</p>
+ *
+ * <p>A message whose key is being processed by another consumer is not skipped, because the holder may
+ * crash before saving the key. The other messages are processed, and then {@link MessagesInProgressException}
+ * is thrown so that the batch is not acknowledged. On redelivery the processed messages are skipped,
+ * and the message is processed once the claim of the holder expires. The claims expire after
+ * the claim expiry, which should be a little longer than the processing of a batch and much shorter
+ * than the expiry of the processed keys.</p>
+ *
+ * <p>When the delegate returns, the keys are saved as processed with one {@code saveAll}.
+ * When it throws, the keys are released with one {@code deleteAll}, so that the redelivered messages
+ * are processed again.</p>
+ *
+ * @param <M> the type of the messages
+ * @author kawasima
+ */
+public class IdempotentBatchListener<M> implements Consumer<List<M>> {
+    /**
+     * The response stored for a processed message.
+     */
+    static final IdempotencyResponse PROCESSED = new IdempotencyResponse(200, null, null);
+
+    private final IdempotencyKeyStore idempotencyKeyStore;
+    private final Function<? super M, String> keyExtractor;
+    private final Consumer<? super List<M>> delegate;
+    private Duration expiry;
+    private Duration claimExpiry;
+    private BiConsumer<? super M, IdempotencyEntry> duplicateHandler = (message, entry) -> { };
+
+    /**
+     * @param idempotencyKeyStore the store
+     * @param keyExtractor the function that gives the idempotency key of a message, or null if it has none
+     * @param delegate the listener of the messages to process
+     */
+    public IdempotentBatchListener(IdempotencyKeyStore idempotencyKeyStore,
+                                   Function<? super M, String> keyExtractor,
+                                   Consumer<? super List<M>> delegate) {
+        this.idempotencyKeyStore = idempotencyKeyStore;
+        this.keyExtractor = keyExtractor;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void accept(List<M> messages) {
+        List<M> keyed = new ArrayList<>(messages.size());
+        for (M message : messages) {
+            if (keyExtractor.apply(message) != null) {
+                keyed.add(message);
+            }
+        }
+        IdempotencyBatch<M> batch = IdempotencyBatch.claim(idempotencyKeyStore, keyed, keyExtractor,
+                claimExpiry != null ? claimExpiry : expiry, expiry);
+
+        List<M> accepted = new ArrayList<>(messages.size());
+        List<String> claimedKeys = new ArrayList<>(keyed.size());
+        List<M> inProgress = new ArrayList<>();
+        // The keyed messages are a subsequence of the batch, so their items are consumed in order.
+        Iterator<BatchItem<M>> items = batch.items().iterator();
+        for (M message : messages) {
+            if (keyExtractor.apply(message) == null) {
+                accepted.add(message);
+                continue;
+            }
+            BatchItem<M> item = items.next();
+            if (item.status() == BatchItemStatus.CLAIMED) {
+                accepted.add(message);
+                claimedKeys.add(item.idempotencyKey());
+            } else if (item.status() == BatchItemStatus.IN_PROGRESS) {
+                inProgress.add(message);
+            } else {
+                duplicateHandler.accept(message, item.entry());
+            }
+        }
+
+        if (!accepted.isEmpty()) {
+            try {
+                delegate.accept(accepted);
+            } catch (RuntimeException | Error e) {
+                batch.flush();
+                throw e;
+            }
+        }
+        for (String key : claimedKeys) {
+            batch.complete(key, null, PROCESSED);
+        }
+        batch.flush();
+        if (!inProgress.isEmpty()) {
+            throw new MessagesInProgressException(inProgress);
+        }
+    }
+
+    /**
+     * @param expiry The expiry of the processed keys, or null for the store's default.
+     */
+    public void setExpiry(Duration expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * @param claimExpiry The expiry of the claims of the messages being processed. The expiry of the processed keys
+     *                    by default. Stores that cannot expire entries individually ignore it.
+     */
+    public void setClaimExpiry(Duration claimExpiry) {
+        this.claimExpiry = claimExpiry;
+    }
+
+    /**
+     * @param duplicateHandler The callback of a skipped message and its existing entry.
+     *                         The entry is null if the key appears earlier in the same batch.
+     */
+    public void setDuplicateHandler(BiConsumer<? super M, IdempotencyEntry> duplicateHandler) {
+        this.duplicateHandler = duplicateHandler;
+    }
+}
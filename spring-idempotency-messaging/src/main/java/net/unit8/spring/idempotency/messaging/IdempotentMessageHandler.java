@@ -0,0 +1,56 @@
+package net.unit8.spring.idempotency.messaging;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link MessageHandler} that skips the messages that have already been processed.
+ *
+ * <p>A message is a batch of one for {@link IdempotentBatchListener}. Consumers that poll batches
+ * should use {@link IdempotentBatchListener} directly, so that a batch costs one claim call.
+ * A message whose key is held by another consumer fails with a {@link MessagingException}, so that it is redelivered.</p>
+ *
+ * @author kawasima
+ */
+public class IdempotentMessageHandler implements MessageHandler {
+    private final IdempotentBatchListener<Message<?>> listener;
+
+    public IdempotentMessageHandler(IdempotencyKeyStore idempotencyKeyStore, MessageHandler delegate) {
+        this(idempotencyKeyStore, new MessageHeaderKeyExtractor(), delegate);
+    }
+
+    public IdempotentMessageHandler(IdempotencyKeyStore idempotencyKeyStore,
+                                    MessageHeaderKeyExtractor keyExtractor,
+                                    MessageHandler delegate) {
+        this.listener = new IdempotentBatchListener<>(idempotencyKeyStore, keyExtractor,
+                messages -> delegate.handleMessage(messages.get(0)));
+    }
+
+    @Override
+    public void handleMessage(Message<?> message) throws MessagingException {
+        try {
+            listener.accept(List.of(message));
+        } catch (MessagesInProgressException e) {
+            throw new MessagingException(message, e.getMessage(), e);
+        }
+    }
+
+    public void setExpiry(Duration expiry) {
+        listener.setExpiry(expiry);
+    }
+
+    public void setClaimExpiry(Duration claimExpiry) {
+        listener.setClaimExpiry(claimExpiry);
+    }
+
+    public void setDuplicateHandler(BiConsumer<? super Message<?>, IdempotencyEntry> duplicateHandler) {
+        listener.setDuplicateHandler(duplicateHandler);
+    }
+}
@@ -0,0 +1,38 @@
+package net.unit8.spring.idempotency.messaging;
+
+import org.springframework.messaging.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Extracts the idempotency key of a message from a header.
+ *
+ * <p>The {@code id} header of Spring messages is not suitable, because it is generated again
+ * when a broker redelivers a message.</p>
+ *
+ * @author kawasima
+ */
+public class MessageHeaderKeyExtractor implements Function<Message<?>, String> {
+    public static final String DEFAULT_HEADER_NAME = "Idempotency-Key";
+
+    private final String headerName;
+
+    public MessageHeaderKeyExtractor() {
+        this(DEFAULT_HEADER_NAME);
+    }
+
+    public MessageHeaderKeyExtractor(String headerName) {
+        this.headerName = headerName;
+    }
+
+    @Override
+    public String apply(Message<?> message) {
+        Object value = message.getHeaders().get(headerName);
+        if (value instanceof byte[] bytes) {
+            // Binders such as Kafka deliver unmapped headers as raw bytes.
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value != null ? value.toString() : null;
+    }
+}
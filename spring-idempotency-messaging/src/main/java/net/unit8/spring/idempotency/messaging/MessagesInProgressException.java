@@ -0,0 +1,27 @@
+package net.unit8.spring.idempotency.messaging;
+
+import java.util.List;
+
+/**
+ * Thrown when messages of a batch have keys that are held by another consumer and have not completed.
+ *
+ * <p>The holder may have crashed before saving the keys, so the messages must not be acknowledged.
+ * The container should redeliver them, and they are processed once the claims expire.</p>
+ *
+ * @author kawasima
+ */
+public class MessagesInProgressException extends RuntimeException {
+    private final transient List<Object> messages;
+
+    public MessagesInProgressException(List<?> messages) {
+        super(messages.size() + " message(s) are being processed by another consumer");
+        this.messages = List.<Object>copyOf(messages);
+    }
+
+    /**
+     * The messages to redeliver.
+     */
+    public List<Object> getMessages() {
+        return messages;
+    }
+}
@@ -0,0 +1,201 @@
+package net.unit8.spring.idempotency.messaging;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotentBatchListenerTest {
+    /** A message is "key:payload", and a message without a colon has no key. */
+    private static String keyOf(String message) {
+        int colon = message.indexOf(':');
+        return colon >= 0 ? message.substring(0, colon) : null;
+    }
+
+    @Test
+    void skipsProcessedMessages() {
+        IdempotencyKeyStore store = new CountingStore();
+        List<List<String>> delivered = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        IdempotentBatchListener<String> sut = new IdempotentBatchListener<>(store,
+                IdempotentBatchListenerTest::keyOf, delivered::add);
+        sut.setDuplicateHandler((message, entry) -> skipped.add(message));
+
+        sut.accept(List.of("a:1", "b:1", "a:2", "plain"));
+        sut.accept(List.of("b:3", "c:1", "plain"));
+
+        assertThat(delivered).containsExactly(
+                List.of("a:1", "b:1", "plain"),
+                List.of("c:1", "plain"));
+        assertThat(skipped).containsExactly("a:2", "b:3");
+        assertThat(((CountingStore) store).batchCalls.get()).isEqualTo(4);
+    }
+
+    @Test
+    void releasesKeysOnFailure() {
+        IdempotencyKeyStore store = new CountingStore();
+        AtomicInteger calls = new AtomicInteger();
+        IdempotentBatchListener<String> sut = new IdempotentBatchListener<>(store,
+                IdempotentBatchListenerTest::keyOf, messages -> {
+                    if (calls.incrementAndGet() == 1) {
+                        throw new IllegalStateException("broker down");
+                    }
+                });
+
+        assertThatThrownBy(() -> sut.accept(List.of("a:1", "b:1")))
+                .isInstanceOf(IllegalStateException.class);
+        sut.accept(List.of("a:1", "b:1"));
+        assertThat(calls).hasValue(2);
+        assertThat(store.getAndSet("a").response()).isEqualTo(IdempotentBatchListener.PROCESSED);
+    }
+
+    @Test
+    void redeliversMessagesClaimedByACrashedConsumer() {
+        IdempotencyKeyStore store = new CountingStore();
+        // A consumer claimed "a" and crashed before saving it, so the batch was never acknowledged.
+        store.getAndSetAll(List.of("a"), null);
+
+        List<List<String>> delivered = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        IdempotentBatchListener<String> sut = new IdempotentBatchListener<>(store,
+                IdempotentBatchListenerTest::keyOf, delivered::add);
+        sut.setDuplicateHandler((message, entry) -> skipped.add(message));
+
+        assertThatThrownBy(() -> sut.accept(List.of("a:1", "b:1")))
+                .isInstanceOfSatisfying(MessagesInProgressException.class,
+                        e -> assertThat(e.getMessages()).containsExactly("a:1"));
+        assertThat(delivered).containsExactly(List.of("b:1"));
+        assertThat(store.getAndSet("a").response()).isNull();
+
+        // The claim of the crashed consumer expires, and the batch is redelivered.
+        store.delete("a");
+        sut.accept(List.of("a:1", "b:1"));
+        assertThat(delivered).containsExactly(List.of("b:1"), List.of("a:1"));
+        assertThat(skipped).containsExactly("b:1");
+        assertThat(store.getAndSet("a").response()).isEqualTo(IdempotentBatchListener.PROCESSED);
+    }
+
+    @Test
+    void redeliversMessagesOnceTheClaimExpires() {
+        ExpiringStore store = new ExpiringStore();
+        List<String> delivered = new ArrayList<>();
+        List<Duration> claimExpiries = new ArrayList<>();
+        IdempotentBatchListener<String> sut = new IdempotentBatchListener<>(store,
+                IdempotentBatchListenerTest::keyOf, messages -> {
+                    for (String message : messages) {
+                        claimExpiries.add(store.expiries.get(keyOf(message)));
+                        delivered.add(message);
+                    }
+                });
+        sut.setExpiry(Duration.ofDays(1));
+        sut.setClaimExpiry(Duration.ofMinutes(1));
+
+        sut.accept(List.of("b:1"));
+        assertThat(claimExpiries).containsExactly(Duration.ofMinutes(1));
+        assertThat(store.expiries).containsEntry("b", Duration.ofDays(1));
+
+        // A consumer claimed "a" with the claim expiry and crashed before saving it.
+        store.getAndSet("a", Duration.ofMinutes(1));
+        assertThatThrownBy(() -> sut.accept(List.of("a:1", "b:1")))
+                .isInstanceOf(MessagesInProgressException.class);
+
+        store.elapse(Duration.ofMinutes(2));
+        sut.accept(List.of("a:1", "b:1"));
+        assertThat(delivered).containsExactly("b:1", "a:1");
+        assertThat(store.expiries).containsEntry("a", Duration.ofDays(1));
+    }
+
+    /**
+     * Counts the batch calls, that is one claim and one save or delete per poll batch.
+     */
+    static class CountingStore extends DefaultIdempotencyKeyStore {
+        final AtomicInteger batchCalls = new AtomicInteger();
+
+        CountingStore() {
+            super(new ConcurrentMapCacheManager());
+        }
+
+        @Override
+        public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+            batchCalls.incrementAndGet();
+            return super.getAndSetAll(idempotencyKeys, expiry);
+        }
+
+        @Override
+        public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+            batchCalls.incrementAndGet();
+            super.saveAll(entries, expiry);
+        }
+
+        @Override
+        public void deleteAll(Collection<String> idempotencyKeys) {
+            batchCalls.incrementAndGet();
+            super.deleteAll(idempotencyKeys);
+        }
+    }
+
+    /**
+     * Expires the entries on a manual clock.
+     */
+    static class ExpiringStore extends DefaultIdempotencyKeyStore {
+        final Map<String, Duration> expiries = new HashMap<>();
+        private final Map<String, Long> deadlines = new HashMap<>();
+        private long now;
+
+        ExpiringStore() {
+            super(new ConcurrentMapCacheManager());
+        }
+
+        void elapse(Duration duration) {
+            now += duration.toMillis();
+        }
+
+        @Override
+        public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+            Long deadline = deadlines.get(idempotencyKey);
+            if (deadline != null && deadline <= now) {
+                delete(idempotencyKey);
+            }
+            IdempotencyEntry entry = getAndSet(idempotencyKey);
+            if (entry == null) {
+                expire(idempotencyKey, expiry);
+            }
+            return entry;
+        }
+
+        @Override
+        public void save(IdempotencyEntry entry, Duration expiry) {
+            save(entry);
+            expire(entry.idempotencyKey(), expiry);
+        }
+
+        @Override
+        public void delete(String idempotencyKey) {
+            super.delete(idempotencyKey);
+            expiries.remove(idempotencyKey);
+            deadlines.remove(idempotencyKey);
+        }
+
+        @Override
+        public boolean supportsEntryExpiry() {
+            return true;
+        }
+
+        private void expire(String idempotencyKey, Duration expiry) {
+            expiries.put(idempotencyKey, expiry);
+            deadlines.put(idempotencyKey, now + expiry.toMillis());
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package net.unit8.spring.idempotency.storage.infinispan;
 
 import net.unit8.spring.idempotency.IdempotencyEntry;
-import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.ScannableIdempotencyKeyStore;
+import net.unit8.spring.idempotency.ScannedEntry;
 import org.infinispan.Cache;
+import org.infinispan.CacheStream;
+import org.infinispan.container.entries.CacheEntry;
 
 import java.time.Duration;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class InfinispanIdempotencyStore implements IdempotencyKeyStore {
+/**
+ * The idempotency key store on an Infinispan cache.
+ *
+ * <p>A scan streams the entries of the cache from their owners in batches, with the lifespan left of each entry.</p>
+ *
+ * @author kawasima
+ */
+public class InfinispanIdempotencyStore implements ScannableIdempotencyKeyStore {
     private final Cache<String, IdempotencyEntry> cache;
     private Duration expiry = Duration.ofDays(1);
 
@@ -18,14 +31,28 @@ public class InfinispanIdempotencyStore implements IdempotencyKeyStore {
 
     @Override
     public IdempotencyEntry getAndSet(String idempotencyKey) {
-        IdempotencyEntry newEntry = new IdempotencyEntry(idempotencyKey, null, null);
-        return Optional.ofNullable(cache.putIfAbsent(idempotencyKey, newEntry, expiry.toMillis(), TimeUnit.MILLISECONDS))
-                .orElse(newEntry);
+        return getAndSet(idempotencyKey, null);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        IdempotencyEntry newEntry = IdempotencyEntry.inProgress(idempotencyKey);
+        return cache.putIfAbsent(idempotencyKey, newEntry, lifespan(expiry), TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void save(IdempotencyEntry entry) {
-        cache.put(entry.idempotencyKey(), entry, expiry.toMillis(), TimeUnit.MILLISECONDS);
+        save(entry, null);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry, Duration expiry) {
+        cache.put(entry.idempotencyKey(), entry, lifespan(expiry), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean supportsEntryExpiry() {
+        return true;
     }
 
     @Override
@@ -33,6 +60,64 @@ public class InfinispanIdempotencyStore implements IdempotencyKeyStore {
         cache.remove(idempotencyKey);
     }
 
+    /**
+     * Issue the claims of the batch asynchronously, so that they are sent to their owners in parallel.
+     */
+    @Override
+    public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        long lifespan = lifespan(expiry);
+        Map<String, CompletableFuture<IdempotencyEntry>> claims = new LinkedHashMap<>();
+        for (String idempotencyKey : idempotencyKeys) {
+            claims.computeIfAbsent(idempotencyKey, key -> cache.putIfAbsentAsync(key,
+                    IdempotencyEntry.inProgress(key), lifespan, TimeUnit.MILLISECONDS));
+        }
+        Map<String, IdempotencyEntry> existing = new LinkedHashMap<>();
+        claims.forEach((idempotencyKey, claim) -> {
+            IdempotencyEntry entry = claim.join();
+            if (entry != null) {
+                existing.put(idempotencyKey, entry);
+            }
+        });
+        return existing;
+    }
+
+    @Override
+    public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        Map<String, IdempotencyEntry> map = new LinkedHashMap<>();
+        for (IdempotencyEntry entry : entries) {
+            map.put(entry.idempotencyKey(), entry);
+        }
+        cache.putAllAsync(map, lifespan(expiry), TimeUnit.MILLISECONDS).join();
+    }
+
+    @Override
+    public void deleteAll(Collection<String> idempotencyKeys) {
+        CompletableFuture.allOf(idempotencyKeys.stream()
+                .map(cache::removeAsync)
+                .toArray(CompletableFuture[]::new)).join();
+    }
+
+    @Override
+    public Stream<ScannedEntry> scan(int batchSize) {
+        CacheStream<CacheEntry<String, IdempotencyEntry>> entries = cache.getAdvancedCache().cacheEntrySet().stream()
+                .distributedBatchSize(batchSize);
+        // The entries are mapped on this node, because the operations of a cache stream are sent to the owners.
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries.iterator(), Spliterator.ORDERED), false)
+                .map(entry -> new ScannedEntry(entry.getValue(), timeToLive(entry, System.currentTimeMillis())))
+                .onClose(entries::close);
+    }
+
+    private static Duration timeToLive(CacheEntry<String, IdempotencyEntry> entry, long nowMillis) {
+        if (entry.getLifespan() < 0 || entry.getCreated() < 0) {
+            return null;
+        }
+        return Duration.ofMillis(Math.max(0, entry.getCreated() + entry.getLifespan() - nowMillis));
+    }
+
+    private long lifespan(Duration expiry) {
+        return Optional.ofNullable(expiry).orElse(this.expiry).toMillis();
+    }
+
     public void setExpiry(Duration expiry) {
         this.expiry = expiry;
     }
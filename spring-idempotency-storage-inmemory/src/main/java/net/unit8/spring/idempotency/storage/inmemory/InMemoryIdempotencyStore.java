@@ -1,13 +1,28 @@
 package net.unit8.spring.idempotency.storage.inmemory;
 
 import net.unit8.spring.idempotency.*;
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyConstraint;
 import org.springframework.beans.factory.InitializingBean;
 
 import java.time.Duration;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
-public class InMemoryIdempotencyStore implements IdempotencyKeyStore, InitializingBean {
+/**
+ * The idempotency key store in the server memory.
+ *
+ * <p>Keys in the canonical UUID form are kept in a {@link UuidKeyIndex} by their 128 bits.
+ * Other keys are kept in a {@link PassiveExpiringMap} by strings.</p>
+ *
+ * <p>A scan copies the references to the live entries under the lock, and decodes them as the stream is consumed.</p>
+ *
+ * @author kawasima
+ */
+public class InMemoryIdempotencyStore implements ScannableIdempotencyKeyStore, InitializingBean {
     private PassiveExpiringMap<String, String> map;
+    private UuidKeyIndex<String> uuidIndex;
+    private DefaultIdempotencyKeyConstraint keyConstraint = new DefaultIdempotencyKeyConstraint();
 
     private Duration expiry = Duration.ofDays(1);
     private IdempotencyEntrySerializer entrySerializer = new IdempotencyEntrySerializer() {};
@@ -18,23 +33,140 @@ public class InMemoryIdempotencyStore implements IdempotencyKeyStore, Initializi
 
     @Override
     public IdempotencyEntry getAndSet(String idempotencyKey) {
-        String encodedEntry = map.get(idempotencyKey);
-        if (encodedEntry != null) {
-            return entryDeserializer.apply(idempotencyKey, encodedEntry);
+        return getAndSet(idempotencyKey, null);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        String entry = entrySerializer.apply(IdempotencyEntry.inProgress(idempotencyKey));
+        String encodedEntry;
+        // The maps are not thread-safe, and the check and the claim must be atomic.
+        synchronized (this) {
+            encodedEntry = get(idempotencyKey);
+            if (encodedEntry == null) {
+                put(idempotencyKey, entry, expiry);
+                return null;
+            }
         }
-        String entry = entrySerializer.apply(new IdempotencyEntry(idempotencyKey, null, null));
-        map.put(idempotencyKey, entry);
-        return null;
+        return entryDeserializer.apply(idempotencyKey, encodedEntry);
     }
 
     @Override
     public void save(IdempotencyEntry entry) {
-        map.put(entry.idempotencyKey(), entrySerializer.apply(entry));
+        save(entry, null);
     }
 
     @Override
-    public void delete(String idempotencyKey) {
-        map.remove(idempotencyKey);
+    public void save(IdempotencyEntry entry, Duration expiry) {
+        String encodedEntry = entrySerializer.apply(entry);
+        synchronized (this) {
+            put(entry.idempotencyKey(), encodedEntry, expiry);
+        }
+    }
+
+    @Override
+    public boolean supportsEntryExpiry() {
+        return true;
+    }
+
+    @Override
+    public synchronized void delete(String idempotencyKey) {
+        remove(idempotencyKey);
+    }
+
+    @Override
+    public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        // The batch takes the lock once, and the entries are encoded and decoded outside of it.
+        Map<String, String> claims = new LinkedHashMap<>();
+        for (String idempotencyKey : idempotencyKeys) {
+            claims.computeIfAbsent(idempotencyKey, k -> entrySerializer.apply(IdempotencyEntry.inProgress(k)));
+        }
+        Map<String, String> encodedEntries = new LinkedHashMap<>();
+        synchronized (this) {
+            claims.forEach((idempotencyKey, claim) -> {
+                String encodedEntry = get(idempotencyKey);
+                if (encodedEntry == null) {
+                    put(idempotencyKey, claim, expiry);
+                } else {
+                    encodedEntries.put(idempotencyKey, encodedEntry);
+                }
+            });
+        }
+        Map<String, IdempotencyEntry> existing = new LinkedHashMap<>();
+        encodedEntries.forEach((idempotencyKey, encodedEntry) ->
+                existing.put(idempotencyKey, entryDeserializer.apply(idempotencyKey, encodedEntry)));
+        return existing;
+    }
+
+    @Override
+    public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        Map<String, String> encodedEntries = new LinkedHashMap<>();
+        for (IdempotencyEntry entry : entries) {
+            encodedEntries.put(entry.idempotencyKey(), entrySerializer.apply(entry));
+        }
+        synchronized (this) {
+            encodedEntries.forEach((idempotencyKey, encodedEntry) -> put(idempotencyKey, encodedEntry, expiry));
+        }
+    }
+
+    @Override
+    public synchronized void deleteAll(Collection<String> idempotencyKeys) {
+        for (String idempotencyKey : idempotencyKeys) {
+            remove(idempotencyKey);
+        }
+    }
+
+    @Override
+    public Stream<ScannedEntry> scan(int batchSize) {
+        List<EncodedEntry> encodedEntries = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            uuidIndex.forEach((msb, lsb, encodedEntry, expirationTime) ->
+                    encodedEntries.add(new EncodedEntry(new UUID(msb, lsb).toString(), encodedEntry, expirationTime)), now);
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                encodedEntries.add(new EncodedEntry(entry.getKey(), entry.getValue(), map.expirationTime(entry.getKey())));
+            }
+        }
+        return encodedEntries.stream()
+                .map(encodedEntry -> new ScannedEntry(
+                        entryDeserializer.apply(encodedEntry.idempotencyKey(), encodedEntry.value()),
+                        encodedEntry.expirationTime() >= 0
+                                ? Duration.ofMillis(Math.max(0, encodedEntry.expirationTime() - now))
+                                : null));
+    }
+
+    private String get(String idempotencyKey) {
+        if (keyConstraint.isUuid(idempotencyKey)) {
+            return uuidIndex.get(keyConstraint.mostSignificantBits(idempotencyKey),
+                    keyConstraint.leastSignificantBits(idempotencyKey),
+                    System.currentTimeMillis());
+        }
+        return map.get(idempotencyKey);
+    }
+
+    private void remove(String idempotencyKey) {
+        if (keyConstraint.isUuid(idempotencyKey)) {
+            uuidIndex.remove(keyConstraint.mostSignificantBits(idempotencyKey),
+                    keyConstraint.leastSignificantBits(idempotencyKey));
+        } else {
+            map.remove(idempotencyKey);
+        }
+    }
+
+    private void put(String idempotencyKey, String encodedEntry, Duration expiry) {
+        if (keyConstraint.isUuid(idempotencyKey)) {
+            long now = System.currentTimeMillis();
+            long timeToLive = (expiry != null ? expiry : this.expiry).toMillis();
+            uuidIndex.put(keyConstraint.mostSignificantBits(idempotencyKey),
+                    keyConstraint.leastSignificantBits(idempotencyKey),
+                    encodedEntry,
+                    timeToLive >= 0 && now <= Long.MAX_VALUE - timeToLive ? now + timeToLive : -1L,
+                    now);
+        } else if (expiry != null) {
+            map.put(idempotencyKey, encodedEntry, expiry.toMillis());
+        } else {
+            map.put(idempotencyKey, encodedEntry);
+        }
     }
 
     public void setEntrySerializer(IdempotencyEntrySerializer entrySerializer) {
@@ -49,8 +181,16 @@ public class InMemoryIdempotencyStore implements IdempotencyKeyStore, Initializi
         this.expiry = expiry;
     }
 
+    public void setKeyConstraint(DefaultIdempotencyKeyConstraint keyConstraint) {
+        this.keyConstraint = keyConstraint;
+    }
+
+    private record EncodedEntry(String idempotencyKey, String value, long expirationTime) {
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         this.map = new PassiveExpiringMap<>(expiry.toMillis(), TimeUnit.MILLISECONDS);
+        this.uuidIndex = new UuidKeyIndex<>();
     }
 }
@@ -393,6 +393,31 @@ public class PassiveExpiringMap<K, V>
         return map.put(key, value);
     }
 
+    /**
+     * Add the given key-value pair to this map with the given time-to-live
+     * instead of the one determined by this map's {@link #expiringPolicy}.
+     *
+     * @param key the key
+     * @param value the value
+     * @param timeToLiveMillis the amount of time (in milliseconds) the entry
+     *        is available before it expires. A negative value results in
+     *        an entry that NEVER expires.
+     * @return the previous value associated with the key
+     */
+    public V put(final K key, final V value, final long timeToLiveMillis) {
+        // remove the previous record
+        final long nowMillis = now();
+        removeIfExpired(key, nowMillis);
+
+        // record expiration time of new entry
+        final long expirationTime = timeToLiveMillis >= 0L && nowMillis <= Long.MAX_VALUE - timeToLiveMillis
+                ? nowMillis + timeToLiveMillis
+                : -1L;
+        expirationMap.put(key, Long.valueOf(expirationTime));
+
+        return map.put(key, value);
+    }
+
     @Override
     public void putAll(final Map<? extends K, ? extends V> mapToCopy) {
         for (final Map.Entry<? extends K, ? extends V> entry : mapToCopy.entrySet()) {
@@ -411,6 +436,17 @@ public class PassiveExpiringMap<K, V>
         return super.remove(key);
     }
 
+    /**
+     * Returns the expiration time of the key.
+     *
+     * @param key the key
+     * @return the expiration time in milliseconds, or a negative value if the key never expires or is absent
+     */
+    public long expirationTime(final Object key) {
+        final Long expirationTime = expirationMap.get(key);
+        return expirationTime != null ? expirationTime.longValue() : -1L;
+    }
+
     /**
      * Removes all entries in the map whose expiration time is less than
      * {@code now}. The exceptions are entries with negative expiration
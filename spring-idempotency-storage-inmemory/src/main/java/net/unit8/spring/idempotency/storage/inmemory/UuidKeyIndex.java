@@ -0,0 +1,228 @@
+package net.unit8.spring.idempotency.storage.inmemory;
+
+/**
+ * An open-addressing hash table keyed by 128-bit UUIDs with expiring entries.
+ *
+ * <p>Keys and expiration times are kept in primitive {@code long} arrays, so an entry costs
+ * three longs and a reference instead of a {@link String} key, a map node and a boxed expiration time.
+ * Collisions are resolved by linear probing. Removed slots are marked by a tombstone, and
+ * expired entries are dropped when they are looked up or when the table is rebuilt.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @param <V> the type of the values
+ */
+public class UuidKeyIndex<V> {
+    private static final Object TOMBSTONE = new Object();
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private long[] expirationTimes;
+    private Object[] values;
+    private int size;
+    private int tombstones;
+
+    public UuidKeyIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity the initial number of slots, rounded up to a power of two
+     */
+    public UuidKeyIndex(int initialCapacity) {
+        allocate(Math.max(2, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1));
+    }
+
+    /**
+     * Get the value of the key.
+     *
+     * @param msb the most significant bits of the key
+     * @param lsb the least significant bits of the key
+     * @param nowMillis the current time in milliseconds
+     * @return the value, or null if the key is absent or expired
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long msb, long lsb, long nowMillis) {
+        int slot = find(msb, lsb);
+        if (slot < 0) {
+            return null;
+        }
+        if (isExpired(slot, nowMillis)) {
+            removeAt(slot);
+            return null;
+        }
+        return (V) values[slot];
+    }
+
+    /**
+     * Put the value of the key.
+     *
+     * @param msb the most significant bits of the key
+     * @param lsb the least significant bits of the key
+     * @param value the value, must not be null
+     * @param expirationTime the expiration time in milliseconds, or a negative value for never
+     * @param nowMillis the current time in milliseconds
+     * @return the previous value that has not expired, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long msb, long lsb, V value, long expirationTime, long nowMillis) {
+        int slot = find(msb, lsb);
+        if (slot >= 0) {
+            V previous = isExpired(slot, nowMillis) ? null : (V) values[slot];
+            values[slot] = value;
+            expirationTimes[slot] = expirationTime;
+            return previous;
+        }
+        if ((size + tombstones + 1) * 4 > values.length * 3) {
+            rebuild(nowMillis);
+        }
+        insert(msb, lsb, value, expirationTime);
+        return null;
+    }
+
+    /**
+     * Remove the key.
+     *
+     * @param msb the most significant bits of the key
+     * @param lsb the least significant bits of the key
+     * @return true if the key has been removed
+     */
+    public boolean remove(long msb, long lsb) {
+        int slot = find(msb, lsb);
+        if (slot < 0) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    /**
+     * Visit the entries that have not expired.
+     *
+     * @param visitor the visitor
+     * @param nowMillis the current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<V> visitor, long nowMillis) {
+        for (int slot = 0; slot < values.length; slot++) {
+            Object value = values[slot];
+            if (value != null && value != TOMBSTONE && !isExpired(slot, nowMillis)) {
+                visitor.visit(mostSigBits[slot], leastSigBits[slot], (V) value, expirationTimes[slot]);
+            }
+        }
+    }
+
+    /**
+     * The number of entries including the expired entries that have not been dropped yet.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The number of slots.
+     */
+    public int capacity() {
+        return values.length;
+    }
+
+    private int find(long msb, long lsb) {
+        int mask = values.length - 1;
+        for (int slot = hash(msb, lsb) & mask; ; slot = (slot + 1) & mask) {
+            Object value = values[slot];
+            if (value == null) {
+                return -1;
+            }
+            if (value != TOMBSTONE && mostSigBits[slot] == msb && leastSigBits[slot] == lsb) {
+                return slot;
+            }
+        }
+    }
+
+    private void insert(long msb, long lsb, Object value, long expirationTime) {
+        int mask = values.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (values[slot] != null && values[slot] != TOMBSTONE) {
+            slot = (slot + 1) & mask;
+        }
+        if (values[slot] == TOMBSTONE) {
+            tombstones--;
+        }
+        mostSigBits[slot] = msb;
+        leastSigBits[slot] = lsb;
+        expirationTimes[slot] = expirationTime;
+        values[slot] = value;
+        size++;
+    }
+
+    private void removeAt(int slot) {
+        values[slot] = TOMBSTONE;
+        size--;
+        tombstones++;
+    }
+
+    private boolean isExpired(int slot, long nowMillis) {
+        long expirationTime = expirationTimes[slot];
+        return expirationTime >= 0 && nowMillis >= expirationTime;
+    }
+
+    /**
+     * Drop tombstones and expired entries, and grow the table if it is still more than half full.
+     */
+    private void rebuild(long nowMillis) {
+        long[] oldMsb = mostSigBits;
+        long[] oldLsb = leastSigBits;
+        long[] oldExpirationTimes = expirationTimes;
+        Object[] oldValues = values;
+
+        int live = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null && oldValues[i] != TOMBSTONE && !isExpired(i, nowMillis)) {
+                live++;
+            }
+        }
+        int capacity = oldValues.length;
+        while ((live + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            Object value = oldValues[i];
+            long expirationTime = oldExpirationTimes[i];
+            if (value != null && value != TOMBSTONE && (expirationTime < 0 || nowMillis < expirationTime)) {
+                insert(oldMsb[i], oldLsb[i], value, expirationTime);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        expirationTimes = new long[capacity];
+        values = new Object[capacity];
+        size = 0;
+        tombstones = 0;
+    }
+
+    /**
+     * A visitor of the entries.
+     *
+     * @param <V> the type of the values
+     */
+    @FunctionalInterface
+    public interface Visitor<V> {
+        void visit(long msb, long lsb, V value, long expirationTime);
+    }
+
+    private static int hash(long msb, long lsb) {
+        // The finalizer of MurmurHash3. Time-based UUIDs are not uniformly distributed.
+        long h = msb * 31 + lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
@@ -1,8 +1,18 @@
 package net.unit8.spring.idempotency.storage.inmemory;
 
 import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyFingerprint;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import net.unit8.spring.idempotency.ScannedEntry;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 class InMemoryIdempotencyStoreTest {
@@ -27,4 +37,61 @@ class InMemoryIdempotencyStoreTest {
                 .hasFieldOrPropertyWithValue("idempotencyKey", "key")
                 .hasFieldOrPropertyWithValue("fingerprint", null);
     }
-}
\ No newline at end of file
+
+    @Test
+    void uuidKey() throws Exception {
+        InMemoryIdempotencyStore sut = new InMemoryIdempotencyStore();
+        sut.afterPropertiesSet();
+        String key = UUID.randomUUID().toString();
+
+        assertThat(sut.getAndSet(key)).isNull();
+        assertThat(sut.getAndSet(key)).isNotNull()
+                .hasFieldOrPropertyWithValue("idempotencyKey", key);
+        assertThat(sut.getAndSet(key.toUpperCase())).isNull();
+        sut.delete(key);
+        assertThat(sut.getAndSet(key)).isNull();
+    }
+
+    @Test
+    void batch() throws Exception {
+        InMemoryIdempotencyStore sut = new InMemoryIdempotencyStore();
+        sut.afterPropertiesSet();
+        String uuidKey = UUID.randomUUID().toString();
+        sut.getAndSet("claimed");
+
+        Map<String, IdempotencyEntry> existing = sut.getAndSetAll(List.of("claimed", "new", uuidKey, "new"));
+        assertThat(existing).containsOnlyKeys("claimed");
+
+        sut.saveAll(List.of(
+                new IdempotencyEntry("new", new IdempotencyFingerprint("fp"), new IdempotencyResponse(201, null, null)),
+                new IdempotencyEntry(uuidKey, null, new IdempotencyResponse(200, null, null))));
+        existing = sut.getAndSetAll(List.of(uuidKey, "new", "other"));
+        assertThat(existing.keySet()).containsExactly(uuidKey, "new");
+        assertThat(existing.get("new").response().status()).isEqualTo(201);
+
+        sut.deleteAll(List.of("claimed", "new", uuidKey, "other"));
+        assertThat(sut.getAndSetAll(List.of("claimed", "new", uuidKey, "other"))).isEmpty();
+    }
+
+    @Test
+    void scan() throws Exception {
+        InMemoryIdempotencyStore sut = new InMemoryIdempotencyStore();
+        sut.afterPropertiesSet();
+        String uuidKey = UUID.randomUUID().toString();
+        sut.getAndSet("string", Duration.ofMinutes(1));
+        sut.save(new IdempotencyEntry(uuidKey, new IdempotencyFingerprint("fp"),
+                new IdempotencyResponse(201, null, "body".getBytes())), Duration.ofHours(1));
+        sut.getAndSet("expired", Duration.ofMillis(1));
+        Thread.sleep(10);
+
+        Map<String, ScannedEntry> scanned;
+        try (Stream<ScannedEntry> entries = sut.scan(10)) {
+            scanned = entries.collect(Collectors.toMap(e -> e.entry().idempotencyKey(), e -> e));
+        }
+        assertThat(scanned).containsOnlyKeys("string", uuidKey);
+        assertThat(scanned.get("string").entry().response()).isNull();
+        assertThat(scanned.get("string").timeToLive()).isBetween(Duration.ofSeconds(50), Duration.ofMinutes(1));
+        assertThat(scanned.get(uuidKey).entry().response().body()).isEqualTo("body".getBytes());
+        assertThat(scanned.get(uuidKey).timeToLive()).isBetween(Duration.ofMinutes(59), Duration.ofHours(1));
+    }
+}
@@ -0,0 +1,81 @@
+package net.unit8.spring.idempotency.storage.inmemory;
+
+import net.unit8.spring.idempotency.defaults.DefaultIdempotencyKeyConstraint;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UuidKeyIndexTest {
+    @Test
+    void putAndGet() {
+        UuidKeyIndex<String> sut = new UuidKeyIndex<>();
+        assertThat(sut.put(1L, 2L, "value", -1L, 0L)).isNull();
+        assertThat(sut.get(1L, 2L, 0L)).isEqualTo("value");
+        assertThat(sut.get(2L, 1L, 0L)).isNull();
+        assertThat(sut.put(1L, 2L, "another", -1L, 0L)).isEqualTo("value");
+        assertThat(sut.size()).isEqualTo(1);
+    }
+
+    @Test
+    void remove() {
+        UuidKeyIndex<String> sut = new UuidKeyIndex<>();
+        sut.put(1L, 2L, "value", -1L, 0L);
+        assertThat(sut.remove(1L, 2L)).isTrue();
+        assertThat(sut.get(1L, 2L, 0L)).isNull();
+        assertThat(sut.remove(1L, 2L)).isFalse();
+        assertThat(sut.size()).isZero();
+    }
+
+    @Test
+    void expiration() {
+        UuidKeyIndex<String> sut = new UuidKeyIndex<>();
+        sut.put(1L, 2L, "value", 100L, 0L);
+        assertThat(sut.get(1L, 2L, 99L)).isEqualTo("value");
+        assertThat(sut.get(1L, 2L, 100L)).isNull();
+        assertThat(sut.put(1L, 2L, "another", 200L, 150L)).isNull();
+    }
+
+    @Test
+    void growAndDropExpired() {
+        UuidKeyIndex<Integer> sut = new UuidKeyIndex<>(4);
+        for (int i = 0; i < 1000; i++) {
+            sut.put(i, ~i, i, i < 500 ? 10L : -1L, 0L);
+        }
+        assertThat(sut.size()).isEqualTo(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(sut.get(i, ~i, 0L)).isEqualTo(i);
+        }
+        for (int i = 1000; i < 2000; i++) {
+            sut.put(i, ~i, i, -1L, 20L);
+        }
+        assertThat(sut.size()).isLessThan(2000);
+        assertThat(sut.get(0, ~0, 20L)).isNull();
+        assertThat(sut.get(999, ~999, 20L)).isEqualTo(999);
+    }
+
+    @Test
+    void tombstonesAreReused() {
+        UuidKeyIndex<Integer> sut = new UuidKeyIndex<>(16);
+        for (int i = 0; i < 10_000; i++) {
+            sut.put(i, i, i, -1L, 0L);
+            sut.remove(i, i);
+        }
+        assertThat(sut.size()).isZero();
+        assertThat(sut.capacity()).isEqualTo(16);
+    }
+
+    @Test
+    void parseUuidKey() {
+        DefaultIdempotencyKeyConstraint constraint = new DefaultIdempotencyKeyConstraint();
+        UUID uuid = UUID.randomUUID();
+        String key = uuid.toString();
+        assertThat(constraint.isUuid(key)).isTrue();
+        assertThat(constraint.mostSignificantBits(key)).isEqualTo(uuid.getMostSignificantBits());
+        assertThat(constraint.leastSignificantBits(key)).isEqualTo(uuid.getLeastSignificantBits());
+        assertThat(constraint.isUuid(key.toUpperCase())).isFalse();
+        assertThat(constraint.isUuid("\"" + key + "\"")).isFalse();
+        assertThat(constraint.isUuid("key")).isFalse();
+    }
+}
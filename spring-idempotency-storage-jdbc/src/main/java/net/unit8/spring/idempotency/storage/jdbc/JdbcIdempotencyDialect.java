@@ -0,0 +1,130 @@
+package net.unit8.spring.idempotency.storage.jdbc;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcOperations;
+
+import java.sql.Timestamp;
+
+/**
+ * Database specific statements for {@link JdbcIdempotencyStore}.
+ *
+ * <p>The claim of an idempotency key inserts an in-progress row, or takes over a row that has already expired.
+ * The claim of a new key is a single statement that reports the number of affected rows,
+ * so that a first request never needs a second round-trip.</p>
+ *
+ * @author kawasima
+ */
+public enum JdbcIdempotencyDialect {
+    /**
+     * H2 (and other databases supporting the SQL standard {@code MERGE} statement).
+     */
+    H2 {
+        @Override
+        public boolean claim(JdbcOperations jdbc, String tableName, String idempotencyKey, Timestamp now, Timestamp expiresAt) {
+            return jdbc.update("MERGE INTO " + tableName + " t"
+                            + " USING (SELECT CAST(? AS VARCHAR(255)) AS idempotency_key,"
+                            + " CAST(? AS TIMESTAMP) AS started_at, CAST(? AS TIMESTAMP) AS expires_at) s"
+                            + " ON t.idempotency_key = s.idempotency_key"
+                            + " WHEN MATCHED AND t.expires_at <= ? THEN UPDATE SET"
+                            + " status = NULL, headers = NULL, body = NULL, etag = NULL, fingerprint = NULL,"
+                            + " started_at = s.started_at, expires_at = s.expires_at"
+                            + " WHEN NOT MATCHED THEN INSERT (idempotency_key, started_at, expires_at)"
+                            + " VALUES (s.idempotency_key, s.started_at, s.expires_at)",
+                    idempotencyKey, now, expiresAt, now) > 0;
+        }
+
+        @Override
+        public int purge(JdbcOperations jdbc, String tableName, Timestamp now, int batchSize) {
+            return jdbc.update("DELETE FROM " + tableName
+                    + " WHERE expires_at <= ? FETCH FIRST ? ROWS ONLY", now, batchSize);
+        }
+    },
+    /**
+     * PostgreSQL 9.5 or later.
+     */
+    POSTGRESQL {
+        @Override
+        public boolean claim(JdbcOperations jdbc, String tableName, String idempotencyKey, Timestamp now, Timestamp expiresAt) {
+            return jdbc.update("INSERT INTO " + tableName + " AS t (idempotency_key, started_at, expires_at) VALUES (?, ?, ?)"
+                            + " ON CONFLICT (idempotency_key) DO UPDATE SET"
+                            + " status = NULL, headers = NULL, body = NULL, etag = NULL, fingerprint = NULL,"
+                            + " started_at = EXCLUDED.started_at, expires_at = EXCLUDED.expires_at"
+                            + " WHERE t.expires_at <= ?",
+                    idempotencyKey, now, expiresAt, now) > 0;
+        }
+
+        @Override
+        public int purge(JdbcOperations jdbc, String tableName, Timestamp now, int batchSize) {
+            return jdbc.update("DELETE FROM " + tableName + " WHERE idempotency_key IN ("
+                    + "SELECT idempotency_key FROM " + tableName
+                    + " WHERE expires_at <= ? ORDER BY expires_at LIMIT ? FOR UPDATE SKIP LOCKED)", now, batchSize);
+        }
+    },
+    /**
+     * MySQL and MariaDB.
+     *
+     * <p>The affected rows of {@code INSERT ... ON DUPLICATE KEY UPDATE} depend on the {@code useAffectedRows}
+     * flag of the driver, so the claim is an insert, followed by a takeover of an expired row only if the key exists.
+     * A first request is still a single statement.</p>
+     */
+    MYSQL {
+        @Override
+        public boolean claim(JdbcOperations jdbc, String tableName, String idempotencyKey, Timestamp now, Timestamp expiresAt) {
+            try {
+                jdbc.update("INSERT INTO " + tableName + " (idempotency_key, started_at, expires_at) VALUES (?, ?, ?)",
+                        idempotencyKey, now, expiresAt);
+                return true;
+            } catch (DuplicateKeyException e) {
+                // Only the rows matching the condition are changed, so the count is the same in found-rows mode.
+                return jdbc.update("UPDATE " + tableName + " SET"
+                                + " status = NULL, headers = NULL, body = NULL, etag = NULL, fingerprint = NULL,"
+                                + " started_at = ?, expires_at = ?"
+                                + " WHERE idempotency_key = ? AND expires_at <= ?",
+                        now, expiresAt, idempotencyKey, now) > 0;
+            }
+        }
+
+        @Override
+        public int purge(JdbcOperations jdbc, String tableName, Timestamp now, int batchSize) {
+            return jdbc.update("DELETE FROM " + tableName
+                    + " WHERE expires_at <= ? ORDER BY expires_at LIMIT ?", now, batchSize);
+        }
+    };
+
+    /**
+     * Claim the idempotency key. A new key is claimed in a single statement.
+     * It may throw {@link DuplicateKeyException} if a concurrent claim has inserted the key first,
+     * or another {@link org.springframework.dao.ConcurrencyFailureException} if the row is contended.
+     *
+     * @return true if the key has been claimed by the caller
+     */
+    public abstract boolean claim(JdbcOperations jdbc, String tableName, String idempotencyKey, Timestamp now, Timestamp expiresAt);
+
+    /**
+     * Delete at most {@code batchSize} expired rows.
+     *
+     * @return the number of deleted rows
+     */
+    public abstract int purge(JdbcOperations jdbc, String tableName, Timestamp now, int batchSize);
+
+    /**
+     * Resolve the dialect from the JDBC database product name.
+     *
+     * @param databaseProductName the value of {@link java.sql.DatabaseMetaData#getDatabaseProductName()}
+     * @return the dialect
+     * @throws IllegalArgumentException if the database is not supported
+     */
+    public static JdbcIdempotencyDialect fromDatabaseProductName(String databaseProductName) {
+        if (databaseProductName != null) {
+            String name = databaseProductName.toLowerCase();
+            if (name.contains("h2")) {
+                return H2;
+            } else if (name.contains("postgres")) {
+                return POSTGRESQL;
+            } else if (name.contains("mysql") || name.contains("mariadb")) {
+                return MYSQL;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported database: " + databaseProductName);
+    }
+}
@@ -0,0 +1,330 @@
+package net.unit8.spring.idempotency.storage.jdbc;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.HeadersCodec;
+import net.unit8.spring.idempotency.IdempotencyFingerprint;
+import net.unit8.spring.idempotency.IdempotencyKeyStore;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The idempotency key store backed by a relational database.
+ *
+ * <p>A first request costs exactly one statement: the claim is an insert-if-absent
+ * statement of the {@link JdbcIdempotencyDialect}. Expired rows are taken over by the claim,
+ * and are purged in bounded batches by a background scheduler.</p>
+ *
+ * <p>The table definitions are provided as {@code schema-h2.sql}, {@code schema-postgresql.sql}
+ * and {@code schema-mysql.sql} in this package.</p>
+ *
+ * @author kawasima
+ */
+public class JdbcIdempotencyStore implements IdempotencyKeyStore, InitializingBean, DisposableBean {
+    private static final Log LOG = LogFactory.getLog(JdbcIdempotencyStore.class);
+    private static final String DEFAULT_TABLE_NAME = "idempotency_entry";
+    private static final int IN_LIST_SIZE = 100;
+    private static final int CLAIM_ATTEMPTS = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+    private JdbcIdempotencyDialect dialect;
+    private String tableName = DEFAULT_TABLE_NAME;
+    private Duration expiry = Duration.ofDays(1);
+    private Duration purgeInterval = Duration.ofMinutes(1);
+    private int purgeBatchSize = 500;
+
+    private String selectSql;
+    private String selectAllSql;
+    private String updateSql;
+    private String insertSql;
+    private String deleteSql;
+    private ScheduledExecutorService purgeScheduler;
+
+    public JdbcIdempotencyStore(DataSource dataSource) {
+        this(new JdbcTemplate(dataSource));
+    }
+
+    public JdbcIdempotencyStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey) {
+        return getAndSet(idempotencyKey, null);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        if (claim(idempotencyKey, now, expiresAt(now, expiry))) {
+            return null;
+        }
+        List<IdempotencyEntry> entries = jdbcTemplate.query(selectSql,
+                (rs, rowNum) -> mapEntry(idempotencyKey, rs), idempotencyKey);
+        // The row may have been purged between the statements. It is treated as in progress.
+        return entries.isEmpty() ? new IdempotencyEntry(idempotencyKey, null, null) : entries.get(0);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry) {
+        save(entry, null);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry, Duration expiry) {
+        Object[] row = rowOf(entry, expiresAt(new Timestamp(System.currentTimeMillis()), expiry));
+        Object[] update = {row[1], row[2], row[3], row[4], row[5], row[6], row[0]};
+        if (jdbcTemplate.update(updateSql, update) > 0) {
+            return;
+        }
+        try {
+            jdbcTemplate.update(insertSql, row);
+        } catch (DuplicateKeyException e) {
+            jdbcTemplate.update(updateSql, update);
+        }
+    }
+
+    @Override
+    public boolean supportsEntryExpiry() {
+        return true;
+    }
+
+    @Override
+    public void delete(String idempotencyKey) {
+        jdbcTemplate.update(deleteSql, idempotencyKey);
+    }
+
+    /**
+     * Claim the keys one statement each, and read the keys that exist in one query.
+     */
+    @Override
+    public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp expiresAt = expiresAt(now, expiry);
+        List<String> existingKeys = new ArrayList<>();
+        for (String idempotencyKey : new LinkedHashSet<>(idempotencyKeys)) {
+            if (!claim(idempotencyKey, now, expiresAt)) {
+                existingKeys.add(idempotencyKey);
+            }
+        }
+        Map<String, IdempotencyEntry> found = new HashMap<>();
+        for (int from = 0; from < existingKeys.size(); from += IN_LIST_SIZE) {
+            List<String> chunk = existingKeys.subList(from, Math.min(from + IN_LIST_SIZE, existingKeys.size()));
+            jdbcTemplate.query(selectAllSql + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                    rs -> {
+                        String idempotencyKey = rs.getString("idempotency_key");
+                        found.put(idempotencyKey, mapEntry(idempotencyKey, rs));
+                    },
+                    chunk.toArray());
+        }
+        Map<String, IdempotencyEntry> existing = new LinkedHashMap<>();
+        for (String idempotencyKey : existingKeys) {
+            // Purged rows are treated as in progress, as in getAndSet.
+            existing.put(idempotencyKey, found.getOrDefault(idempotencyKey,
+                    new IdempotencyEntry(idempotencyKey, null, null)));
+        }
+        return existing;
+    }
+
+    private boolean claim(String idempotencyKey, Timestamp now, Timestamp expiresAt) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return dialect.claim(jdbcTemplate, tableName, idempotencyKey, now, expiresAt);
+            } catch (DuplicateKeyException e) {
+                // A concurrent request has inserted the key between the check and the insert of the statement.
+                return false;
+            } catch (ConcurrencyFailureException e) {
+                // A concurrent claim holds the row (e.g. "concurrent update" of H2 MVStore, or a deadlock).
+                // The retry sees the committed row. If the row is still contended, the key is in progress.
+                if (attempt >= CLAIM_ATTEMPTS) {
+                    LOG.debug("Contended claim of an idempotency key is treated as in progress", e);
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the rows in one batch, and insert the rows that have not been updated in another.
+     */
+    @Override
+    public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Timestamp expiresAt = expiresAt(new Timestamp(System.currentTimeMillis()), expiry);
+        List<IdempotencyEntry> batch = List.copyOf(entries);
+        List<Object[]> updates = batch.stream()
+                .map(entry -> rowOf(entry, expiresAt))
+                .map(row -> new Object[]{row[1], row[2], row[3], row[4], row[5], row[6], row[0]})
+                .toList();
+        int[] updated = jdbcTemplate.batchUpdate(updateSql, updates);
+        List<IdempotencyEntry> missing = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            // SUCCESS_NO_INFO (-2) is taken as updated, since the rows are normally claimed beforehand.
+            if (updated[i] == 0) {
+                missing.add(batch.get(i));
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(insertSql, missing.stream().map(entry -> rowOf(entry, expiresAt)).toList());
+        } catch (DuplicateKeyException e) {
+            // A concurrent claim has inserted some of the rows. Fall back to one entry at a time.
+            for (IdempotencyEntry entry : missing) {
+                save(entry, expiry);
+            }
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> idempotencyKeys) {
+        if (idempotencyKeys.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(deleteSql, idempotencyKeys.stream()
+                .map(idempotencyKey -> new Object[]{idempotencyKey})
+                .toList());
+    }
+
+    /**
+     * Delete expired rows, {@code purgeBatchSize} rows per statement.
+     *
+     * @return the number of deleted rows
+     */
+    public int purgeExpired() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        int total = 0;
+        int deleted;
+        do {
+            deleted = dialect.purge(jdbcTemplate, tableName, now, purgeBatchSize);
+            total += deleted;
+        } while (deleted >= purgeBatchSize);
+        return total;
+    }
+
+    private void scheduledPurge() {
+        try {
+            purgeExpired();
+        } catch (RuntimeException e) {
+            // Keep the schedule alive, the next run will retry.
+            LOG.warn("Failed to purge expired idempotency entries", e);
+        }
+    }
+
+    /**
+     * The parameters of the insert statement: the key, status, headers, body, etag, fingerprint and expires_at.
+     */
+    private Object[] rowOf(IdempotencyEntry entry, Timestamp expiresAt) {
+        IdempotencyResponse response = entry.response();
+        return new Object[]{
+                entry.idempotencyKey(),
+                response != null ? response.status() : null,
+                response != null ? HeadersCodec.encode(response.headers()) : null,
+                response != null ? response.body() : null,
+                response != null ? response.etag() : null,
+                Objects.toString(entry.fingerprint(), null),
+                expiresAt};
+    }
+
+    private Timestamp expiresAt(Timestamp now, Duration expiry) {
+        return new Timestamp(now.getTime() + (expiry != null ? expiry : this.expiry).toMillis());
+    }
+
+    private IdempotencyEntry mapEntry(String idempotencyKey, ResultSet rs) throws SQLException {
+        int status = rs.getInt("status");
+        IdempotencyResponse response = rs.wasNull() ? null : new IdempotencyResponse(
+                status,
+                HeadersCodec.decode(rs.getBytes("headers")),
+                rs.getBytes("body"),
+                rs.getString("etag"));
+        String fingerprint = rs.getString("fingerprint");
+        Timestamp startedAt = rs.getTimestamp("started_at");
+        return new IdempotencyEntry(idempotencyKey,
+                fingerprint != null ? new IdempotencyFingerprint(fingerprint) : null,
+                response,
+                startedAt != null ? startedAt.toInstant() : null);
+    }
+
+    public void setDialect(JdbcIdempotencyDialect dialect) {
+        this.dialect = dialect;
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public void setExpiry(Duration expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * Set the interval of purging expired rows. Purging is disabled if the interval is null or zero.
+     * @param purgeInterval The interval of purging expired rows.
+     */
+    public void setPurgeInterval(Duration purgeInterval) {
+        this.purgeInterval = purgeInterval;
+    }
+
+    /**
+     * Set the maximum number of rows deleted by a purge statement.
+     * @param purgeBatchSize The maximum number of rows deleted by a purge statement.
+     */
+    public void setPurgeBatchSize(int purgeBatchSize) {
+        this.purgeBatchSize = purgeBatchSize;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws MetaDataAccessException {
+        if (dialect == null) {
+            dialect = JdbcIdempotencyDialect.fromDatabaseProductName(
+                    JdbcUtils.extractDatabaseMetaData(Objects.requireNonNull(jdbcTemplate.getDataSource()),
+                            DatabaseMetaData::getDatabaseProductName));
+        }
+        selectSql = "SELECT status, headers, body, etag, fingerprint, started_at FROM " + tableName + " WHERE idempotency_key = ?";
+        selectAllSql = "SELECT idempotency_key, status, headers, body, etag, fingerprint, started_at FROM " + tableName
+                + " WHERE idempotency_key IN (";
+        updateSql = "UPDATE " + tableName
+                + " SET status = ?, headers = ?, body = ?, etag = ?, fingerprint = ?, expires_at = ? WHERE idempotency_key = ?";
+        insertSql = "INSERT INTO " + tableName
+                + " (idempotency_key, status, headers, body, etag, fingerprint, expires_at) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        deleteSql = "DELETE FROM " + tableName + " WHERE idempotency_key = ?";
+
+        if (purgeInterval != null && !purgeInterval.isZero()) {
+            purgeScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "idempotency-jdbc-purge");
+                thread.setDaemon(true);
+                return thread;
+            });
+            purgeScheduler.scheduleWithFixedDelay(this::scheduledPurge,
+                    purgeInterval.toMillis(), purgeInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (purgeScheduler != null) {
+            purgeScheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package net.unit8.spring.idempotency.storage.jdbc.aot;
+
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * The runtime hints of the JDBC store for native images.
+ *
+ * <p>The table definitions are included as resources, so that they can be run by
+ * {@code spring.sql.init.schema-locations=classpath:net/unit8/spring/idempotency/storage/jdbc/schema-h2.sql}.</p>
+ *
+ * @author kawasima
+ */
+public class JdbcIdempotencyRuntimeHints implements RuntimeHintsRegistrar {
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        hints.resources().registerPattern("net/unit8/spring/idempotency/storage/jdbc/schema-*.sql");
+    }
+}
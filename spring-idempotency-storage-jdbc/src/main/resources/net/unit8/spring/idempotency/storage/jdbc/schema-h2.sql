@@ -0,0 +1,11 @@
+CREATE TABLE IF NOT EXISTS idempotency_entry (
+    idempotency_key VARCHAR(255) NOT NULL PRIMARY KEY,
+    status          INTEGER,
+    headers         BLOB,
+    body            BLOB,
+    etag            VARCHAR(80),
+    fingerprint     VARCHAR(255),
+    started_at      TIMESTAMP,
+    expires_at      TIMESTAMP    NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_idempotency_entry_expires_at ON idempotency_entry (expires_at);
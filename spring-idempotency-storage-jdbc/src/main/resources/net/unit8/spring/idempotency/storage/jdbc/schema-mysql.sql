@@ -0,0 +1,11 @@
+CREATE TABLE IF NOT EXISTS idempotency_entry (
+    idempotency_key VARCHAR(255) NOT NULL PRIMARY KEY,
+    status          INT,
+    headers         BLOB,
+    body            LONGBLOB,
+    etag            VARCHAR(80),
+    fingerprint     VARCHAR(255),
+    started_at      DATETIME(3),
+    expires_at      DATETIME(3)  NOT NULL,
+    INDEX idx_idempotency_entry_expires_at (expires_at)
+);
@@ -0,0 +1,246 @@
+package net.unit8.spring.idempotency.storage.jdbc;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import net.unit8.spring.idempotency.IdempotencyFingerprint;
+import net.unit8.spring.idempotency.IdempotencyResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JdbcIdempotencyStoreTest {
+    EmbeddedDatabase database;
+    AtomicInteger statementCount;
+    JdbcIdempotencyStore sut;
+
+    @BeforeEach
+    void setup() throws Exception {
+        database = new EmbeddedDatabaseBuilder()
+                .generateUniqueName(true)
+                .setType(EmbeddedDatabaseType.H2)
+                .addScript("classpath:net/unit8/spring/idempotency/storage/jdbc/schema-h2.sql")
+                .build();
+        statementCount = new AtomicInteger();
+        sut = new JdbcIdempotencyStore(new StatementCountingDataSource(database, statementCount));
+        sut.setPurgeInterval(Duration.ZERO);
+        sut.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        sut.destroy();
+        database.shutdown();
+    }
+
+    @Test
+    void firstRequestIsOneStatement() {
+        statementCount.set(0);
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(statementCount).hasValue(1);
+    }
+
+    @Test
+    void inProgress() {
+        assertThat(sut.getAndSet("key")).isNull();
+        assertThat(sut.getAndSet("key")).isNotNull()
+                .hasFieldOrPropertyWithValue("idempotencyKey", "key")
+                .hasFieldOrPropertyWithValue("response", null)
+                .extracting(IdempotencyEntry::startedAt).isNotNull();
+    }
+
+    @Test
+    void saveAndReplay() {
+        sut.getAndSet("key");
+        sut.save(new IdempotencyEntry("key",
+                new IdempotencyFingerprint("fp"),
+                new IdempotencyResponse(201, Map.of("content-type", List.of("application/json")), "{}".getBytes(),
+                        "\"201-etag\"")));
+        IdempotencyEntry entry = sut.getAndSet("key");
+        assertThat(entry.fingerprint()).isEqualTo(new IdempotencyFingerprint("fp"));
+        assertThat(entry.response().status()).isEqualTo(201);
+        assertThat(entry.response().headers()).containsEntry("content-type", List.of("application/json"));
+        assertThat(entry.response().body()).isEqualTo("{}".getBytes());
+        assertThat(entry.response().etag()).isEqualTo("\"201-etag\"");
+    }
+
+    @Test
+    void delete() {
+        sut.getAndSet("key");
+        sut.delete("key");
+        assertThat(sut.getAndSet("key")).isNull();
+    }
+
+    @Test
+    void expiredEntryIsClaimedAgain() throws InterruptedException {
+        sut.setExpiry(Duration.ofMillis(1));
+        sut.getAndSet("key");
+        TimeUnit.of(ChronoUnit.MILLIS).sleep(10);
+        assertThat(sut.getAndSet("key")).isNull();
+    }
+
+    @Test
+    void purgeInBatches() throws InterruptedException {
+        sut.setExpiry(Duration.ofMillis(1));
+        sut.setPurgeBatchSize(2);
+        for (int i = 0; i < 5; i++) {
+            sut.getAndSet("key" + i);
+        }
+        TimeUnit.of(ChronoUnit.MILLIS).sleep(10);
+        assertThat(sut.purgeExpired()).isEqualTo(5);
+        assertThat(new JdbcTemplate(database).queryForObject("SELECT COUNT(*) FROM idempotency_entry", Integer.class))
+                .isZero();
+    }
+
+    @Test
+    void batch() {
+        sut.getAndSet("claimed");
+        sut.save(new IdempotencyEntry("done", new IdempotencyFingerprint("fp"),
+                new IdempotencyResponse(201, Map.of(), "ok".getBytes())));
+
+        Map<String, IdempotencyEntry> existing = sut.getAndSetAll(List.of("new-1", "claimed", "done", "new-2", "new-1"));
+        assertThat(existing.keySet()).containsExactly("claimed", "done");
+        assertThat(existing.get("claimed").response()).isNull();
+        assertThat(existing.get("done").response().status()).isEqualTo(201);
+
+        sut.saveAll(List.of(
+                new IdempotencyEntry("new-1", null, new IdempotencyResponse(200, Map.of(), null)),
+                new IdempotencyEntry("unclaimed", null, new IdempotencyResponse(202, Map.of(), null))));
+        existing = sut.getAndSetAll(List.of("new-1", "unclaimed"));
+        assertThat(existing.get("new-1").response().status()).isEqualTo(200);
+        assertThat(existing.get("unclaimed").response().status()).isEqualTo(202);
+
+        sut.deleteAll(List.of("new-1", "new-2", "claimed", "done", "unclaimed"));
+        assertThat(sut.getAndSetAll(List.of("new-1", "new-2", "claimed", "done", "unclaimed"))).isEmpty();
+    }
+
+    @Test
+    void concurrentClaimsOfTheSameKey() throws Exception {
+        assertSingleClaimPerKey(sut);
+    }
+
+    @Test
+    void concurrentClaimsOfTheSameKeyWithMySqlStatements() throws Exception {
+        // The statements of the MySQL dialect are portable, so they are checked against H2 as well.
+        JdbcIdempotencyStore mysql = new JdbcIdempotencyStore(database);
+        mysql.setDialect(JdbcIdempotencyDialect.MYSQL);
+        mysql.setPurgeInterval(Duration.ZERO);
+        mysql.afterPropertiesSet();
+        assertSingleClaimPerKey(mysql);
+
+        assertThat(mysql.getAndSet("expiring", Duration.ofMillis(500))).isNull();
+        assertThat(mysql.getAndSet("expiring", Duration.ofMillis(500))).isNotNull();
+        TimeUnit.of(ChronoUnit.MILLIS).sleep(600);
+        assertThat(mysql.getAndSet("expiring")).isNull();
+    }
+
+    @Test
+    void contendedClaimIsRetried() throws Exception {
+        AtomicInteger failures = new AtomicInteger(1);
+        JdbcIdempotencyStore store = new JdbcIdempotencyStore(new ContendedJdbcTemplate(database, failures));
+        store.setPurgeInterval(Duration.ZERO);
+        store.afterPropertiesSet();
+
+        assertThat(store.getAndSet("key")).isNull();
+        assertThat(failures).hasValue(0);
+
+        failures.set(Integer.MAX_VALUE);
+        assertThat(store.getAndSet("contended")).isNotNull()
+                .hasFieldOrPropertyWithValue("response", null);
+    }
+
+    private static void assertSingleClaimPerKey(JdbcIdempotencyStore store) throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < 20; i++) {
+                String idempotencyKey = "concurrent-" + i;
+                CyclicBarrier barrier = new CyclicBarrier(threads);
+                List<Future<IdempotencyEntry>> results = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    results.add(executor.submit(() -> {
+                        barrier.await();
+                        return store.getAndSet(idempotencyKey);
+                    }));
+                }
+                int claimed = 0;
+                for (Future<IdempotencyEntry> result : results) {
+                    if (result.get(10, TimeUnit.SECONDS) == null) {
+                        claimed++;
+                    }
+                }
+                assertThat(claimed).as(idempotencyKey).isEqualTo(1);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fails the claim statements with a concurrency failure, as H2 MVStore does for a concurrent update of a row.
+     */
+    static class ContendedJdbcTemplate extends JdbcTemplate {
+        private final AtomicInteger failures;
+
+        ContendedJdbcTemplate(EmbeddedDatabase database, AtomicInteger failures) {
+            super(database);
+            this.failures = failures;
+        }
+
+        @Override
+        public int update(String sql, Object... args) {
+            if (sql.startsWith("MERGE") && failures.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) {
+                throw new CannotAcquireLockException("Concurrent update");
+            }
+            return super.update(sql, args);
+        }
+    }
+
+    static class StatementCountingDataSource extends DelegatingDataSource {
+        private final AtomicInteger statementCount;
+
+        StatementCountingDataSource(EmbeddedDatabase database, AtomicInteger statementCount) {
+            super(database);
+            this.statementCount = statementCount;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Connection connection = super.getConnection();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (List.of("prepareStatement", "createStatement", "prepareCall").contains(method.getName())) {
+                            statementCount.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+}
@@ -1,17 +1,36 @@
 package net.unit8.spring.idempotency.storage.redis;
 
 import net.unit8.spring.idempotency.*;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.BoundValueOperations;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Ensure idempotency for inbound request.
  *
+ * <p>A scan iterates the string keys that match the scan pattern with {@code SCAN},
+ * and reads each batch of keys with their TTLs in a pipeline. Values that are not idempotency entries are skipped.</p>
+ *
  * @author kawasima
  */
-public class RedisInboundIdempotency implements IdempotencyKeyStore {
+public class RedisInboundIdempotency implements ScannableIdempotencyKeyStore {
     private final RedisTemplate<String, String> redisTemplate;
     private IdempotencyEntrySerializer entrySerializer = new IdempotencyEntrySerializer() {};
     private IdempotencyEntryDeserializer entryDeserializer = new IdempotencyEntryDeserializer() {};
+    private Duration expiry;
+    private String scanPattern = "*";
 
     public RedisInboundIdempotency(RedisTemplate<String, String> redisTemplate) {
         this.redisTemplate = redisTemplate;
@@ -19,21 +38,43 @@ public class RedisInboundIdempotency implements IdempotencyKeyStore {
 
     @Override
     public IdempotencyEntry getAndSet(String idempotencyKey) {
-        IdempotencyEntry entry = new IdempotencyEntry(idempotencyKey, null, null);
-        if (redisTemplate.boundValueOps(idempotencyKey)
-                .setIfAbsent(entrySerializer.apply(entry))) {
+        return getAndSet(idempotencyKey, null);
+    }
+
+    @Override
+    public IdempotencyEntry getAndSet(String idempotencyKey, Duration expiry) {
+        IdempotencyEntry entry = IdempotencyEntry.inProgress(idempotencyKey);
+        Duration timeout = expiry != null ? expiry : this.expiry;
+        BoundValueOperations<String, String> ops = redisTemplate.boundValueOps(idempotencyKey);
+        Boolean claimed = timeout != null
+                ? ops.setIfAbsent(entrySerializer.apply(entry), timeout)
+                : ops.setIfAbsent(entrySerializer.apply(entry));
+        if (Boolean.TRUE.equals(claimed)) {
             return null;
         } else {
-            String value = redisTemplate.boundValueOps(idempotencyKey)
-                    .get();
-            return entryDeserializer.apply(idempotencyKey, value);
+            return decodeExisting(idempotencyKey, ops.get());
         }
     }
 
     @Override
     public void save(IdempotencyEntry entry) {
-        redisTemplate.boundValueOps(entry.idempotencyKey())
-                .set(entrySerializer.apply(entry));
+        save(entry, null);
+    }
+
+    @Override
+    public void save(IdempotencyEntry entry, Duration expiry) {
+        Duration timeout = expiry != null ? expiry : this.expiry;
+        BoundValueOperations<String, String> ops = redisTemplate.boundValueOps(entry.idempotencyKey());
+        if (timeout != null) {
+            ops.set(entrySerializer.apply(entry), timeout);
+        } else {
+            ops.set(entrySerializer.apply(entry));
+        }
+    }
+
+    @Override
+    public boolean supportsEntryExpiry() {
+        return true;
     }
 
     @Override
@@ -41,6 +82,175 @@ public class RedisInboundIdempotency implements IdempotencyKeyStore {
         redisTemplate.delete(idempotencyKey);
     }
 
+    /**
+     * Claim the keys in a pipeline of {@code SET NX}, and read the keys that exist in one {@code MGET}.
+     * A batch costs two round trips regardless of its size.
+     */
+    @Override
+    public Map<String, IdempotencyEntry> getAndSetAll(Collection<String> idempotencyKeys, Duration expiry) {
+        List<String> keys = new ArrayList<>(new LinkedHashSet<>(idempotencyKeys));
+        if (keys.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        Duration timeout = expiry != null ? expiry : this.expiry;
+        List<String> claims = keys.stream()
+                .map(key -> entrySerializer.apply(IdempotencyEntry.inProgress(key)))
+                .toList();
+        List<Object> claimed = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                ValueOperations<String, String> ops = (ValueOperations<String, String>) operations.opsForValue();
+                for (int i = 0; i < keys.size(); i++) {
+                    if (timeout != null) {
+                        ops.setIfAbsent(keys.get(i), claims.get(i), timeout);
+                    } else {
+                        ops.setIfAbsent(keys.get(i), claims.get(i));
+                    }
+                }
+                return null;
+            }
+        });
+
+        List<String> existingKeys = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (!Boolean.TRUE.equals(claimed.get(i))) {
+                existingKeys.add(keys.get(i));
+            }
+        }
+        Map<String, IdempotencyEntry> existing = new LinkedHashMap<>();
+        if (existingKeys.isEmpty()) {
+            return existing;
+        }
+        List<String> values = redisTemplate.opsForValue().multiGet(existingKeys);
+        for (int i = 0; i < existingKeys.size(); i++) {
+            String key = existingKeys.get(i);
+            existing.put(key, decodeExisting(key, values != null ? values.get(i) : null));
+        }
+        return existing;
+    }
+
+    @Override
+    public void saveAll(Collection<IdempotencyEntry> entries, Duration expiry) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Duration timeout = expiry != null ? expiry : this.expiry;
+        Map<String, String> encodedEntries = new LinkedHashMap<>();
+        for (IdempotencyEntry entry : entries) {
+            encodedEntries.put(entry.idempotencyKey(), entrySerializer.apply(entry));
+        }
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                ValueOperations<String, String> ops = (ValueOperations<String, String>) operations.opsForValue();
+                encodedEntries.forEach((key, value) -> {
+                    if (timeout != null) {
+                        ops.set(key, value, timeout);
+                    } else {
+                        ops.set(key, value);
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void deleteAll(Collection<String> idempotencyKeys) {
+        if (!idempotencyKeys.isEmpty()) {
+            redisTemplate.delete(idempotencyKeys);
+        }
+    }
+
+    @Override
+    public Stream<ScannedEntry> scan(int batchSize) {
+        Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions()
+                .match(scanPattern)
+                .type(DataType.STRING)
+                .count(batchSize)
+                .build());
+        Iterator<List<String>> batches = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public List<String> next() {
+                List<String> keys = new ArrayList<>(batchSize);
+                while (keys.size() < batchSize && cursor.hasNext()) {
+                    keys.add(cursor.next());
+                }
+                return keys;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED), false)
+                .flatMap(this::fetch)
+                .onClose(cursor::close);
+    }
+
+    /**
+     * Read the values and the TTLs of the keys in one round trip.
+     */
+    private Stream<ScannedEntry> fetch(List<String> keys) {
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (String key : keys) {
+                    ops.opsForValue().get(key);
+                    ops.getExpire(key, TimeUnit.MILLISECONDS);
+                }
+                return null;
+            }
+        });
+        List<ScannedEntry> entries = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (!(results.get(i * 2) instanceof String value)) {
+                // Deleted or expired since it has been scanned
+                continue;
+            }
+            IdempotencyEntry entry;
+            try {
+                entry = entryDeserializer.apply(keys.get(i), value);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            Long ttl = (Long) results.get(i * 2 + 1);
+            entries.add(new ScannedEntry(entry, ttl != null && ttl >= 0 ? Duration.ofMillis(ttl) : null));
+        }
+        return entries.stream();
+    }
+
+    /**
+     * Set the pattern of the keys to scan. All keys by default.
+     * @param scanPattern The glob-style pattern of {@code SCAN MATCH}.
+     */
+    public void setScanPattern(String scanPattern) {
+        this.scanPattern = scanPattern;
+    }
+
+    /**
+     * Set the default expiry of idempotency keys. Keys never expire if it is null.
+     * @param expiry The default expiry of idempotency keys.
+     */
+    public void setExpiry(Duration expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * Decode the value of a key that could not be claimed. The key may have expired or been deleted
+     * between the {@code SET NX} and the read, and then it is treated as in progress.
+     */
+    private IdempotencyEntry decodeExisting(String idempotencyKey, String value) {
+        return value != null
+                ? entryDeserializer.apply(idempotencyKey, value)
+                : new IdempotencyEntry(idempotencyKey, null, null);
+    }
+
     /**
      * Set the serializer for idempotency entry.
      * @param entrySerializer The serializer for idempotency entry.
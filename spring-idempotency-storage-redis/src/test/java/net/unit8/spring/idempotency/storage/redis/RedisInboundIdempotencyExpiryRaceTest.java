@@ -0,0 +1,81 @@
+package net.unit8.spring.idempotency.storage.redis;
+
+import net.unit8.spring.idempotency.IdempotencyEntry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.BoundValueOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The key exists when {@code SET NX} is sent, and has expired when it is read.
+ */
+class RedisInboundIdempotencyExpiryRaceTest {
+    private final RedisInboundIdempotency sut = new RedisInboundIdempotency(new ExpiringTemplate());
+
+    @Test
+    void getAndSet() {
+        IdempotencyEntry entry = sut.getAndSet("a");
+        assertThat(entry.idempotencyKey()).isEqualTo("a");
+        assertThat(entry.response()).isNull();
+    }
+
+    @Test
+    void getAndSetAll() {
+        Map<String, IdempotencyEntry> existing = sut.getAndSetAll(List.of("a", "b"), Duration.ofMinutes(1));
+        assertThat(existing).containsOnlyKeys("a", "b");
+        assertThat(existing.values()).allSatisfy(entry -> assertThat(entry.response()).isNull());
+    }
+
+    /**
+     * Every {@code SET NX} fails, and every read finds nothing.
+     */
+    static class ExpiringTemplate extends RedisTemplate<String, String> {
+        @Override
+        public List<Object> executePipelined(SessionCallback<?> session) {
+            List<Object> results = new ArrayList<>();
+            session.execute(new RedisTemplate<String, String>() {
+                @Override
+                public ValueOperations<String, String> opsForValue() {
+                    return stub(ValueOperations.class, () -> results.add(false));
+                }
+            });
+            return results;
+        }
+
+        @Override
+        public ValueOperations<String, String> opsForValue() {
+            return stub(ValueOperations.class, () -> { });
+        }
+
+        @Override
+        public BoundValueOperations<String, String> boundValueOps(String key) {
+            return stub(BoundValueOperations.class, () -> { });
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T stub(Class<?> type, Runnable onSetIfAbsent) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) ->
+                    switch (method.getName()) {
+                        case "setIfAbsent" -> {
+                            onSetIfAbsent.run();
+                            yield false;
+                        }
+                        case "multiGet" -> {
+                            List<String> values = new ArrayList<>();
+                            ((Iterable<?>) args[0]).forEach(key -> values.add(null));
+                            yield values;
+                        }
+                        default -> null;
+                    });
+        }
+    }
+}